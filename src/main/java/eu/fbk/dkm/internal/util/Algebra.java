@@ -28,6 +28,7 @@ import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.impl.URIImpl;
 import org.openrdf.model.vocabulary.FN;
 import org.openrdf.query.BindingSet;
@@ -57,6 +58,7 @@ import org.openrdf.query.algebra.Not;
 import org.openrdf.query.algebra.Projection;
 import org.openrdf.query.algebra.ProjectionElemList;
 import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.QueryRoot;
 import org.openrdf.query.algebra.Reduced;
 import org.openrdf.query.algebra.SingletonSet;
 import org.openrdf.query.algebra.StatementPattern;
@@ -70,8 +72,18 @@ import org.openrdf.query.algebra.ValueConstant;
 import org.openrdf.query.algebra.ValueExpr;
 import org.openrdf.query.algebra.Var;
 import org.openrdf.query.algebra.ZeroLengthPath;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
 import org.openrdf.query.algebra.evaluation.TripleSource;
+import org.openrdf.query.algebra.evaluation.impl.BindingAssigner;
+import org.openrdf.query.algebra.evaluation.impl.CompareOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.ConjunctiveConstraintSplitter;
+import org.openrdf.query.algebra.evaluation.impl.ConstantOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.DisjunctiveConstraintOptimizer;
 import org.openrdf.query.algebra.evaluation.impl.EvaluationStrategyImpl;
+import org.openrdf.query.algebra.evaluation.impl.FilterOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.IterativeEvaluationOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.QueryModelNormalizer;
+import org.openrdf.query.algebra.evaluation.impl.SameTermFilterOptimizer;
 import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
 import org.openrdf.query.impl.DatasetImpl;
 import org.openrdf.query.parser.sparql.SPARQLParser;
@@ -378,6 +390,60 @@ public final class Algebra
      */
     public static Value evaluateValueExpr(final ValueExpr expr, final BindingSet bindings,
             final ValueFactory valueFactory) throws QueryEvaluationException
+    {
+        return newDataFreeStrategy(valueFactory).evaluate(expr, bindings);
+    }
+
+    /**
+     * Prepares an algebraic expression for repeated evaluation with the bindings specified. The
+     * method returns an optimized copy of the supplied expression, where variables bound by the
+     * bindings are replaced with constants and the binding-independent rewritings applied by
+     * Sesame before evaluation (constant folding, filter splitting and push-down, comparison and
+     * <tt>sameTerm</tt> rewritings, normalization) are performed once and for all. Rewritings
+     * depending on data statistics, such as join reordering, are left to the evaluation engine.
+     * The returned expression produces the same results as the supplied one, when evaluated with
+     * the same bindings.
+     * 
+     * @param expr
+     *            the expression to prepare, not modified by the method
+     * @param dataset
+     *            the dataset the expression will be evaluated on, possibly null
+     * @param bindings
+     *            the bindings the expression will be evaluated with
+     * @return the prepared expression
+     */
+    public static TupleExpr prepareTupleExpr(final TupleExpr expr,
+            @Nullable final Dataset dataset, final BindingSet bindings)
+    {
+        final QueryRoot root = new QueryRoot(expr.clone());
+        final EvaluationStrategy strategy = newDataFreeStrategy(ValueFactoryImpl.getInstance());
+
+        new BindingAssigner().optimize(root, dataset, bindings);
+        new ConstantOptimizer(strategy).optimize(root, dataset, bindings);
+        new CompareOptimizer().optimize(root, dataset, bindings);
+        new ConjunctiveConstraintSplitter().optimize(root, dataset, bindings);
+        new DisjunctiveConstraintOptimizer().optimize(root, dataset, bindings);
+        new SameTermFilterOptimizer().optimize(root, dataset, bindings);
+        new QueryModelNormalizer().optimize(root, dataset, bindings);
+        new IterativeEvaluationOptimizer().optimize(root, dataset, bindings);
+        new FilterOptimizer().optimize(root, dataset, bindings);
+
+        final TupleExpr result = root.getArg();
+        result.setParentNode(null);
+        return result;
+    }
+
+    /**
+     * Creates an evaluation strategy not backed by any data, which can be used to evaluate
+     * multiple times <tt>ValueExpr</tt> not referring to data (e.g., filter conditions) without
+     * the overhead of instantiating a new strategy for each evaluation. Expressions accessing
+     * data, such as <tt>EXISTS</tt> conditions, are evaluated on an empty dataset.
+     * 
+     * @param valueFactory
+     *            the value factory used to create new nodes
+     * @return the created evaluation strategy
+     */
+    public static EvaluationStrategy newDataFreeStrategy(final ValueFactory valueFactory)
     {
         return new EvaluationStrategyImpl(new TripleSource() {
 
@@ -395,7 +461,7 @@ public final class Algebra
                 return new EmptyIteration<Statement, QueryEvaluationException>();
             }
 
-        }, null).evaluate(expr, bindings);
+        }, null);
     }
 
     /**
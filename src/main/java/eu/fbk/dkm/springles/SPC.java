@@ -72,6 +72,9 @@ public final class SPC
     /** Predicate <tt>:hasMaxTransactionIdleTime</tt>. */
     public static final URI HAS_MAX_TRANSACTION_IDLE_TIME = create("hasMaxTransactionIdleTime");
 
+    /** Predicate <tt>:hasMaxInferenceThreads</tt>. */
+    public static final URI HAS_MAX_INFERENCE_THREADS = create("hasMaxInferenceThreads");
+
     /** Predicate <tt>:hasPreInferenceInterceptors</tt>. */
     public static final URI HAS_PRE_INFERENCE_INTERCEPTORS = create("hasPreInferenceInterceptors");
 
@@ -141,6 +144,9 @@ public final class SPC
     /** Class <tt>:NaiveRuleInferencer</tt>. */
     public static final URI NAIVE_INFERENCER = create("NaiveInferencer");
 
+    /** Class <tt>:SemiNaiveInferencer</tt>. */
+    public static final URI SEMI_NAIVE_INFERENCER = create("SemiNaiveInferencer");
+
     /** Class <tt>:TestInferencer</tt>. */
     public static final URI TEST_INFERENCER = create("TestInferencer");
     
@@ -150,6 +156,24 @@ public final class SPC
     /** Integer property <tt>:hasMaxConcurrentRules</tt> (for {@link #NAIVE_INFERENCER}). */
     public static final URI HAS_MAX_CONCURRENT_RULES = create("hasMaxConcurrentRules");
 
+    /** Integer property <tt>:hasMaxBackwardDepth</tt> (for {@link #NAIVE_INFERENCER}). */
+    public static final URI HAS_MAX_BACKWARD_DEPTH = create("hasMaxBackwardDepth");
+
+    /** Integer property <tt>:hasMaxBufferSize</tt> (for {@link #NAIVE_INFERENCER}). */
+    public static final URI HAS_MAX_BUFFER_SIZE = create("hasMaxBufferSize");
+
+    /** Integer property <tt>:hasMaxPendingFlushes</tt> (for {@link #NAIVE_INFERENCER}). */
+    public static final URI HAS_MAX_PENDING_FLUSHES = create("hasMaxPendingFlushes");
+
+    /** Integer property <tt>:hasMaxDeltaSize</tt> (for {@link #SEMI_NAIVE_INFERENCER}). */
+    public static final URI HAS_MAX_DELTA_SIZE = create("hasMaxDeltaSize");
+
+    /**
+     * String property <tt>:hasEqualityMode</tt> (for {@link #NAIVE_INFERENCER}), with values
+     * <tt>none</tt>, <tt>canonical</tt> and <tt>materialized</tt>.
+     */
+    public static final URI HAS_EQUALITY_MODE = create("hasEqualityMode");
+
     /** String property <tt>:hasBindings</tt> (for {@link #NAIVE_INFERENCER}). */
     public static final URI HAS_BINDINGS = create("hasBindings");
 
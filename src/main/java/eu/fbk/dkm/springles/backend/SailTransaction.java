@@ -4,6 +4,7 @@ import java.net.URL;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 
@@ -60,11 +61,14 @@ public class SailTransaction extends AbstractBackendTransaction {
 
     private final SailConnection connection;
 
+    private final ReentrantReadWriteLock lock;
+
     public SailTransaction(final String id, final SailConnection connection,
             final ValueFactory valueFactory) {
         super(id, valueFactory);
         Preconditions.checkNotNull(connection);
         this.connection = connection;
+        this.lock = new ReentrantReadWriteLock();
         try {
 			this.connection.begin();
 		} catch (SailException e) {
@@ -79,27 +83,34 @@ public class SailTransaction extends AbstractBackendTransaction {
     }
 
     @Override
-    public synchronized String getNamespace(final String prefix) throws RepositoryException {
+    public String getNamespace(final String prefix) throws RepositoryException {
+        this.lock.readLock().lock();
         try {
             return this.connection.getNamespace(prefix);
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.readLock().unlock();
         }
     }
 
     @Override
-    public synchronized CloseableIteration<? extends Namespace, RepositoryException> getNamespaces()
+    public CloseableIteration<? extends Namespace, RepositoryException> getNamespaces()
             throws RepositoryException {
+        this.lock.readLock().lock();
         try {
             return Iterations.asRepositoryIteration(this.connection.getNamespaces());
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.readLock().unlock();
         }
     }
 
     @Override
-    public synchronized void setNamespace(final String prefix, @Nullable final String name)
+    public void setNamespace(final String prefix, @Nullable final String name)
             throws RepositoryException {
+        this.lock.writeLock().lock();
         try {
             if (name != null) {
                 this.connection.setNamespace(prefix, name);
@@ -108,15 +119,20 @@ public class SailTransaction extends AbstractBackendTransaction {
             }
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    public synchronized void clearNamespaces() throws RepositoryException {
+    public void clearNamespaces() throws RepositoryException {
+        this.lock.writeLock().lock();
         try {
             this.connection.clearNamespaces();
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
@@ -152,16 +168,18 @@ public class SailTransaction extends AbstractBackendTransaction {
     public <T> T query(final QuerySpec<T> query, @Nullable final Dataset dataset,
             @Nullable final BindingSet bindings, final InferenceMode mode, final int timeout)
             throws QueryEvaluationException, RepositoryException {
-        // Issue the query. Synchronization needed to access Sail connection.
+        // Issue the query. The read lock suffices, as the Sail connection supports concurrent
+        // evaluations (possibly serializing them internally).
         CloseableIteration<? extends BindingSet, QueryEvaluationException> iteration;
-        synchronized (this) {
-            try {
-                iteration = this.connection.evaluate(query.getExpression(),
-                        dataset != null ? dataset : query.getDataset(),
-                        bindings != null ? bindings : EMPTY_BINDINGS, false);
-            } catch (final SailException ex) {
-                throw new RepositoryException(ex);
-            }
+        this.lock.readLock().lock();
+        try {
+            iteration = this.connection.evaluate(query.getExpression(),
+                    dataset != null ? dataset : query.getDataset(),
+                    bindings != null ? bindings : EMPTY_BINDINGS, false);
+        } catch (final SailException ex) {
+            throw new RepositoryException(ex);
+        } finally {
+            this.lock.readLock().unlock();
         }
 
         // Enforce timeout (code taken from SailQuery implementation).
@@ -192,61 +210,75 @@ public class SailTransaction extends AbstractBackendTransaction {
     }
 
     @Override
-    public synchronized CloseableIteration<? extends Resource, RepositoryException> getContextIDs(
+    public CloseableIteration<? extends Resource, RepositoryException> getContextIDs(
             final InferenceMode mode) throws RepositoryException {
+        this.lock.readLock().lock();
         try {
             return Iterations.asRepositoryIteration(this.connection.getContextIDs());
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.readLock().unlock();
         }
     }
 
     @Override
-    public synchronized CloseableIteration<? extends Statement, RepositoryException> getStatements(
+    public CloseableIteration<? extends Statement, RepositoryException> getStatements(
             @Nullable final Resource subj, @Nullable final URI pred, @Nullable final Value obj,
             final InferenceMode mode, final Resource... contexts) throws RepositoryException {
+        this.lock.readLock().lock();
         try {
             return Iterations.asRepositoryIteration(this.connection.getStatements(subj, pred, obj,
                     false, contexts));
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.readLock().unlock();
         }
     }
 
     @Override
-    public synchronized boolean hasStatement(@Nullable final Resource subj,
+    public boolean hasStatement(@Nullable final Resource subj,
             @Nullable final URI pred, @Nullable final Value obj, final InferenceMode mode,
             final Resource... contexts) throws RepositoryException {
         return Iterations.getFirst(getStatements(subj, pred, obj, mode, contexts), null) != null;
     }
 
     @Override
-    public synchronized long size(final InferenceMode mode, final Resource... contexts)
+    public long size(final InferenceMode mode, final Resource... contexts)
             throws RepositoryException {
+        this.lock.readLock().lock();
         try {
             return this.connection.size(contexts);
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.readLock().unlock();
         }
     }
 
     @Override
-    public synchronized void update(final UpdateSpec update, @Nullable final Dataset dataset,
+    public void update(final UpdateSpec update, @Nullable final Dataset dataset,
             @Nullable final BindingSet bindings, final InferenceMode mode)
             throws UpdateExecutionException, RepositoryException {
-        final int numCommands = update.getExpressions().size();
-        for (int i = 0; i < numCommands; ++i) {
-            final UpdateExpr expr = update.getExpressions().get(i);
-            final Dataset ds = dataset != null ? dataset : update.getDatasets().get(i);
-            if (expr instanceof Load) {
-                executeLoad((Load) expr);
-            } else {
-                try {
-                    this.connection.startUpdate(new UpdateContext(expr, ds, bindings, false));
-                } catch (final SailException ex) {
-                    throw new RepositoryException(ex.getMessage(), ex);
+        this.lock.writeLock().lock();
+        try {
+            final int numCommands = update.getExpressions().size();
+            for (int i = 0; i < numCommands; ++i) {
+                final UpdateExpr expr = update.getExpressions().get(i);
+                final Dataset ds = dataset != null ? dataset : update.getDatasets().get(i);
+                if (expr instanceof Load) {
+                    executeLoad((Load) expr);
+                } else {
+                    try {
+                        this.connection.startUpdate(new UpdateContext(expr, ds, bindings, false));
+                    } catch (final SailException ex) {
+                        throw new RepositoryException(ex.getMessage(), ex);
+                    }
                 }
             }
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
@@ -312,8 +344,9 @@ public class SailTransaction extends AbstractBackendTransaction {
     }
 
     @Override
-    public synchronized void add(final Iterable<? extends Statement> statements,
+    public void add(final Iterable<? extends Statement> statements,
             final Resource... contexts) throws RepositoryException {
+        this.lock.writeLock().lock();
         try {
             // No other way than adding the statements one at a time.
             if (contexts.length > 0) {
@@ -329,12 +362,15 @@ public class SailTransaction extends AbstractBackendTransaction {
             }
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    public synchronized void remove(final Iterable<? extends Statement> statements,
+    public void remove(final Iterable<? extends Statement> statements,
             final Resource... contexts) throws RepositoryException {
+        this.lock.writeLock().lock();
         try {
             // No other way than removing the statements one at a time.
             if (contexts.length > 0) {
@@ -351,13 +387,16 @@ public class SailTransaction extends AbstractBackendTransaction {
             }
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    public synchronized void remove(@Nullable final Resource subject,
+    public void remove(@Nullable final Resource subject,
             @Nullable final URI predicate, @Nullable final Value object,
             final Resource... contexts) throws RepositoryException {
+        this.lock.writeLock().lock();
         try {
             if (subject == null && predicate == null && object == null) {
                 this.connection.clear(contexts);
@@ -366,30 +405,45 @@ public class SailTransaction extends AbstractBackendTransaction {
             }
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    public synchronized void reset() throws RepositoryException {
+    public void reset() throws RepositoryException {
+        this.lock.writeLock().lock();
         try {
             this.connection.clear();
         } catch (final SailException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    protected synchronized void doEnd(final boolean commit) throws SailException {
-        if (commit) {
-            this.connection.commit();
-        } else {
-            this.connection.rollback();
+    protected void doEnd(final boolean commit) throws SailException {
+        this.lock.writeLock().lock();
+        try {
+            if (commit) {
+                this.connection.commit();
+            } else {
+                this.connection.rollback();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    protected synchronized void doClose() throws SailException {
-        this.connection.close();
+    protected void doClose() throws SailException {
+        this.lock.writeLock().lock();
+        try {
+            this.connection.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
     }
 
 }
@@ -1,5 +1,9 @@
 package eu.fbk.dkm.springles.inferencer;
 
+import java.io.File;
+
+import javax.annotation.Nullable;
+
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
@@ -10,6 +14,9 @@ import eu.fbk.dkm.springles.InferenceMode;
 public abstract class AbstractInferencer implements Inferencer
 {
 
+    @Nullable
+    private File dataDir;
+
     private String inferredContextPrefix;
 
     private InferenceMode inferenceMode;
@@ -17,11 +24,13 @@ public abstract class AbstractInferencer implements Inferencer
     private String configurationDigest;
 
     @Override
-    public final void initialize(final String inferredContextPrefix) throws RepositoryException
+    public final void initialize(@Nullable final File dataDir, final String inferredContextPrefix)
+            throws RepositoryException
     {
         try {
             final Hasher hasher = Hashing.md5().newHasher();
 
+            this.dataDir = dataDir;
             this.inferredContextPrefix = inferredContextPrefix;
             this.inferenceMode = doInitialize(inferredContextPrefix, hasher);
             this.configurationDigest = hasher.hash().toString();
@@ -38,6 +47,12 @@ public abstract class AbstractInferencer implements Inferencer
     protected abstract InferenceMode doInitialize(String inferredContextPrefix, Hasher hasher)
             throws Exception;
 
+    @Nullable
+    protected final File getDataDir()
+    {
+        return this.dataDir;
+    }
+
     protected final String getInferredContextPrefix()
     {
         return this.inferredContextPrefix;
@@ -0,0 +1,750 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.BooleanLiteralImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.ArbitraryLengthPath;
+import org.openrdf.query.algebra.BindingSetAssignment;
+import org.openrdf.query.algebra.Distinct;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Extension;
+import org.openrdf.query.algebra.ExtensionElem;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Group;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.MultiProjection;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.ProjectionElem;
+import org.openrdf.query.algebra.ProjectionElemList;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.SameTerm;
+import org.openrdf.query.algebra.Service;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.StatementPattern.Scope;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.dkm.internal.util.Algebra;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+
+/**
+ * Query-time expander of statement patterns based on the backward rules of a ruleset.
+ * <p>
+ * Each statement pattern of an algebraic expression is replaced by the union of the pattern
+ * itself and of the bodies of the backward rules whose head atoms unify with it; rule bodies
+ * are in turn expanded, up to a maximum depth that bounds recursion and the size of the
+ * rewritten expression. Rule variables are renamed apart and ruleset parameters are replaced
+ * by their values, so that each union branch only shares with the rest of the query the
+ * variables of the expanded pattern. Expansions are computed once per pattern shape (constants,
+ * repeated variables, scope and depth) and kept in a soft-valued cache. Each expanded pattern of
+ * the input node is wrapped in a <tt>DISTINCT</tt> projection on its variables, so that a
+ * statement that is both explicit and derivable, or derivable in several ways, produces a
+ * single solution, as it does when matched against the materialized closure.
+ * </p>
+ * <p>
+ * Patterns in the default scope match the head atoms of backward rules irrespectively of their
+ * context, while patterns in the named scope only match head atoms with an explicit context.
+ * Rules with transformers, rules whose <tt>spr:condition</tt> is false under the ruleset
+ * bindings, rules whose bodies contain sub-queries or inline data, and rules with head
+ * variables not bound by the body are ignored. The <tt>FILTER NOT EXISTS</tt> conditions of
+ * rule bodies that only test for the absence of the head atoms are dropped: in forward
+ * evaluation they merely avoid re-inferring existing statements, while during expansion their
+ * patterns would be expanded too, making derived answers depend on the parity of the depth.
+ * Patterns inside property paths and <tt>SERVICE</tt> clauses are never expanded.
+ * </p>
+ */
+final class BackwardExpander
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackwardExpander.class);
+
+    public static final int DEFAULT_MAX_DEPTH = 3;
+
+    private static final String QUERY_VAR_PREFIX = "_query";
+
+    private static final String RULE_VAR_PREFIX = "_backward";
+
+    private final List<BackwardRule> rules;
+
+    private final int maxDepth;
+
+    private final Cache<List<Object>, Optional<Template>> cache;
+
+    public BackwardExpander(final Ruleset ruleset, final BindingSet rulesetBindings,
+            final int maxDepth)
+    {
+        final Map<String, Var> constants = Maps.newHashMap();
+        for (final String name : rulesetBindings.getBindingNames()) {
+            constants.put(name, new Var(name, rulesetBindings.getValue(name)));
+        }
+
+        final ImmutableList.Builder<BackwardRule> builder = ImmutableList.builder();
+        for (final Resource ruleID : ruleset.getBackwardRuleIDs()) {
+            final BackwardRule rule = BackwardRule.compile(ruleset.getRule(ruleID),
+                    rulesetBindings, constants);
+            if (rule != null) {
+                builder.add(rule);
+            }
+        }
+
+        this.rules = builder.build();
+        this.maxDepth = maxDepth > 0 ? maxDepth : DEFAULT_MAX_DEPTH;
+        this.cache = CacheBuilder.newBuilder().softValues().build();
+    }
+
+    public boolean isEmpty()
+    {
+        return this.rules.isEmpty();
+    }
+
+    public int getMaxDepth()
+    {
+        return this.maxDepth;
+    }
+
+    /**
+     * Expands the statement patterns of the supplied algebraic node (typically a query
+     * expression or an update operation) based on backward rules.
+     *
+     * @param node
+     *            the node to expand, not modified by this method
+     * @param <T>
+     *            the type of node
+     * @return the expanded node, or the input node if no pattern has been expanded
+     */
+    public <T extends QueryModelNode> T expand(final T node)
+    {
+        @SuppressWarnings("unchecked")
+        final T result = (T) node.clone();
+        return expandPatterns(result, this.maxDepth, new int[] { 0 }, true) ? result : node;
+    }
+
+    // distinct projections are needed only at the top level, as nested expansions are filtered
+    // through the ones of the enclosing patterns
+    private boolean expandPatterns(final QueryModelNode root, final int depth,
+            final int[] counter, final boolean distinct)
+    {
+        if (depth <= 0) {
+            return false;
+        }
+
+        final List<StatementPattern> patterns = Lists.newArrayList();
+        root.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final StatementPattern pattern) throws RuntimeException
+            {
+                patterns.add(pattern);
+            }
+
+            @Override
+            public void meet(final ArbitraryLengthPath path) throws RuntimeException
+            {
+                // property paths are left untouched
+            }
+
+            @Override
+            public void meet(final Service service) throws RuntimeException
+            {
+                // remote patterns are left untouched
+            }
+
+        });
+
+        boolean changed = false;
+        for (final StatementPattern pattern : patterns) {
+            if (pattern.getParentNode() != null) {
+                final TupleExpr branches = instantiate(pattern, depth, counter);
+                if (branches != null) {
+                    final Union union = new Union();
+                    pattern.replaceWith(union);
+                    union.setLeftArg(pattern);
+                    union.setRightArg(branches);
+                    if (distinct) {
+                        final ProjectionElemList elems = new ProjectionElemList();
+                        for (final Var var : pattern.getVarList()) {
+                            if (!var.hasValue()
+                                    && !elems.getTargetNames().contains(var.getName())) {
+                                elems.addElement(new ProjectionElem(var.getName()));
+                            }
+                        }
+                        final Distinct wrapper = new Distinct();
+                        union.replaceWith(wrapper);
+                        wrapper.setArg(new Projection(union, elems));
+                    }
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    @Nullable
+    private TupleExpr instantiate(final StatementPattern pattern, final int depth,
+            final int[] counter)
+    {
+        final Var[] vars = new Var[] { pattern.getSubjectVar(), pattern.getPredicateVar(),
+                pattern.getObjectVar(),
+                pattern.getScope() == Scope.NAMED_CONTEXTS ? pattern.getContextVar() : null };
+
+        final List<Object> key = Lists.newArrayList();
+        final Map<String, Integer> indexes = Maps.newHashMap();
+        final Map<String, Var> substitution = Maps.newHashMap();
+        key.add(pattern.getScope());
+        key.add(depth);
+        for (int i = 0; i < 4; ++i) {
+            final Var var = vars[i];
+            if (var == null) {
+                key.add(null);
+            } else if (var.hasValue()) {
+                key.add(var.getValue());
+            } else {
+                Integer index = indexes.get(var.getName());
+                if (index == null) {
+                    index = i;
+                    indexes.put(var.getName(), index);
+                    substitution.put(QUERY_VAR_PREFIX + i, var);
+                }
+                key.add(index);
+            }
+        }
+
+        final Template template = getTemplate(key);
+        if (template == null) {
+            return null;
+        }
+
+        for (final String name : template.internalVars) {
+            substitution.put(name, new Var(RULE_VAR_PREFIX + counter[0]++));
+        }
+        return rename(template.expression, substitution);
+    }
+
+    @Nullable
+    private Template getTemplate(final List<Object> key)
+    {
+        Optional<Template> template = this.cache.getIfPresent(key);
+        if (template == null) {
+            template = Optional.fromNullable(buildTemplate(key));
+            this.cache.put(key, template);
+        }
+        return template.orNull();
+    }
+
+    @Nullable
+    private Template buildTemplate(final List<Object> key)
+    {
+        final int depth = (Integer) key.get(1);
+        final Var[] vars = new Var[4];
+        final Set<String> queryVars = Sets.newHashSet();
+        for (int i = 0; i < 4; ++i) {
+            final Object element = key.get(i + 2);
+            if (element instanceof Value) {
+                vars[i] = new Var(QUERY_VAR_PREFIX + i, (Value) element);
+            } else if (element != null) {
+                vars[i] = new Var(QUERY_VAR_PREFIX + element);
+                queryVars.add(vars[i].getName());
+            }
+        }
+
+        final int[] counter = new int[] { 0 };
+        TupleExpr expression = null;
+        for (final BackwardRule rule : this.rules) {
+            for (int i = 0; i < rule.headAtoms.size(); ++i) {
+                final TupleExpr branch = rule.unify(i, vars, counter);
+                if (branch != null) {
+                    final QueryRoot root = new QueryRoot(branch);
+                    expandPatterns(root, depth - 1, counter, false);
+                    expression = expression == null ? root.getArg() : new Union(expression,
+                            root.getArg());
+                }
+            }
+        }
+
+        if (expression == null) {
+            return null;
+        }
+
+        LOGGER.debug("Computed backward expansion at depth {} for pattern shape {}", depth, key);
+        return new Template(expression, Sets.difference(collectNames(expression), queryVars));
+    }
+
+    private static Set<String> collectNames(final QueryModelNode node)
+    {
+        final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        node.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final Var var) throws RuntimeException
+            {
+                if (!var.hasValue()) {
+                    builder.add(var.getName());
+                }
+            }
+
+            @Override
+            public void meet(final ExtensionElem elem) throws RuntimeException
+            {
+                builder.add(elem.getName());
+                super.meet(elem);
+            }
+
+        });
+        return builder.build();
+    }
+
+    private static <T extends QueryModelNode> T rename(final T node,
+            final Map<String, Var> substitution)
+    {
+        @SuppressWarnings("unchecked")
+        final T result = (T) node.clone();
+        result.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final Var var) throws RuntimeException
+            {
+                if (!var.hasValue()) {
+                    final Var replacement = substitution.get(var.getName());
+                    if (replacement != null) {
+                        var.setName(replacement.getName());
+                        var.setValue(replacement.getValue());
+                        var.setAnonymous(replacement.isAnonymous());
+                    }
+                }
+            }
+
+            @Override
+            public void meet(final ExtensionElem elem) throws RuntimeException
+            {
+                final Var replacement = substitution.get(elem.getName());
+                if (replacement != null) {
+                    elem.setName(replacement.getName());
+                }
+                super.meet(elem);
+            }
+
+        });
+        return result;
+    }
+
+    private static final class Template
+    {
+
+        final TupleExpr expression;
+
+        final Set<String> internalVars;
+
+        Template(final TupleExpr expression, final Set<String> internalVars)
+        {
+            this.expression = expression;
+            this.internalVars = ImmutableSet.copyOf(internalVars);
+        }
+
+    }
+
+    private static final class BackwardRule
+    {
+
+        final Resource id;
+
+        final TupleExpr body;
+
+        final List<StatementPattern> headAtoms;
+
+        final Set<String> ruleVars;
+
+        final Set<String> assignedVars;
+
+        final Set<String> bodyBindingNames;
+
+        private BackwardRule(final Resource id, final TupleExpr body,
+                final List<StatementPattern> headAtoms, final Set<String> ruleVars,
+                final Set<String> assignedVars, final Set<String> bodyBindingNames)
+        {
+            this.id = id;
+            this.body = body;
+            this.headAtoms = headAtoms;
+            this.ruleVars = ruleVars;
+            this.assignedVars = assignedVars;
+            this.bodyBindingNames = bodyBindingNames;
+        }
+
+        @Nullable
+        static BackwardRule compile(final Rule rule, final BindingSet rulesetBindings,
+                final Map<String, Var> constants)
+        {
+            if (rule.getTransform() != null || rule.getBody() == null) {
+                LOGGER.warn("Backward rule {} ignored: rules with transformers or without "
+                        + "body are not supported", rule.getID());
+                return null;
+            }
+
+            if (rule.getCondition() != null) {
+                try {
+                    final Value value = Algebra.evaluateValueExpr(rule.getCondition(),
+                            rulesetBindings, ValueFactoryImpl.getInstance());
+                    if (!(value instanceof Literal) || !((Literal) value).booleanValue()) {
+                        LOGGER.debug("Backward rule {} disabled by its condition", rule.getID());
+                        return null;
+                    }
+                } catch (final QueryEvaluationException ex) {
+                    LOGGER.warn("Backward rule {} ignored: cannot evaluate its condition ({})",
+                            rule.getID(), ex.getMessage());
+                    return null;
+                }
+            }
+
+            final Set<String> assignedVars = Sets.newHashSet();
+            final boolean[] supported = new boolean[] { true };
+            rule.getBody().visit(new QueryModelVisitorBase<RuntimeException>() {
+
+                @Override
+                public void meet(final ExtensionElem elem) throws RuntimeException
+                {
+                    assignedVars.add(elem.getName());
+                    super.meet(elem);
+                }
+
+                @Override
+                protected void meetNode(final QueryModelNode node) throws RuntimeException
+                {
+                    if (node instanceof Projection || node instanceof MultiProjection
+                            || node instanceof Group || node instanceof BindingSetAssignment
+                            || node instanceof Service) {
+                        supported[0] = false;
+                    } else {
+                        super.meetNode(node);
+                    }
+                }
+
+            });
+            if (!supported[0] || !Sets.intersection(assignedVars, constants.keySet()).isEmpty()) {
+                LOGGER.warn("Backward rule {} ignored: sub-queries, inline data and "
+                        + "assignments to ruleset parameters are not supported", rule.getID());
+                return null;
+            }
+
+            final TupleExpr body = Algebra.replaceVariables(
+                    dropHeadGuards(rule.getBody(), rule.getHeadAtoms()), constants);
+            final Set<String> bodyBindingNames = ImmutableSet.copyOf(Sets.difference(rule
+                    .getBody().getBindingNames(), constants.keySet()));
+
+            final List<StatementPattern> headAtoms = Lists.newArrayList();
+            for (final StatementPattern atom : rule.getHeadAtoms()) {
+                final StatementPattern headAtom = Algebra.replaceVariables(atom, constants);
+                for (final Var var : new Var[] { headAtom.getSubjectVar(),
+                        headAtom.getPredicateVar(), headAtom.getObjectVar() }) {
+                    if (!var.hasValue() && !bodyBindingNames.contains(var.getName())) {
+                        LOGGER.warn("Backward rule {} ignored: head variable ?{} not bound "
+                                + "by body", rule.getID(), var.getName());
+                        return null;
+                    }
+                }
+                final Var contextVar = headAtom.getContextVar();
+                if (contextVar != null && !contextVar.hasValue()
+                        && !bodyBindingNames.contains(contextVar.getName())) {
+                    headAtom.setContextVar(null);
+                }
+                headAtoms.add(headAtom);
+            }
+
+            final Set<String> ruleVars = Sets.newHashSet();
+            ruleVars.addAll(collectNames(body));
+            for (final StatementPattern headAtom : headAtoms) {
+                ruleVars.addAll(collectNames(headAtom));
+            }
+
+            return new BackwardRule(rule.getID(), body, ImmutableList.copyOf(headAtoms),
+                    ImmutableSet.copyOf(ruleVars), ImmutableSet.copyOf(assignedVars),
+                    bodyBindingNames);
+        }
+
+        // a guard is a FILTER NOT EXISTS condition, possibly in a conjunction, whose patterns all
+        // match head atoms (ignoring contexts); it is replaced by true
+        private static TupleExpr dropHeadGuards(final TupleExpr body,
+                final List<StatementPattern> headAtoms)
+        {
+            final TupleExpr result = body.clone();
+            final List<Not> guards = Lists.newArrayList();
+            result.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+                @Override
+                public void meet(final Not node) throws RuntimeException
+                {
+                    if (node.getArg() instanceof Exists
+                            && isHeadGuard(((Exists) node.getArg()).getSubQuery(), headAtoms)) {
+                        guards.add(node);
+                    } else {
+                        super.meet(node);
+                    }
+                }
+
+            });
+
+            for (final Not guard : guards) {
+                QueryModelNode parent = guard.getParentNode();
+                while (parent instanceof And) {
+                    parent = parent.getParentNode();
+                }
+                if (parent instanceof Filter) {
+                    guard.replaceWith(new ValueConstant(BooleanLiteralImpl.TRUE));
+                }
+            }
+            return result;
+        }
+
+        private static boolean isHeadGuard(final TupleExpr expr,
+                final List<StatementPattern> headAtoms)
+        {
+            if (expr instanceof Join) {
+                return isHeadGuard(((Join) expr).getLeftArg(), headAtoms)
+                        && isHeadGuard(((Join) expr).getRightArg(), headAtoms);
+            } else if (expr instanceof StatementPattern) {
+                final StatementPattern pattern = (StatementPattern) expr;
+                for (final StatementPattern atom : headAtoms) {
+                    if (sameTerm(pattern.getSubjectVar(), atom.getSubjectVar())
+                            && sameTerm(pattern.getPredicateVar(), atom.getPredicateVar())
+                            && sameTerm(pattern.getObjectVar(), atom.getObjectVar())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean sameTerm(final Var first, final Var second)
+        {
+            return first.hasValue() ? first.getValue().equals(second.getValue()) : !second
+                    .hasValue() && first.getName().equals(second.getName());
+        }
+
+        @Nullable
+        TupleExpr unify(final int atomIndex, final Var[] queryVars, final int[] counter)
+        {
+            final StatementPattern atom = this.headAtoms.get(atomIndex);
+            final Var[] headVars = new Var[] { atom.getSubjectVar(), atom.getPredicateVar(),
+                    atom.getObjectVar(), atom.getContextVar() };
+            if (queryVars[3] != null && headVars[3] == null) {
+                return null;
+            }
+
+            // Unify query and head terms, checking constants are compatible
+
+            final Unifier unifier = new Unifier();
+            for (final String name : this.ruleVars) {
+                unifier.add("r:" + name, null);
+            }
+            for (int i = 0; i < 4; ++i) {
+                if (queryVars[i] != null) {
+                    final String queryTerm = unifier.term("q:", queryVars[i]);
+                    final String headTerm = unifier.term("r:", headVars[i]);
+                    if (!unifier.unify(queryTerm, headTerm)) {
+                        return null;
+                    }
+                }
+            }
+
+            // Compute the substitution for rule variables and the bindings of query variables
+
+            final Map<String, Var> substitution = Maps.newHashMap();
+            final List<ValueExpr> conditions = Lists.newArrayList();
+            final List<ExtensionElem> elems = Lists.newArrayList();
+
+            for (final List<String> members : unifier.classes()) {
+                final Value value = unifier.valueOf(members.get(0));
+                String assignedVar = null;
+                String queryVar = null;
+                for (final String member : members) {
+                    final String name = member.substring(2);
+                    if (assignedVar == null && member.startsWith("r:")
+                            && this.assignedVars.contains(name)) {
+                        assignedVar = name;
+                    } else if (queryVar == null && member.startsWith("q:")) {
+                        queryVar = name;
+                    }
+                }
+
+                Var rep;
+                if (assignedVar != null) {
+                    rep = freshVar(substitution, assignedVar, counter);
+                    if (value != null) {
+                        conditions.add(new SameTerm(rep.clone(), new ValueConstant(value)));
+                    }
+                } else if (value != null) {
+                    rep = new Var(RULE_VAR_PREFIX + counter[0]++, value);
+                } else if (queryVar != null) {
+                    rep = new Var(queryVar);
+                } else {
+                    rep = null;
+                }
+
+                for (final String member : members) {
+                    final String name = member.substring(2);
+                    if (member.startsWith("r:")) {
+                        if (rep == null) {
+                            rep = freshVar(substitution, name, counter);
+                        } else if (assignedVar == null) {
+                            substitution.put(name, rep);
+                        } else if (!name.equals(assignedVar)) {
+                            conditions.add(new SameTerm(rep.clone(), freshVar(substitution,
+                                    name, counter).clone()));
+                        }
+                    } else if (member.startsWith("q:") && !name.equals(rep.getName())) {
+                        final ValueExpr expr = rep.hasValue() ? new ValueConstant(rep
+                                .getValue()) : rep.clone();
+                        elems.add(new ExtensionElem(expr, name));
+                    }
+                }
+            }
+
+            // Build the branch, renaming apart the body and binding query variables
+
+            TupleExpr branch = rename(this.body, substitution);
+            final String emitVar = "_emit" + (atomIndex + 1);
+            if (this.bodyBindingNames.contains(emitVar)) {
+                branch = new Filter(branch, substitution.get(emitVar).clone());
+            }
+            for (final ValueExpr condition : conditions) {
+                branch = new Filter(branch, condition);
+            }
+            if (!elems.isEmpty()) {
+                branch = new Extension(branch, elems);
+            }
+
+            LOGGER.trace("Backward rule {} unified with head atom {}", this.id, atomIndex + 1);
+            return branch;
+        }
+
+        private static Var freshVar(final Map<String, Var> substitution, final String name,
+                final int[] counter)
+        {
+            Var var = substitution.get(name);
+            if (var == null) {
+                var = new Var(RULE_VAR_PREFIX + counter[0]++);
+                substitution.put(name, var);
+            }
+            return var;
+        }
+
+    }
+
+    private static final class Unifier
+    {
+
+        private final Map<String, String> parents = Maps.newLinkedHashMap();
+
+        private final Map<String, Value> values = Maps.newHashMap();
+
+        private int constants = 0;
+
+        void add(final String term, @Nullable final Value value)
+        {
+            if (!this.parents.containsKey(term)) {
+                this.parents.put(term, term);
+                if (value != null) {
+                    this.values.put(term, value);
+                }
+            }
+        }
+
+        String term(final String prefix, final Var var)
+        {
+            final String term;
+            if (var.hasValue()) {
+                term = "c:" + this.constants++;
+                add(term, var.getValue());
+            } else {
+                term = prefix + var.getName();
+                add(term, null);
+            }
+            return term;
+        }
+
+        String find(final String term)
+        {
+            String root = term;
+            while (true) {
+                final String parent = this.parents.get(root);
+                if (parent.equals(root)) {
+                    break;
+                }
+                root = parent;
+            }
+            this.parents.put(term, root);
+            return root;
+        }
+
+        boolean unify(final String first, final String second)
+        {
+            final String firstRoot = find(first);
+            final String secondRoot = find(second);
+            if (firstRoot.equals(secondRoot)) {
+                return true;
+            }
+            final Value firstValue = this.values.get(firstRoot);
+            final Value secondValue = this.values.get(secondRoot);
+            if (firstValue != null && secondValue != null && !firstValue.equals(secondValue)) {
+                return false;
+            }
+            this.parents.put(firstRoot, secondRoot);
+            if (secondValue == null && firstValue != null) {
+                this.values.put(secondRoot, firstValue);
+            }
+            return true;
+        }
+
+        @Nullable
+        Value valueOf(final String term)
+        {
+            return this.values.get(find(term));
+        }
+
+        List<List<String>> classes()
+        {
+            final Map<String, List<String>> classes = Maps.newLinkedHashMap();
+            for (final String term : Lists.newArrayList(this.parents.keySet())) {
+                if (!term.startsWith("c:")) {
+                    final String root = find(term);
+                    List<String> members = classes.get(root);
+                    if (members == null) {
+                        members = Lists.newArrayList();
+                        classes.put(root, members);
+                    }
+                    members.add(term);
+                }
+            }
+            return Lists.newArrayList(classes.values());
+        }
+
+    }
+
+}
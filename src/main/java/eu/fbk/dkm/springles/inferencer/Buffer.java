@@ -1,10 +1,33 @@
 package eu.fbk.dkm.springles.inferencer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.UnmodifiableIterator;
 
@@ -13,224 +36,861 @@ import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
 
+/**
+ * Duplicate-free buffer of inferred statements, supporting concurrent appends.
+ * <p>
+ * Terms are interned in a {@link TermDictionary} as soon as they are appended, and statements
+ * are stored as quadruples of integer term IDs in primitive arrays. In this way the buffer keeps
+ * a single instance of each distinct term (rather than the instances created for each query
+ * solution) plus 16 bytes per statement, and statements are materialized only when the buffer is
+ * iterated (e.g., when flushed to the repository).
+ * </p>
+ * <p>
+ * The buffer is split in {@code 2^SEGMENT_BITS} segments, selected based on the upper bits of
+ * statement hash codes. Each segment is an open-addressing hash table with its own storage and
+ * lock, so that rules evaluated in parallel contend only when appending to the same segment at
+ * the same time. {@link Appender}s collect statements locally and, when flushed, partition them
+ * by segment and insert each partition under a single acquisition of the segment lock, trying
+ * first the segments that are not being written by other threads. Statistics about insertions,
+ * duplicates, probes and collisions are kept per segment (under the segment lock) and are
+ * accumulated both at the buffer level and globally.
+ * </p>
+ * <p>
+ * If a maximum size is configured, a segment exceeding its share of that size is sorted and
+ * written as a run of term IDs to a temporary file (in the data directory, if available), after
+ * which the segment is emptied. Iterating a buffer with spilled segments merges their runs,
+ * dropping duplicates across runs, so that the heap used by the buffer is bounded by the maximum
+ * size plus the term dictionary. For spilled segments, the counts of added statements returned
+ * by appenders and the value of {@link #size()} before the first complete iteration are upper
+ * bounds, as a statement may occur in multiple runs. Run files are deleted by {@link #close()}.
+ * </p>
+ * <p>
+ * The predicates of the statements added to the buffer, and the classes of added
+ * <tt>rdf:type</tt> statements, are recorded as term IDs in per-segment bit sets, and can be
+ * retrieved with {@link #getPredicates()} and {@link #getTypes()} to determine which rules may
+ * be affected by the buffered statements.
+ * </p>
+ * <p>
+ * If streaming is enabled, the statements newly added by an appender to the buffer are also
+ * enqueued in batches in a bounded queue, from which a writer can {@link #pollStreamed(long)
+ * poll} them while rules are still evaluated. Appenders block when the queue is full, so that
+ * the writer exerts backpressure on rule evaluation. As for {@link #size()}, statements in
+ * spilled segments may be streamed more than once.
+ * </p>
+ * <p>
+ * Iteration and {@link #size()} are meant to be invoked after all the appenders have been
+ * flushed, and the threads using them have been joined.
+ * </p>
+ */
 class Buffer implements Iterable<Statement>
 {
 
     // Constants
 
-    private static final int INITIAL_BUCKETS_SIZE = 65536;
+    private static final int SEGMENT_BITS = 4;
+
+    private static final int NUM_SEGMENTS = 1 << SEGMENT_BITS;
 
-    private static final int INITIAL_BUCKETS_MASK = 0xFFFF;
+    private static final int INITIAL_BUCKETS_SIZE = 4096;
 
     private static final int BLOCK_SIZE = 16384;
 
-    private static final int BLOCK_BITS = 14;
+    private static final int SEGMENT_BLOCK_BITS = 10;
 
-    private static final int BLOCK_MASK = 0x3FFF;
+    private static final int SEGMENT_BLOCK_SIZE = 1 << SEGMENT_BLOCK_BITS;
 
-    // State
+    private static final int SEGMENT_BLOCK_MASK = SEGMENT_BLOCK_SIZE - 1;
 
-    private final ValueFactory factory;
+    private static final int IO_BUFFER_SIZE = 65536;
+
+    private static final long STREAM_OFFER_TIMEOUT = 100L;
 
-    private long[] buckets;
+    private static final String SPILL_FILE_PREFIX = "inference-buffer-";
 
-    private int bucketsMask;
+    private static final String SPILL_FILE_SUFFIX = ".run";
 
-    private final List<Value[]> blocks;
+    private static final Logger LOGGER = LoggerFactory.getLogger(Buffer.class);
 
-    private int size;
+    // Global statistics
 
-    // Statistics
+    private static final AtomicLong GLOBAL_INSERTIONS = new AtomicLong(0L);
 
-    private static long insertions = 0;
+    private static final AtomicLong GLOBAL_DUPLICATES = new AtomicLong(0L);
 
-    private static long duplicates = 0;
+    private static final AtomicLong GLOBAL_COLLISIONS = new AtomicLong(0L);
 
-    private static long collisions = 0;
+    private static final AtomicLong GLOBAL_PROBES = new AtomicLong(0L);
 
-    private static long probes = 0;
+    private static final AtomicLong GLOBAL_CONTENTIONS = new AtomicLong(0L);
+
+    private static final AtomicLong GLOBAL_SPILLED = new AtomicLong(0L);
+
+    // State
+
+    private final ValueFactory factory;
+
+    private final TermDictionary dictionary;
+
+    private final Segment[] segments;
+
+    private final int typeID;
+
+    private final AtomicInteger appenderCounter;
+
+    @Nullable
+    private final BlockingQueue<int[]> streamQueue;
+
+    private volatile boolean streamAborted;
 
     public Buffer(final ValueFactory factory)
+    {
+        this(factory, 0, null, 0);
+    }
+
+    public Buffer(final ValueFactory factory, final int maxSize, @Nullable final File spillDir,
+            final int maxPendingBatches)
     {
         Preconditions.checkNotNull(factory);
 
+        final int maxSegmentSize = maxSize <= 0 ? 0 : Math.max(1, maxSize / NUM_SEGMENTS);
+
         this.factory = factory;
-        this.buckets = new long[INITIAL_BUCKETS_SIZE];
-        this.bucketsMask = INITIAL_BUCKETS_MASK;
-        this.blocks = Lists.newArrayList();
-        this.size = 0;
+        this.dictionary = new TermDictionary();
+        this.typeID = this.dictionary.encode(RDF.TYPE);
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < NUM_SEGMENTS; ++i) {
+            this.segments[i] = new Segment(maxSegmentSize, spillDir, this.typeID);
+        }
+        this.appenderCounter = new AtomicInteger(0);
+        this.streamQueue = maxPendingBatches <= 0 ? null : new ArrayBlockingQueue<int[]>(
+                maxPendingBatches);
+        this.streamAborted = false;
+    }
+
+    private static int hash(final int subj, final int pred, final int obj, final int ctx)
+    {
+        int hash = 31 * (31 * (31 * subj + pred) + obj) + ctx;
+        hash ^= hash >>> 16; // spread bits, as both upper and lower ones are used for indexing
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int segmentIndex(final int hash)
+    {
+        return hash >>> (32 - SEGMENT_BITS);
     }
 
-    private void resize()
+    private static int compareQuads(final int[] quads1, final int offset1, final int[] quads2,
+            final int offset2)
     {
-        this.bucketsMask = (this.bucketsMask << 1) + 1;
-        final int capacity = this.buckets.length * 2;
-        final long[] newBuckets = new long[capacity];
-        for (final long bucket : this.buckets) {
-            if (bucket != 0L) {
-                final int hash = (int) (bucket >>> 32);
-                newBuckets[hash & this.bucketsMask] = bucket;
+        for (int i = 0; i < 4; ++i) {
+            final int id1 = quads1[offset1 + i];
+            final int id2 = quads2[offset2 + i];
+            if (id1 != id2) {
+                return id1 < id2 ? -1 : 1;
             }
         }
-        this.buckets = newBuckets;
+        return 0;
     }
 
-    private synchronized int append(final Value[] block, final int blockLength)
+    private static void swapQuads(final int[] quads, final int index1, final int index2)
     {
-        if (2 * this.size >= this.buckets.length) {
-            resize();
+        for (int i = 0; i < 4; ++i) {
+            final int id = quads[4 * index1 + i];
+            quads[4 * index1 + i] = quads[4 * index2 + i];
+            quads[4 * index2 + i] = id;
         }
+    }
 
-        int added = 0;
-        int offset = 0;
-        while (offset < blockLength) {
-
-            ++Buffer.insertions;
-
-            final Value subj = block[offset++];
-            final Value pred = block[offset++];
-            final Value obj = block[offset++];
-            final Value ctx = block[offset++];
-            final int hashCode = 31
-                    * (31 * (31 * subj.hashCode() + pred.hashCode()) + obj.hashCode())
-                    + (ctx == null ? 0 : ctx.hashCode());
-
-            final long mask = (long) hashCode << 32;
-            final int bucketIndex = hashCode & this.bucketsMask;
-
-            for (int j = bucketIndex; j != bucketIndex - 1; j = (j + 1) % this.buckets.length) {
-                ++Buffer.probes;
-                final long bucket = this.buckets[j];
-                if (bucket == 0) {
-                    this.buckets[j] = mask | this.size | 0x80000000L;
-                    final int blockIndex = this.size >> BLOCK_BITS;
-                    if (blockIndex >= this.blocks.size()) {
-                        this.blocks.add(new Value[4 * BLOCK_SIZE]);
-                    }
-                    final Value[] bufferedBlock = this.blocks.get(blockIndex);
-                    int blockOffset = 4 * (this.size & BLOCK_MASK);
-                    bufferedBlock[blockOffset++] = subj;
-                    bufferedBlock[blockOffset++] = pred;
-                    bufferedBlock[blockOffset++] = obj;
-                    bufferedBlock[blockOffset] = ctx;
-                    ++this.size;
-                    ++added;
-                    break;
-
-                } else if ((bucket & 0xFFFFFFFF00000000L) == mask) {
-                    final int statementIndex = (int) bucket & 0x7FFFFFFF;
-                    final int blockIndex = statementIndex >> BLOCK_BITS;
-                    final Value[] bufferedBlock = this.blocks.get(blockIndex);
-                    int blockOffset = 4 * (statementIndex & BLOCK_MASK);
-                    final Value oldSubj = bufferedBlock[blockOffset++];
-                    final Value oldPred = bufferedBlock[blockOffset++];
-                    final Value oldObj = bufferedBlock[blockOffset++];
-                    final Value oldCtx = bufferedBlock[blockOffset];
-
-                    final boolean equal = subj == oldSubj
-                            && pred == oldPred
-                            && obj == oldObj
-                            && ctx == oldCtx
-                            || subj.equals(oldSubj)
-                            && pred.equals(oldPred)
-                            && obj.equals(oldObj)
-                            && (ctx == null && oldCtx == null || ctx != null && ctx.equals(oldCtx));
-
-                    if (equal) {
-                        ++Buffer.duplicates;
-                        break;
-                    } else {
-                        ++Buffer.collisions;
-                    }
+    // sorts quads with indexes between from (inclusive) and to (exclusive); quads are distinct;
+    // the pivot is the median of the first, middle and last quads, and only the smaller
+    // partition is sorted recursively, so that the recursion depth is at most logarithmic
+    private static void sortQuads(final int[] quads, final int from, final int to)
+    {
+        int start = from;
+        int end = to;
+        while (end - start > 1) {
+            final int last = end - 1;
+            final int middle = (start + end) >>> 1;
+            if (compareQuads(quads, 4 * start, quads, 4 * middle) > 0) {
+                swapQuads(quads, start, middle);
+            }
+            if (compareQuads(quads, 4 * middle, quads, 4 * last) > 0) {
+                swapQuads(quads, middle, last);
+            }
+            if (compareQuads(quads, 4 * start, quads, 4 * middle) > 0) {
+                swapQuads(quads, start, middle);
+            }
+            swapQuads(quads, middle, last);
+
+            int store = start;
+            for (int i = start; i < last; ++i) {
+                if (compareQuads(quads, 4 * i, quads, 4 * last) < 0) {
+                    swapQuads(quads, i, store++);
                 }
             }
+            swapQuads(quads, store, last);
+
+            if (store - start < end - store - 1) {
+                sortQuads(quads, start, store);
+                start = store + 1;
+            } else {
+                sortQuads(quads, store + 1, end);
+                end = store;
+            }
         }
-        return added;
     }
 
-    public synchronized int size()
+    /**
+     * Deletes any run file left in the directory specified, e.g., after a crash.
+     *
+     * @param spillDir
+     *            the directory where runs are spilled
+     */
+    public static void deleteSpilledRuns(final File spillDir)
     {
-        return this.size;
+        final File[] files = spillDir.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(final File dir, final String name)
+            {
+                return name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX);
+            }
+
+        });
+        if (files != null) {
+            for (final File file : files) {
+                if (!file.delete()) {
+                    LOGGER.warn("Cannot delete stale inference buffer run " + file);
+                }
+            }
+        }
+    }
+
+    public int size()
+    {
+        long size = 0;
+        for (final Segment segment : this.segments) {
+            size += segment.runs.isEmpty() ? segment.size
+                    : segment.mergedSize >= 0 ? segment.mergedSize : segment.spilledSize
+                            + segment.size;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
     }
 
     @Override
     public Iterator<Statement> iterator()
     {
+        for (final Segment segment : this.segments) {
+            if (!segment.runs.isEmpty() && segment.size > 0) {
+                segment.spill(); // the content of a spilled segment is entirely read from disk
+            }
+        }
+
         return new UnmodifiableIterator<Statement>() {
 
-            private int statementIndex = 0;
+            private final int[] quad = new int[4];
+
+            private int segmentIndex = -1;
 
-            private int blockOffset = 0;
+            @Nullable
+            private Cursor cursor = null;
 
-            private Value[] block = Buffer.this.size > 0 ? Buffer.this.blocks.get(0) : null;
+            private boolean ready = false;
 
             @Override
             public boolean hasNext()
             {
-                return this.statementIndex < Buffer.this.size;
+                while (!this.ready) {
+                    if (this.cursor != null && this.cursor.next(this.quad)) {
+                        this.ready = true;
+                    } else if (this.segmentIndex < NUM_SEGMENTS - 1) {
+                        this.cursor = Buffer.this.segments[++this.segmentIndex].cursor();
+                    } else {
+                        this.cursor = null;
+                        return false;
+                    }
+                }
+                return true;
             }
 
             @Override
             public Statement next()
             {
-                try {
-                    final Resource subj = (Resource) this.block[this.blockOffset++];
-                    final URI pred = (URI) this.block[this.blockOffset++];
-                    final Value obj = this.block[this.blockOffset++];
-                    final Resource ctx = (Resource) this.block[this.blockOffset++];
-
-                    ++this.statementIndex;
-                    if (this.blockOffset == this.block.length) {
-                        if (this.statementIndex < Buffer.this.size) {
-                            this.block = Buffer.this.blocks.get(this.statementIndex >> BLOCK_BITS);
-                            this.blockOffset = 0;
-                        } else {
-                            this.block = null;
-                        }
-                    }
-
-                    return ctx == null ? Buffer.this.factory.createStatement(subj, pred, obj)
-                            : Buffer.this.factory.createStatement(subj, pred, obj, ctx);
-
-                } catch (final NullPointerException ex) {
-                    throw new NoSuchElementException("Requested statement " + this.statementIndex
-                            + ", buffer contains only " + Buffer.this.size + " statements");
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Requested statement past end of buffer "
+                            + "of size " + size());
                 }
+                this.ready = false;
+                return decode(this.quad, 0);
             }
 
         };
     }
 
+    private Statement decode(final int[] quads, final int offset)
+    {
+        final Resource subj = (Resource) this.dictionary.decode(quads[offset]);
+        final URI pred = (URI) this.dictionary.decode(quads[offset + 1]);
+        final Value obj = this.dictionary.decode(quads[offset + 2]);
+        final Resource ctx = (Resource) this.dictionary.decode(quads[offset + 3]);
+
+        return ctx == null ? this.factory.createStatement(subj, pred, obj) : this.factory
+                .createStatement(subj, pred, obj, ctx);
+    }
+
+    public boolean isStreaming()
+    {
+        return this.streamQueue != null;
+    }
+
+    /**
+     * Retrieves the next batch of streamed statements, waiting up to the timeout specified.
+     *
+     * @param timeout
+     *            the timeout in milliseconds, 0 to return immediately
+     * @return the next batch of statements, or <tt>null</tt> if no batch became available
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Nullable
+    public List<Statement> pollStreamed(final long timeout) throws InterruptedException
+    {
+        Preconditions.checkState(this.streamQueue != null, "Streaming not enabled");
+
+        final int[] quads = this.streamQueue.poll(timeout, TimeUnit.MILLISECONDS);
+        if (quads == null) {
+            return null;
+        }
+
+        final List<Statement> statements = Lists.newArrayListWithCapacity(quads.length / 4);
+        for (int offset = 0; offset < quads.length; offset += 4) {
+            statements.add(decode(quads, offset));
+        }
+        return statements;
+    }
+
+    /**
+     * Aborts streaming, e.g., after a failure of the writer, causing appenders to fail rather
+     * than block waiting for the queue to be consumed.
+     */
+    public void abortStreaming()
+    {
+        if (this.streamQueue != null) {
+            this.streamAborted = true;
+            this.streamQueue.clear();
+        }
+    }
+
+    /**
+     * Returns the predicates of the statements added to the buffer.
+     *
+     * @return an immutable set of predicates
+     */
+    public Set<URI> getPredicates()
+    {
+        final ImmutableSet.Builder<URI> builder = ImmutableSet.builder();
+        final BitSet ids = collectIDs(false);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            builder.add((URI) this.dictionary.decode(id));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the objects of the <tt>rdf:type</tt> statements added to the buffer.
+     *
+     * @return an immutable set of classes
+     */
+    public Set<Value> getTypes()
+    {
+        final ImmutableSet.Builder<Value> builder = ImmutableSet.builder();
+        final BitSet ids = collectIDs(true);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            builder.add(this.dictionary.decode(id));
+        }
+        return builder.build();
+    }
+
+    private BitSet collectIDs(final boolean types)
+    {
+        final BitSet result = new BitSet();
+        for (final Segment segment : this.segments) {
+            segment.lock.lock();
+            try {
+                result.or(types ? segment.types : segment.predicates);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return result;
+    }
+
     public Appender newAppender()
     {
-        return new Appender();
+        return new Appender(this.appenderCounter.getAndIncrement());
+    }
+
+    /**
+     * Deletes the runs spilled to disk, if any. The buffer cannot be used afterwards.
+     */
+    public void close()
+    {
+        for (final Segment segment : this.segments) {
+            segment.close();
+        }
     }
 
-    public static String getStatistics()
+    public String getStatistics()
+    {
+        long insertions = 0L;
+        long duplicates = 0L;
+        long probes = 0L;
+        long collisions = 0L;
+        long contentions = 0L;
+        long spilled = 0L;
+        int runs = 0;
+        for (final Segment segment : this.segments) {
+            segment.lock.lock();
+            try {
+                spilled += segment.spilledSize;
+                runs += segment.runs.size();
+                insertions += segment.insertions;
+                duplicates += segment.duplicates;
+                probes += segment.probes;
+                collisions += segment.collisions;
+                contentions += segment.contentions;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return formatStatistics(insertions, duplicates, probes, collisions, contentions) + ", "
+                + this.dictionary.size() + " distinct terms"
+                + (runs == 0 ? "" : ", " + spilled + " statements spilled in " + runs + " runs");
+    }
+
+    public static String getGlobalStatistics()
+    {
+        return formatStatistics(GLOBAL_INSERTIONS.get(), GLOBAL_DUPLICATES.get(),
+                GLOBAL_PROBES.get(), GLOBAL_COLLISIONS.get(), GLOBAL_CONTENTIONS.get())
+                + (GLOBAL_SPILLED.get() == 0 ? "" : ", " + GLOBAL_SPILLED.get()
+                        + " statements spilled");
+    }
+
+    private static String formatStatistics(final long insertions, final long duplicates,
+            final long probes, final long collisions, final long contentions)
     {
         if (insertions == 0) {
             return "buffer unused";
         } else {
-            return String.format("%d insertions: %d duplicates, %d probes and %d collisions",
-                    insertions, duplicates, probes, collisions);
+            return String.format("%d insertions: %d duplicates, %d probes, %d collisions "
+                    + "and %d contended segment writes", insertions, duplicates, probes,
+                    collisions, contentions);
         }
     }
 
+    private abstract static class Cursor
+    {
+
+        abstract boolean next(int[] quad);
+
+    }
+
+    private static final class Segment
+    {
+
+        final int maxSize;
+
+        @Nullable
+        final File spillDir;
+
+        final ReentrantLock lock;
+
+        final int typeID;
+
+        final BitSet predicates;
+
+        final BitSet types;
+
+        long[] buckets;
+
+        int bucketsMask;
+
+        final List<int[]> blocks;
+
+        volatile int size;
+
+        long insertions;
+
+        long duplicates;
+
+        long collisions;
+
+        long probes;
+
+        long contentions;
+
+        final List<File> runs;
+
+        final List<RunReader> readers;
+
+        long spilledSize;
+
+        volatile long mergedSize;
+
+        Segment(final int maxSize, @Nullable final File spillDir, final int typeID)
+        {
+            this.maxSize = maxSize;
+            this.spillDir = spillDir;
+            this.typeID = typeID;
+            this.predicates = new BitSet();
+            this.types = new BitSet();
+            this.runs = Lists.newArrayList();
+            this.readers = Lists.newArrayList();
+            this.spilledSize = 0L;
+            this.mergedSize = -1L;
+            this.lock = new ReentrantLock();
+            this.buckets = new long[INITIAL_BUCKETS_SIZE];
+            this.bucketsMask = INITIAL_BUCKETS_SIZE - 1;
+            this.blocks = Lists.newArrayList();
+            this.size = 0;
+        }
+
+        private void resize()
+        {
+            this.bucketsMask = (this.bucketsMask << 1) + 1;
+            final long[] newBuckets = new long[this.buckets.length * 2];
+            for (final long bucket : this.buckets) {
+                if (bucket != 0L) {
+                    int index = (int) (bucket >>> 32) & this.bucketsMask;
+                    while (newBuckets[index] != 0L) {
+                        index = (index + 1) & this.bucketsMask;
+                    }
+                    newBuckets[index] = bucket;
+                }
+            }
+            this.buckets = newBuckets;
+        }
+
+        // to be called with the lock held; statements are identified by their offsets in block
+        // new statements are also copied to out (if not null), starting at quad index outStart
+        int append(final int[] block, final int[] hashes, final int[] offsets, final int start,
+                final int end, @Nullable final int[] out, final int outStart)
+        {
+            final long oldInsertions = this.insertions;
+            final long oldDuplicates = this.duplicates;
+            final long oldCollisions = this.collisions;
+            final long oldProbes = this.probes;
+
+            int size = this.size;
+            int added = 0;
+
+            for (int i = start; i < end; ++i) {
+
+                if (2 * size >= this.buckets.length) {
+                    resize();
+                }
+
+                ++this.insertions;
+
+                int offset = offsets[i];
+                final int subj = block[offset++];
+                final int pred = block[offset++];
+                final int obj = block[offset++];
+                final int ctx = block[offset];
+                final int hashCode = hashes[i];
+                final long mask = (long) hashCode << 32;
+
+                for (int j = hashCode & this.bucketsMask;; j = (j + 1) & this.bucketsMask) {
+                    ++this.probes;
+                    final long bucket = this.buckets[j];
+                    if (bucket == 0L) {
+                        this.buckets[j] = mask | size | 0x80000000L;
+                        final int blockIndex = size >> SEGMENT_BLOCK_BITS;
+                        if (blockIndex >= this.blocks.size()) {
+                            this.blocks.add(new int[4 * SEGMENT_BLOCK_SIZE]);
+                        }
+                        final int[] bufferedBlock = this.blocks.get(blockIndex);
+                        int blockOffset = 4 * (size & SEGMENT_BLOCK_MASK);
+                        bufferedBlock[blockOffset++] = subj;
+                        bufferedBlock[blockOffset++] = pred;
+                        bufferedBlock[blockOffset++] = obj;
+                        bufferedBlock[blockOffset] = ctx;
+                        this.predicates.set(pred);
+                        if (pred == this.typeID) {
+                            this.types.set(obj);
+                        }
+                        if (out != null) {
+                            final int outOffset = 4 * (outStart + added);
+                            out[outOffset] = subj;
+                            out[outOffset + 1] = pred;
+                            out[outOffset + 2] = obj;
+                            out[outOffset + 3] = ctx;
+                        }
+                        ++size;
+                        ++added;
+                        if (size == this.maxSize) {
+                            this.size = size;
+                            spill();
+                            size = 0;
+                        }
+                        break;
+
+                    } else if ((bucket & 0xFFFFFFFF00000000L) == mask) {
+                        final int statementIndex = (int) bucket & 0x7FFFFFFF;
+                        final int[] bufferedBlock = this.blocks
+                                .get(statementIndex >> SEGMENT_BLOCK_BITS);
+                        final int blockOffset = 4 * (statementIndex & SEGMENT_BLOCK_MASK);
+                        if (subj == bufferedBlock[blockOffset]
+                                && pred == bufferedBlock[blockOffset + 1]
+                                && obj == bufferedBlock[blockOffset + 2]
+                                && ctx == bufferedBlock[blockOffset + 3]) {
+                            ++this.duplicates;
+                            break;
+                        } else {
+                            ++this.collisions;
+                        }
+                    }
+                }
+            }
+
+            this.size = size;
+
+            GLOBAL_INSERTIONS.addAndGet(this.insertions - oldInsertions);
+            GLOBAL_DUPLICATES.addAndGet(this.duplicates - oldDuplicates);
+            GLOBAL_COLLISIONS.addAndGet(this.collisions - oldCollisions);
+            GLOBAL_PROBES.addAndGet(this.probes - oldProbes);
+
+            return added;
+        }
+
+        // to be called with the lock held or after appenders have been joined
+        void spill()
+        {
+            final int size = this.size;
+            final int[] quads = new int[4 * size];
+            for (int i = 0; i < size; i += SEGMENT_BLOCK_SIZE) {
+                System.arraycopy(this.blocks.get(i >> SEGMENT_BLOCK_BITS), 0, quads, 4 * i,
+                        4 * Math.min(SEGMENT_BLOCK_SIZE, size - i));
+            }
+            sortQuads(quads, 0, size);
+
+            try {
+                final File file = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX,
+                        this.spillDir);
+                this.runs.add(file);
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file), IO_BUFFER_SIZE));
+                try {
+                    out.writeInt(size);
+                    for (final int id : quads) {
+                        out.writeInt(id);
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (final IOException ex) {
+                throw new RuntimeException("Cannot spill inference buffer to disk: "
+                        + ex.getMessage(), ex);
+            }
+
+            LOGGER.debug("Spilled {} statements to {}", size, this.runs.get(this.runs.size() - 1));
+
+            Arrays.fill(this.buckets, 0L);
+            this.size = 0;
+            this.spilledSize += size;
+            this.mergedSize = -1L;
+            GLOBAL_SPILLED.addAndGet(size);
+        }
+
+        Cursor cursor()
+        {
+            if (this.runs.isEmpty()) {
+                return new Cursor() {
+
+                    private int index = 0;
+
+                    @Override
+                    boolean next(final int[] quad)
+                    {
+                        if (this.index >= Segment.this.size) {
+                            return false;
+                        }
+                        final int[] block = Segment.this.blocks.get(this.index
+                                >> SEGMENT_BLOCK_BITS);
+                        System.arraycopy(block, 4 * (this.index & SEGMENT_BLOCK_MASK), quad, 0, 4);
+                        ++this.index;
+                        return true;
+                    }
+
+                };
+            }
+
+            final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(this.runs.size(),
+                    new Comparator<RunReader>() {
+
+                        @Override
+                        public int compare(final RunReader first, final RunReader second)
+                        {
+                            return compareQuads(first.quad, 0, second.quad, 0);
+                        }
+
+                    });
+
+            try {
+                for (final File file : this.runs) {
+                    final RunReader reader = new RunReader(file);
+                    this.readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (final IOException ex) {
+                throw new RuntimeException("Cannot read inference buffer runs: "
+                        + ex.getMessage(), ex);
+            }
+
+            return new Cursor() {
+
+                private final int[] last = new int[4];
+
+                private long count = 0L;
+
+                @Override
+                boolean next(final int[] quad)
+                {
+                    try {
+                        while (!queue.isEmpty()) {
+                            final RunReader reader = queue.poll();
+                            System.arraycopy(reader.quad, 0, quad, 0, 4);
+                            if (reader.advance()) {
+                                queue.add(reader);
+                            }
+                            if (this.count == 0L || compareQuads(quad, 0, this.last, 0) != 0) {
+                                System.arraycopy(quad, 0, this.last, 0, 4);
+                                ++this.count;
+                                return true;
+                            }
+                        }
+                    } catch (final IOException ex) {
+                        throw new RuntimeException("Cannot read inference buffer runs: "
+                                + ex.getMessage(), ex);
+                    }
+                    Segment.this.mergedSize = this.count;
+                    return false;
+                }
+
+            };
+        }
+
+        void close()
+        {
+            this.lock.lock();
+            try {
+                for (final RunReader reader : this.readers) {
+                    reader.close();
+                }
+                this.readers.clear();
+                for (final File file : this.runs) {
+                    if (!file.delete()) {
+                        LOGGER.warn("Cannot delete inference buffer run " + file);
+                    }
+                }
+                this.runs.clear();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+    }
+
+    private static final class RunReader
+    {
+
+        final int[] quad;
+
+        private final DataInputStream stream;
+
+        private int remaining;
+
+        RunReader(final File file) throws IOException
+        {
+            this.quad = new int[4];
+            this.stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    IO_BUFFER_SIZE));
+            this.remaining = this.stream.readInt();
+        }
+
+        boolean advance() throws IOException
+        {
+            if (this.remaining == 0) {
+                close();
+                return false;
+            }
+            for (int i = 0; i < 4; ++i) {
+                this.quad[i] = this.stream.readInt();
+            }
+            --this.remaining;
+            return true;
+        }
+
+        void close()
+        {
+            try {
+                this.stream.close();
+            } catch (final IOException ex) {
+                LOGGER.warn("Cannot close inference buffer run: " + ex.getMessage(), ex);
+            }
+        }
+
+    }
+
     public final class Appender implements StatementHandler<RuntimeException>
     {
 
-        private final Value[] block;
+        private final int firstSegment;
+
+        private final int[] block;
+
+        private final int[] hashes;
+
+        private final int[] offsets;
+
+        private final int[] sortedHashes;
+
+        private final int[] positions;
+
+        private final int[] segmentStarts;
+
+        private final boolean[] segmentDone;
+
+        @Nullable
+        private final int[] streamed;
 
         private int offset;
 
         private int added;
 
-        private Appender()
+        private Appender(final int index)
         {
-            this.block = new Value[4 * BLOCK_SIZE];
+            this.firstSegment = index % NUM_SEGMENTS;
+            this.block = new int[4 * BLOCK_SIZE];
+            this.hashes = new int[BLOCK_SIZE];
+            this.offsets = new int[BLOCK_SIZE];
+            this.sortedHashes = new int[BLOCK_SIZE];
+            this.positions = new int[NUM_SEGMENTS];
+            this.segmentStarts = new int[NUM_SEGMENTS + 1];
+            this.segmentDone = new boolean[NUM_SEGMENTS];
+            this.streamed = Buffer.this.streamQueue == null ? null : new int[4 * BLOCK_SIZE];
             this.offset = 0;
             this.added = 0;
         }
@@ -239,22 +899,119 @@ class Buffer implements Iterable<Statement>
         public void handle(final Resource subj, final URI pred, final Value obj, final Resource ctx)
                 throws RuntimeException
         {
-            this.block[this.offset++] = subj;
-            this.block[this.offset++] = pred;
-            this.block[this.offset++] = obj;
-            this.block[this.offset++] = ctx;
+            final TermDictionary dictionary = Buffer.this.dictionary;
+            this.block[this.offset++] = dictionary.encode(subj);
+            this.block[this.offset++] = dictionary.encode(pred);
+            this.block[this.offset++] = dictionary.encode(obj);
+            this.block[this.offset++] = dictionary.encode(ctx);
             if (this.offset == this.block.length) {
-                this.added += append(this.block, this.block.length);
+                this.added += append();
                 this.offset = 0;
             }
         }
 
         public int flush()
         {
-            this.added += append(this.block, this.offset);
+            this.added += append();
+            this.offset = 0;
             return this.added;
         }
 
+        private int append()
+        {
+            final int count = this.offset / 4;
+            if (count == 0) {
+                return 0;
+            }
+
+            // Partition statements by segment (counting sort on the segment index)
+
+            final int[] starts = this.segmentStarts;
+            Arrays.fill(starts, 0);
+            for (int i = 0, offset = 0; i < count; ++i, offset += 4) {
+                final int hash = hash(this.block[offset], this.block[offset + 1],
+                        this.block[offset + 2], this.block[offset + 3]);
+                this.hashes[i] = hash;
+                ++starts[segmentIndex(hash) + 1];
+            }
+            for (int s = 0; s < NUM_SEGMENTS; ++s) {
+                starts[s + 1] += starts[s];
+            }
+            final int[] sortedHashes = this.sortedHashes;
+            final int[] positions = this.positions;
+            System.arraycopy(starts, 0, positions, 0, NUM_SEGMENTS);
+            for (int i = 0; i < count; ++i) {
+                final int hash = this.hashes[i];
+                final int position = positions[segmentIndex(hash)]++;
+                sortedHashes[position] = hash;
+                this.offsets[position] = 4 * i;
+            }
+
+            // Insert each partition, first in segments that are free, then waiting for others
+
+            int added = 0;
+            int remaining = 0;
+            for (int i = 0; i < NUM_SEGMENTS; ++i) {
+                final int s = (this.firstSegment + i) % NUM_SEGMENTS;
+                this.segmentDone[s] = starts[s] == starts[s + 1];
+                if (this.segmentDone[s]) {
+                    continue;
+                }
+                final Segment segment = Buffer.this.segments[s];
+                if (segment.lock.tryLock()) {
+                    try {
+                        added += segment.append(this.block, sortedHashes, this.offsets,
+                                starts[s], starts[s + 1], this.streamed, added);
+                    } finally {
+                        segment.lock.unlock();
+                    }
+                    this.segmentDone[s] = true;
+                } else {
+                    ++remaining;
+                }
+            }
+
+            for (int i = 0; remaining > 0 && i < NUM_SEGMENTS; ++i) {
+                final int s = (this.firstSegment + i) % NUM_SEGMENTS;
+                if (this.segmentDone[s]) {
+                    continue;
+                }
+                final Segment segment = Buffer.this.segments[s];
+                segment.lock.lock();
+                try {
+                    ++segment.contentions;
+                    GLOBAL_CONTENTIONS.incrementAndGet();
+                    added += segment.append(this.block, sortedHashes, this.offsets, starts[s],
+                            starts[s + 1], this.streamed, added);
+                } finally {
+                    segment.lock.unlock();
+                }
+                --remaining;
+            }
+
+            if (this.streamed != null && added > 0) {
+                stream(Arrays.copyOf(this.streamed, 4 * added));
+            }
+
+            return added;
+        }
+
+        private void stream(final int[] quads)
+        {
+            try {
+                while (!Buffer.this.streamAborted) {
+                    if (Buffer.this.streamQueue.offer(quads, STREAM_OFFER_TIMEOUT,
+                            TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+                throw new IllegalStateException("Streaming of inferred statements aborted");
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while streaming inferred statements", ex);
+            }
+        }
+
     }
 
 }
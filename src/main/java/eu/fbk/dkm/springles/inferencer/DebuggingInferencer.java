@@ -1,5 +1,6 @@
 package eu.fbk.dkm.springles.inferencer;
 
+import java.io.File;
 import java.util.Arrays;
 
 import javax.annotation.Nullable;
@@ -73,12 +74,13 @@ final class DebuggingInferencer extends ForwardingInferencer
      * lifecycle.
      */
     @Override
-    public void initialize(final String inferredContextPrefix) throws RepositoryException
+    public void initialize(@Nullable final File dataDir, final String inferredContextPrefix)
+            throws RepositoryException
     {
         Preconditions.checkNotNull(inferredContextPrefix);
         Preconditions.checkState(!this.closed && !this.initialized);
 
-        this.delegate.initialize(inferredContextPrefix);
+        this.delegate.initialize(dataDir, inferredContextPrefix);
         this.initialized = true;
 
         if (this.logger.isDebugEnabled()) {
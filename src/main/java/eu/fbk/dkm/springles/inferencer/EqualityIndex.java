@@ -0,0 +1,614 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.algebra.ArbitraryLengthPath;
+import org.openrdf.query.algebra.BindingSetAssignment;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.Compare.CompareOp;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.FunctionCall;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.Service;
+import org.openrdf.query.algebra.SingletonSet;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+import org.openrdf.query.algebra.evaluation.function.Function;
+import org.openrdf.query.algebra.evaluation.function.FunctionRegistry;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.impl.ListBindingSet;
+import org.openrdf.repository.RepositoryException;
+
+import info.aduna.iteration.CloseableIteration;
+
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.SPR;
+
+/**
+ * Union-find index of the <tt>owl:sameAs</tt> cliques of a repository.
+ * <p>
+ * Each clique of resources related by <tt>owl:sameAs</tt> statements (in any direction) has a
+ * <i>representative</i>, chosen as its smallest member (URIs before blank nodes, then by string
+ * value) so that it does not depend on the order equalities are discovered. Cliques are merged
+ * by moving the members of the smaller one into the larger one, so that each member is moved at
+ * most a logarithmic number of times. Only cliques with more than one member are stored; any
+ * other resource is its own representative.
+ * </p>
+ * <p>
+ * The index supports the {@link EqualityMode#CANONICAL} mode of rule-based inferencers, where
+ * the equality rules of the ruleset (recognized by {@link #analyze(Rule)}) are not evaluated and
+ * statements are instead materialized only for representatives. User queries are rewritten by
+ * {@link #rewrite(QueryModelNode, Inferencer.Context)} so that representatives are expanded to
+ * all the members of their cliques, while statements mentioning other members (from which the
+ * canonical ones are derived) are ignored. Methods are synchronized, so that the index can be
+ * shared by sessions.
+ * </p>
+ */
+final class EqualityIndex
+{
+
+    public static final int SUBJECT = 0;
+
+    public static final int PREDICATE = 1;
+
+    public static final int OBJECT = 2;
+
+    private static final String VAR_PREFIX = "_equality";
+
+    private static final String MEMBER_FUNCTION = SPR.NAMESPACE + "equalityMember";
+
+    private static final int MAX_PROBED_REPRESENTATIVES = 1024;
+
+    private static final AtomicLong COUNTER = new AtomicLong(0L);
+
+    // indexes referenced by rewritten queries, which identify them by ID
+    private static final Map<String, EqualityIndex> INDEXES = new MapMaker().weakValues()
+            .makeMap();
+
+    static {
+        FunctionRegistry.getInstance().add(new MemberFunction());
+    }
+
+    private final String id;
+
+    private final Map<Value, Clique> cliques;
+
+    @Nullable
+    private List<Resource> representatives;
+
+    private EqualityIndex()
+    {
+        this.id = "index" + COUNTER.incrementAndGet();
+        this.cliques = Maps.newHashMap();
+        INDEXES.put(this.id, this);
+    }
+
+    /**
+     * Loads the cliques defined by the <tt>owl:sameAs</tt> statements of the repository,
+     * including the inferred ones. Statements relating literals are ignored.
+     */
+    public static EqualityIndex load(final Inferencer.Context context) throws RepositoryException
+    {
+        final EqualityIndex index = new EqualityIndex();
+        final CloseableIteration<? extends Statement, RepositoryException> iteration = context
+                .getStatements(null, OWL.SAMEAS, null, true);
+        try {
+            while (iteration.hasNext()) {
+                final Statement statement = iteration.next();
+                if (statement.getObject() instanceof Resource) {
+                    index.add(statement.getSubject(), (Resource) statement.getObject());
+                }
+            }
+        } finally {
+            iteration.close();
+        }
+        return index;
+    }
+
+    /**
+     * Merges the cliques of the resources specified, returning true if they were distinct.
+     */
+    public synchronized boolean add(final Resource first, final Resource second)
+    {
+        if (first.equals(second)) {
+            return false;
+        }
+
+        Clique firstClique = this.cliques.get(first);
+        Clique secondClique = this.cliques.get(second);
+        if (firstClique == null) {
+            firstClique = new Clique(first);
+            this.cliques.put(first, firstClique);
+        }
+        if (secondClique == null) {
+            secondClique = new Clique(second);
+            this.cliques.put(second, secondClique);
+        }
+        if (firstClique == secondClique) {
+            return false;
+        }
+
+        final Clique target = firstClique.members.size() >= secondClique.members.size() ? //
+        firstClique : secondClique;
+        final Clique source = target == firstClique ? secondClique : firstClique;
+        for (final Resource member : source.members) {
+            this.cliques.put(member, target);
+        }
+        target.members.addAll(source.members);
+        if (compare(source.representative, target.representative) < 0) {
+            target.representative = source.representative;
+        }
+        this.representatives = null;
+        return true;
+    }
+
+    // URIs come first, so that the representatives of predicates are URIs
+    private static int compare(final Resource first, final Resource second)
+    {
+        final boolean firstBNode = first instanceof BNode;
+        final boolean secondBNode = second instanceof BNode;
+        if (firstBNode != secondBNode) {
+            return firstBNode ? 1 : -1;
+        }
+        return first.stringValue().compareTo(second.stringValue());
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return this.cliques.isEmpty();
+    }
+
+    public synchronized Value getRepresentative(final Value value)
+    {
+        final Clique clique = this.cliques.get(value);
+        return clique == null ? value : clique.representative;
+    }
+
+    public synchronized List<Resource> getMembers(final Value value)
+    {
+        final Clique clique = this.cliques.get(value);
+        return clique == null ? Collections.<Resource>emptyList() : ImmutableList
+                .copyOf(clique.members);
+    }
+
+    public synchronized boolean isMember(final Value value)
+    {
+        return this.cliques.containsKey(value);
+    }
+
+    public synchronized List<Resource> getRepresentatives()
+    {
+        if (this.representatives == null) {
+            final List<Resource> result = Lists.newArrayList();
+            for (final Map.Entry<Value, Clique> entry : this.cliques.entrySet()) {
+                if (entry.getKey().equals(entry.getValue().representative)) {
+                    result.add(entry.getValue().representative);
+                }
+            }
+            this.representatives = ImmutableList.copyOf(result);
+        }
+        return this.representatives;
+    }
+
+    public synchronized List<Resource> getNonRepresentatives()
+    {
+        final List<Resource> result = Lists.newArrayList();
+        for (final Map.Entry<Value, Clique> entry : this.cliques.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue().representative)) {
+                result.add((Resource) entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites the statement patterns of the supplied algebraic node (typically a query
+     * expression or an update operation) so that they match the statements of clique members
+     * based on the statements of clique representatives. Constants are replaced by their
+     * representatives, while each variable in subject, predicate or object position that can
+     * bind a representative is mapped to it through a union of two branches: an inline table
+     * from representatives to members, joined with the pattern, and the pattern itself
+     * restricted to values outside any clique. The rewritten node thus produces the same
+     * solutions as if all the statements of representatives were materialized for all the
+     * members. If a context is supplied, it is probed for the representatives occurring in the
+     * statements matching each pattern, so that variables matching none of them are left
+     * untouched and inline tables list only the matched cliques; without a context, or if there
+     * are too many representatives to probe, all the cliques are considered. Membership to a
+     * clique is tested by calling a function backed by the index, which is thus available only
+     * to queries evaluated in the same JVM.
+     *
+     * @param node
+     *            the node to rewrite, not modified by this method
+     * @param context
+     *            the context to probe for the representatives matched by patterns, null if
+     *            the data may change before the node is evaluated
+     * @param <T>
+     *            the type of node
+     * @return the rewritten node, or the input node if there are no cliques
+     */
+    public synchronized <T extends QueryModelNode> T rewrite(final T node,
+            @Nullable final Inferencer.Context context) throws RepositoryException
+    {
+        if (this.cliques.isEmpty()) {
+            return node;
+        }
+
+        @SuppressWarnings("unchecked")
+        final T result = (T) node.clone();
+
+        final List<StatementPattern> patterns = Lists.newArrayList();
+        result.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final StatementPattern pattern) throws RuntimeException
+            {
+                patterns.add(pattern);
+            }
+
+            @Override
+            public void meet(final ArbitraryLengthPath path) throws RuntimeException
+            {
+                // property paths are left untouched
+            }
+
+            @Override
+            public void meet(final Service service) throws RuntimeException
+            {
+                // remote patterns are left untouched
+            }
+
+        });
+
+        final List<Resource> representatives = getRepresentatives();
+        final boolean probing = context != null
+                && representatives.size() <= MAX_PROBED_REPRESENTATIVES;
+
+        int counter = 0;
+        for (final StatementPattern pattern : patterns) {
+            final Var[] vars = new Var[] { pattern.getSubjectVar(), pattern.getPredicateVar(),
+                    pattern.getObjectVar() };
+            for (final Var var : vars) {
+                if (var.hasValue()) {
+                    final Clique clique = this.cliques.get(var.getValue());
+                    if (clique != null) {
+                        var.setValue(clique.representative);
+                    }
+                }
+            }
+
+            final Map<String, Set<Resource>> matches = Maps.newLinkedHashMap();
+            for (int position = 0; position < 3; ++position) {
+                final Var var = vars[position];
+                if (var.hasValue()) {
+                    continue;
+                }
+                final Collection<Resource> matched = !probing ? representatives : probe(
+                        context, vars, position, representatives);
+                if (!matched.isEmpty()) {
+                    Set<Resource> set = matches.get(var.getName());
+                    if (set == null) {
+                        set = Sets.newLinkedHashSet();
+                        matches.put(var.getName(), set);
+                    }
+                    set.addAll(matched);
+                }
+            }
+
+            if (!matches.isEmpty()) {
+                final SingletonSet placeholder = new SingletonSet();
+                pattern.replaceWith(placeholder);
+                TupleExpr expr = pattern;
+                for (final Map.Entry<String, Set<Resource>> entry : matches.entrySet()) {
+                    expr = expand(expr, entry.getKey(), VAR_PREFIX + counter++,
+                            entry.getValue());
+                }
+                placeholder.replaceWith(expr);
+            }
+        }
+
+        return result;
+    }
+
+    // returns the representatives occurring at the position of the variable in some statement
+    // matching the constants of the pattern; other variables are not constrained
+    private static Collection<Resource> probe(final Inferencer.Context context,
+            final Var[] vars, final int position, final List<Resource> representatives)
+            throws RepositoryException
+    {
+        final Value[] terms = new Value[3];
+        for (int i = 0; i < 3; ++i) {
+            terms[i] = vars[i].getValue();
+        }
+        if (terms[SUBJECT] != null && !(terms[SUBJECT] instanceof Resource)
+                || terms[PREDICATE] != null && !(terms[PREDICATE] instanceof URI)) {
+            return Collections.emptyList();
+        }
+
+        final List<Resource> result = Lists.newArrayList();
+        for (final Resource representative : representatives) {
+            if (position == PREDICATE && !(representative instanceof URI)) {
+                continue;
+            }
+            terms[position] = representative;
+            if (context.hasStatement((Resource) terms[SUBJECT], (URI) terms[PREDICATE],
+                    terms[OBJECT], true)) {
+                result.add(representative);
+            }
+        }
+        return result;
+    }
+
+    private TupleExpr expand(final TupleExpr expr, final String name, final String canonicalName,
+            final Iterable<Resource> representatives)
+    {
+        final TupleExpr canonicalExpr = expr.clone();
+        canonicalExpr.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final Var var) throws RuntimeException
+            {
+                if (var.getName().equals(name) && !var.hasValue()) {
+                    var.setName(canonicalName);
+                }
+            }
+
+        });
+
+        final List<String> names = ImmutableList.of(canonicalName, name);
+        final List<BindingSet> bindingSets = Lists.newArrayList();
+        for (final Resource representative : representatives) {
+            for (final Resource member : this.cliques.get(representative).members) {
+                bindingSets.add(new ListBindingSet(names, representative, member));
+            }
+        }
+        final BindingSetAssignment assignment = new BindingSetAssignment();
+        assignment.setBindingNames(Sets.newLinkedHashSet(names));
+        assignment.setBindingSets(bindingSets);
+
+        final ValueExpr membership = new FunctionCall(MEMBER_FUNCTION, new ValueConstant(
+                new LiteralImpl(this.id)), new Var(name));
+
+        return new Union(new Join(assignment, canonicalExpr), new Filter(expr, new Not(
+                membership)));
+    }
+
+    /**
+     * Recognizes the equality rules of a ruleset, i.e., the rules implementing the symmetry and
+     * transitivity of <tt>owl:sameAs</tt>, and the replacement of equal resources in subject,
+     * predicate and object positions of statements (e.g., rules <tt>eq-sym</tt>,
+     * <tt>eq-trans</tt>, <tt>eq-rep-s</tt>, <tt>eq-rep-p</tt> and <tt>eq-rep-o</tt> of OWL 2 RL).
+     * Rules may contain inequality filters and <tt>NOT EXISTS</tt> guards, which do not change
+     * the statements they infer.
+     *
+     * @param rule
+     *            the rule to analyze
+     * @return the recognized equality rule, or null if the rule is not an equality rule
+     */
+    @Nullable
+    public static EqualityRule analyze(final Rule rule)
+    {
+        if (rule.getBody() == null || rule.getHead() == null || rule.getTransform() != null
+                || rule.getHeadAtoms().size() != 1) {
+            return null;
+        }
+
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        final List<ValueExpr> conditions = Lists.newArrayList();
+        if (!TransitiveClosure.decompose(rule.getBody(), atoms, conditions)) {
+            return null;
+        }
+        for (final ValueExpr condition : conditions) {
+            if (!(condition instanceof Compare && ((Compare) condition).getOperator() //
+            == CompareOp.NE) && !(condition instanceof Not //
+            && ((Not) condition).getArg() instanceof Exists)) {
+                return null;
+            }
+        }
+
+        final Set<Var> bodyVars = Sets.newHashSet();
+        for (final StatementPattern atom : atoms) {
+            if (atom.getContextVar() != null) {
+                return null;
+            }
+            bodyVars.addAll(atom.getVarList());
+        }
+
+        final StatementPattern head = rule.getHeadAtoms().get(0);
+        final Var context = head.getContextVar();
+        if (context != null && !context.hasValue() && bodyVars.contains(context)) {
+            return null;
+        }
+
+        final List<StatementPattern> equalities = Lists.newArrayList();
+        for (final StatementPattern atom : atoms) {
+            if (isEquality(atom)) {
+                equalities.add(atom);
+            }
+        }
+
+        if (atoms.size() == 1 && equalities.size() == 1 && isEquality(head)) {
+            final StatementPattern atom = equalities.get(0);
+            if (atom.getSubjectVar().equals(head.getObjectVar())
+                    && atom.getObjectVar().equals(head.getSubjectVar())) {
+                return new EqualityRule(rule, -1, context);
+            }
+
+        } else if (atoms.size() == 2 && equalities.size() == 2 && isEquality(head)) {
+            for (int i = 0; i < 2; ++i) {
+                final StatementPattern first = equalities.get(i);
+                final StatementPattern second = equalities.get(1 - i);
+                if (first.getObjectVar().equals(second.getSubjectVar())
+                        && first.getSubjectVar().equals(head.getSubjectVar())
+                        && second.getObjectVar().equals(head.getObjectVar())) {
+                    return new EqualityRule(rule, -1, context);
+                }
+            }
+        }
+
+        if (atoms.size() == 2 && !equalities.isEmpty()) {
+            for (int i = 0; i < 2; ++i) {
+                final StatementPattern equality = atoms.get(i);
+                final StatementPattern atom = atoms.get(1 - i);
+                if (!isEquality(equality)) {
+                    continue;
+                }
+                final Var from = equality.getSubjectVar();
+                final Var to = equality.getObjectVar();
+                final Var[] atomVars = new Var[] { atom.getSubjectVar(), atom.getPredicateVar(),
+                        atom.getObjectVar() };
+                final Var[] headVars = new Var[] { head.getSubjectVar(), head.getPredicateVar(),
+                        head.getObjectVar() };
+                int position = -1;
+                boolean valid = !atom.getVarList().contains(to);
+                for (int j = 0; j < 3 && valid; ++j) {
+                    if (atomVars[j].equals(from)) {
+                        valid = position < 0 && headVars[j].equals(to);
+                        position = j;
+                    } else {
+                        valid = atomVars[j].equals(headVars[j]);
+                    }
+                }
+                if (valid && position >= 0) {
+                    return new EqualityRule(rule, position, context);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // matches ?x owl:sameAs ?y with distinct variables
+    private static boolean isEquality(final StatementPattern atom)
+    {
+        final Var predicate = atom.getPredicateVar();
+        return predicate.hasValue() && predicate.getValue().equals(OWL.SAMEAS)
+                && !atom.getSubjectVar().hasValue() && !atom.getObjectVar().hasValue()
+                && !atom.getSubjectVar().equals(atom.getObjectVar());
+    }
+
+    // tests whether a value belongs to a clique of the index identified by the first argument
+    private static final class MemberFunction implements Function
+    {
+
+        @Override
+        public String getURI()
+        {
+            return MEMBER_FUNCTION;
+        }
+
+        @Override
+        public Value evaluate(final ValueFactory valueFactory, final Value... args)
+                throws ValueExprEvaluationException
+        {
+            if (args.length != 2) {
+                throw new ValueExprEvaluationException("Expected 2 arguments, got "
+                        + args.length);
+            }
+            final EqualityIndex index = INDEXES.get(args[0].stringValue());
+            if (index == null) {
+                throw new ValueExprEvaluationException("Unknown equality index: " + args[0]);
+            }
+            return valueFactory.createLiteral(index.isMember(args[1]));
+        }
+
+    }
+
+    private static final class Clique
+    {
+
+        Resource representative;
+
+        final List<Resource> members;
+
+        Clique(final Resource member)
+        {
+            this.representative = member;
+            this.members = Lists.newArrayList(member);
+        }
+
+    }
+
+    /**
+     * An equality rule recognized by {@link EqualityIndex#analyze(Rule)}.
+     */
+    public static final class EqualityRule
+    {
+
+        private final Rule rule;
+
+        private final int position;
+
+        @Nullable
+        private final Var context;
+
+        private EqualityRule(final Rule rule, final int position, @Nullable final Var context)
+        {
+            this.rule = rule;
+            this.position = position;
+            this.context = context;
+        }
+
+        public Rule getRule()
+        {
+            return this.rule;
+        }
+
+        /**
+         * Returns the position ({@link #SUBJECT}, {@link #PREDICATE} or {@link #OBJECT}) where
+         * the rule replaces equal resources, or -1 for symmetry and transitivity rules.
+         */
+        public int getPosition()
+        {
+            return this.position;
+        }
+
+        @Nullable
+        public Resource getContext(final BindingSet bindings)
+        {
+            if (this.context == null) {
+                return null;
+            }
+            final Value value = this.context.hasValue() ? this.context.getValue() : bindings
+                    .getValue(this.context.getName());
+            return value instanceof Resource ? (Resource) value : null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "equality rule " + this.rule.getID();
+        }
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package eu.fbk.dkm.springles.inferencer;
+
+/**
+ * Treatment of <tt>owl:sameAs</tt> equalities by rule-based inferencers.
+ *
+ * @see EqualityIndex
+ */
+public enum EqualityMode
+{
+
+    /** Equalities are handled by evaluating the equality rules of the ruleset as any other rule. */
+    NONE,
+
+    /**
+     * Statements are materialized only for the representative of each <tt>owl:sameAs</tt> clique,
+     * and queries are rewritten to expand representatives to all the members of their cliques.
+     */
+    CANONICAL,
+
+    /**
+     * Statements are computed as for {@link #CANONICAL}, and expanded to all the members of
+     * <tt>owl:sameAs</tt> cliques at the end of each closure computation, so that queries need no
+     * rewriting.
+     */
+    MATERIALIZED;
+
+}
@@ -1,5 +1,9 @@
 package eu.fbk.dkm.springles.inferencer;
 
+import java.io.File;
+
+import javax.annotation.Nullable;
+
 import com.google.common.collect.ForwardingObject;
 
 import org.openrdf.repository.RepositoryException;
@@ -14,9 +18,10 @@ public abstract class ForwardingInferencer extends ForwardingObject implements I
     protected abstract Inferencer delegate();
 
     @Override
-    public void initialize(final String inferredContextPrefix) throws RepositoryException
+    public void initialize(@Nullable final File dataDir, final String inferredContextPrefix)
+            throws RepositoryException
     {
-        delegate().initialize(inferredContextPrefix);
+        delegate().initialize(dataDir, inferredContextPrefix);
     }
 
     @Override
@@ -1,5 +1,7 @@
 package eu.fbk.dkm.springles.inferencer;
 
+import java.io.File;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
@@ -50,7 +52,8 @@ import eu.fbk.dkm.springles.base.UpdateSpec;
 public interface Inferencer
 {
 
-    void initialize(String inferredContextPrefix) throws RepositoryException;
+    void initialize(@Nullable File dataDir, String inferredContextPrefix)
+            throws RepositoryException;
 
     InferenceMode getInferenceMode();
 
@@ -206,6 +209,9 @@ public interface Inferencer
         @Nullable
         ScheduledExecutorService getScheduler();
 
+        @Nullable
+        ExecutorService getExecutor(); // for parallel rule evaluation, not for timed tasks
+
         ValueFactory getValueFactory();
 
         <T> T query(QuerySpec<T> query, @Nullable Dataset dataset, @Nullable BindingSet bindings,
@@ -70,8 +70,44 @@ public final class Inferencers
     public static Inferencer newNaiveInferencer(final Ruleset ruleset,
             @Nullable final BindingSet rulesetBindings, final int maxConcurrentRules)
     {
-        return new NaiveInferencer(ruleset, rulesetBindings, maxConcurrentRules);
+        return newNaiveInferencer(ruleset, rulesetBindings, maxConcurrentRules, 0, 0, 0,
+                EqualityMode.NONE);
     }
+
+    public static Inferencer newNaiveInferencer(final Ruleset ruleset,
+            @Nullable final BindingSet rulesetBindings, final int maxConcurrentRules,
+            final int maxBackwardDepth, final int maxBufferSize, final int maxPendingFlushes,
+            final EqualityMode equalityMode)
+    {
+        return new NaiveInferencer(ruleset, rulesetBindings, maxConcurrentRules,
+                maxBackwardDepth, maxBufferSize, maxPendingFlushes, equalityMode);
+    }
+
+    public static Inferencer newSemiNaiveInferencer(final Ruleset ruleset,
+            @Nullable final BindingSet rulesetBindings, final int maxConcurrentRules)
+    {
+        return newSemiNaiveInferencer(ruleset, rulesetBindings, maxConcurrentRules, 0, 0, 0,
+                EqualityMode.NONE);
+    }
+
+    public static Inferencer newSemiNaiveInferencer(final Ruleset ruleset,
+            @Nullable final BindingSet rulesetBindings, final int maxConcurrentRules,
+            final int maxBackwardDepth, final int maxBufferSize, final int maxPendingFlushes,
+            final EqualityMode equalityMode)
+    {
+        return newSemiNaiveInferencer(ruleset, rulesetBindings, maxConcurrentRules,
+                maxBackwardDepth, maxBufferSize, maxPendingFlushes, equalityMode, 0);
+    }
+
+    public static Inferencer newSemiNaiveInferencer(final Ruleset ruleset,
+            @Nullable final BindingSet rulesetBindings, final int maxConcurrentRules,
+            final int maxBackwardDepth, final int maxBufferSize, final int maxPendingFlushes,
+            final EqualityMode equalityMode, final int maxDeltaSize)
+    {
+        return new SemiNaiveInferencer(ruleset, rulesetBindings, maxConcurrentRules,
+                maxBackwardDepth, maxBufferSize, maxPendingFlushes, equalityMode, maxDeltaSize);
+    }
+
     public static Inferencer newTestInferencer(final Ruleset ruleset,
             @Nullable final BindingSet rulesetBindings, final int maxConcurrentRules)
     {
@@ -90,13 +126,24 @@ public final class Inferencers
         final Selector s = Selector.select(graph, node);
         final URI type = Iterables.getOnlyElement(Iterables.filter(s.getAll(RDF.TYPE, URI.class),
                 Predicates.in(ImmutableList.of(SPC.NULL_INFERENCER, SPC.VOID_INFERENCER,
-                        SPC.NAIVE_INFERENCER,SPC.TEST_INFERENCER))));
+                        SPC.NAIVE_INFERENCER, SPC.SEMI_NAIVE_INFERENCER, SPC.TEST_INFERENCER))));
 
         final URI rulesetURI = s.get(SPC.HAS_RULESET, URI.class, null);
         final Ruleset ruleset = rulesetURI == null ? null : Rulesets.lookup(rulesetURI);
 
         final int maxConcurrentRules = s.get(SPC.HAS_MAX_CONCURRENT_RULES, Integer.class, 0);
 
+        final int maxBackwardDepth = s.get(SPC.HAS_MAX_BACKWARD_DEPTH, Integer.class, 0);
+
+        final int maxBufferSize = s.get(SPC.HAS_MAX_BUFFER_SIZE, Integer.class, 0);
+
+        final int maxPendingFlushes = s.get(SPC.HAS_MAX_PENDING_FLUSHES, Integer.class, 0);
+
+        final int maxDeltaSize = s.get(SPC.HAS_MAX_DELTA_SIZE, Integer.class, 0);
+
+        final EqualityMode equalityMode = EqualityMode.valueOf(s.get(SPC.HAS_EQUALITY_MODE,
+                String.class, EqualityMode.NONE.name()).trim().toUpperCase());
+
         final MapBindingSet bindings = new MapBindingSet();
         if (ruleset != null) {
             for (final String parameter : ruleset.getParameters().keySet()) {
@@ -138,7 +185,12 @@ public final class Inferencers
                 } else if (SPC.VOID_INFERENCER.equals(type)) {
                     return newVoidInferencer();
                 } else if (SPC.NAIVE_INFERENCER.equals(type)) {
-                    return newNaiveInferencer(ruleset, bindings, maxConcurrentRules);
+                    return newNaiveInferencer(ruleset, bindings, maxConcurrentRules,
+                            maxBackwardDepth, maxBufferSize, maxPendingFlushes, equalityMode);
+                } else if (SPC.SEMI_NAIVE_INFERENCER.equals(type)) {
+                    return newSemiNaiveInferencer(ruleset, bindings, maxConcurrentRules,
+                            maxBackwardDepth, maxBufferSize, maxPendingFlushes, equalityMode,
+                            maxDeltaSize);
                 } else if (SPC.TEST_INFERENCER.equals(type)) {
                     return newTestInferencer(ruleset, bindings, maxConcurrentRules);
                 } else {
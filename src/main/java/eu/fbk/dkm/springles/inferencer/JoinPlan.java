@@ -0,0 +1,688 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.SubQueryValueOperator;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+import org.openrdf.query.algebra.evaluation.util.QueryEvaluationUtil;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.repository.RepositoryException;
+
+import info.aduna.iteration.CloseableIteration;
+
+import eu.fbk.dkm.internal.util.Algebra;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
+
+/**
+ * Hash-join evaluation plan for rules with a simple conjunctive body.
+ * <p>
+ * A plan is compiled by {@link #compile(Rule)} for rules whose body is the join of one to
+ * {@link #MAX_ATOMS} atoms without context, possibly with filters and single-atom
+ * <tt>FILTER NOT EXISTS</tt> conditions. One atom (the least selective, based on its constants)
+ * is streamed from the repository, while the statements matching the other atoms are loaded
+ * in hash tables keyed on the variables shared with the preceding atoms. Terms in the tables
+ * are encoded as integers with a {@link TermDictionary}, and solutions are kept in a single
+ * array of values indexed by variable, so no binding set is allocated per solution. Filters are
+ * evaluated as soon as their variables are bound, and head statements are instantiated from
+ * the solution array through a {@link Rule.HeadMapping} and emitted directly to the supplied
+ * handler. Evaluation is aborted, before emitting any statement, if the tables
+ * grow beyond a fixed size, in which case the rule should be evaluated as a SPARQL query.
+ * Plans of different rules streaming the same statements can be evaluated with a single scan.
+ * </p>
+ */
+final class JoinPlan
+{
+
+    public static final int MAX_ATOMS = 3;
+
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+
+    private final Rule rule;
+
+    // the variables of the body atoms, indexed by slot
+    private final String[] names;
+
+    // per atom in evaluation order: slot (or -1 if constant) and constant for s, p, o
+    private final int[][] slots;
+
+    private final Value[][] constants;
+
+    // per atom in evaluation order: positions of variables bound by the preceding atoms
+    private final int[][] joinPositions;
+
+    // per atom in evaluation order: filters whose body variables are all bound after it
+    private final List<List<ValueExpr>> filters;
+
+    private final List<StatementPattern> guards;
+
+    private JoinPlan(final Rule rule, final String[] names, final int[][] slots,
+            final Value[][] constants, final int[][] joinPositions,
+            final List<List<ValueExpr>> filters, final List<StatementPattern> guards)
+    {
+        this.rule = rule;
+        this.names = names;
+        this.slots = slots;
+        this.constants = constants;
+        this.joinPositions = joinPositions;
+        this.filters = filters;
+        this.guards = guards;
+    }
+
+    /**
+     * Compiles the hash-join plan of a rule. Compilation fails if the body is not a join of at
+     * most {@link #MAX_ATOMS} atoms without context, if atoms are not connected through shared
+     * variables, if the atoms loaded in tables have no constants (which would require loading
+     * whole repositories), or if conditions other than filters without sub-queries and
+     * single-atom <tt>FILTER NOT EXISTS</tt> conditions are used.
+     *
+     * @param rule
+     *            the rule to compile
+     * @return the compiled plan, or null if the rule cannot be evaluated by hash joins
+     */
+    @Nullable
+    public static JoinPlan compile(final Rule rule)
+    {
+        if (rule.getBody() == null || rule.getHead() == null || rule.getTransform() != null) {
+            return null;
+        }
+
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        final List<ValueExpr> conditions = Lists.newArrayList();
+        if (!TransitiveClosure.decompose(rule.getBody(), atoms, conditions)
+                || atoms.isEmpty() || atoms.size() > MAX_ATOMS) {
+            return null;
+        }
+        for (final StatementPattern atom : atoms) {
+            if (atom.getContextVar() != null) {
+                return null;
+            }
+        }
+
+        // the streamed atom is the one with fewer constants, preferring later atoms on ties
+        final List<StatementPattern> order = Lists.newArrayList();
+        StatementPattern first = null;
+        for (final StatementPattern atom : atoms) {
+            if (first == null || countConstants(atom) <= countConstants(first)) {
+                first = atom;
+            }
+        }
+        order.add(first);
+
+        // tables are built for connected atoms, preferring the more selective ones
+        final Set<String> bound = Sets.newHashSet(getVariables(first));
+        final List<StatementPattern> remaining = Lists.newArrayList(atoms);
+        remaining.remove(first);
+        while (!remaining.isEmpty()) {
+            StatementPattern next = null;
+            for (final StatementPattern atom : remaining) {
+                if (!Sets.intersection(getVariables(atom), bound).isEmpty()
+                        && (next == null || countConstants(atom) > countConstants(next))) {
+                    next = atom;
+                }
+            }
+            if (next == null || countConstants(next) == 0) {
+                return null;
+            }
+            order.add(next);
+            bound.addAll(getVariables(next));
+            remaining.remove(next);
+        }
+
+        final Map<String, Integer> slotMap = Maps.newLinkedHashMap();
+        final int[][] slots = new int[order.size()][3];
+        final Value[][] constants = new Value[order.size()][3];
+        final int[][] joinPositions = new int[order.size()][];
+        final Map<String, Integer> steps = Maps.newHashMap();
+        for (int i = 0; i < order.size(); ++i) {
+            final Var[] vars = getVars(order.get(i));
+            final List<Integer> positions = Lists.newArrayList();
+            for (int j = 0; j < 3; ++j) {
+                if (vars[j].hasValue()) {
+                    slots[i][j] = -1;
+                    constants[i][j] = vars[j].getValue();
+                    continue;
+                }
+                final String name = vars[j].getName();
+                Integer slot = slotMap.get(name);
+                if (slot == null) {
+                    slot = slotMap.size();
+                    slotMap.put(name, slot);
+                    steps.put(name, i);
+                } else if (steps.get(name) < i) {
+                    positions.add(j);
+                }
+                slots[i][j] = slot;
+            }
+            joinPositions[i] = new int[positions.size()];
+            for (int j = 0; j < positions.size(); ++j) {
+                joinPositions[i][j] = positions.get(j);
+            }
+        }
+
+        final List<List<ValueExpr>> filters = Lists.newArrayList();
+        for (int i = 0; i < order.size(); ++i) {
+            filters.add(Lists.<ValueExpr>newArrayList());
+        }
+        final List<StatementPattern> guards = Lists.newArrayList();
+        for (final ValueExpr condition : conditions) {
+            if (condition instanceof Not && ((Not) condition).getArg() instanceof Exists) {
+                final TupleExpr expr = ((Exists) ((Not) condition).getArg()).getSubQuery();
+                if (!(expr instanceof StatementPattern)
+                        || ((StatementPattern) expr).getContextVar() != null) {
+                    return null;
+                }
+                guards.add((StatementPattern) expr);
+            } else if (!containsSubQuery(condition)) {
+                int step = 0;
+                for (final String name : Algebra.extractVariables(condition)) {
+                    final Integer varStep = steps.get(name);
+                    step = varStep == null ? step : Math.max(step, varStep);
+                }
+                filters.get(step).add(condition);
+            } else {
+                return null;
+            }
+        }
+
+        final List<List<ValueExpr>> immutableFilters = Lists.newArrayList();
+        for (final List<ValueExpr> stepFilters : filters) {
+            immutableFilters.add(ImmutableList.copyOf(stepFilters));
+        }
+        return new JoinPlan(rule, slotMap.keySet().toArray(new String[slotMap.size()]), slots,
+                constants, joinPositions, ImmutableList.copyOf(immutableFilters),
+                ImmutableList.copyOf(guards));
+    }
+
+    private static Var[] getVars(final StatementPattern atom)
+    {
+        return new Var[] { atom.getSubjectVar(), atom.getPredicateVar(), atom.getObjectVar() };
+    }
+
+    private static Set<String> getVariables(final StatementPattern atom)
+    {
+        final Set<String> variables = Sets.newHashSet();
+        for (final Var var : getVars(atom)) {
+            if (!var.hasValue()) {
+                variables.add(var.getName());
+            }
+        }
+        return variables;
+    }
+
+    private static int countConstants(final StatementPattern atom)
+    {
+        return 3 - getVariables(atom).size();
+    }
+
+    private static boolean containsSubQuery(final ValueExpr condition)
+    {
+        final boolean[] result = new boolean[] { false };
+        condition.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            protected void meetSubQueryValueOperator(final SubQueryValueOperator node)
+            {
+                result[0] = true;
+            }
+
+        });
+        return result[0];
+    }
+
+    public Rule getRule()
+    {
+        return this.rule;
+    }
+
+    /**
+     * Returns the <tt>(s, p, o)</tt> pattern of the statements streamed by the plan for the
+     * bindings specified. Plans with equal patterns can be evaluated with a single scan using
+     * {@link #evaluate(List, Inferencer.Context, BindingSet, List)}.
+     */
+    public List<Value> getScanPattern(final BindingSet bindings)
+    {
+        return Arrays.asList(getLookup(0, bindings));
+    }
+
+    private Value[] getLookup(final int index, final BindingSet bindings)
+    {
+        final Value[] lookup = new Value[3];
+        for (int i = 0; i < 3; ++i) {
+            final int slot = this.slots[index][i];
+            lookup[i] = slot < 0 ? this.constants[index][i] : bindings
+                    .getValue(this.names[slot]);
+        }
+        return lookup;
+    }
+
+    /**
+     * Evaluates the plan, emitting the inferred statements to the handler specified.
+     *
+     * @return true on success, false if the evaluation was aborted, without emitting statements,
+     *         due to the size of the hash tables
+     */
+    public <E extends Exception> boolean evaluate(final Inferencer.Context context,
+            final BindingSet bindings, final StatementHandler<E> handler) throws E,
+            QueryEvaluationException, RepositoryException
+    {
+        return evaluate(ImmutableList.of(this), context, bindings, ImmutableList.of(handler))
+                .isEmpty();
+    }
+
+    /**
+     * Evaluates multiple plans with the same scan pattern, streaming the matching statements
+     * once and feeding each of them to the joins of all the plans. Plans aborted due to the
+     * size of their hash tables are excluded from the scan and returned, so that their rules
+     * can be evaluated otherwise.
+     *
+     * @param plans
+     *            the plans to evaluate, all with the same {@link #getScanPattern(BindingSet)}
+     * @param context
+     *            the context where to evaluate the plans
+     * @param bindings
+     *            the bindings of external variables
+     * @param handlers
+     *            the handlers receiving the statements inferred by each plan, in plan order
+     * @return the plans aborted without emitting statements, possibly none
+     */
+    public static <E extends Exception> List<JoinPlan> evaluate(final List<JoinPlan> plans,
+            final Inferencer.Context context, final BindingSet bindings,
+            final List<? extends StatementHandler<E>> handlers) throws E,
+            QueryEvaluationException, RepositoryException
+    {
+        final List<Evaluation<E>> evaluations = Lists.newArrayListWithCapacity(plans.size());
+        final List<JoinPlan> aborted = Lists.newArrayList();
+        for (int i = 0; i < plans.size(); ++i) {
+            final JoinPlan plan = plans.get(i);
+            final Evaluation<E> evaluation = plan.new Evaluation<E>(context, bindings,
+                    handlers.get(i));
+            if (evaluation.build()) {
+                evaluations.add(evaluation);
+            } else {
+                aborted.add(plan);
+            }
+        }
+        if (evaluations.isEmpty()) {
+            return aborted;
+        }
+
+        final CloseableIteration<? extends Statement, RepositoryException> iteration = //
+        evaluations.get(0).scan(0);
+        if (iteration != null) {
+            try {
+                while (iteration.hasNext()) {
+                    final Statement statement = iteration.next();
+                    for (final Evaluation<E> evaluation : evaluations) {
+                        evaluation.probe(statement);
+                    }
+                }
+            } finally {
+                iteration.close();
+            }
+        }
+        return aborted;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "join plan " + this.rule.getID();
+    }
+
+    private final class Evaluation<E extends Exception>
+    {
+
+        private final Inferencer.Context context;
+
+        private final BindingSet bindings;
+
+        private final StatementHandler<E> handler;
+
+        private final TermDictionary dictionary;
+
+        private final Table[] tables;
+
+        // the current solution, indexed by slot; externally bound variables are preset
+        private final Value[] row;
+
+        // probe keys, one per table, as join() recurses while iterating over a table
+        private final int[][] keys;
+
+        private final QueryBindingSet scope;
+
+        private final Rule.HeadMapping head;
+
+        @Nullable
+        private EvaluationStrategy strategy;
+
+        Evaluation(final Inferencer.Context context, final BindingSet bindings,
+                final StatementHandler<E> handler)
+        {
+            this.context = context;
+            this.bindings = bindings;
+            this.handler = handler;
+            this.dictionary = new TermDictionary();
+            this.tables = new Table[JoinPlan.this.slots.length];
+            this.row = new Value[JoinPlan.this.names.length];
+            this.keys = new int[this.tables.length][3];
+            this.scope = new QueryBindingSet(bindings);
+            this.head = JoinPlan.this.rule.newHeadMapping(Arrays.asList(JoinPlan.this.names),
+                    bindings);
+            this.strategy = null;
+            for (int i = 0; i < this.row.length; ++i) {
+                this.row[i] = bindings.getValue(JoinPlan.this.names[i]);
+            }
+        }
+
+        boolean build() throws RepositoryException
+        {
+            for (int i = 1; i < this.tables.length; ++i) {
+                if (!build(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean build(final int index) throws RepositoryException
+        {
+            final Table table = new Table(JoinPlan.this.joinPositions[index]);
+            final CloseableIteration<? extends Statement, RepositoryException> iteration = //
+            scan(index);
+            if (iteration == null) {
+                this.tables[index] = table;
+                return true;
+            }
+            try {
+                final int[] ids = new int[3];
+                while (iteration.hasNext()) {
+                    final Statement statement = iteration.next();
+                    if (isConsistent(index, statement)) {
+                        if (table.size() == MAX_TABLE_SIZE) {
+                            return false;
+                        }
+                        ids[0] = this.dictionary.encode(statement.getSubject());
+                        ids[1] = this.dictionary.encode(statement.getPredicate());
+                        ids[2] = this.dictionary.encode(statement.getObject());
+                        table.add(ids);
+                    }
+                }
+            } finally {
+                iteration.close();
+            }
+            table.index();
+            this.tables[index] = table;
+            return true;
+        }
+
+        void probe(final Statement statement) throws E, QueryEvaluationException,
+                RepositoryException
+        {
+            if (isConsistent(0, statement)) {
+                bind(JoinPlan.this.slots[0], statement.getSubject(), statement.getPredicate(),
+                        statement.getObject());
+                if (evaluateFilters(0)) {
+                    join(1);
+                }
+            }
+        }
+
+        private void join(final int index) throws E, QueryEvaluationException,
+                RepositoryException
+        {
+            if (index == this.tables.length) {
+                emit();
+                return;
+            }
+
+            final Table table = this.tables[index];
+            final int[] slots = JoinPlan.this.slots[index];
+            final int[] positions = JoinPlan.this.joinPositions[index];
+            final int[] key = this.keys[index];
+            for (final int position : positions) {
+                final int id = this.dictionary.lookup(this.row[slots[position]]);
+                if (id < 0) {
+                    return; // no statement in the table can match
+                }
+                key[position] = id;
+            }
+
+            final int[] terms = table.terms;
+            final TermDictionary dictionary = this.dictionary;
+            for (int entry = table.first(key); entry >= 0; entry = table.next(entry, key)) {
+                final int offset = entry * 3;
+                bind(slots, dictionary.decode(terms[offset]),
+                        dictionary.decode(terms[offset + 1]),
+                        dictionary.decode(terms[offset + 2]));
+                if (evaluateFilters(index)) {
+                    join(index + 1);
+                }
+            }
+        }
+
+        private void emit() throws E, RepositoryException
+        {
+            for (final StatementPattern guard : JoinPlan.this.guards) {
+                final Value subj = resolve(guard.getSubjectVar());
+                final Value pred = resolve(guard.getPredicateVar());
+                final Value obj = resolve(guard.getObjectVar());
+                if (!(subj == null || subj instanceof Resource)
+                        || !(pred == null || pred instanceof URI)) {
+                    continue; // cannot match any statement
+                }
+                if (this.context.hasStatement((Resource) subj, (URI) pred, obj, true)) {
+                    return;
+                }
+            }
+
+            this.head.collect(this.row, this.handler);
+        }
+
+        // variables bound by the preceding atoms are checked through the table keys, while
+        // repeated variables within the atom are checked by isConsistent()
+        private void bind(final int[] slots, final Value subj, final Value pred, final Value obj)
+        {
+            if (slots[0] >= 0) {
+                this.row[slots[0]] = subj;
+            }
+            if (slots[1] >= 0) {
+                this.row[slots[1]] = pred;
+            }
+            if (slots[2] >= 0) {
+                this.row[slots[2]] = obj;
+            }
+        }
+
+        @Nullable
+        CloseableIteration<? extends Statement, RepositoryException> scan(final int index)
+                throws RepositoryException
+        {
+            final Value[] lookup = getLookup(index, this.bindings);
+            if (lookup[0] != null && !(lookup[0] instanceof Resource) || lookup[1] != null
+                    && !(lookup[1] instanceof URI)) {
+                return null; // the atom cannot match any statement
+            }
+            return this.context.getStatements((Resource) lookup[0], (URI) lookup[1], lookup[2],
+                    true);
+        }
+
+        private boolean isConsistent(final int index, final Statement statement)
+        {
+            final int[] slots = JoinPlan.this.slots[index];
+            if (slots[0] >= 0 && slots[0] == slots[1]
+                    && !statement.getSubject().equals(statement.getPredicate())) {
+                return false;
+            }
+            if (slots[0] >= 0 && slots[0] == slots[2]
+                    && !statement.getSubject().equals(statement.getObject())) {
+                return false;
+            }
+            if (slots[1] >= 0 && slots[1] == slots[2]
+                    && !statement.getPredicate().equals(statement.getObject())) {
+                return false;
+            }
+            return true;
+        }
+
+        private boolean evaluateFilters(final int index) throws QueryEvaluationException
+        {
+            final List<ValueExpr> filters = JoinPlan.this.filters.get(index);
+            if (filters.isEmpty()) {
+                return true;
+            }
+            if (this.strategy == null) {
+                this.strategy = Algebra.newDataFreeStrategy(this.context.getValueFactory());
+            }
+            for (int i = 0; i < this.row.length; ++i) {
+                if (this.row[i] != null) {
+                    this.scope.setBinding(JoinPlan.this.names[i], this.row[i]);
+                }
+            }
+            for (final ValueExpr filter : filters) {
+                try {
+                    if (!QueryEvaluationUtil.getEffectiveBooleanValue(this.strategy.evaluate(
+                            filter, this.scope))) {
+                        return false;
+                    }
+                } catch (final ValueExprEvaluationException ex) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Nullable
+        private Value resolve(final Var var)
+        {
+            if (var.hasValue()) {
+                return var.getValue();
+            }
+            for (int i = 0; i < JoinPlan.this.names.length; ++i) {
+                if (JoinPlan.this.names[i].equals(var.getName())) {
+                    return this.row[i];
+                }
+            }
+            return this.bindings.getValue(var.getName());
+        }
+
+    }
+
+    // chained hash table of (s, p, o) term IDs, indexed once after all the entries are added
+    private static final class Table
+    {
+
+        private final int[] positions;
+
+        private int[] terms;
+
+        private int size;
+
+        private int[] heads;
+
+        private int[] chain;
+
+        private int mask;
+
+        Table(final int[] positions)
+        {
+            this.positions = positions;
+            this.terms = new int[3 * 16];
+            this.size = 0;
+        }
+
+        int size()
+        {
+            return this.size;
+        }
+
+        void add(final int[] ids)
+        {
+            if (3 * this.size == this.terms.length) {
+                this.terms = Arrays.copyOf(this.terms, this.terms.length * 2);
+            }
+            System.arraycopy(ids, 0, this.terms, 3 * this.size, 3);
+            ++this.size;
+        }
+
+        void index()
+        {
+            int capacity = 16;
+            while (capacity < 2 * this.size) {
+                capacity <<= 1;
+            }
+            this.mask = capacity - 1;
+            this.heads = new int[capacity];
+            this.chain = new int[this.size];
+            Arrays.fill(this.heads, -1);
+            for (int entry = this.size - 1; entry >= 0; --entry) {
+                final int bucket = hash(this.terms, 3 * entry) & this.mask;
+                this.chain[entry] = this.heads[bucket];
+                this.heads[bucket] = entry;
+            }
+        }
+
+        // returns the first entry matching the key (at the join positions), or -1 if none
+        int first(final int[] key)
+        {
+            return this.size == 0 ? -1 : find(this.heads[hash(key, 0) & this.mask], key);
+        }
+
+        int next(final int entry, final int[] key)
+        {
+            return find(this.chain[entry], key);
+        }
+
+        private int find(final int start, final int[] key)
+        {
+            for (int entry = start; entry >= 0; entry = this.chain[entry]) {
+                boolean matches = true;
+                for (final int position : this.positions) {
+                    if (this.terms[3 * entry + position] != key[position]) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        private int hash(final int[] ids, final int offset)
+        {
+            int hash = 0;
+            for (final int position : this.positions) {
+                hash = 31 * hash + ids[offset + position];
+            }
+            return hash ^ hash >>> 16;
+        }
+
+    }
+
+}
@@ -1,46 +1,74 @@
 package eu.fbk.dkm.springles.inferencer;
 
+import java.io.File;
 import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
+import com.google.common.io.Files;
 
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.algebra.Modify;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UpdateExpr;
 import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
 import org.openrdf.query.impl.ListBindingSet;
 import org.openrdf.query.impl.MapBindingSet;
 import org.openrdf.repository.RepositoryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import info.aduna.iteration.CloseableIteration;
 import info.aduna.iteration.Iterations;
 
 import eu.fbk.dkm.internal.util.Algebra;
 import eu.fbk.dkm.springles.ClosureStatus;
 import eu.fbk.dkm.springles.InferenceMode;
+import eu.fbk.dkm.springles.base.QuerySpec;
+import eu.fbk.dkm.springles.base.QueryType;
+import eu.fbk.dkm.springles.base.UpdateSpec;
 import eu.fbk.dkm.springles.inferencer.Buffer.Appender;
 import eu.fbk.dkm.springles.ruleset.ClosureEvalTask;
 import eu.fbk.dkm.springles.ruleset.ClosureFixPointTask;
@@ -48,11 +76,10 @@ import eu.fbk.dkm.springles.ruleset.ClosureRepeatTask;
 import eu.fbk.dkm.springles.ruleset.ClosureSequenceTask;
 import eu.fbk.dkm.springles.ruleset.ClosureTask;
 import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
 import eu.fbk.dkm.springles.ruleset.Ruleset;
 
-// TODO: binding-aware rule activation/deactivation
 // TODO: test with scalable repository
-// TODO: semi-naive mode
 
 class NaiveInferencer extends AbstractInferencer
 {
@@ -61,6 +88,14 @@ class NaiveInferencer extends AbstractInferencer
 
     private static final int INITIAL_BUFFER_CAPACITY = 1024;
 
+    private static final long STREAM_POLL_TIMEOUT = 100L;
+
+    private static final String STATISTICS_FILE = "rule.statistics";
+
+    private static final String OUTPUTS_FILE = "rule.outputs";
+
+    private static final int MAX_PREPARED_QUERIES = 4096;
+
     private final Ruleset ruleset;
 
     private BindingSet rulesetBindings;
@@ -69,8 +104,46 @@ class NaiveInferencer extends AbstractInferencer
 
     private final Map<Resource, RuleStatistics> statistics;
 
+    private final Map<Resource, Set<String>> ruleVariables;
+
+    private final Map<Resource, TransitiveClosure> transitiveClosures;
+
+    private final Map<Resource, SchemaIndex.SchemaRule> schemaRules;
+
+    private final Map<Resource, JoinPlan> joinPlans;
+
+    private final Set<Resource> memoizedRuleIDs;
+
+    private final RuleOutputCache outputCache;
+
+    private final Cache<List<Object>, QuerySpec<TupleQueryResult>> preparedQueries;
+
+    private final int maxBackwardDepth;
+
+    private final int maxBufferSize;
+
+    private final int maxPendingFlushes;
+
+    private final EqualityMode equalityMode;
+
+    private final Map<Resource, EqualityIndex.EqualityRule> equalityRules;
+
+    // index of the last committed closure computation, or loaded by a session not modifying data
+    @Nullable
+    private volatile EqualityIndex equalityIndex;
+
+    @Nullable
+    private BackwardExpander backwardExpander;
+
     public NaiveInferencer(final Ruleset ruleset, @Nullable final BindingSet rulesetBindings,
             final int maxConcurrentRules)
+    {
+        this(ruleset, rulesetBindings, maxConcurrentRules, 0, 0, 0, EqualityMode.NONE);
+    }
+
+    public NaiveInferencer(final Ruleset ruleset, @Nullable final BindingSet rulesetBindings,
+            final int maxConcurrentRules, final int maxBackwardDepth, final int maxBufferSize,
+            final int maxPendingFlushes, final EqualityMode equalityMode)
     {
         ruleset.validate();
 
@@ -83,14 +156,133 @@ class NaiveInferencer extends AbstractInferencer
         this.rulesetBindings = ruleset.getParameterBindings(rulesetBindings);
         this.maxConcurrentRules = concurrencyLevel;
         this.statistics = Maps.newHashMap();
+        this.ruleVariables = Maps.newHashMap();
+        this.transitiveClosures = Maps.newHashMap();
+        this.schemaRules = Maps.newHashMap();
+        this.joinPlans = Maps.newHashMap();
+        this.memoizedRuleIDs = Sets.newHashSet();
+        this.outputCache = new RuleOutputCache();
+        this.preparedQueries = CacheBuilder.newBuilder().maximumSize(MAX_PREPARED_QUERIES)
+                .build();
+        this.maxBackwardDepth = maxBackwardDepth;
+        this.maxBufferSize = maxBufferSize;
+        this.maxPendingFlushes = maxPendingFlushes;
+        this.equalityIndex = null;
+        this.backwardExpander = null;
 
         this.ruleset.freeze();
 
+        this.equalityRules = analyzeEqualityRules(this.ruleset, equalityMode);
+        this.equalityMode = this.equalityRules.isEmpty() ? EqualityMode.NONE : equalityMode;
+
         for (final Rule rule : ruleset.getRules()) {
             this.statistics.put(rule.getID(), new RuleStatistics(rule.getID()));
+            this.ruleVariables.put(rule.getID(), extractVariables(rule));
+            final TransitiveClosure closure = this.equalityRules.containsKey(rule.getID()) ? null
+                    : TransitiveClosure.analyze(rule);
+            if (closure != null) {
+                LOGGER.debug("Rule {} recognized as transitive", rule.getID());
+                this.transitiveClosures.put(rule.getID(), closure);
+            }
+            final SchemaIndex.SchemaRule schemaRule = closure != null
+                    || this.equalityRules.containsKey(rule.getID()) ? null : SchemaIndex
+                    .analyze(rule);
+            if (schemaRule != null) {
+                LOGGER.debug("Rule {} recognized as schema-driven rule", rule.getID());
+                this.schemaRules.put(rule.getID(), schemaRule);
+            }
+            final JoinPlan joinPlan = closure != null || schemaRule != null
+                    || this.equalityRules.containsKey(rule.getID()) ? null : JoinPlan
+                    .compile(rule);
+            if (joinPlan != null) {
+                LOGGER.debug("Rule {} compiled to hash-join plan", rule.getID());
+                this.joinPlans.put(rule.getID(), joinPlan);
+            }
+            if (closure == null && !this.equalityRules.containsKey(rule.getID())
+                    && RuleOutputCache.isMemoizable(rule)) {
+                LOGGER.debug("Rule {} recognized as memoizable", rule.getID());
+                this.memoizedRuleIDs.add(rule.getID());
+            }
         }
     }
 
+    // equality can be handled natively only if the ruleset fully axiomatizes it, as the index
+    // makes owl:sameAs symmetric and transitive and queries are expanded in every position
+    private static Map<Resource, EqualityIndex.EqualityRule> analyzeEqualityRules(
+            final Ruleset ruleset, final EqualityMode equalityMode)
+    {
+        if (equalityMode == EqualityMode.NONE) {
+            return ImmutableMap.of();
+        }
+
+        final Map<Resource, EqualityIndex.EqualityRule> rules = Maps.newHashMap();
+        final Set<Integer> positions = Sets.newHashSet();
+        for (final Resource ruleID : ruleset.getForwardRuleIDs()) {
+            final EqualityIndex.EqualityRule rule = EqualityIndex.analyze(ruleset
+                    .getRule(ruleID));
+            if (rule != null) {
+                LOGGER.debug("Rule {} recognized as equality rule", ruleID);
+                rules.put(ruleID, rule);
+                positions.add(rule.getPosition());
+            }
+        }
+
+        if (!positions.containsAll(ImmutableList.of(-1, EqualityIndex.SUBJECT,
+                EqualityIndex.PREDICATE, EqualityIndex.OBJECT))) {
+            LOGGER.warn("Equality mode {} ignored: ruleset {} does not contain symmetry, "
+                    + "transitivity and replacement rules for owl:sameAs", new Object[] {
+                    equalityMode, ruleset.getID() });
+            return ImmutableMap.of();
+        }
+        return ImmutableMap.copyOf(rules);
+    }
+
+    private static Set<String> extractVariables(final Rule rule)
+    {
+        final Set<String> variables = Sets.newHashSet();
+        if (rule.getHead() != null) {
+            variables.addAll(Algebra.extractVariables(rule.getHead()));
+        }
+        if (rule.getBody() != null) {
+            variables.addAll(Algebra.extractVariables(rule.getBody()));
+        }
+        if (rule.getCondition() != null) {
+            variables.addAll(Algebra.extractVariables(rule.getCondition()));
+        }
+        if (rule.getTransform() != null) {
+            variables.addAll(Algebra.extractVariables(rule.getTransform()));
+        }
+        return variables;
+    }
+
+    // the bindings that may affect the evaluation of a rule, i.e., the ones of its variables
+    private Map<String, Value> getRuleBindings(final Rule rule, final BindingSet bindings)
+    {
+        final Set<String> variables = this.ruleVariables.get(rule.getID());
+        final Map<String, Value> result = Maps.newHashMap();
+        for (final String name : bindings.getBindingNames()) {
+            if (variables.contains(name)) {
+                result.put(name, bindings.getValue(name));
+            }
+        }
+        return ImmutableMap.copyOf(result);
+    }
+
+    protected final Ruleset getRuleset()
+    {
+        return this.ruleset;
+    }
+
+    protected final BindingSet getRulesetBindings()
+    {
+        return this.rulesetBindings;
+    }
+
+    protected final EqualityMode getEqualityMode()
+    {
+        return this.equalityMode;
+    }
+
     @Override
     protected InferenceMode doInitialize(final String inferredContextPrefix, final Hasher hasher)
             throws Exception
@@ -99,13 +291,39 @@ class NaiveInferencer extends AbstractInferencer
                 new ListBindingSet(ImmutableList.of("prefix"), ValueFactoryImpl.getInstance()
                         .createLiteral(inferredContextPrefix)));
 
+        if (this.maxBufferSize > 0 && getDataDir() != null) {
+            Buffer.deleteSpilledRuns(getDataDir());
+        }
+
+        loadStatistics();
+
+        if (getDataDir() != null && !this.memoizedRuleIDs.isEmpty()) {
+            this.outputCache.load(new File(getDataDir(), OUTPUTS_FILE), this.ruleset.digest());
+        }
+
         hasher.putUnencodedChars(this.ruleset.digest());
         for (final String name : Ordering.natural().sortedCopy(
                 this.rulesetBindings.getBindingNames())) {
             hasher.putUnencodedChars(name).putUnencodedChars(this.rulesetBindings.getValue(name).stringValue());
         }
 
-        return InferenceMode.FORWARD;
+        // in canonical mode, queries have to be rewritten to expand owl:sameAs cliques
+        if (this.equalityMode != EqualityMode.NONE) {
+            hasher.putUnencodedChars(this.equalityMode.name());
+        }
+        boolean rewriting = this.equalityMode == EqualityMode.CANONICAL;
+
+        if (!this.ruleset.getBackwardRuleIDs().isEmpty()) {
+            final BackwardExpander expander = new BackwardExpander(this.ruleset,
+                    this.rulesetBindings, this.maxBackwardDepth);
+            if (!expander.isEmpty()) {
+                hasher.putInt(expander.getMaxDepth());
+                this.backwardExpander = expander;
+                rewriting = true;
+            }
+        }
+
+        return rewriting ? InferenceMode.COMBINED : InferenceMode.FORWARD;
     }
 
     @Override
@@ -124,10 +342,88 @@ class NaiveInferencer extends AbstractInferencer
                 builder.append("\n  ").append(this.statistics.get(rule.getID()).toString());
             }
             LOGGER.info(builder.toString());
-            LOGGER.info("Inference buffer statistics: " + Buffer.getStatistics());
+            LOGGER.info("Inference buffer statistics: " + Buffer.getGlobalStatistics());
+        }
+
+        saveStatistics();
+
+        if (getDataDir() != null && !this.memoizedRuleIDs.isEmpty()) {
+            this.outputCache.save(new File(getDataDir(), OUTPUTS_FILE), this.ruleset.digest());
         }
     }
 
+    private void loadStatistics()
+    {
+        final File file = getDataDir() == null ? null : new File(getDataDir(), STATISTICS_FILE);
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        try {
+            final List<String> lines = Files.readLines(file, Charsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(this.ruleset.digest())) {
+                LOGGER.info("Rule statistics in {} ignored as ruleset changed", file);
+                return;
+            }
+            for (final String line : lines.subList(1, lines.size())) {
+                final String[] tokens = line.split(" ");
+                final RuleStatistics statistics = this.statistics.get(ValueFactoryImpl
+                        .getInstance().createURI(tokens[0]));
+                if (statistics != null) {
+                    statistics.restore(Integer.parseInt(tokens[1]), Long.parseLong(tokens[2]),
+                            Long.parseLong(tokens[3]));
+                }
+            }
+            LOGGER.info("Rule statistics loaded from {}", file);
+
+        } catch (final Exception ex) {
+            LOGGER.warn("Could not load rule statistics from " + file, ex);
+        }
+    }
+
+    private void saveStatistics()
+    {
+        if (getDataDir() == null) {
+            return;
+        }
+
+        // statistics of rules with blank node IDs are not saved, as IDs change at each load
+        final File file = new File(getDataDir(), STATISTICS_FILE);
+        final StringBuilder builder = new StringBuilder(this.ruleset.digest()).append("\n");
+        for (final Rule rule : this.ruleset.getRules()) {
+            if (rule.getID() instanceof URI) {
+                this.statistics.get(rule.getID()).emit(builder);
+                builder.append("\n");
+            }
+        }
+
+        try {
+            Files.write(builder, file, Charsets.UTF_8);
+            LOGGER.info("Rule statistics saved to {}", file);
+        } catch (final Exception ex) {
+            LOGGER.warn("Could not save rule statistics to " + file, ex);
+        }
+    }
+
+    private List<Resource> sortByExpectedTime(final List<Resource> ruleIDs)
+    {
+        final Map<Resource, Long> times = Maps.newHashMap();
+        for (final Resource ruleID : ruleIDs) {
+            times.put(ruleID, this.statistics.get(ruleID).getExpectedTime());
+        }
+        final List<Resource> result = Lists.newArrayList(ruleIDs);
+        Collections.sort(result, new Comparator<Resource>() {
+
+            @Override
+            public int compare(final Resource first, final Resource second)
+            {
+                return times.get(second).compareTo(times.get(first));
+            }
+
+        });
+        return result;
+    }
+
     protected static final BindingSet overrideBindings(final BindingSet baseBindings,
             final Map<String, ValueExpr> overridingExpressions) throws QueryEvaluationException
     {
@@ -175,21 +471,115 @@ class NaiveInferencer extends AbstractInferencer
 
         private List<Statement> buffer;
 
-        private final Set<Resource> activeRules;
+        // rounds are numbered executeEval() calls, used to track changes since a rule evaluation
+
+        private long round;
+
+        private long lastChangeRound;
+
+        private final Map<Resource, Long> triggerRounds;
+
+        private final Map<List<Object>, Long> evaluationRounds;
+
+        private final Map<Value, Long> predicateChangeRounds;
+
+        private final Map<Value, Long> typeChangeRounds;
+
+        // planning covers the preparation of rule bodies and the backend call returning their
+        // result iteration, where Sail backends clone and optimize the plan; evaluation covers
+        // the consumption of results (remote backends may compute them already when called)
+
+        private final AtomicLong planningTime;
+
+        private final AtomicLong evaluationTime;
+
+        private final AtomicLong preparedPlans;
+
+        private final AtomicLong reusedPlans;
 
-        private BindingSet lastBindings;
+        // set for threads executing the iterations of a concurrent repeat task, which evaluate
+        // rules without auxiliary tasks so to never wait for tasks queued after their own
+        private final ThreadLocal<Boolean> concurrentIteration;
+
+        // flushes of concurrent iterations, performed by the session thread as the only one
+        // allowed to write to the context; null if not accepting flushes
+        @Nullable
+        private BlockingQueue<FutureTask<Void>> pendingFlushes;
+
+        // equality index loaded or computed by the session, guarded by its own lock as rules
+        // may be evaluated concurrently; the index is rescanned when owl:sameAs changes
+        @Nullable
+        private EqualityIndex equalityIndex;
+
+        private long equalityRound;
+
+        private boolean equalityIndexComputed;
+
+        private boolean modified;
+
+        private final Object equalityLock;
+
+        // schema relations joined by schema-driven rules, reloaded when their predicate changes
+        private final SchemaIndex schemaIndex;
 
         public NaiveSession(final String id, final Context context)
         {
             this.id = id;
             this.context = context;
             this.buffer = null;
-            this.activeRules = Sets.newHashSet();
-            this.lastBindings = null;
+            this.round = 0L;
+            this.lastChangeRound = -1L;
+            this.triggerRounds = Maps.newHashMap();
+            this.evaluationRounds = Maps.newHashMap();
+            this.predicateChangeRounds = Maps.newHashMap();
+            this.typeChangeRounds = Maps.newHashMap();
+            this.planningTime = new AtomicLong(0L);
+            this.evaluationTime = new AtomicLong(0L);
+            this.preparedPlans = new AtomicLong(0L);
+            this.reusedPlans = new AtomicLong(0L);
+            this.concurrentIteration = new ThreadLocal<Boolean>();
+            this.pendingFlushes = null;
+            this.equalityIndex = null;
+            this.equalityRound = -1L;
+            this.equalityIndexComputed = false;
+            this.modified = false;
+            this.equalityLock = new Object();
+            this.schemaIndex = new SchemaIndex();
+        }
+
+        @Override
+        public void statementsAdded(@Nullable final Iterable<? extends Statement> statements,
+                final Resource... contexts) throws RepositoryException
+        {
+            this.modified = true;
+        }
+
+        @Override
+        public void statementsRemoved(@Nullable final Iterable<? extends Statement> statements,
+                final Resource... contexts) throws RepositoryException
+        {
+            this.modified = true;
         }
 
         @Override
-        public final void updateClosure(final ClosureStatus closureStatus)
+        public void statementsCleared(final boolean onlyClosure) throws RepositoryException
+        {
+            this.modified = true;
+        }
+
+        @Override
+        public void close(final boolean committing) throws RepositoryException
+        {
+            // the index of the repository is published only when known to be consistent with it
+            if (committing && this.equalityIndexComputed) {
+                NaiveInferencer.this.equalityIndex = this.equalityIndex;
+            } else if (committing && this.modified) {
+                NaiveInferencer.this.equalityIndex = null;
+            }
+        }
+
+        @Override
+        public void updateClosure(final ClosureStatus closureStatus)
                 throws RepositoryException
         {
             switch (closureStatus) {
@@ -205,18 +595,39 @@ class NaiveInferencer extends AbstractInferencer
 
                     long time = System.currentTimeMillis();
                     this.buffer = Lists.newArrayListWithCapacity(INITIAL_BUFFER_CAPACITY);
-                    this.activeRules.addAll(NaiveInferencer.this.ruleset.getForwardRuleIDs());
-                    this.lastBindings = null;
-                    final long inferred = executeTask(
-                            NaiveInferencer.this.ruleset.getClosurePlan(),
+                    this.triggerRounds.clear();
+                    this.evaluationRounds.clear();
+                    this.planningTime.set(0L);
+                    this.evaluationTime.set(0L);
+                    this.preparedPlans.set(0L);
+                    this.reusedPlans.set(0L);
+                    this.equalityIndex = null;
+                    this.equalityRound = -1L;
+                    this.equalityIndexComputed = false;
+                    this.schemaIndex.clear();
+                    long inferred = executeTask(NaiveInferencer.this.ruleset.getClosurePlan(),
                             NaiveInferencer.this.rulesetBindings);
+                    if (NaiveInferencer.this.equalityMode == EqualityMode.MATERIALIZED) {
+                        inferred += materializeEqualities();
+                    }
+                    if (NaiveInferencer.this.equalityMode != EqualityMode.NONE) {
+                        synchronized (this.equalityLock) {
+                            updateEqualityIndex();
+                            this.equalityIndexComputed = true;
+                        }
+                    }
                     this.buffer = null;
                     time = System.currentTimeMillis() - time;
 
-                    if (LOGGER.isInfoEnabled()) {
-                        LOGGER.info("[{}] === Closure computation completed after {} ms with "
-                                + "{} new inferences ===",
-                                new Object[] { this.id, time, inferred });
+                    logClosureCompleted(time, inferred);
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("[{}] Rule bodies planned in {} ms ({} plans prepared, {} "
+                                + "reused, backend optimization included) and evaluated in {} "
+                                + "ms (summed over threads)",
+                                new Object[] { this.id, this.planningTime.get() / 1000000L,
+                                        this.preparedPlans.get(), this.reusedPlans.get(),
+                                        this.evaluationTime.get() / 1000000L });
                     }
 
                 } catch (final QueryEvaluationException ex) {
@@ -230,6 +641,137 @@ class NaiveInferencer extends AbstractInferencer
             }
         }
 
+        @Override
+        public <T> QuerySpec<T> rewriteQuery(final QuerySpec<T> query,
+                final ClosureStatus closureStatus, final boolean forwardInferenceEnabled)
+                throws RepositoryException
+        {
+            if (!query.isParsed()) {
+                return query;
+            }
+
+            final TupleExpr expression = rewriteExpression(query.getExpression(),
+                    forwardInferenceEnabled, true);
+            if (expression == query.getExpression()) {
+                return query;
+            }
+
+            LOGGER.debug("[{}] Query expanded using backward rules and equalities", this.id);
+            return QuerySpec.from(query.getType(), expression, query.getDataset(),
+                    query.getNamespaces());
+        }
+
+        @Override
+        public UpdateSpec rewriteUpdate(final UpdateSpec update,
+                final ClosureStatus closureStatus, final boolean forwardInferenceEnabled)
+                throws RepositoryException
+        {
+            if (!update.isParsed()) {
+                return update;
+            }
+
+            final List<UpdateExpr> expressions = Lists.newArrayList();
+            boolean changed = false;
+            for (final UpdateExpr expression : update.getExpressions()) {
+                UpdateExpr rewrittenExpression = expression;
+                if (expression instanceof Modify) {
+                    final Modify modify = (Modify) expression;
+                    final TupleExpr where = rewriteExpression(modify.getWhereExpr(),
+                            forwardInferenceEnabled, false);
+                    if (where != modify.getWhereExpr()) {
+                        final Modify rewrittenModify = modify.clone();
+                        rewrittenModify.setWhereExpr(where);
+                        rewrittenExpression = rewrittenModify;
+                        changed = true;
+                    }
+                }
+                expressions.add(rewrittenExpression);
+            }
+
+            if (!changed) {
+                return update;
+            }
+
+            LOGGER.debug("[{}] Update expanded using backward rules and equalities", this.id);
+            return UpdateSpec.from(expressions, update.getDatasets(), update.getNamespaces());
+        }
+
+        // canonical statements are part of the closure, so equalities are expanded only if the
+        // closure is accessed; the repository is probed for the cliques matched by patterns
+        // only for queries, as the operations of an update may change the data
+        private TupleExpr rewriteExpression(final TupleExpr expression,
+                final boolean forwardInferenceEnabled, final boolean probe)
+                throws RepositoryException
+        {
+            TupleExpr result = expression;
+
+            final BackwardExpander expander = NaiveInferencer.this.backwardExpander;
+            if (expander != null) {
+                result = expander.expand(result);
+            }
+
+            if (NaiveInferencer.this.equalityMode == EqualityMode.CANONICAL
+                    && forwardInferenceEnabled) {
+                result = getEqualityIndex().rewrite(result, probe ? this.context : null);
+            }
+
+            return result;
+        }
+
+        private EqualityIndex getEqualityIndex() throws RepositoryException
+        {
+            synchronized (this.equalityLock) {
+                if (this.equalityIndex == null) {
+                    this.equalityIndex = NaiveInferencer.this.equalityIndex;
+                }
+                if (this.equalityIndex == null) {
+                    this.equalityIndex = EqualityIndex.load(this.context);
+                    if (!this.modified) {
+                        NaiveInferencer.this.equalityIndex = this.equalityIndex;
+                    }
+                }
+                return this.equalityIndex;
+            }
+        }
+
+        // called holding the equality lock during closure computation
+        private EqualityIndex updateEqualityIndex() throws RepositoryException
+        {
+            final Long changeRound;
+            final long round;
+            synchronized (this) {
+                changeRound = this.predicateChangeRounds.get(OWL.SAMEAS);
+                round = this.round;
+            }
+            if (this.equalityIndex == null || this.equalityRound < 0L || changeRound != null
+                    && changeRound > this.equalityRound) {
+                long time = System.currentTimeMillis();
+                this.equalityIndex = EqualityIndex.load(this.context);
+                this.equalityRound = round;
+                time = System.currentTimeMillis() - time;
+                LOGGER.debug("[{}] Equality index loaded in {} ms", this.id, time);
+            }
+            return this.equalityIndex;
+        }
+
+        protected void logClosureCompleted(final long time, final long inferred)
+        {
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info("[{}] === Closure computation completed after {} ms with "
+                        + "{} new inferences ===", new Object[] { this.id, time, inferred });
+            }
+        }
+
+        protected final String getID()
+        {
+            return this.id;
+        }
+
+        protected final Context getContext()
+        {
+            return this.context;
+        }
+
         protected final List<Statement> getBuffer()
         {
             return this.buffer;
@@ -277,6 +819,20 @@ class NaiveInferencer extends AbstractInferencer
         protected long executeFixPoint(final ClosureFixPointTask task, final BindingSet bindings)
                 throws QueryEvaluationException, RepositoryException
         {
+            // the fix point of a single transitive rule is computed natively in one pass
+            final ClosureTask subTask = task.getSubTask();
+            if (subTask instanceof ClosureEvalTask
+                    && ((ClosureEvalTask) subTask).getRuleIDs().size() == 1) {
+                final BindingSet actualBindings = subTask.getBindings().isEmpty() ? bindings
+                        : overrideBindings(bindings, subTask.getBindings());
+                final TransitiveClosure closure = NaiveInferencer.this.transitiveClosures
+                        .get(((ClosureEvalTask) subTask).getRuleIDs().get(0));
+                if (closure != null && closure.isApplicable(actualBindings)) {
+                    return executeTransitiveClosure((ClosureEvalTask) subTask, closure,
+                            actualBindings);
+                }
+            }
+
             long result = 0L;
             int iteration = 1;
 
@@ -301,6 +857,57 @@ class NaiveInferencer extends AbstractInferencer
             return result;
         }
 
+        // activation, statistics and change tracking as in executeEval; the computed closure is
+        // complete, so no further evaluation is needed to detect the fix point
+        private long executeTransitiveClosure(final ClosureEvalTask task,
+                final TransitiveClosure closure, final BindingSet bindings)
+                throws QueryEvaluationException, RepositoryException
+        {
+            final Rule rule = closure.getRule();
+            if (selectRuleIDs(task, bindings).isEmpty()) {
+                return 0L;
+            }
+
+            final Buffer buffer = new Buffer(this.context.getValueFactory(),
+                    NaiveInferencer.this.maxBufferSize, getDataDir(), 0);
+            try {
+                long time = System.currentTimeMillis();
+                final Appender appender = buffer.newAppender();
+                closure.compute(this.context, bindings, appender);
+                final int count = appender.flush();
+                time = System.currentTimeMillis() - time;
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[{}] Rule {} closed natively in {} ms, {} statements inferred",
+                            new Object[] { this.id, rule, time, count });
+                }
+
+                if (buffer.size() > 0 && this.concurrentIteration.get() != null) {
+                    delegateFlush(buffer);
+                } else if (buffer.size() > 0) {
+                    flushBuffer(buffer);
+                }
+
+                synchronized (this) {
+                    NaiveInferencer.this.statistics.get(rule.getID()).recordActivations(count,
+                            time);
+                    if (buffer.size() > 0) {
+                        recordChanges(buffer, this.round);
+                    }
+                    if (count > 0) {
+                        for (final Resource ruleID : NaiveInferencer.this.ruleset
+                                .getTriggeredRuleIDs(rule.getID())) {
+                            this.triggerRounds.put(ruleID, this.round);
+                        }
+                    }
+                }
+
+                return buffer.size();
+            } finally {
+                buffer.close();
+            }
+        }
+
         protected long executeRepeat(final ClosureRepeatTask task, final BindingSet bindings)
                 throws QueryEvaluationException, RepositoryException
         {
@@ -312,6 +919,11 @@ class NaiveInferencer extends AbstractInferencer
                 throw new Error("Unexpected exception: " + ex.getMessage(), ex);
             }
 
+            if (task.isConcurrent() && this.context.getExecutor() != null
+                    && isConcurrentRepeatSupported() && this.concurrentIteration.get() == null) {
+                return executeConcurrentRepeat(task, bindings, iterationRange);
+            }
+
             long result = 0L;
             int iteration = 1;
 
@@ -337,120 +949,811 @@ class NaiveInferencer extends AbstractInferencer
             return result;
         }
 
-        protected long executeEval(final ClosureEvalTask task, final BindingSet bindings)
+        // iterations of concurrent repeat tasks are executed by auxiliary tasks, taking them
+        // from the queue of the current group, while this thread performs their flushes; groups
+        // are executed one after the other
+        private long executeConcurrentRepeat(final ClosureRepeatTask task,
+                final BindingSet bindings, final List<BindingSet> iterationRange)
                 throws QueryEvaluationException, RepositoryException
         {
-            if (!bindings.equals(this.lastBindings)) {
-                this.activeRules.addAll(NaiveInferencer.this.ruleset.getForwardRuleIDs());
-                this.lastBindings = bindings;
+            final String groupVariable = task.getGroupVariable();
+            final AtomicLong result = new AtomicLong(0L);
+
+            int start = 0;
+            while (start < iterationRange.size()) {
+                int end = start + 1;
+                if (groupVariable != null) {
+                    final Value key = iterationRange.get(start).getValue(groupVariable);
+                    while (end < iterationRange.size()
+                            && Objects.equal(key, iterationRange.get(end).getValue(
+                                    groupVariable))) {
+                        ++end;
+                    }
+                } else {
+                    end = iterationRange.size();
+                }
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[{}] Repeat iterations {}-{}/{} started concurrently",
+                            new Object[] { this.id, start + 1, end, iterationRange.size() });
+                }
+
+                final long inferred = result.get();
+                final Queue<BindingSet> pendingBindings = new ArrayDeque<BindingSet>(
+                        iterationRange.subList(start, end));
+                final int numAuxiliaryTasks = Math.min(NaiveInferencer.this.maxConcurrentRules,
+                        end - start);
+                final List<Future<?>> futures = Lists.newArrayListWithCapacity(numAuxiliaryTasks);
+                for (int i = 0; i < numAuxiliaryTasks; ++i) {
+                    futures.add(this.context.getExecutor().submit(new Callable<Void>() {
+
+                        @Override
+                        public Void call() throws Exception
+                        {
+                            executeRepeatHelper(task, pendingBindings, bindings, result);
+                            return null;
+                        }
+
+                    }));
+                }
+
+                // a failure of the flushes is reported in place of the ones it causes in the
+                // auxiliary tasks, whose pending flushes are cancelled; these are still awaited,
+                // so that no iteration is running when this method returns
+                RepositoryException failure = null;
+                try {
+                    executeFlushes(futures);
+                } catch (final RepositoryException ex) {
+                    failure = ex;
+                }
+
+                for (final Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (final ExecutionException ex) {
+                        if (failure == null) {
+                            failure = new RepositoryException("Repeat iteration failed: "
+                                    + ex.getCause().getMessage(), ex.getCause());
+                        }
+                    } catch (final CancellationException ex) {
+                        if (failure == null) {
+                            failure = new RepositoryException("Repeat iteration cancelled", ex);
+                        }
+                    } catch (final InterruptedException ex) {
+                        throw failure != null ? failure : new RepositoryException(
+                                "Repeat iteration interrupted", ex);
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[{}] Repeat iterations {}-{}/{} completed with {} new "
+                            + "inferences", new Object[] { this.id, start + 1, end,
+                            iterationRange.size(), result.get() - inferred });
+                }
+
+                start = end;
             }
 
-            final Buffer buffer = new Buffer(this.context.getValueFactory());
+            return result.get();
+        }
 
-            final Queue<Resource> pendingRuleIDs = new ArrayDeque<Resource>();
+        private void executeRepeatHelper(final ClosureRepeatTask task,
+                final Queue<BindingSet> pendingBindings, final BindingSet bindings,
+                final AtomicLong result) throws QueryEvaluationException, RepositoryException
+        {
+            this.concurrentIteration.set(Boolean.TRUE);
+            try {
+                while (true) {
+                    BindingSet iterationBindings = null;
+                    synchronized (pendingBindings) {
+                        iterationBindings = pendingBindings.poll();
+                    }
+                    if (iterationBindings == null) {
+                        return;
+                    }
+                    final BindingSet actualBindings = overrideBindings(bindings,
+                            iterationBindings);
+                    result.addAndGet(executeTask(task.getSubTask(), actualBindings));
+                }
+            } finally {
+                this.concurrentIteration.remove();
+            }
+        }
+
+        private void executeFlushes(final List<Future<?>> futures) throws RepositoryException
+        {
+            final BlockingQueue<FutureTask<Void>> queue;
+            queue = new LinkedBlockingQueue<FutureTask<Void>>();
+            synchronized (this) {
+                this.pendingFlushes = queue;
+            }
+            try {
+                while (true) {
+                    final FutureTask<Void> flush = queue.poll(STREAM_POLL_TIMEOUT,
+                            TimeUnit.MILLISECONDS);
+                    if (flush != null) {
+                        flush.run();
+                        continue;
+                    }
+                    boolean done = true;
+                    for (final Future<?> future : futures) {
+                        done &= future.isDone();
+                    }
+                    if (done) {
+                        break;
+                    }
+                }
+
+            } catch (final InterruptedException ex) {
+                throw new RepositoryException("Repeat iterations interrupted", ex);
+
+            } finally {
+                synchronized (this) {
+                    this.pendingFlushes = null;
+                    for (final FutureTask<Void> flush : queue) {
+                        flush.cancel(false);
+                    }
+                }
+            }
+        }
+
+        private void delegateFlush(final Buffer buffer) throws RepositoryException
+        {
+            final FutureTask<Void> flush = new FutureTask<Void>(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception
+                {
+                    flushBuffer(buffer);
+                    return null;
+                }
+
+            });
+
+            synchronized (this) {
+                if (this.pendingFlushes == null) {
+                    throw new RepositoryException("Repeat iterations aborted");
+                }
+                this.pendingFlushes.add(flush);
+            }
+
+            try {
+                flush.get();
+            } catch (final CancellationException ex) {
+                throw new RepositoryException("Repeat iterations aborted", ex);
+            } catch (final ExecutionException ex) {
+                if (ex.getCause() instanceof RepositoryException) {
+                    throw (RepositoryException) ex.getCause();
+                }
+                throw new RepositoryException("Flush of inferred statements failed: "
+                        + ex.getCause().getMessage(), ex.getCause());
+            } catch (final InterruptedException ex) {
+                throw new RepositoryException("Flush of inferred statements interrupted", ex);
+            }
+        }
+
+        /**
+         * Returns whether the iterations of a repeat task marked as concurrent can be actually
+         * executed concurrently by the session, otherwise they are executed one at a time.
+         * 
+         * @return true, if concurrent iterations are supported
+         */
+        protected boolean isConcurrentRepeatSupported()
+        {
+            return true;
+        }
+
+        protected long executeEval(final ClosureEvalTask task, final BindingSet bindings)
+                throws QueryEvaluationException, RepositoryException
+        {
+            final List<Resource> selectedRuleIDs = selectRuleIDs(task, bindings);
+            long result = selectedRuleIDs.isEmpty() ? 0L : evaluateRules(selectedRuleIDs,
+                    bindings);
+
+            // equality rules are replaced by the canonicalization of the statements of clique
+            // members, performed after the other rules so to see the equalities they infer
+            final List<EqualityIndex.EqualityRule> equalityRules = Lists.newArrayList();
             for (final Resource ruleID : task.getRuleIDs()) {
-                final Rule rule = NaiveInferencer.this.ruleset.getRule(ruleID);
-                if (!this.activeRules.contains(ruleID)) {
-                    LOGGER.debug("[{}] Rule {} skipped because inactive", this.id, ruleID);
-                } else if (rule.getCondition() != null
-                        && !((Literal) Algebra.evaluateValueExpr(rule.getCondition(), bindings,
-                                ValueFactoryImpl.getInstance())).booleanValue()) {
-                    LOGGER.debug("[{}] Rule {} skipped because condition unsatisfied", this.id,
-                            ruleID);
+                final EqualityIndex.EqualityRule rule = NaiveInferencer.this.equalityRules
+                        .get(ruleID);
+                if (rule != null) {
+                    equalityRules.add(rule);
+                }
+            }
+            if (!equalityRules.isEmpty()) {
+                result += executeCanonicalization(equalityRules, bindings);
+            }
+
+            return result;
+        }
+
+        private long evaluateRules(final List<Resource> selectedRuleIDs,
+                final BindingSet bindings) throws QueryEvaluationException, RepositoryException
+        {
+            // longest expected evaluation first, so that no slow rule is left for last; rules
+            // are taken from the shared queue by the first thread to become idle
+            final Queue<Resource> pendingRuleIDs = new ArrayDeque<Resource>(
+                    sortByExpectedTime(selectedRuleIDs));
+            final Set<Resource> triggeredRuleIDs = Sets.newHashSet();
+
+            // streaming requires auxiliary tasks, as the session thread becomes the writer
+            final ExecutorService executor = this.concurrentIteration.get() != null ? null
+                    : this.context.getExecutor();
+            final boolean streaming = NaiveInferencer.this.maxPendingFlushes > 0
+                    && executor != null;
+
+            final Buffer buffer = new Buffer(this.context.getValueFactory(),
+                    NaiveInferencer.this.maxBufferSize, getDataDir(),
+                    streaming ? NaiveInferencer.this.maxPendingFlushes : 0);
+            try {
+                final int numAuxiliaryTasks = executor == null ? 0 : Math.min(
+                        NaiveInferencer.this.maxConcurrentRules, pendingRuleIDs.size())
+                        - (streaming ? 0 : 1);
+                final List<Future<?>> futures = Lists.newArrayListWithCapacity(numAuxiliaryTasks);
+                for (int i = 0; i < numAuxiliaryTasks; ++i) {
+                    futures.add(executor.submit(new Callable<Void>() {
+
+                        @Override
+                        public Void call() throws Exception
+                        {
+                            executeEvalHelper(pendingRuleIDs, bindings, buffer,
+                                    triggeredRuleIDs);
+                            return null;
+                        }
+
+                    }));
+                }
+
+                if (streaming) {
+                    streamBuffer(buffer, futures);
                 } else {
-                    this.activeRules.remove(ruleID);
-                    pendingRuleIDs.offer(ruleID);
+                    executeEvalHelper(pendingRuleIDs, bindings, buffer, triggeredRuleIDs);
                 }
+
+                for (final Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (final ExecutionException ex) {
+                        throw new RepositoryException("Rule evaluation failed: "
+                                + ex.getCause().getMessage(), ex.getCause());
+                    } catch (final InterruptedException ex) {
+                        throw new RepositoryException("Rule evaluation interrupted", ex);
+                    }
+                }
+
+                if (buffer.size() > 0 && this.concurrentIteration.get() != null) {
+                    delegateFlush(buffer);
+                } else if (buffer.size() > 0) {
+                    flushBuffer(buffer);
+                }
+
+                // changes are recorded with the round of the last evaluation started, as the
+                // ones started concurrently (if any) may have selected rules without seeing them
+                synchronized (this) {
+                    if (buffer.size() > 0) {
+                        recordChanges(buffer, this.round);
+                    }
+                    for (final Resource ruleID : triggeredRuleIDs) {
+                        this.triggerRounds.put(ruleID, this.round);
+                    }
+                }
+
+                return buffer.size();
+            } finally {
+                buffer.close();
             }
+        }
 
-            if (pendingRuleIDs.isEmpty()) {
-                return 0L;
+        // a rule is active for some bindings if never evaluated with the values they assign to
+        // its variables, or if triggered after that evaluation: bindings of variables not used by
+        // the rule (e.g., of other repeat levels) do not cause re-evaluations. Triggers apply to
+        // all the bindings of a rule, as statements inferred under some bindings may match its
+        // body under other ones (e.g., in a repeat task inside a fix-point); re-evaluations for
+        // bindings whose body predicates did not change are still avoided
+        private List<Resource> selectRuleIDs(final ClosureEvalTask task,
+                final BindingSet bindings) throws QueryEvaluationException
+        {
+            final List<Resource> selectedRuleIDs = Lists.newArrayList();
+            synchronized (this) {
+                final long round = ++this.round;
+                for (final Resource ruleID : task.getRuleIDs()) {
+                    if (NaiveInferencer.this.equalityRules.containsKey(ruleID)) {
+                        continue; // handled by executeCanonicalization()
+                    }
+                    final Rule rule = NaiveInferencer.this.ruleset.getRule(ruleID);
+                    final List<Object> key = ImmutableList.<Object>of(ruleID,
+                            getRuleBindings(rule, bindings));
+                    final Long evaluationRound = this.evaluationRounds.get(key);
+                    final Long triggerRound = this.triggerRounds.get(ruleID);
+                    if (evaluationRound != null
+                            && (triggerRound == null || triggerRound < evaluationRound)) {
+                        LOGGER.debug("[{}] Rule {} skipped because inactive", this.id, ruleID);
+                    } else if (rule.getCondition() != null
+                            && !((Literal) Algebra.evaluateValueExpr(rule.getCondition(),
+                                    bindings, ValueFactoryImpl.getInstance())).booleanValue()) {
+                        LOGGER.debug("[{}] Rule {} skipped because condition unsatisfied",
+                                this.id, ruleID);
+                    } else if (evaluationRound != null
+                            && !isBodyChanged(rule, bindings, evaluationRound)) {
+                        LOGGER.debug("[{}] Rule {} skipped because body predicates unchanged",
+                                this.id, ruleID);
+                    } else {
+                        this.evaluationRounds.put(key, round);
+                        selectedRuleIDs.add(ruleID);
+                    }
+                }
+            }
+            return selectedRuleIDs;
+        }
+
+        // statements mentioning members other than representatives are rewritten to the
+        // representatives in the positions covered by the replacement rules of the task; all
+        // the statements of those members are scanned at each call, but only the canonical
+        // statements not already in the repository are inferred
+        private long executeCanonicalization(final List<EqualityIndex.EqualityRule> rules,
+                final BindingSet bindings) throws RepositoryException
+        {
+            final EqualityIndex.EqualityRule[] replacements = getReplacements(rules);
+
+            final EqualityIndex index;
+            synchronized (this.equalityLock) {
+                index = updateEqualityIndex();
+            }
+
+            final Buffer buffer = new Buffer(this.context.getValueFactory(),
+                    NaiveInferencer.this.maxBufferSize, getDataDir(), 0);
+            try {
+                long time = System.currentTimeMillis();
+                final List<Resource> members = index.getNonRepresentatives();
+                final Appender appender = buffer.newAppender();
+                final int[] counts = new int[3];
+                int added = 0;
+                for (final Resource member : members) {
+                    for (int position = 0; position < 3; ++position) {
+                        if (replacements[position] == null
+                                || position == EqualityIndex.PREDICATE
+                                && !(member instanceof URI)) {
+                            continue;
+                        }
+                        final CloseableIteration<? extends Statement, RepositoryException> //
+                        iteration = getStatements(member, position);
+                        try {
+                            while (iteration.hasNext()) {
+                                canonicalize(iteration.next(), index, replacements, bindings,
+                                        appender);
+                            }
+                        } finally {
+                            iteration.close();
+                        }
+                        final int total = appender.flush();
+                        counts[position] += total - added;
+                        added = total;
+                    }
+                }
+                time = System.currentTimeMillis() - time;
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[{}] Statements of {} clique members canonicalized in {} ms, "
+                            + "{} statements inferred", new Object[] { this.id, members.size(),
+                            time, added });
+                }
+
+                if (buffer.size() > 0 && this.concurrentIteration.get() != null) {
+                    delegateFlush(buffer);
+                } else if (buffer.size() > 0) {
+                    flushBuffer(buffer);
+                }
+
+                synchronized (this) {
+                    for (int position = 0; position < 3; ++position) {
+                        if (replacements[position] != null) {
+                            NaiveInferencer.this.statistics.get(
+                                    replacements[position].getRule().getID())
+                                    .recordActivations(counts[position], time);
+                        }
+                    }
+                    if (buffer.size() > 0) {
+                        recordChanges(buffer, this.round);
+                        for (final EqualityIndex.EqualityRule rule : rules) {
+                            for (final Resource ruleID : NaiveInferencer.this.ruleset
+                                    .getTriggeredRuleIDs(rule.getRule().getID())) {
+                                this.triggerRounds.put(ruleID, this.round);
+                            }
+                        }
+                    }
+                }
+
+                return buffer.size();
+            } finally {
+                buffer.close();
             }
+        }
 
-            final int numAuxiliaryTasks = this.context.getScheduler() == null ? 0 : Math.min(
-                    NaiveInferencer.this.maxConcurrentRules, pendingRuleIDs.size()) - 1;
-            final List<Future<?>> futures = Lists.newArrayListWithCapacity(numAuxiliaryTasks);
-            for (int i = 0; i < numAuxiliaryTasks; ++i) {
-                futures.add(this.context.getScheduler().submit(new Callable<Void>() {
+        private void canonicalize(final Statement statement, final EqualityIndex index,
+                final EqualityIndex.EqualityRule[] replacements, final BindingSet bindings,
+                final Appender appender) throws RepositoryException
+        {
+            final Value[] terms = new Value[] { statement.getSubject(),
+                    statement.getPredicate(), statement.getObject() };
+            EqualityIndex.EqualityRule rule = null;
+            for (int position = 0; position < 3; ++position) {
+                if (replacements[position] != null) {
+                    final Value representative = index.getRepresentative(terms[position]);
+                    if (!representative.equals(terms[position])) {
+                        terms[position] = representative;
+                        rule = rule != null ? rule : replacements[position];
+                    }
+                }
+            }
+            if (rule != null
+                    && !this.context.hasStatement((Resource) terms[0], (URI) terms[1],
+                            terms[2], true)) {
+                appender.handle((Resource) terms[0], (URI) terms[1], terms[2],
+                        rule.getContext(bindings));
+            }
+        }
+
+        // expands the statements of representatives to all the members of their cliques, at the
+        // end of the closure computation, so that queries need no rewriting
+        private long materializeEqualities() throws RepositoryException
+        {
+            final EqualityIndex.EqualityRule[] replacements = getReplacements(
+                    NaiveInferencer.this.equalityRules.values());
+            final BindingSet bindings = NaiveInferencer.this.rulesetBindings;
 
-                    @Override
-                    public Void call() throws Exception
-                    {
-                        executeEvalHelper(pendingRuleIDs, bindings, buffer);
-                        return null;
+            final EqualityIndex index;
+            synchronized (this.equalityLock) {
+                index = updateEqualityIndex();
+            }
+
+            final Buffer buffer = new Buffer(this.context.getValueFactory(),
+                    NaiveInferencer.this.maxBufferSize, getDataDir(), 0);
+            try {
+                long time = System.currentTimeMillis();
+                final List<Resource> representatives = index.getRepresentatives();
+                final Appender appender = buffer.newAppender();
+                for (final Resource representative : representatives) {
+                    for (int position = 0; position < 3; ++position) {
+                        if (position == EqualityIndex.PREDICATE
+                                && !(representative instanceof URI)) {
+                            continue;
+                        }
+                        final Resource context = replacements[position].getContext(bindings);
+                        final CloseableIteration<? extends Statement, RepositoryException> //
+                        iteration = getStatements(representative, position);
+                        try {
+                            while (iteration.hasNext()) {
+                                final Statement statement = iteration.next();
+                                for (final Value subj : expand(index, statement.getSubject())) {
+                                    for (final Value pred : expand(index,
+                                            statement.getPredicate())) {
+                                        for (final Value obj : expand(index,
+                                                statement.getObject())) {
+                                            if (pred instanceof URI) {
+                                                appender.handle((Resource) subj, (URI) pred,
+                                                        obj, context);
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        } finally {
+                            iteration.close();
+                        }
                     }
+                }
+                final int count = appender.flush();
+                time = System.currentTimeMillis() - time;
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[{}] Statements of {} clique representatives expanded in {} "
+                            + "ms, {} statements inferred", new Object[] { this.id,
+                            representatives.size(), time, count });
+                }
 
-                }));
+                if (buffer.size() > 0) {
+                    flushBuffer(buffer);
+                }
+                return buffer.size();
+            } finally {
+                buffer.close();
             }
+        }
 
-            executeEvalHelper(pendingRuleIDs, bindings, buffer);
+        private List<? extends Value> expand(final EqualityIndex index, final Value value)
+        {
+            final List<Resource> members = index.getMembers(value);
+            if (members.isEmpty()) {
+                return Collections.singletonList(value);
+            }
+            return members;
+        }
 
-            for (final Future<?> future : futures) {
-                try {
-                    future.get();
-                } catch (final ExecutionException ex) {
-                    throw new RepositoryException("Rule evaluation failed: "
-                            + ex.getCause().getMessage(), ex.getCause());
-                } catch (final InterruptedException ex) {
-                    throw new RepositoryException("Rule evaluation interrupted", ex);
+        private EqualityIndex.EqualityRule[] getReplacements(
+                final Iterable<EqualityIndex.EqualityRule> rules)
+        {
+            final EqualityIndex.EqualityRule[] replacements = new EqualityIndex.EqualityRule[3];
+            for (final EqualityIndex.EqualityRule rule : rules) {
+                if (rule.getPosition() >= 0) {
+                    replacements[rule.getPosition()] = rule;
+                }
+            }
+            return replacements;
+        }
+
+        private CloseableIteration<? extends Statement, RepositoryException> getStatements(
+                final Resource term, final int position) throws RepositoryException
+        {
+            return this.context.getStatements(position == EqualityIndex.SUBJECT ? term : null,
+                    position == EqualityIndex.PREDICATE ? (URI) term : null,
+                    position == EqualityIndex.OBJECT ? term : null, true);
+        }
+
+        private void recordChanges(final Buffer buffer, final long round)
+        {
+            for (final URI predicate : buffer.getPredicates()) {
+                this.predicateChangeRounds.put(predicate, round);
+            }
+            for (final Value type : buffer.getTypes()) {
+                this.typeChangeRounds.put(type, round);
+            }
+            this.lastChangeRound = round;
+        }
+
+        // true if statements matching the constant predicates (and rdf:type classes) of some
+        // body atom were added since the last evaluation of the rule with the same bindings
+        private boolean isBodyChanged(final Rule rule, final BindingSet bindings,
+                final long evaluationRound)
+        {
+            if (this.lastChangeRound < evaluationRound) {
+                return false;
+            }
+
+            for (final StatementPattern atom : rule.getBodyAtoms()) {
+                final Value predicate = resolve(atom.getPredicateVar(), bindings);
+                if (predicate == null) {
+                    return true;
+                }
+                final Long predicateRound = this.predicateChangeRounds.get(predicate);
+                if (predicateRound == null || predicateRound < evaluationRound) {
+                    continue;
+                }
+                if (predicate.equals(RDF.TYPE)) {
+                    final Value type = resolve(atom.getObjectVar(), bindings);
+                    if (type != null) {
+                        final Long typeRound = this.typeChangeRounds.get(type);
+                        if (typeRound == null || typeRound < evaluationRound) {
+                            continue;
+                        }
+                    }
                 }
+                return true;
             }
+            return false;
+        }
+
+        @Nullable
+        private Value resolve(final Var var, final BindingSet bindings)
+        {
+            return var.hasValue() ? var.getValue() : bindings.getValue(var.getName());
+        }
 
-            if (buffer.size() > 0) {
-                LOGGER.debug("[{}] Flushing {} inferred statements to repository", this.id,
-                        buffer.size());
-                this.context.addInferred(buffer);
+        private void streamBuffer(final Buffer buffer, final List<Future<?>> futures)
+                throws RepositoryException
+        {
+            boolean success = false;
+            try {
+                boolean done = false;
+                while (true) {
+                    final List<Statement> batch = buffer.pollStreamed(done ? 0L
+                            : STREAM_POLL_TIMEOUT);
+                    if (batch != null) {
+                        LOGGER.debug("[{}] Streaming {} inferred statements to repository",
+                                this.id, batch.size());
+                        this.context.addInferred(batch);
+                    } else if (done) {
+                        break;
+                    } else {
+                        done = true;
+                        for (final Future<?> future : futures) {
+                            done &= future.isDone();
+                        }
+                    }
+                }
+                success = true;
+
+            } catch (final InterruptedException ex) {
+                throw new RepositoryException("Streaming of inferred statements interrupted", ex);
+
+            } finally {
+                if (!success) {
+                    buffer.abortStreaming();
+                }
             }
+        }
 
-            return buffer.size();
+        protected void flushBuffer(final Buffer buffer) throws RepositoryException
+        {
+            if (buffer.isStreaming()) {
+                LOGGER.debug("[{}] {} inferred statements already streamed to repository, "
+                        + "buffer statistics: {}", new Object[] { this.id, buffer.size(),
+                        buffer.getStatistics() });
+                return;
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] Flushing {} inferred statements to repository, buffer "
+                        + "statistics: {}", new Object[] { this.id, buffer.size(),
+                        buffer.getStatistics() });
+            }
+            this.context.addInferred(buffer);
         }
 
         private void executeEvalHelper(final Queue<Resource> pendingRuleIDs,
-                final BindingSet bindings, final Buffer buffer) throws QueryEvaluationException,
+                final BindingSet bindings, final Buffer buffer,
+                final Set<Resource> triggeredRuleIDs) throws QueryEvaluationException,
                 RepositoryException
         {
             while (true) {
-                Rule rule = null;
+                final List<Rule> rules = Lists.newArrayList();
                 synchronized (this) {
                     final Resource ruleID = pendingRuleIDs.poll();
                     if (ruleID == null) {
                         return;
                     }
-                    rule = NaiveInferencer.this.ruleset.getRule(ruleID);
+                    rules.add(NaiveInferencer.this.ruleset.getRule(ruleID));
+                    pollSharedScanRules(pendingRuleIDs, bindings, rules);
                 }
 
                 long time = System.currentTimeMillis();
-                final int count = evaluateRule(rule, bindings, buffer);
-                time = System.currentTimeMillis() - time;
+                final int[] counts;
+                if (rules.size() > 1) {
+                    counts = evaluateSharedScan(rules, bindings, buffer);
+                } else if (NaiveInferencer.this.memoizedRuleIDs.contains(rules.get(0).getID())) {
+                    fullEvaluationStarted(rules.get(0));
+                    counts = new int[] { evaluateMemoizedRule(rules.get(0), bindings, buffer) };
+                } else {
+                    counts = new int[] { evaluateRule(rules.get(0), bindings, buffer) };
+                }
+                time = (System.currentTimeMillis() - time) / rules.size();
+
+                for (int i = 0; i < rules.size(); ++i) {
+                    final Rule rule = rules.get(i);
+                    final int count = counts[i];
+                    synchronized (this) {
+                        NaiveInferencer.this.statistics.get(rule.getID()).recordActivations(
+                                count, time);
+                        if (count > 0) {
+                            triggeredRuleIDs.addAll(NaiveInferencer.this.ruleset
+                                    .getTriggeredRuleIDs(rule.getID()));
+                        }
+                    }
 
-                synchronized (this) {
-                    NaiveInferencer.this.statistics.get(rule.getID()).recordActivations(count,
-                            time);
-                    if (count > 0) {
-                        this.activeRules.addAll(Objects.firstNonNull(rule.getTriggeredRuleIDs(),
-                                NaiveInferencer.this.ruleset.getForwardRuleIDs()));
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("[{}] Rule {} evaluated in {} ms, {} statements inferred",
+                                new Object[] { this.id, rule, time, count });
                     }
                 }
+            }
+        }
 
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("[{}] Rule {} evaluated in {} ms, {} statements inferred",
-                            new Object[] { this.id, rule, time, count });
+        // moves from the queue to the list the rules whose join plans stream the same statements
+        // as the plan of the first rule in the list; must be called holding the session lock.
+        // Memoized rules are excluded, as their outputs are normally replayed without any scan
+        private void pollSharedScanRules(final Queue<Resource> pendingRuleIDs,
+                final BindingSet bindings, final List<Rule> rules)
+        {
+            final Set<Resource> memoizedRuleIDs = NaiveInferencer.this.memoizedRuleIDs;
+            final Rule rule = rules.get(0);
+            final JoinPlan plan = NaiveInferencer.this.joinPlans.get(rule.getID());
+            if (plan == null || !isFullyEvaluated(rule) || memoizedRuleIDs.contains(rule.getID())) {
+                return;
+            }
+            final List<Value> pattern = plan.getScanPattern(bindings);
+            for (final Iterator<Resource> i = pendingRuleIDs.iterator(); i.hasNext();) {
+                final Rule otherRule = NaiveInferencer.this.ruleset.getRule(i.next());
+                final JoinPlan otherPlan = NaiveInferencer.this.joinPlans.get(otherRule.getID());
+                if (otherPlan != null && isFullyEvaluated(otherRule)
+                        && !memoizedRuleIDs.contains(otherRule.getID())
+                        && pattern.equals(otherPlan.getScanPattern(bindings))) {
+                    rules.add(otherRule);
+                    i.remove();
                 }
             }
         }
 
+        /**
+         * Returns whether {@link #evaluateRule} would currently evaluate the rule on the whole
+         * repository (rather than incrementally), so that its join plan can share a scan with the
+         * plans of other rules.
+         */
+        protected boolean isFullyEvaluated(final Rule rule)
+        {
+            return true;
+        }
+
+        /**
+         * Notifies that the rule is being evaluated on the whole repository through a shared
+         * scan, bypassing {@link #evaluateRule}.
+         */
+        protected void fullEvaluationStarted(final Rule rule)
+        {
+        }
+
+        private int[] evaluateSharedScan(final List<Rule> rules, final BindingSet bindings,
+                final Buffer buffer) throws QueryEvaluationException, RepositoryException
+        {
+            final List<JoinPlan> plans = Lists.newArrayListWithCapacity(rules.size());
+            final List<Appender> appenders = Lists.newArrayListWithCapacity(rules.size());
+            for (final Rule rule : rules) {
+                plans.add(NaiveInferencer.this.joinPlans.get(rule.getID()));
+                appenders.add(buffer.newAppender());
+                fullEvaluationStarted(rule);
+            }
+
+            final long startTime = System.nanoTime();
+            List<JoinPlan> aborted;
+            try {
+                aborted = JoinPlan.evaluate(plans, this.context, bindings, appenders);
+            } finally {
+                this.evaluationTime.addAndGet(System.nanoTime() - startTime);
+            }
+
+            final int[] counts = new int[rules.size()];
+            for (int i = 0; i < rules.size(); ++i) {
+                if (aborted.contains(plans.get(i))) {
+                    LOGGER.debug("[{}] Hash tables of rule {} too large, using SPARQL", this.id,
+                            rules.get(i).getID());
+                    counts[i] = evaluateBodyQuery(rules.get(i), bindings, buffer);
+                } else {
+                    counts[i] = appenders.get(i).flush();
+                }
+            }
+
+            LOGGER.debug("[{}] Rules {} evaluated with a shared scan", this.id, rules);
+            return counts;
+        }
+
         protected int evaluateRule(final Rule rule, final BindingSet bindings, final Buffer buffer)
                 throws QueryEvaluationException, RepositoryException
         {
+            final SchemaIndex.SchemaRule schemaRule = NaiveInferencer.this.schemaRules.get(rule
+                    .getID());
+            if (schemaRule != null) {
+                return evaluateSchemaRule(schemaRule, bindings, buffer);
+            }
+
+            final JoinPlan joinPlan = NaiveInferencer.this.joinPlans.get(rule.getID());
+            if (joinPlan != null) {
+                final int count = evaluateJoinPlan(joinPlan, bindings, buffer);
+                if (count >= 0) {
+                    return count;
+                }
+            }
+
+            return evaluateBodyQuery(rule, bindings, buffer);
+        }
+
+        private int evaluateBodyQuery(final Rule rule, final BindingSet bindings,
+                final Buffer buffer) throws QueryEvaluationException, RepositoryException
+        {
+            final long startTime = System.nanoTime();
+            final QuerySpec<TupleQueryResult> query = prepareBodyQuery(rule, bindings);
+
             try {
-                final TupleQueryResult iteration = this.context.query(rule.getBodyQuery(), null,
-                        bindings, true, 0);
+                final TupleQueryResult iteration = this.context.query(query, null, bindings,
+                        true, 0);
+                final long planTime = System.nanoTime();
+                this.planningTime.addAndGet(planTime - startTime);
                 try {
                     final Appender appender = buffer.newAppender();
                     rule.collectHeadStatements(iteration, bindings, appender);
                     return appender.flush();
                 } finally {
                     iteration.close();
+                    this.evaluationTime.addAndGet(System.nanoTime() - planTime);
                 }
 
             } catch (final MalformedQueryException ex) {
@@ -458,6 +1761,148 @@ class NaiveInferencer extends AbstractInferencer
             }
         }
 
+        // the schema relation is (re)loaded as part of planning; changes flushed in the round it
+        // is loaded may be missed by the load, hence they cause a reload at the next evaluation
+        private int evaluateSchemaRule(final SchemaIndex.SchemaRule rule,
+                final BindingSet bindings, final Buffer buffer) throws QueryEvaluationException,
+                RepositoryException
+        {
+            final long startTime = System.nanoTime();
+            long round;
+            Long changeRound;
+            synchronized (this) {
+                round = this.round;
+                changeRound = this.predicateChangeRounds.get(rule.getPredicate());
+            }
+            final Map<Value, List<Value>> relation = this.schemaIndex.getRelation(this.context,
+                    rule.getPredicate(), rule.isInverse(), round, changeRound);
+            final long planTime = System.nanoTime();
+            this.planningTime.addAndGet(planTime - startTime);
+
+            try {
+                final Appender appender = buffer.newAppender();
+                rule.evaluate(this.context, relation, bindings, appender);
+                return appender.flush();
+            } finally {
+                this.evaluationTime.addAndGet(System.nanoTime() - planTime);
+            }
+        }
+
+        // returns -1 if the plan gave up due to the size of its tables, before inferring anything
+        private int evaluateJoinPlan(final JoinPlan plan, final BindingSet bindings,
+                final Buffer buffer) throws QueryEvaluationException, RepositoryException
+        {
+            final long startTime = System.nanoTime();
+            try {
+                final Appender appender = buffer.newAppender();
+                if (!plan.evaluate(this.context, bindings, appender)) {
+                    LOGGER.debug("[{}] Hash tables of rule {} too large, using SPARQL", this.id,
+                            plan.getRule().getID());
+                    return -1;
+                }
+                return appender.flush();
+            } finally {
+                this.evaluationTime.addAndGet(System.nanoTime() - startTime);
+            }
+        }
+
+        // outputs are replayed rather than skipped on a hit, as inferred statements may have been
+        // removed since they were computed; the buffer drops the ones already in the repository.
+        // Outputs are stored only if inputs did not change while the body was being evaluated
+        private int evaluateMemoizedRule(final Rule rule, final BindingSet bindings,
+                final Buffer buffer) throws QueryEvaluationException, RepositoryException
+        {
+            final RuleOutputCache cache = NaiveInferencer.this.outputCache;
+            final List<Object> key = ImmutableList.<Object>of(rule.getID(),
+                    getRuleBindings(rule, bindings));
+
+            final long startTime = System.nanoTime();
+            final String digest = RuleOutputCache.digestInputs(this.context, rule, bindings);
+            List<Statement> statements = cache.get(key, digest);
+            final long planTime = System.nanoTime();
+            this.planningTime.addAndGet(planTime - startTime);
+
+            if (statements != null) {
+                LOGGER.debug("[{}] Reusing {} memoized statements of rule {}", new Object[] {
+                        this.id, statements.size(), rule.getID() });
+            } else {
+                final QuerySpec<TupleQueryResult> query = prepareBodyQuery(rule, bindings);
+                final ValueFactory factory = ValueFactoryImpl.getInstance();
+                final List<Statement> collected = Lists.newArrayList();
+                try {
+                    final TupleQueryResult iteration = this.context.query(query, null,
+                            bindings, true, 0);
+                    final long queryTime = System.nanoTime();
+                    this.planningTime.addAndGet(queryTime - planTime);
+                    try {
+                        rule.collectHeadStatements(iteration, bindings,
+                                new StatementHandler<RuntimeException>() {
+
+                                    @Override
+                                    public void handle(final Resource subj, final URI pred,
+                                            final Value obj, final Resource ctx)
+                                    {
+                                        collected.add(factory.createStatement(subj, pred, obj,
+                                                ctx));
+                                    }
+
+                                });
+                    } finally {
+                        iteration.close();
+                        this.evaluationTime.addAndGet(System.nanoTime() - queryTime);
+                    }
+                } catch (final MalformedQueryException ex) {
+                    throw new Error("Unexpected exception: " + ex.getMessage(), ex);
+                }
+                statements = collected;
+                if (digest.equals(RuleOutputCache.digestInputs(this.context, rule, bindings))) {
+                    cache.put(key, digest, statements);
+                }
+            }
+
+            final Appender appender = buffer.newAppender();
+            for (final Statement statement : statements) {
+                appender.handle(statement.getSubject(), statement.getPredicate(),
+                        statement.getObject(), statement.getContext());
+            }
+            return appender.flush();
+        }
+
+        // bindings are folded in the body query, except for projected variables that are needed
+        // to instantiate rule heads; data statistics do not affect the prepared query
+        private QuerySpec<TupleQueryResult> prepareBodyQuery(final Rule rule,
+                final BindingSet bindings)
+        {
+            final Map<String, Value> ruleBindings = getRuleBindings(rule, bindings);
+            final List<Object> key = ImmutableList.<Object>of(rule.getID(), ruleBindings);
+            QuerySpec<TupleQueryResult> query = NaiveInferencer.this.preparedQueries
+                    .getIfPresent(key);
+            if (query != null) {
+                this.reusedPlans.incrementAndGet();
+                return query;
+            }
+
+            query = rule.getBodyQuery();
+            final TupleExpr expression = query.getExpression();
+            final MapBindingSet foldedBindings = new MapBindingSet();
+            for (final Map.Entry<String, Value> entry : ruleBindings.entrySet()) {
+                if (!expression.getBindingNames().contains(entry.getKey())) {
+                    foldedBindings.addBinding(entry.getKey(), entry.getValue());
+                }
+            }
+            try {
+                query = QuerySpec.from(QueryType.TUPLE,
+                        Algebra.prepareTupleExpr(expression, null, foldedBindings), null);
+            } catch (final RuntimeException ex) {
+                LOGGER.debug("[" + this.id + "] Cannot prepare body query of rule "
+                        + rule.getID() + "; using unprepared query", ex);
+            }
+
+            NaiveInferencer.this.preparedQueries.put(key, query);
+            this.preparedPlans.incrementAndGet();
+            return query;
+        }
+
     }
 
     private final static class RuleStatistics
@@ -479,15 +1924,35 @@ class NaiveInferencer extends AbstractInferencer
             this.time = 0L;
         }
 
-        public void recordActivations(final long statements, final long time)
+        public synchronized void recordActivations(final long statements, final long time)
         {
             ++this.activations;
             this.statements += statements;
             this.time += time;
         }
 
+        // rules never evaluated are expected to be the slowest, so to be scheduled first
+        public synchronized long getExpectedTime()
+        {
+            return this.activations == 0 ? Long.MAX_VALUE : this.time / this.activations;
+        }
+
+        public synchronized void restore(final int activations, final long statements,
+                final long time)
+        {
+            this.activations = activations;
+            this.statements = statements;
+            this.time = time;
+        }
+
+        public synchronized void emit(final StringBuilder builder)
+        {
+            builder.append(this.ruleID.stringValue()).append(' ').append(this.activations)
+                    .append(' ').append(this.statements).append(' ').append(this.time);
+        }
+
         @Override
-        public String toString()
+        public synchronized String toString()
         {
             final String id = this.ruleID instanceof URI ? ((URI) this.ruleID).getLocalName()
                     : this.ruleID.stringValue();
@@ -0,0 +1,371 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.algebra.BNodeGenerator;
+import org.openrdf.query.algebra.FunctionCall;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.aduna.iteration.CloseableIteration;
+
+import eu.fbk.dkm.springles.ruleset.Rule;
+
+/**
+ * Cache of the outputs of rules depending only on schema statements, or on no statement at all.
+ * <p>
+ * A rule is memoizable ({@link #isMemoizable(Rule)}) if its body has no atom (e.g., axiom
+ * rules) or if all its atoms, including the ones in <tt>FILTER NOT EXISTS</tt> conditions,
+ * have a constant RDFS / OWL schema predicate, or are <tt>rdf:type</tt> atoms with a constant
+ * RDFS / OWL meta-class. For such a rule, the statements matching its atoms are few, so their
+ * digest ({@link #digestInputs(Inferencer.Context, Rule, BindingSet)}) is cheap to compute, and
+ * the rule output can be reused whenever the digest is unchanged, as the output is a function
+ * of those statements and of the rule bindings only. Rules using transformers or generating
+ * blank nodes or random values are not memoizable.
+ * </p>
+ * <p>
+ * Outputs are kept per rule and bindings, together with the digest they were computed from,
+ * and can be saved to and loaded from a file, so that they survive repository restarts. Outputs
+ * larger than a fixed size are not cached. Cached keys and statements are copied to the values
+ * of {@link ValueFactoryImpl}, which are serializable and do not retain backend resources, and
+ * the file is replaced atomically, so that a crash while saving does not corrupt it.
+ * </p>
+ */
+final class RuleOutputCache
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RuleOutputCache.class);
+
+    private static final int MAX_STATEMENTS = 100000;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final Set<URI> SCHEMA_PREDICATES;
+
+    private static final Set<URI> SCHEMA_TYPES;
+
+    static {
+        final ImmutableSet.Builder<URI> predicates = ImmutableSet.builder();
+        predicates.add(RDFS.SUBCLASSOF, RDFS.SUBPROPERTYOF, RDFS.DOMAIN, RDFS.RANGE, RDF.FIRST,
+                RDF.REST);
+        for (final String name : new String[] { "equivalentClass", "equivalentProperty",
+                "inverseOf", "propertyChainAxiom", "hasKey", "intersectionOf", "unionOf",
+                "complementOf", "oneOf", "someValuesFrom", "allValuesFrom", "hasValue",
+                "hasSelf", "onProperty", "onClass", "onDataRange", "onProperties",
+                "cardinality", "minCardinality", "maxCardinality", "qualifiedCardinality",
+                "minQualifiedCardinality", "maxQualifiedCardinality", "disjointWith",
+                "propertyDisjointWith", "disjointUnionOf", "members", "datatypeComplementOf",
+                "onDatatype", "withRestrictions" }) {
+            predicates.add(new URIImpl(OWL.NAMESPACE + name));
+        }
+        SCHEMA_PREDICATES = predicates.build();
+
+        final ImmutableSet.Builder<URI> types = ImmutableSet.builder();
+        types.add(RDFS.CLASS, RDFS.DATATYPE, RDFS.CONTAINERMEMBERSHIPPROPERTY, RDF.PROPERTY);
+        for (final String name : new String[] { "Class", "Restriction", "ObjectProperty",
+                "DatatypeProperty", "AnnotationProperty", "FunctionalProperty",
+                "InverseFunctionalProperty", "TransitiveProperty", "SymmetricProperty",
+                "AsymmetricProperty", "ReflexiveProperty", "IrreflexiveProperty",
+                "AllDisjointClasses", "AllDisjointProperties" }) {
+            types.add(new URIImpl(OWL.NAMESPACE + name));
+        }
+        SCHEMA_TYPES = types.build();
+    }
+
+    private final Map<List<Object>, Entry> entries;
+
+    public RuleOutputCache()
+    {
+        this.entries = Maps.newConcurrentMap();
+    }
+
+    public static boolean isMemoizable(final Rule rule)
+    {
+        if (rule.getBody() == null || rule.getHead() == null || rule.getTransform() != null) {
+            return false;
+        }
+
+        for (final StatementPattern atom : rule.getBodyAtoms()) {
+            final Var pred = atom.getPredicateVar();
+            final Var obj = atom.getObjectVar();
+            if (!pred.hasValue()
+                    || !SCHEMA_PREDICATES.contains(pred.getValue())
+                    && !(pred.getValue().equals(RDF.TYPE) && obj.hasValue() && SCHEMA_TYPES
+                            .contains(obj.getValue()))) {
+                return false;
+            }
+        }
+
+        final boolean[] deterministic = new boolean[] { true };
+        rule.getBody().visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final BNodeGenerator node)
+            {
+                deterministic[0] = false;
+            }
+
+            @Override
+            public void meet(final FunctionCall node)
+            {
+                final String name = node.getURI().toUpperCase();
+                if (name.endsWith("RAND") || name.endsWith("NOW") || name.endsWith("UUID")) {
+                    deterministic[0] = false;
+                }
+                super.meet(node);
+            }
+
+        });
+        return deterministic[0];
+    }
+
+    /**
+     * Computes the digest of the statements a memoizable rule may depend on under the bindings
+     * specified, i.e., of the statements matching its atoms. Statements are combined in an
+     * order-independent way, so that the digest does not depend on the order of retrieval.
+     */
+    public static String digestInputs(final Inferencer.Context context, final Rule rule,
+            final BindingSet bindings) throws RepositoryException
+    {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        hasher.putUnencodedChars(rule.digest());
+        for (final StatementPattern atom : rule.getBodyAtoms()) {
+            final Value subj = resolve(atom.getSubjectVar(), bindings);
+            final Value pred = resolve(atom.getPredicateVar(), bindings);
+            final Value obj = resolve(atom.getObjectVar(), bindings);
+            long sum = 0L;
+            long count = 0L;
+            if ((subj == null || subj instanceof Resource) && pred instanceof URI) {
+                final CloseableIteration<? extends Statement, RepositoryException> iteration = //
+                context.getStatements((Resource) subj, (URI) pred, obj, true);
+                try {
+                    while (iteration.hasNext()) {
+                        final Statement statement = iteration.next();
+                        final Hasher statementHasher = HASH_FUNCTION.newHasher();
+                        statementHasher.putUnencodedChars(statement.getSubject().toString());
+                        statementHasher.putUnencodedChars(statement.getPredicate().toString());
+                        statementHasher.putUnencodedChars(statement.getObject().toString());
+                        if (statement.getContext() != null) {
+                            statementHasher.putUnencodedChars(statement.getContext().toString());
+                        }
+                        sum += statementHasher.hash().asLong();
+                        ++count;
+                    }
+                } finally {
+                    iteration.close();
+                }
+            }
+            hasher.putLong(sum).putLong(count);
+        }
+
+        return hasher.hash().toString();
+    }
+
+    @Nullable
+    private static Value resolve(final Var var, final BindingSet bindings)
+    {
+        return var.hasValue() ? var.getValue() : bindings.getValue(var.getName());
+    }
+
+    /**
+     * Returns the cached output for the key specified, if computed from the same digest.
+     *
+     * @return the cached output, or null if not available
+     */
+    @Nullable
+    public List<Statement> get(final List<Object> key, final String digest)
+    {
+        final Entry entry = this.entries.get(key);
+        return entry != null && entry.digest.equals(digest) ? entry.statements : null;
+    }
+
+    public void put(final List<Object> key, final String digest, final List<Statement> statements)
+    {
+        final List<Object> convertedKey = convert(key);
+        if (statements.size() <= MAX_STATEMENTS) {
+            final ValueFactory factory = ValueFactoryImpl.getInstance();
+            final ImmutableList.Builder<Statement> builder = ImmutableList.builder();
+            for (final Statement statement : statements) {
+                builder.add(factory.createStatement((Resource) convert(statement.getSubject()),
+                        (URI) convert(statement.getPredicate()), convert(statement.getObject()),
+                        (Resource) convert(statement.getContext())));
+            }
+            this.entries.put(convertedKey, new Entry(digest, builder.build()));
+        } else {
+            this.entries.remove(convertedKey);
+        }
+    }
+
+    // keys are made of the rule ID and of the map of rule bindings
+    private static List<Object> convert(final List<Object> key)
+    {
+        final ImmutableList.Builder<Object> builder = ImmutableList.builder();
+        for (final Object element : key) {
+            if (element instanceof Value) {
+                builder.add(convert((Value) element));
+            } else if (element instanceof Map<?, ?>) {
+                final ImmutableMap.Builder<Object, Object> map = ImmutableMap.builder();
+                for (final Map.Entry<?, ?> entry : ((Map<?, ?>) element).entrySet()) {
+                    final Object value = entry.getValue();
+                    map.put(entry.getKey(), value instanceof Value ? convert((Value) value)
+                            : value);
+                }
+                builder.add(map.build());
+            } else {
+                builder.add(element);
+            }
+        }
+        return builder.build();
+    }
+
+    @Nullable
+    private static Value convert(@Nullable final Value value)
+    {
+        final ValueFactory factory = ValueFactoryImpl.getInstance();
+        if (value instanceof URI) {
+            return factory.createURI(value.stringValue());
+        } else if (value instanceof BNode) {
+            return factory.createBNode(((BNode) value).getID());
+        } else if (value instanceof Literal) {
+            final Literal literal = (Literal) value;
+            if (literal.getLanguage() != null) {
+                return factory.createLiteral(literal.getLabel(), literal.getLanguage());
+            } else if (literal.getDatatype() != null) {
+                return factory.createLiteral(literal.getLabel(),
+                        (URI) convert(literal.getDatatype()));
+            }
+            return factory.createLiteral(literal.getLabel());
+        }
+        return value;
+    }
+
+    public void load(final File file, final String rulesetDigest)
+    {
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            final ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (!rulesetDigest.equals(stream.readObject())) {
+                    LOGGER.info("Rule outputs in {} ignored as ruleset changed", file);
+                    return;
+                }
+                @SuppressWarnings("unchecked")
+                final Map<List<Object>, Entry> entries = (Map<List<Object>, Entry>) stream
+                        .readObject();
+                this.entries.putAll(entries);
+            } finally {
+                stream.close();
+            }
+            LOGGER.info("{} rule outputs loaded from {}", this.entries.size(), file);
+
+        } catch (final Exception ex) {
+            LOGGER.warn("Could not load rule outputs from " + file, ex);
+        }
+    }
+
+    // outputs of rules with blank node IDs are not saved, as IDs change at each load
+    public void save(final File file, final String rulesetDigest)
+    {
+        final Map<List<Object>, Entry> entries = Maps.newHashMap();
+        for (final Map.Entry<List<Object>, Entry> entry : this.entries.entrySet()) {
+            if (entry.getKey().get(0) instanceof URI) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // entries hold only ValueFactoryImpl values, as converted by put() or loaded; they are
+        // written to a temporary file in the same directory, then moved over the old file
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile("rule.outputs", ".tmp", file.getAbsoluteFile()
+                    .getParentFile());
+            final ObjectOutputStream stream = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)));
+            try {
+                stream.writeObject(rulesetDigest);
+                stream.writeObject(entries);
+            } finally {
+                stream.close();
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+            LOGGER.info("{} rule outputs saved to {}", entries.size(), file);
+
+        } catch (final Exception ex) {
+            LOGGER.warn("Could not save rule outputs to " + file, ex);
+
+        } finally {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                LOGGER.warn("Could not delete temporary file {}", tempFile);
+            }
+        }
+    }
+
+    private static final class Entry implements Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        final String digest;
+
+        final List<Statement> statements;
+
+        Entry(final String digest, final List<Statement> statements)
+        {
+            this.digest = digest;
+            this.statements = statements;
+        }
+
+    }
+
+}
@@ -0,0 +1,510 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.SubQueryValueOperator;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+import org.openrdf.query.algebra.evaluation.util.QueryEvaluationUtil;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.repository.RepositoryException;
+
+import info.aduna.iteration.CloseableIteration;
+
+import eu.fbk.dkm.internal.util.Algebra;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
+
+/**
+ * In-memory index of the schema statements of a repository, used to evaluate schema-driven
+ * rules without SPARQL joins.
+ * <p>
+ * The index keeps, for each schema predicate used by some rule (e.g., <tt>rdfs:subClassOf</tt>,
+ * <tt>rdfs:subPropertyOf</tt>, <tt>rdfs:domain</tt>, <tt>rdfs:range</tt>,
+ * <tt>owl:inverseOf</tt>), the relation it defines as hash maps from subjects to objects and
+ * vice versa. A relation is loaded on first access and reloaded only after statements with its
+ * predicate are added, as detected by the caller through the change rounds it tracks; as the
+ * closure plans of the shipped rulesets close the class and property hierarchies before (or
+ * together with) the rules using them, the loaded relations already reflect those closures.
+ * Methods are synchronized, as rules may be evaluated concurrently.
+ * </p>
+ * <p>
+ * Rules recognized by {@link #analyze(Rule)} join a single data atom with a single schema atom
+ * (e.g., <tt>rdfs9</tt>, <tt>cax-sco</tt>, <tt>prp-dom</tt>, <tt>prp-rng</tt>,
+ * <tt>prp-spo1</tt>, <tt>prp-inv1</tt>) and are evaluated by {@link SchemaRule} with one pass
+ * over the data statements matching each key of the schema relation.
+ * </p>
+ */
+final class SchemaIndex
+{
+
+    private static final Set<URI> SCHEMA_PREDICATES = ImmutableSet.of(RDFS.SUBCLASSOF,
+            RDFS.SUBPROPERTYOF, RDFS.DOMAIN, RDFS.RANGE, OWL.INVERSEOF, OWL.EQUIVALENTCLASS,
+            OWL.EQUIVALENTPROPERTY);
+
+    private final Map<URI, Relation> relations;
+
+    public SchemaIndex()
+    {
+        this.relations = Maps.newHashMap();
+    }
+
+    /**
+     * Returns the relation defined by the schema predicate specified, (re)loading it if never
+     * loaded or if statements with the predicate were added in a round not before the one where
+     * it was loaded.
+     *
+     * @param context
+     *            the context used to load the relation
+     * @param predicate
+     *            the schema predicate
+     * @param inverse
+     *            true to map objects to subjects, false to map subjects to objects
+     * @param round
+     *            the current round, recorded if the relation is loaded
+     * @param changeRound
+     *            the last round statements with the predicate were added, if any
+     * @return the relation, as a map from each subject (object) to its objects (subjects)
+     */
+    public synchronized Map<Value, List<Value>> getRelation(final Inferencer.Context context,
+            final URI predicate, final boolean inverse, final long round,
+            @Nullable final Long changeRound) throws RepositoryException
+    {
+        Relation relation = this.relations.get(predicate);
+        if (relation == null || changeRound != null && changeRound >= relation.round) {
+            relation = Relation.load(context, predicate, round);
+            this.relations.put(predicate, relation);
+        }
+        return inverse ? relation.backward : relation.forward;
+    }
+
+    public synchronized void clear()
+    {
+        this.relations.clear();
+    }
+
+    /**
+     * Recognizes a schema-driven rule. The body of the rule must be the join of a schema atom
+     * <tt>?a S ?b</tt>, with <tt>S</tt> one of the supported schema predicates, and of a data
+     * atom whose predicate is not a schema predicate, sharing exactly one variable with the
+     * schema atom, in one position; both atoms must lack a context. Filters can refer only to
+     * the variables of the schema atom and to externally bound variables (i.e., they must not
+     * depend on data statements), while <tt>FILTER NOT EXISTS</tt> conditions must consist of a
+     * single atom without context.
+     *
+     * @param rule
+     *            the rule to analyze
+     * @return the recognized schema rule, or null if the rule is not a schema-driven rule
+     */
+    @Nullable
+    public static SchemaRule analyze(final Rule rule)
+    {
+        if (rule.getBody() == null || rule.getHead() == null || rule.getTransform() != null) {
+            return null;
+        }
+
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        final List<ValueExpr> conditions = Lists.newArrayList();
+        if (!TransitiveClosure.decompose(rule.getBody(), atoms, conditions) || atoms.size() != 2) {
+            return null;
+        }
+
+        StatementPattern schemaAtom = null;
+        StatementPattern dataAtom = null;
+        for (int i = 0; i < 2; ++i) {
+            if (isSchemaAtom(atoms.get(i)) && !isSchemaAtom(atoms.get(1 - i))) {
+                schemaAtom = atoms.get(i);
+                dataAtom = atoms.get(1 - i);
+            }
+        }
+        if (schemaAtom == null || schemaAtom.getContextVar() != null
+                || dataAtom.getContextVar() != null) {
+            return null;
+        }
+
+        final Var[] dataVars = new Var[] { dataAtom.getSubjectVar(), dataAtom.getPredicateVar(),
+                dataAtom.getObjectVar() };
+        final Set<String> dataNames = Sets.newHashSet();
+        for (final Var var : dataVars) {
+            if (!var.hasValue()) {
+                dataNames.add(var.getName());
+            }
+        }
+
+        final String subjectName = schemaAtom.getSubjectVar().getName();
+        final String objectName = schemaAtom.getObjectVar().getName();
+        final boolean inverse = dataNames.contains(objectName);
+        if (inverse == dataNames.contains(subjectName)) {
+            return null;
+        }
+        final String joinName = inverse ? objectName : subjectName;
+        final String mappedName = inverse ? subjectName : objectName;
+
+        int joinPosition = -1;
+        for (int i = 0; i < 3; ++i) {
+            if (!dataVars[i].hasValue() && dataVars[i].getName().equals(joinName)) {
+                if (joinPosition >= 0) {
+                    return null;
+                }
+                joinPosition = i;
+            }
+        }
+
+        final List<ValueExpr> filters = Lists.newArrayList();
+        final List<StatementPattern> guards = Lists.newArrayList();
+        final Set<String> dataOnlyNames = Sets.difference(dataNames, ImmutableSet.of(joinName));
+        for (final ValueExpr condition : conditions) {
+            if (condition instanceof Not && ((Not) condition).getArg() instanceof Exists) {
+                final TupleExpr expr = ((Exists) ((Not) condition).getArg()).getSubQuery();
+                if (!(expr instanceof StatementPattern)
+                        || ((StatementPattern) expr).getContextVar() != null) {
+                    return null;
+                }
+                guards.add((StatementPattern) expr);
+            } else if (!containsSubQuery(condition)
+                    && Sets.intersection(Algebra.extractVariables(condition), dataOnlyNames)
+                            .isEmpty()) {
+                filters.add(condition);
+            } else {
+                return null;
+            }
+        }
+
+        return new SchemaRule(rule, (URI) schemaAtom.getPredicateVar().getValue(), inverse,
+                joinName, mappedName, dataVars, joinPosition, ImmutableList.copyOf(filters),
+                ImmutableList.copyOf(guards));
+    }
+
+    private static boolean isSchemaAtom(final StatementPattern atom)
+    {
+        final Var predicate = atom.getPredicateVar();
+        return predicate.hasValue() && SCHEMA_PREDICATES.contains(predicate.getValue())
+                && !atom.getSubjectVar().hasValue() && !atom.getObjectVar().hasValue()
+                && !atom.getSubjectVar().equals(atom.getObjectVar());
+    }
+
+    private static boolean containsSubQuery(final ValueExpr condition)
+    {
+        final boolean[] result = new boolean[] { false };
+        condition.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            protected void meetSubQueryValueOperator(final SubQueryValueOperator node)
+            {
+                result[0] = true;
+            }
+
+        });
+        return result[0];
+    }
+
+    private static final class Relation
+    {
+
+        final long round;
+
+        final Map<Value, List<Value>> forward;
+
+        final Map<Value, List<Value>> backward;
+
+        private Relation(final long round, final Map<Value, List<Value>> forward,
+                final Map<Value, List<Value>> backward)
+        {
+            this.round = round;
+            this.forward = forward;
+            this.backward = backward;
+        }
+
+        static Relation load(final Inferencer.Context context, final URI predicate,
+                final long round) throws RepositoryException
+        {
+            final Map<Value, Set<Value>> forward = Maps.newHashMap();
+            final Map<Value, Set<Value>> backward = Maps.newHashMap();
+            final CloseableIteration<? extends Statement, RepositoryException> iteration = context
+                    .getStatements(null, predicate, null, true);
+            try {
+                while (iteration.hasNext()) {
+                    final Statement statement = iteration.next();
+                    put(forward, statement.getSubject(), statement.getObject());
+                    put(backward, statement.getObject(), statement.getSubject());
+                }
+            } finally {
+                iteration.close();
+            }
+            return new Relation(round, freeze(forward), freeze(backward));
+        }
+
+        private static void put(final Map<Value, Set<Value>> map, final Value key,
+                final Value value)
+        {
+            Set<Value> values = map.get(key);
+            if (values == null) {
+                values = Sets.newLinkedHashSet();
+                map.put(key, values);
+            }
+            values.add(value);
+        }
+
+        private static Map<Value, List<Value>> freeze(final Map<Value, Set<Value>> map)
+        {
+            final ImmutableMap.Builder<Value, List<Value>> builder = ImmutableMap.builder();
+            for (final Map.Entry<Value, Set<Value>> entry : map.entrySet()) {
+                builder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+            }
+            return builder.build();
+        }
+
+    }
+
+    /**
+     * A schema-driven rule recognized by {@link SchemaIndex#analyze(Rule)}.
+     * <p>
+     * The rule is evaluated by iterating over the keys of the schema relation: pairs of the
+     * relation are filtered once per key using the filters of the rule (which do not depend on
+     * data), then the data statements matching the data atom with the key in the join position
+     * are retrieved with a single lookup and combined with the remaining mapped values. The
+     * <tt>FILTER NOT EXISTS</tt> conditions are checked on the repository for each combination,
+     * so the inferred statements are exactly the ones produced by the SPARQL evaluation of the
+     * rule body.
+     * </p>
+     */
+    public static final class SchemaRule
+    {
+
+        private final Rule rule;
+
+        private final URI predicate;
+
+        private final boolean inverse;
+
+        private final String joinName;
+
+        private final String mappedName;
+
+        private final Var[] dataVars;
+
+        private final int joinPosition;
+
+        private final List<ValueExpr> filters;
+
+        private final List<StatementPattern> guards;
+
+        private SchemaRule(final Rule rule, final URI predicate, final boolean inverse,
+                final String joinName, final String mappedName, final Var[] dataVars,
+                final int joinPosition, final List<ValueExpr> filters,
+                final List<StatementPattern> guards)
+        {
+            this.rule = rule;
+            this.predicate = predicate;
+            this.inverse = inverse;
+            this.joinName = joinName;
+            this.mappedName = mappedName;
+            this.dataVars = dataVars;
+            this.joinPosition = joinPosition;
+            this.filters = filters;
+            this.guards = guards;
+        }
+
+        public Rule getRule()
+        {
+            return this.rule;
+        }
+
+        public URI getPredicate()
+        {
+            return this.predicate;
+        }
+
+        public boolean isInverse()
+        {
+            return this.inverse;
+        }
+
+        /**
+         * Evaluates the rule on the schema relation supplied, emitting inferred statements to
+         * the handler specified.
+         */
+        public <E extends Exception> void evaluate(final Inferencer.Context context,
+                final Map<Value, List<Value>> relation, final BindingSet bindings,
+                final StatementHandler<E> handler) throws E, QueryEvaluationException,
+                RepositoryException
+        {
+            final EvaluationStrategy strategy = Algebra.newDataFreeStrategy(context
+                    .getValueFactory());
+            final QueryBindingSet scope = new QueryBindingSet(bindings);
+            final Value boundJoin = bindings.getValue(this.joinName);
+            final Value boundMapped = bindings.getValue(this.mappedName);
+
+            final Value[] lookup = new Value[3];
+            for (int i = 0; i < 3; ++i) {
+                lookup[i] = resolve(this.dataVars[i], bindings);
+            }
+            if (lookup[0] != null && !(lookup[0] instanceof Resource) || lookup[1] != null
+                    && !(lookup[1] instanceof URI)) {
+                return; // the data atom cannot match any statement
+            }
+
+            // rows hold the terms of the data statement, the join value and the mapped value
+            final Value[] row = new Value[5];
+            final Rule.HeadMapping mapping = this.rule.newHeadMapping(ImmutableList.of(
+                    this.dataVars[0].getName(), this.dataVars[1].getName(),
+                    this.dataVars[2].getName(), this.joinName, this.mappedName), bindings);
+            final List<Value> mappedValues = Lists.newArrayList();
+            for (final Map.Entry<Value, List<Value>> entry : relation.entrySet()) {
+                final Value joinValue = entry.getKey();
+                if (boundJoin != null && !boundJoin.equals(joinValue)
+                        || this.joinPosition == 0 && !(joinValue instanceof Resource)
+                        || this.joinPosition == 1 && !(joinValue instanceof URI)) {
+                    continue;
+                }
+
+                mappedValues.clear();
+                scope.setBinding(this.joinName, joinValue);
+                for (final Value mappedValue : entry.getValue()) {
+                    if (boundMapped == null || boundMapped.equals(mappedValue)) {
+                        scope.setBinding(this.mappedName, mappedValue);
+                        if (evaluateFilters(strategy, scope)) {
+                            mappedValues.add(mappedValue);
+                        }
+                    }
+                }
+                if (mappedValues.isEmpty()) {
+                    continue;
+                }
+
+                lookup[this.joinPosition] = joinValue;
+                row[3] = joinValue;
+                final CloseableIteration<? extends Statement, RepositoryException> iteration = //
+                context.getStatements((Resource) lookup[0], (URI) lookup[1], lookup[2], true);
+                try {
+                    while (iteration.hasNext()) {
+                        final Statement statement = iteration.next();
+                        row[0] = statement.getSubject();
+                        row[1] = statement.getPredicate();
+                        row[2] = statement.getObject();
+                        if (!isConsistent(row)) {
+                            continue;
+                        }
+                        for (final Value mappedValue : mappedValues) {
+                            row[4] = mappedValue;
+                            emit(context, row, mapping, bindings, handler);
+                        }
+                    }
+                } finally {
+                    iteration.close();
+                }
+            }
+        }
+
+        // repeated variables of the data atom must match the same term
+        private boolean isConsistent(final Value[] terms)
+        {
+            for (int i = 0; i < 3; ++i) {
+                for (int j = i + 1; j < 3; ++j) {
+                    if (!this.dataVars[i].hasValue() && !this.dataVars[j].hasValue()
+                            && this.dataVars[i].getName().equals(this.dataVars[j].getName())
+                            && !terms[i].equals(terms[j])) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private <E extends Exception> void emit(final Inferencer.Context context,
+                final Value[] row, final Rule.HeadMapping mapping, final BindingSet bindings,
+                final StatementHandler<E> handler) throws E, RepositoryException
+        {
+            for (final StatementPattern guard : this.guards) {
+                final Value subj = resolve(guard.getSubjectVar(), row, bindings);
+                final Value pred = resolve(guard.getPredicateVar(), row, bindings);
+                final Value obj = resolve(guard.getObjectVar(), row, bindings);
+                if (!(subj == null || subj instanceof Resource)
+                        || !(pred == null || pred instanceof URI)) {
+                    continue; // cannot match any statement
+                }
+                if (context.hasStatement((Resource) subj, (URI) pred, obj, true)) {
+                    return;
+                }
+            }
+
+            mapping.collect(row, handler);
+        }
+
+        @Nullable
+        private Value resolve(final Var var, final Value[] row, final BindingSet bindings)
+        {
+            if (var.hasValue()) {
+                return var.getValue();
+            }
+            final String name = var.getName();
+            for (int i = 0; i < 3; ++i) {
+                if (!this.dataVars[i].hasValue() && this.dataVars[i].getName().equals(name)) {
+                    return row[i];
+                }
+            }
+            if (name.equals(this.joinName)) {
+                return row[3];
+            } else if (name.equals(this.mappedName)) {
+                return row[4];
+            }
+            return bindings.getValue(name);
+        }
+
+        @Nullable
+        private static Value resolve(final Var var, final BindingSet bindings)
+        {
+            return var.hasValue() ? var.getValue() : bindings.getValue(var.getName());
+        }
+
+        private boolean evaluateFilters(final EvaluationStrategy strategy,
+                final BindingSet bindings) throws QueryEvaluationException
+        {
+            for (final ValueExpr filter : this.filters) {
+                try {
+                    if (!QueryEvaluationUtil.getEffectiveBooleanValue(strategy.evaluate(filter,
+                            bindings))) {
+                        return false;
+                    }
+                } catch (final ValueExprEvaluationException ex) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "schema rule " + this.rule.getID();
+        }
+
+    }
+
+}
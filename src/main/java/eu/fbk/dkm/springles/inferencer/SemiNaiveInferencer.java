@@ -0,0 +1,959 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.BooleanLiteralImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.BindingSetAssignment;
+import org.openrdf.query.algebra.Difference;
+import org.openrdf.query.algebra.Distinct;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Extension;
+import org.openrdf.query.algebra.ExtensionElem;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Group;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.Or;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.Reduced;
+import org.openrdf.query.algebra.SingletonSet;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.impl.ListBindingSet;
+import org.openrdf.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.dkm.internal.util.Algebra;
+import eu.fbk.dkm.springles.ClosureStatus;
+import eu.fbk.dkm.springles.base.QuerySpec;
+import eu.fbk.dkm.springles.base.QueryType;
+import eu.fbk.dkm.springles.inferencer.Buffer.Appender;
+import eu.fbk.dkm.springles.ruleset.ClosureEvalTask;
+import eu.fbk.dkm.springles.ruleset.ClosureRepeatTask;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+
+/**
+ * Forward-chaining inferencer evaluating rules in a semi-naive (delta-driven) way.
+ * <p>
+ * The inferencer keeps track of the statements inferred during a closure computation (the
+ * <i>delta</i>). When a rule is evaluated again with the same bindings, its body query is
+ * rewritten so that at least one of its positive body atoms is matched against the statements
+ * inferred since the previous evaluation of the rule, rather than re-evaluating the whole body
+ * against the repository. Rules whose body cannot be safely rewritten (e.g., because of
+ * non-partitionable transforms, unions, optional parts or aggregates) and rules whose delta is
+ * larger than a configurable maximum size are evaluated as in {@link NaiveInferencer}.
+ * </p>
+ * <p>
+ * The same mechanism is used to maintain the closure incrementally when statements are added to
+ * a repository whose closure is current: added statements notified to the session are used to
+ * seed the delta, so that the closure plan propagates only their consequences. Removed
+ * statements are handled with a delete-and-rederive (DRed) approach: inferred statements whose
+ * derivation may depend on removed statements are overdeleted, and the closure plan is then
+ * executed evaluating each rule also on the overdeleted statements matching its head, so to
+ * rederive the ones having alternative derivations. Incremental maintenance is abandoned in
+ * favour of a normal closure computation whenever too many or unknown statements are added or
+ * removed, or the ruleset contains rules that cannot be handled.
+ * </p>
+ */
+class SemiNaiveInferencer extends NaiveInferencer
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SemiNaiveInferencer.class);
+
+    private static final int DEFAULT_MAX_DELTA_SIZE = 4096;
+
+    private final int maxDeltaSize;
+
+    private final Map<Resource, int[]> deltaAtomIndexes;
+
+    private final boolean overdeletionSupported;
+
+    public SemiNaiveInferencer(final Ruleset ruleset, @Nullable final BindingSet rulesetBindings,
+            final int maxConcurrentRules, final int maxBackwardDepth, final int maxBufferSize,
+            final int maxPendingFlushes, final EqualityMode equalityMode, final int maxDeltaSize)
+    {
+        super(ruleset, rulesetBindings, maxConcurrentRules, maxBackwardDepth, maxBufferSize,
+                maxPendingFlushes, equalityMode);
+
+        this.maxDeltaSize = maxDeltaSize > 0 ? maxDeltaSize : DEFAULT_MAX_DELTA_SIZE;
+
+        final Set<String> parameters = Sets.newHashSet(getRuleset().getParameters().keySet());
+        parameters.add("prefix");
+
+        final ImmutableMap.Builder<Resource, int[]> builder = ImmutableMap.builder();
+        boolean overdeletionSupported = true;
+        for (final Rule rule : getRuleset().getRules()) {
+            final int[] indexes = extractDeltaAtomIndexes(rule);
+            if (indexes != null) {
+                builder.put(rule.getID(), indexes);
+            } else {
+                LOGGER.debug("Rule {} will be always evaluated naively", rule.getID());
+            }
+            if (getRuleset().getForwardRuleIDs().contains(rule.getID())
+                    && (indexes == null || !hasHeadOnlyNegations(rule) || !parameters
+                            .containsAll(Sets.difference(rule.getHeadVars(), rule
+                                    .getBodyQuery().getExpression().getBindingNames())))) {
+                LOGGER.debug("Rule {} prevents closure maintenance on statement removal",
+                        rule.getID());
+                overdeletionSupported = false;
+            }
+        }
+        // removing an equality may split a clique, whose canonical statements cannot be traced
+        if (getEqualityMode() != EqualityMode.NONE) {
+            LOGGER.debug("Equality mode prevents closure maintenance on statement removal");
+            overdeletionSupported = false;
+        }
+        this.deltaAtomIndexes = builder.build();
+        this.overdeletionSupported = overdeletionSupported;
+    }
+
+    @Override
+    public Session newSession(final String id, final ClosureStatus closureStatus,
+            final Context context) throws RepositoryException
+    {
+        return new SemiNaiveSession(id, closureStatus, context);
+    }
+
+    @Nullable
+    private static int[] extractDeltaAtomIndexes(final Rule rule)
+    {
+        // partitionable transformers give the same result on the delta part of the solutions
+        if (rule.getTransform() != null && !rule.getTransformer().isPartitionable()
+                || rule.getBodyQuery() == null) {
+            return null;
+        }
+
+        final TupleExpr expr = rule.getBodyQuery().getExpression();
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        if (!collectDeltaAtoms(expr, atoms)) {
+            return null;
+        }
+
+        final List<StatementPattern> allAtoms = Algebra.extractPatterns(expr);
+        final List<Integer> indexes = Lists.newArrayList();
+        for (int i = 0; i < allAtoms.size(); ++i) {
+            for (final StatementPattern atom : atoms) {
+                if (allAtoms.get(i) == atom) {
+                    indexes.add(i);
+                }
+            }
+        }
+        return Ints.toArray(indexes);
+    }
+
+    private static boolean collectDeltaAtoms(final TupleExpr expr,
+            final List<StatementPattern> atoms)
+    {
+        // Atoms are collected only along monotonic operators. Atoms in negated EXISTS and MINUS
+        // are allowed as new statements can only reduce their solutions; any other operator
+        // prevents the rewriting of the rule.
+        if (expr instanceof StatementPattern) {
+            atoms.add((StatementPattern) expr);
+            return true;
+
+        } else if (expr instanceof SingletonSet || expr instanceof BindingSetAssignment) {
+            return true;
+
+        } else if (expr instanceof Join) {
+            final Join join = (Join) expr;
+            return collectDeltaAtoms(join.getLeftArg(), atoms)
+                    && collectDeltaAtoms(join.getRightArg(), atoms);
+
+        } else if (expr instanceof Union) {
+            final Union union = (Union) expr;
+            return collectDeltaAtoms(union.getLeftArg(), atoms)
+                    && collectDeltaAtoms(union.getRightArg(), atoms);
+
+        } else if (expr instanceof Difference) {
+            return collectDeltaAtoms(((Difference) expr).getLeftArg(), atoms);
+
+        } else if (expr instanceof Filter) {
+            final Filter filter = (Filter) expr;
+            return isAntiMonotonic(filter.getCondition())
+                    && collectDeltaAtoms(filter.getArg(), atoms);
+
+        } else if (expr instanceof Extension) {
+            final Extension extension = (Extension) expr;
+            for (final ExtensionElem elem : extension.getElements()) {
+                if (!isAntiMonotonic(elem.getExpr())) {
+                    return false;
+                }
+            }
+            return collectDeltaAtoms(extension.getArg(), atoms);
+
+        } else if (expr instanceof Group) {
+            final Group group = (Group) expr;
+            return group.getGroupElements().isEmpty()
+                    && collectDeltaAtoms(group.getArg(), atoms);
+
+        } else if (expr instanceof Projection || expr instanceof Distinct
+                || expr instanceof Reduced) {
+            return collectDeltaAtoms(((UnaryTupleOperator) expr).getArg(), atoms);
+
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean isAntiMonotonic(final ValueExpr expr)
+    {
+        final boolean[] result = new boolean[] { true };
+        expr.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final Not node) throws RuntimeException
+            {
+                if (!(node.getArg() instanceof Exists)) {
+                    super.meet(node);
+                }
+            }
+
+            @Override
+            public void meet(final Exists node) throws RuntimeException
+            {
+                result[0] = false;
+            }
+
+        });
+        return result[0];
+    }
+
+    private static boolean hasHeadOnlyNegations(final Rule rule)
+    {
+        // On removal, negated patterns not corresponding to head atoms may enable derivations
+        // not involving overdeleted statements, which would not be considered.
+        final boolean[] result = new boolean[] { true };
+        rule.getBodyQuery().getExpression().visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final Exists node) throws RuntimeException
+            {
+                for (final StatementPattern pattern : Algebra.extractPatterns(node
+                        .getSubQuery())) {
+                    boolean matched = false;
+                    for (final StatementPattern headAtom : rule.getHeadAtoms()) {
+                        matched |= matchVar(pattern.getSubjectVar(), headAtom.getSubjectVar())
+                                && matchVar(pattern.getPredicateVar(),
+                                        headAtom.getPredicateVar())
+                                && matchVar(pattern.getObjectVar(), headAtom.getObjectVar());
+                    }
+                    result[0] &= matched;
+                }
+            }
+
+            @Override
+            public void meet(final Difference node) throws RuntimeException
+            {
+                result[0] = false;
+            }
+
+        });
+        return result[0];
+    }
+
+    private static boolean matchVar(final Var var1, final Var var2)
+    {
+        return var1.hasValue() ? var1.getValue().equals(var2.getValue()) : !var2.hasValue()
+                && var1.getName().equals(var2.getName());
+    }
+
+    @Nullable
+    private static BindingSetAssignment matchDelta(final StatementPattern atom,
+            final List<Statement> delta, final BindingSet bindings)
+    {
+        final List<Var> vars = atom.getVarList();
+        final List<String> names = Lists.newArrayList();
+        final int[] indexes = new int[vars.size()];
+        for (int i = 0; i < vars.size(); ++i) {
+            final Var var = vars.get(i);
+            indexes[i] = -1;
+            if (!var.hasValue() && !var.isAnonymous()) {
+                indexes[i] = names.indexOf(var.getName());
+                if (indexes[i] < 0) {
+                    indexes[i] = names.size();
+                    names.add(var.getName());
+                }
+            }
+        }
+
+        final Set<List<Value>> rows = Sets.newLinkedHashSet();
+        final Value[] row = new Value[names.size()];
+        outer: for (final Statement statement : delta) {
+            Arrays.fill(row, null);
+            for (int i = 0; i < vars.size(); ++i) {
+                final Var var = vars.get(i);
+                final Value value = i == 0 ? statement.getSubject()
+                        : i == 1 ? statement.getPredicate() : i == 2 ? statement.getObject()
+                                : statement.getContext();
+                if (value == null) {
+                    continue; // unknown context, will be matched by the atom itself
+                } else if (var.hasValue()) {
+                    if (!var.getValue().equals(value)) {
+                        continue outer;
+                    }
+                } else if (indexes[i] >= 0) {
+                    final Value boundValue = bindings.getValue(var.getName());
+                    final Value rowValue = row[indexes[i]];
+                    if (boundValue != null && !boundValue.equals(value) || rowValue != null
+                            && !rowValue.equals(value)) {
+                        continue outer;
+                    }
+                    row[indexes[i]] = value;
+                }
+            }
+            rows.add(Lists.newArrayList(row));
+        }
+
+        if (rows.isEmpty()) {
+            return null;
+        }
+
+        final List<BindingSet> bindingSets = Lists.newArrayListWithCapacity(rows.size());
+        for (final List<Value> values : rows) {
+            bindingSets.add(new ListBindingSet(names, values));
+        }
+
+        final BindingSetAssignment assignment = new BindingSetAssignment();
+        assignment.setBindingNames(Sets.newLinkedHashSet(names));
+        assignment.setBindingSets(bindingSets);
+        return assignment;
+    }
+
+    private static TupleExpr cloneBody(final Rule rule, final List<StatementPattern> atoms)
+    {
+        final TupleExpr expr = Algebra.clone(rule.getBodyQuery().getExpression(), null, null);
+        atoms.addAll(Algebra.extractPatterns(expr));
+        return expr;
+    }
+
+    private static void selectUnionBranches(final TupleExpr node)
+    {
+        // Derivations through other UNION branches are covered by the atoms of those branches.
+        TupleExpr child = node;
+        for (QueryModelNode parent = node.getParentNode(); parent != null; parent = child
+                .getParentNode()) {
+            if (parent instanceof Union) {
+                parent.replaceWith(child);
+            } else {
+                child = (TupleExpr) parent;
+            }
+        }
+    }
+
+    private static QuerySpec<TupleQueryResult> rewriteBodyQuery(final Rule rule,
+            final int atomIndex, final BindingSetAssignment assignment)
+    {
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        final TupleExpr expr = cloneBody(rule, atoms);
+        final StatementPattern atom = atoms.get(atomIndex);
+        selectUnionBranches(atom);
+
+        final Join join = new Join();
+        atom.replaceWith(join);
+        join.setLeftArg(assignment);
+        join.setRightArg(atom);
+
+        return QuerySpec.from(QueryType.TUPLE, expr, null);
+    }
+
+    @Nullable
+    private static QuerySpec<TupleQueryResult> rewriteBodyQueryForOverdeletion(
+            final Rule rule, final int[] atomIndexes, final int atomIndex,
+            final BindingSetAssignment assignment, final List<Statement> deleted,
+            final BindingSet bindings)
+    {
+        // The atom is matched against the statements deleted in the last step only, while other
+        // atoms are matched against the repository extended with all the deleted statements, so
+        // to evaluate the rule on the repository content before the deletion.
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        final TupleExpr expr = cloneBody(rule, atoms);
+        final StatementPattern atom = atoms.get(atomIndex);
+        selectUnionBranches(atom);
+        atom.replaceWith(assignment);
+
+        final Set<StatementPattern> remainingAtoms = Sets.newIdentityHashSet();
+        remainingAtoms.addAll(Algebra.extractPatterns(expr));
+        for (final int index : atomIndexes) {
+            final StatementPattern otherAtom = atoms.get(index);
+            if (index != atomIndex && remainingAtoms.contains(otherAtom)) {
+                final BindingSetAssignment otherAssignment = matchDelta(otherAtom, deleted,
+                        bindings);
+                if (otherAssignment != null) {
+                    final Union union = new Union();
+                    otherAtom.replaceWith(union);
+                    union.setLeftArg(otherAtom);
+                    union.setRightArg(otherAssignment);
+                }
+            }
+        }
+
+        return relaxNegations(expr) ? QuerySpec.from(QueryType.TUPLE, expr, null) : null;
+    }
+
+    private static QuerySpec<TupleQueryResult> rewriteBodyQueryForRederivation(
+            final Rule rule, final BindingSetAssignment assignment)
+    {
+        final Projection projection = (Projection) Algebra.clone(rule.getBodyQuery()
+                .getExpression(), null, null);
+        projection.setArg(new Join(assignment, projection.getArg()));
+        return QuerySpec.from(QueryType.TUPLE, projection, null);
+    }
+
+    private static boolean relaxNegations(final TupleExpr expr)
+    {
+        // Negated conditions (e.g., the usual FILTER NOT EXISTS on the rule head) are assumed to
+        // be satisfied and MINUS operators are dropped, so to over-approximate rule matches.
+        final List<Not> negations = Lists.newArrayList();
+        final List<Difference> differences = Lists.newArrayList();
+        expr.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            public void meet(final Not node) throws RuntimeException
+            {
+                if (node.getArg() instanceof Exists) {
+                    negations.add(node);
+                } else {
+                    super.meet(node);
+                }
+            }
+
+            @Override
+            public void meet(final Difference node) throws RuntimeException
+            {
+                differences.add(node);
+                node.getLeftArg().visit(this);
+            }
+
+        });
+
+        for (final Not negation : negations) {
+            QueryModelNode parent = negation.getParentNode();
+            while (parent instanceof And || parent instanceof Or) {
+                parent = parent.getParentNode();
+            }
+            if (!(parent instanceof Filter) && !(parent instanceof ExtensionElem)) {
+                return false;
+            }
+            negation.replaceWith(new ValueConstant(BooleanLiteralImpl.TRUE));
+        }
+
+        for (final Difference difference : differences) {
+            difference.replaceWith(difference.getLeftArg());
+        }
+
+        return true;
+    }
+
+
+    protected class SemiNaiveSession extends NaiveSession
+    {
+
+        private final List<Statement> delta;
+
+        private long deltaStart;
+
+        @Nullable
+        private Long deltaBase;
+
+        private final Map<Resource, Long> deltaPositions;
+
+        private BindingSet deltaBindings;
+
+        private boolean incremental;
+
+        private int seeds;
+
+        private final List<Statement> removed;
+
+        @Nullable
+        private List<Statement> overdeleted;
+
+        private int deltaEvaluations;
+
+        private int fullEvaluations;
+
+        private int skippedEvaluations;
+
+        public SemiNaiveSession(final String id, final ClosureStatus closureStatus,
+                final Context context)
+        {
+            super(id, context);
+            this.delta = Lists.newArrayList();
+            this.deltaStart = 0L;
+            this.deltaBase = null;
+            this.deltaPositions = Maps.newHashMap();
+            this.deltaBindings = null;
+            this.incremental = closureStatus == ClosureStatus.CURRENT;
+            this.seeds = 0;
+            this.removed = Lists.newArrayList();
+            this.overdeleted = null;
+        }
+
+        @Override
+        public void statementsAdded(@Nullable final Iterable<? extends Statement> statements,
+                final Resource... contexts) throws RepositoryException
+        {
+            super.statementsAdded(statements, contexts);
+
+            if (!this.incremental) {
+                return;
+
+            } else if (statements == null) {
+                disableIncrementalClosure("unknown statements added");
+
+            } else if (!expandStatements(statements, contexts, this.delta)) {
+                disableIncrementalClosure("too many statements added");
+
+            } else {
+                this.seeds = this.delta.size();
+            }
+        }
+
+        @Override
+        public void statementsRemoved(@Nullable final Iterable<? extends Statement> statements,
+                final Resource... contexts) throws RepositoryException
+        {
+            super.statementsRemoved(statements, contexts);
+
+            if (!this.incremental) {
+                return;
+
+            } else if (statements == null) {
+                disableIncrementalClosure("unknown statements removed");
+
+            } else if (!SemiNaiveInferencer.this.overdeletionSupported) {
+                disableIncrementalClosure("statements removed");
+
+            } else if (!expandStatements(statements, contexts, this.removed)) {
+                disableIncrementalClosure("too many statements removed");
+            }
+        }
+
+        @Override
+        public void statementsCleared(final boolean onlyClosure) throws RepositoryException
+        {
+            super.statementsCleared(onlyClosure);
+            disableIncrementalClosure("statements cleared");
+        }
+
+        private boolean expandStatements(final Iterable<? extends Statement> statements,
+                final Resource[] contexts, final List<Statement> list)
+        {
+            final ValueFactory factory = getContext().getValueFactory();
+            for (final Statement statement : statements) {
+                if (contexts.length == 0) {
+                    list.add(statement);
+                } else {
+                    for (final Resource context : contexts) {
+                        list.add(context == null ? factory.createStatement(
+                                statement.getSubject(), statement.getPredicate(),
+                                statement.getObject()) : factory.createStatement(
+                                statement.getSubject(), statement.getPredicate(),
+                                statement.getObject(), context));
+                    }
+                }
+                if (list.size() > SemiNaiveInferencer.this.maxDeltaSize) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void disableIncrementalClosure(final String reason)
+        {
+            if (this.incremental) {
+                LOGGER.debug("[{}] Incremental closure disabled: {}", getID(), reason);
+                this.incremental = false;
+                this.seeds = 0;
+                this.removed.clear();
+                resetDelta();
+            }
+        }
+
+        @Override
+        public void updateClosure(final ClosureStatus closureStatus) throws RepositoryException
+        {
+            if (closureStatus == ClosureStatus.CURRENT) {
+                return;
+            }
+
+            this.deltaEvaluations = 0;
+            this.fullEvaluations = 0;
+            this.skippedEvaluations = 0;
+
+            boolean success = false;
+            try {
+                // Incremental closure relies on the closure being complete before the seeds
+                // were added: rules evaluated before cannot fire on old statements only, and
+                // thus all of them start from the beginning of the delta (i.e., the seeds). On
+                // removal, statements possibly depending on removed ones are overdeleted first;
+                // rules are then evaluated also on the overdeleted statements, so to rederive
+                // the ones having alternative derivations.
+                ClosureStatus actualStatus = closureStatus;
+                if (this.incremental && closureStatus == ClosureStatus.STALE) {
+                    this.overdeleted = overdelete();
+                    if (this.overdeleted != null) {
+                        actualStatus = ClosureStatus.POSSIBLY_INCOMPLETE;
+                    }
+                }
+                if (this.incremental && actualStatus == ClosureStatus.POSSIBLY_INCOMPLETE) {
+                    this.deltaBase = this.deltaStart;
+                } else {
+                    this.seeds = 0;
+                    this.overdeleted = null;
+                    resetDelta();
+                }
+
+                super.updateClosure(actualStatus);
+                success = true;
+
+            } finally {
+                resetDelta();
+                this.incremental = success;
+                this.seeds = 0;
+                this.removed.clear();
+                this.overdeleted = null;
+            }
+        }
+
+        // returns the statements to rederive: the overdeleted ones and the removed explicit
+        // ones no longer in the repository, which may still be entailed; statements that are
+        // (still) explicit are neither overdeleted nor propagated
+        @Nullable
+        private List<Statement> overdelete() throws RepositoryException
+        {
+            final BindingSet bindings = getRulesetBindings();
+            final Set<List<Value>> keys = Sets.newHashSet();
+            final List<Statement> deleted = Lists.newArrayList(this.removed);
+            final List<Statement> result = Lists.newArrayList();
+            List<Statement> pending = Lists.newArrayList();
+            for (final Statement statement : this.removed) {
+                if (!getContext().hasStatement(statement.getSubject(),
+                        statement.getPredicate(), statement.getObject(), false)) {
+                    pending.add(statement);
+                }
+            }
+
+            try {
+                long time = System.currentTimeMillis();
+
+                while (!pending.isEmpty()) {
+                    final Buffer buffer = new Buffer(getContext().getValueFactory());
+                    for (final Resource ruleID : getRuleset().getForwardRuleIDs()) {
+                        final Rule rule = getRuleset().getRule(ruleID);
+                        final int[] atomIndexes = SemiNaiveInferencer.this.deltaAtomIndexes
+                                .get(ruleID);
+                        final List<StatementPattern> atoms = Algebra.extractPatterns(rule
+                                .getBodyQuery().getExpression());
+                        final Appender appender = buffer.newAppender();
+                        for (final int atomIndex : atomIndexes) {
+                            final BindingSetAssignment assignment = matchDelta(
+                                    atoms.get(atomIndex), pending, bindings);
+                            if (assignment == null) {
+                                continue;
+                            }
+                            final QuerySpec<TupleQueryResult> query = //
+                            rewriteBodyQueryForOverdeletion(rule, atomIndexes, atomIndex,
+                                    assignment, deleted, bindings);
+                            if (query == null) {
+                                LOGGER.debug("[{}] Cannot overdelete consequences of rule {}",
+                                        getID(), ruleID);
+                                return null;
+                            }
+                            evaluateQuery(rule, query, bindings, appender);
+                        }
+                        appender.flush();
+                    }
+
+                    pending = Lists.newArrayList();
+                    for (final Statement statement : buffer) {
+                        final Resource context = statement.getContext();
+                        if (keys.add(Arrays.asList(statement.getSubject(),
+                                statement.getPredicate(), statement.getObject(), context))
+                                && getContext().hasStatement(statement.getSubject(),
+                                        statement.getPredicate(), statement.getObject(), true,
+                                        context == null ? new Resource[0]
+                                                : new Resource[] { context })
+                                && !getContext().hasStatement(statement.getSubject(),
+                                        statement.getPredicate(), statement.getObject(), false)) {
+                            pending.add(statement);
+                        }
+                    }
+
+                    for (final Statement statement : pending) {
+                        if (statement.getContext() == null) {
+                            getContext().removeInferred(statement.getSubject(),
+                                    statement.getPredicate(), statement.getObject());
+                        } else {
+                            getContext().removeInferred(Collections.singleton(statement));
+                        }
+                    }
+
+                    deleted.addAll(pending);
+                    result.addAll(pending);
+                    LOGGER.debug("[{}] Overdeleted {} statement(s)", getID(), pending.size());
+
+                    if (deleted.size() > SemiNaiveInferencer.this.maxDeltaSize) {
+                        LOGGER.debug("[{}] Too many statements to overdelete", getID());
+                        return null;
+                    }
+                }
+
+                // removed statements are matched against rule heads without their context, as
+                // they may be rederived in the inferred contexts
+                final ValueFactory factory = getContext().getValueFactory();
+                final Set<List<Value>> triples = Sets.newHashSet();
+                for (final Statement statement : this.removed) {
+                    if (triples.add(Arrays.<Value>asList(statement.getSubject(),
+                            statement.getPredicate(), statement.getObject()))
+                            && !getContext().hasStatement(statement.getSubject(),
+                                    statement.getPredicate(), statement.getObject(), true)) {
+                        result.add(factory.createStatement(statement.getSubject(),
+                                statement.getPredicate(), statement.getObject()));
+                    }
+                }
+
+                time = System.currentTimeMillis() - time;
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[{}] Overdeletion of {} statement(s) completed in {} ms",
+                            new Object[] { getID(), result.size(), time });
+                }
+                return result;
+
+            } catch (final QueryEvaluationException ex) {
+                throw new RepositoryException("Closure maintenance failed: " + ex.getMessage(),
+                        ex);
+            }
+        }
+
+        @Override
+        protected void logClosureCompleted(final long time, final long inferred)
+        {
+            if (LOGGER.isInfoEnabled()) {
+                String mode = "Closure computation";
+                if (this.deltaBase != null) {
+                    mode = "Incremental closure computation from " + this.seeds
+                            + " added statement(s)";
+                    if (this.overdeleted != null) {
+                        mode += " and " + this.removed.size() + " removed statement(s) ("
+                                + this.overdeleted.size() + " overdeleted)";
+                    }
+                }
+                LOGGER.info("[{}] === {} completed after {} ms with {} new inferences; "
+                        + "{} rule evaluation(s) on delta ({} without matching statements), "
+                        + "{} full ===", new Object[] { getID(), mode, time, inferred,
+                        this.deltaEvaluations, this.skippedEvaluations, this.fullEvaluations });
+            }
+        }
+
+        private void resetDelta()
+        {
+            this.delta.clear();
+            this.deltaStart = 0L;
+            this.deltaBase = null;
+            this.deltaPositions.clear();
+            this.deltaBindings = null;
+        }
+
+        @Override
+        protected long executeRepeat(final ClosureRepeatTask task, final BindingSet bindings)
+                throws QueryEvaluationException, RepositoryException
+        {
+            // Iteration bindings are extracted from data and may differ from the ones of the
+            // previous closure computation: rules evaluated with them have to start from scratch.
+            final Long base = this.deltaBase;
+            this.deltaBase = null;
+            try {
+                return super.executeRepeat(task, bindings);
+            } finally {
+                this.deltaBase = base;
+            }
+        }
+
+        @Override
+        protected boolean isConcurrentRepeatSupported()
+        {
+            // The delta window and the rule positions in it are shared by all the evaluations
+            // and reset when bindings change: concurrent iterations would interfere.
+            return false;
+        }
+
+        @Override
+        protected long executeEval(final ClosureEvalTask task, final BindingSet bindings)
+                throws QueryEvaluationException, RepositoryException
+        {
+            if (!bindings.equals(this.deltaBindings)) {
+                this.deltaPositions.clear();
+                this.deltaBindings = bindings;
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] Evaluating {} with delta window of {} statement(s)",
+                        new Object[] { getID(), task, this.delta.size() });
+            }
+
+            return super.executeEval(task, bindings);
+        }
+
+        @Override
+        protected void flushBuffer(final Buffer buffer) throws RepositoryException
+        {
+            super.flushBuffer(buffer);
+
+            final int size = buffer.size();
+            if (size >= SemiNaiveInferencer.this.maxDeltaSize) {
+                this.deltaStart += this.delta.size() + size;
+                this.delta.clear();
+            } else {
+                for (final Statement statement : buffer) {
+                    this.delta.add(statement);
+                }
+                final int excess = this.delta.size() - SemiNaiveInferencer.this.maxDeltaSize;
+                if (excess > 0) {
+                    this.delta.subList(0, excess).clear();
+                    this.deltaStart += excess;
+                }
+            }
+
+            LOGGER.debug("[{}] Delta extended with {} statement(s)", getID(), size);
+        }
+
+        // must match the choice between delta and full evaluation made by evaluateRule()
+        @Override
+        protected synchronized boolean isFullyEvaluated(final Rule rule)
+        {
+            if (!SemiNaiveInferencer.this.deltaAtomIndexes.containsKey(rule.getID())) {
+                return true;
+            }
+            final Long position = this.deltaPositions.get(rule.getID());
+            return position == null ? this.deltaBase == null : position < this.deltaStart;
+        }
+
+        @Override
+        protected synchronized void fullEvaluationStarted(final Rule rule)
+        {
+            this.deltaPositions.put(rule.getID(), this.deltaStart + this.delta.size());
+            ++this.fullEvaluations;
+        }
+
+        @Override
+        protected int evaluateRule(final Rule rule, final BindingSet bindings,
+                final Buffer buffer) throws QueryEvaluationException, RepositoryException
+        {
+            final int[] atomIndexes = SemiNaiveInferencer.this.deltaAtomIndexes.get(rule.getID());
+
+            List<Statement> ruleDelta = null;
+            List<Statement> ruleOverdeleted = null;
+            synchronized (this) {
+                final long end = this.deltaStart + this.delta.size();
+                Long position = this.deltaPositions.put(rule.getID(), end);
+                if (position == null && this.deltaBase != null) {
+                    position = this.deltaBase;
+                    ruleOverdeleted = this.overdeleted;
+                }
+                if (atomIndexes != null && position != null && position >= this.deltaStart) {
+                    ruleDelta = this.delta.subList((int) (position - this.deltaStart),
+                            this.delta.size());
+                    ++this.deltaEvaluations;
+                } else {
+                    ++this.fullEvaluations;
+                }
+            }
+
+            if (ruleDelta == null) {
+                return super.evaluateRule(rule, bindings, buffer);
+            }
+
+            final List<StatementPattern> atoms = Algebra.extractPatterns(rule.getBodyQuery()
+                    .getExpression());
+            final Appender appender = buffer.newAppender();
+            int rows = 0;
+
+            for (final int atomIndex : atomIndexes) {
+                final BindingSetAssignment assignment = matchDelta(atoms.get(atomIndex),
+                        ruleDelta, bindings);
+                if (assignment != null) {
+                    rows += Iterables.size(assignment.getBindingSets());
+                    evaluateQuery(rule, rewriteBodyQuery(rule, atomIndex, assignment), bindings,
+                            appender);
+                }
+            }
+
+            if (ruleOverdeleted != null) {
+                for (final StatementPattern headAtom : rule.getHeadAtoms()) {
+                    final BindingSetAssignment assignment = matchDelta(headAtom,
+                            ruleOverdeleted, bindings);
+                    if (assignment != null) {
+                        rows += Iterables.size(assignment.getBindingSets());
+                        evaluateQuery(rule, rewriteBodyQueryForRederivation(rule, assignment),
+                                bindings, appender);
+                    }
+                }
+            }
+
+            if (rows == 0) {
+                synchronized (this) {
+                    ++this.skippedEvaluations;
+                }
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] Rule {} evaluated on delta of {} statement(s), {} matching "
+                        + "row(s)", new Object[] { getID(), rule.getID(), ruleDelta.size(), rows });
+            }
+
+            return appender.flush();
+        }
+
+        private void evaluateQuery(final Rule rule, final QuerySpec<TupleQueryResult> query,
+                final BindingSet bindings, final Appender appender)
+                throws QueryEvaluationException, RepositoryException
+        {
+            try {
+                final TupleQueryResult iteration = getContext().query(query, null, bindings,
+                        true, 0);
+                try {
+                    rule.collectHeadStatements(iteration, bindings, appender);
+                } finally {
+                    iteration.close();
+                }
+
+            } catch (final MalformedQueryException ex) {
+                throw new Error("Unexpected exception: " + ex.getMessage(), ex);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openrdf.model.Value;
+
+/**
+ * Dictionary mapping RDF terms to dense integer IDs, used by {@link Buffer} and {@link JoinPlan}.
+ * <p>
+ * ID 0 is reserved for <tt>null</tt> (i.e., the default context); other IDs are assigned
+ * incrementally starting from 1. Each distinct term is stored once, so equal terms produced by
+ * different query solutions share the same instance and the instances in the solutions become
+ * garbage as soon as they are encoded. Encoding is thread-safe and takes a lock only when a new
+ * term is added. Decoding is lock-free and can be performed concurrently with encoding, provided
+ * the decoded ID has been obtained (directly or through a happens-before chain) from
+ * {@link #encode(Value)}.
+ * </p>
+ */
+final class TermDictionary
+{
+
+    private static final int BLOCK_BITS = 12;
+
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final ConcurrentHashMap<Value, Integer> ids;
+
+    private volatile Value[][] blocks;
+
+    private volatile int size;
+
+    public TermDictionary()
+    {
+        this.ids = new ConcurrentHashMap<Value, Integer>();
+        this.blocks = new Value[0][];
+        this.size = 1;
+    }
+
+    public int encode(final Value value)
+    {
+        if (value == null) {
+            return 0;
+        }
+
+        final Integer id = this.ids.get(value);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            final Integer existingID = this.ids.get(value);
+            if (existingID != null) {
+                return existingID;
+            }
+            final int newID = this.size;
+            final int blockIndex = newID >> BLOCK_BITS;
+            if (blockIndex >= this.blocks.length) {
+                final Value[][] newBlocks = Arrays.copyOf(this.blocks, blockIndex + 1);
+                newBlocks[blockIndex] = new Value[BLOCK_SIZE];
+                this.blocks = newBlocks;
+            }
+            this.blocks[blockIndex][newID & BLOCK_MASK] = value;
+            this.ids.put(value, newID);
+            this.size = newID + 1;
+            return newID;
+        }
+    }
+
+    // returns the ID of a term previously encoded, or -1 if the term was never encoded
+    public int lookup(final Value value)
+    {
+        if (value == null) {
+            return 0;
+        }
+        final Integer id = this.ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    public Value decode(final int id)
+    {
+        return id == 0 ? null : this.blocks[id >> BLOCK_BITS][id & BLOCK_MASK];
+    }
+
+    public int size()
+    {
+        return this.size - 1;
+    }
+
+}
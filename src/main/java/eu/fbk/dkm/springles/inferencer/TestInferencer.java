@@ -11,7 +11,6 @@ import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
-import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -124,7 +123,7 @@ class TestInferencer extends AbstractInferencer
                 builder.append("\n  ").append(this.statistics.get(rule.getID()).toString());
             }
             LOGGER.info(builder.toString());
-            LOGGER.info("Inference buffer statistics: " + Buffer.getStatistics());
+            LOGGER.info("Inference buffer statistics: " + Buffer.getGlobalStatistics());
         }
     }
 
@@ -367,11 +366,11 @@ class TestInferencer extends AbstractInferencer
                 return 0L;
             }
 
-            final int numAuxiliaryTasks = this.context.getScheduler() == null ? 0 : Math.min(
+            final int numAuxiliaryTasks = this.context.getExecutor() == null ? 0 : Math.min(
                     TestInferencer.this.maxConcurrentRules, pendingRuleIDs.size()) - 1;
             final List<Future<?>> futures = Lists.newArrayListWithCapacity(numAuxiliaryTasks);
             for (int i = 0; i < numAuxiliaryTasks; ++i) {
-                futures.add(this.context.getScheduler().submit(new Callable<Void>() {
+                futures.add(this.context.getExecutor().submit(new Callable<Void>() {
 
                     @Override
                     public Void call() throws Exception
@@ -427,8 +426,8 @@ class TestInferencer extends AbstractInferencer
                     TestInferencer.this.statistics.get(rule.getID()).recordActivations(count,
                             time);
                     if (count > 0) {
-                        this.activeRules.addAll(Objects.firstNonNull(rule.getTriggeredRuleIDs(),
-                                TestInferencer.this.ruleset.getForwardRuleIDs()));
+                        this.activeRules.addAll(TestInferencer.this.ruleset
+                                .getTriggeredRuleIDs(rule.getID()));
                     }
                 }
 
@@ -0,0 +1,475 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.SubQueryValueOperator;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+import org.openrdf.query.algebra.evaluation.util.QueryEvaluationUtil;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.repository.RepositoryException;
+
+import info.aduna.iteration.CloseableIteration;
+
+import eu.fbk.dkm.internal.util.Algebra;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
+
+/**
+ * Native evaluation of the fix point of a transitive rule.
+ * <p>
+ * A rule is transitive if its head is a single atom <tt>?x P ?z</tt> and its body is the join of
+ * atoms <tt>?x P ?y</tt> and <tt>?y P ?z</tt>, with <tt>P</tt> the same constant or variable,
+ * optionally constrained by filters over <tt>?x</tt>, <tt>?y</tt>, <tt>?z</tt> and by a
+ * <tt>FILTER NOT EXISTS { ?x P ?z }</tt> condition; body atoms either both lack a context or both
+ * use distinct context variables not mentioned elsewhere (in which case only named graphs are
+ * matched), while the head context can be a constant or a variable bound externally. The fix
+ * point of such a rule, which would require as many SPARQL evaluations of the two-hop join as the
+ * length of the longest chain of <tt>P</tt> statements, is computed here in a single pass: all
+ * <tt>P</tt> statements are loaded in memory and the closure is computed semi-naively, joining
+ * each derived pair only with the pairs known at the time it is processed. Filters are evaluated
+ * natively for each derivation, so the inferred statements are exactly the ones that would be
+ * produced by the repeated evaluation of the rule.
+ * </p>
+ */
+final class TransitiveClosure
+{
+
+    private final Rule rule;
+
+    private final String subjectName;
+
+    private final String middleName;
+
+    private final String objectName;
+
+    private final Var predicateVar;
+
+    @Nullable
+    private final Var headContextVar;
+
+    private final boolean namedOnly;
+
+    private final boolean notExists;
+
+    private final List<ValueExpr> filters;
+
+    private TransitiveClosure(final Rule rule, final String subjectName,
+            final String middleName, final String objectName, final Var predicateVar,
+            @Nullable final Var headContextVar, final boolean namedOnly,
+            final boolean notExists, final List<ValueExpr> filters)
+    {
+        this.rule = rule;
+        this.subjectName = subjectName;
+        this.middleName = middleName;
+        this.objectName = objectName;
+        this.predicateVar = predicateVar;
+        this.headContextVar = headContextVar;
+        this.namedOnly = namedOnly;
+        this.notExists = notExists;
+        this.filters = filters;
+    }
+
+    @Nullable
+    public static TransitiveClosure analyze(final Rule rule)
+    {
+        if (rule.getBody() == null || rule.getHead() == null || rule.getTransform() != null
+                || rule.getHeadAtoms().size() != 1) {
+            return null;
+        }
+
+        final List<StatementPattern> atoms = Lists.newArrayList();
+        final List<ValueExpr> conditions = Lists.newArrayList();
+        if (!decompose(rule.getBody(), atoms, conditions) || atoms.size() != 2) {
+            return null;
+        }
+
+        StatementPattern first = atoms.get(0);
+        StatementPattern second = atoms.get(1);
+        if (!isVariable(first.getObjectVar())
+                || !first.getObjectVar().equals(second.getSubjectVar())) {
+            first = atoms.get(1);
+            second = atoms.get(0);
+        }
+
+        final Var subject = first.getSubjectVar();
+        final Var middle = first.getObjectVar();
+        final Var object = second.getObjectVar();
+        final Var predicate = first.getPredicateVar();
+        if (!isVariable(subject) || !isVariable(middle) || !isVariable(object)
+                || !middle.equals(second.getSubjectVar())
+                || !predicate.equals(second.getPredicateVar())
+                || Sets.newHashSet(subject, middle, object, predicate).size() != 4) {
+            return null;
+        }
+
+        final Set<String> names = Sets.newHashSet(subject.getName(), middle.getName(),
+                object.getName(), predicate.getName());
+        final boolean namedOnly = first.getContextVar() != null;
+        if (namedOnly) {
+            if (second.getContextVar() == null || !isVariable(first.getContextVar())
+                    || !isVariable(second.getContextVar())
+                    || !names.add(first.getContextVar().getName())
+                    || !names.add(second.getContextVar().getName())) {
+                return null;
+            }
+        } else if (second.getContextVar() != null) {
+            return null;
+        }
+
+        final StatementPattern head = rule.getHeadAtoms().get(0);
+        final Var headContext = head.getContextVar();
+        if (!subject.equals(head.getSubjectVar()) || !predicate.equals(head.getPredicateVar())
+                || !object.equals(head.getObjectVar()) || headContext != null
+                && !headContext.hasValue() && names.contains(headContext.getName())) {
+            return null;
+        }
+
+        boolean notExists = false;
+        final List<ValueExpr> filters = Lists.newArrayList();
+        for (final ValueExpr condition : conditions) {
+            if (isNotExists(condition, subject, predicate, object, namedOnly, names)) {
+                notExists = true;
+            } else if (!containsSubQuery(condition)
+                    && !containsAny(Algebra.extractVariables(condition), names, subject,
+                            middle, object)) {
+                filters.add(condition);
+            } else {
+                return null;
+            }
+        }
+
+        return new TransitiveClosure(rule, subject.getName(), middle.getName(),
+                object.getName(), predicate, headContext, namedOnly, notExists,
+                ImmutableList.copyOf(filters));
+    }
+
+    // splits a conjunctive body in its atoms and filter conditions (also used by EqualityIndex)
+    static boolean decompose(final TupleExpr expr, final List<StatementPattern> atoms,
+            final List<ValueExpr> conditions)
+    {
+        if (expr instanceof StatementPattern) {
+            atoms.add((StatementPattern) expr);
+            return true;
+        } else if (expr instanceof Join) {
+            final Join join = (Join) expr;
+            return decompose(join.getLeftArg(), atoms, conditions)
+                    && decompose(join.getRightArg(), atoms, conditions);
+        } else if (expr instanceof Filter) {
+            final Filter filter = (Filter) expr;
+            splitConjunction(filter.getCondition(), conditions);
+            return decompose(filter.getArg(), atoms, conditions);
+        }
+        return false;
+    }
+
+    private static void splitConjunction(final ValueExpr expr, final List<ValueExpr> conditions)
+    {
+        if (expr instanceof And) {
+            splitConjunction(((And) expr).getLeftArg(), conditions);
+            splitConjunction(((And) expr).getRightArg(), conditions);
+        } else {
+            conditions.add(expr);
+        }
+    }
+
+    private static boolean isVariable(@Nullable final Var var)
+    {
+        return var != null && !var.hasValue();
+    }
+
+    // matches NOT EXISTS { ?x P ?z }, reading the same graphs read by the body atoms
+    private static boolean isNotExists(final ValueExpr condition, final Var subject,
+            final Var predicate, final Var object, final boolean namedOnly,
+            final Set<String> names)
+    {
+        if (!(condition instanceof Not) || !(((Not) condition).getArg() instanceof Exists)) {
+            return false;
+        }
+        final TupleExpr expr = ((Exists) ((Not) condition).getArg()).getSubQuery();
+        if (!(expr instanceof StatementPattern)) {
+            return false;
+        }
+        final StatementPattern pattern = (StatementPattern) expr;
+        final Var context = pattern.getContextVar();
+        return subject.equals(pattern.getSubjectVar())
+                && predicate.equals(pattern.getPredicateVar())
+                && object.equals(pattern.getObjectVar())
+                && (namedOnly ? isVariable(context) && !names.contains(context.getName())
+                        : context == null);
+    }
+
+    private static boolean containsSubQuery(final ValueExpr condition)
+    {
+        final boolean[] result = new boolean[] { false };
+        condition.visit(new QueryModelVisitorBase<RuntimeException>() {
+
+            @Override
+            protected void meetSubQueryValueOperator(final SubQueryValueOperator node)
+            {
+                result[0] = true;
+            }
+
+        });
+        return result[0];
+    }
+
+    // true if the variables include body variables other than ?x, ?y and ?z (e.g., contexts)
+    private static boolean containsAny(final Set<String> variables, final Set<String> names,
+            final Var... allowed)
+    {
+        final Set<String> forbidden = Sets.newHashSet(names);
+        for (final Var var : allowed) {
+            forbidden.remove(var.getName());
+        }
+        return !Sets.intersection(variables, forbidden).isEmpty();
+    }
+
+    public Rule getRule()
+    {
+        return this.rule;
+    }
+
+    /**
+     * Checks whether native evaluation is possible with the bindings specified, i.e., whether
+     * they assign a URI to a variable predicate and a resource to a variable head context, while
+     * leaving the other variables of the body atoms unbound.
+     */
+    public boolean isApplicable(final BindingSet bindings)
+    {
+        final Value predicate = resolve(this.predicateVar, bindings);
+        final Value context = this.headContextVar == null ? null : resolve(
+                this.headContextVar, bindings);
+        return predicate instanceof URI
+                && (this.headContextVar == null || context instanceof Resource)
+                && !bindings.hasBinding(this.subjectName)
+                && !bindings.hasBinding(this.middleName)
+                && !bindings.hasBinding(this.objectName);
+    }
+
+    @Nullable
+    private static Value resolve(final Var var, final BindingSet bindings)
+    {
+        return var.hasValue() ? var.getValue() : bindings.getValue(var.getName());
+    }
+
+    /**
+     * Computes the fix point of the rule, emitting inferred statements to the handler supplied.
+     * Statements may be emitted more than once if they are already in the repository.
+     */
+    public <E extends Exception> void compute(final Inferencer.Context context,
+            final BindingSet bindings, final StatementHandler<E> handler) throws E,
+            QueryEvaluationException, RepositoryException
+    {
+        final URI predicate = (URI) resolve(this.predicateVar, bindings);
+        final Resource headContext = this.headContextVar == null ? null
+                : (Resource) resolve(this.headContextVar, bindings);
+        final boolean recursive = headContext != null || !this.namedOnly;
+
+        final Graph graph = new Graph();
+        final CloseableIteration<? extends Statement, RepositoryException> iteration = context
+                .getStatements(null, predicate, null, true);
+        try {
+            while (iteration.hasNext()) {
+                final Statement statement = iteration.next();
+                if (!this.namedOnly || statement.getContext() != null) {
+                    graph.add(graph.encode(statement.getSubject()),
+                            graph.encode(statement.getObject()));
+                }
+            }
+        } finally {
+            iteration.close();
+        }
+
+        final EvaluationStrategy strategy = Algebra.newDataFreeStrategy(context
+                .getValueFactory());
+        final QueryBindingSet filterBindings = new QueryBindingSet(bindings);
+        final Set<Long> emitted = Sets.newHashSet();
+
+        while (graph.hasPending()) {
+            final long pair = graph.next();
+            final int first = (int) (pair >>> 32);
+            final int second = (int) pair;
+            for (final int[] derivation : graph.derivations(first, second)) {
+                final int x = derivation[0];
+                final int y = derivation[1];
+                final int z = derivation[2];
+                final long key = (long) x << 32 | z & 0xFFFFFFFFL;
+                if (emitted.contains(key) || this.notExists && graph.contains(key)) {
+                    continue;
+                }
+                if (!this.filters.isEmpty()) {
+                    filterBindings.setBinding(this.subjectName, graph.decode(x));
+                    filterBindings.setBinding(this.middleName, graph.decode(y));
+                    filterBindings.setBinding(this.objectName, graph.decode(z));
+                    if (!evaluateFilters(strategy, filterBindings)) {
+                        continue;
+                    }
+                }
+                emitted.add(key);
+                handler.handle((Resource) graph.decode(x), predicate, graph.decode(z),
+                        headContext);
+                if (recursive) {
+                    graph.add(x, z);
+                }
+            }
+        }
+    }
+
+    private boolean evaluateFilters(final EvaluationStrategy strategy, final BindingSet bindings)
+            throws QueryEvaluationException
+    {
+        for (final ValueExpr filter : this.filters) {
+            try {
+                if (!QueryEvaluationUtil.getEffectiveBooleanValue(strategy.evaluate(filter,
+                        bindings))) {
+                    return false;
+                }
+            } catch (final ValueExprEvaluationException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "transitive closure of " + this.rule.getID();
+    }
+
+    // directed graph over dictionary-encoded terms; pairs are added to a queue and linked to the
+    // adjacency lists only when taken from it, so that each pair of edges is joined once
+    private static final class Graph
+    {
+
+        private final Map<Value, Integer> ids = Maps.newHashMap();
+
+        private final List<Value> values = Lists.newArrayList();
+
+        private final Set<Long> edges = Sets.newHashSet();
+
+        private int[][] successors = new int[16][];
+
+        private int[][] predecessors = new int[16][];
+
+        private long[] queue = new long[16];
+
+        private int queueStart = 0;
+
+        private int queueEnd = 0;
+
+        int encode(final Value value)
+        {
+            Integer id = this.ids.get(value);
+            if (id == null) {
+                id = this.values.size();
+                this.ids.put(value, id);
+                this.values.add(value);
+            }
+            return id;
+        }
+
+        Value decode(final int id)
+        {
+            return this.values.get(id);
+        }
+
+        boolean contains(final long pair)
+        {
+            return this.edges.contains(pair);
+        }
+
+        void add(final int source, final int target)
+        {
+            final long pair = (long) source << 32 | target & 0xFFFFFFFFL;
+            if (this.edges.add(pair)) {
+                if (this.queueEnd == this.queue.length) {
+                    this.queue = Arrays.copyOf(this.queue, this.queue.length * 2);
+                }
+                this.queue[this.queueEnd++] = pair;
+            }
+        }
+
+        boolean hasPending()
+        {
+            return this.queueStart < this.queueEnd;
+        }
+
+        long next()
+        {
+            final long pair = this.queue[this.queueStart];
+            this.queue[this.queueStart++] = 0L;
+            return pair;
+        }
+
+        // links pair (first, second) and returns the (x, y, z) chains it forms with linked pairs
+        List<int[]> derivations(final int first, final int second)
+        {
+            this.successors = link(this.successors, first, second);
+            this.predecessors = link(this.predecessors, second, first);
+            final List<int[]> result = Lists.newArrayList();
+            final int[] next = second < this.successors.length ? this.successors[second] : null;
+            if (next != null) {
+                for (int i = 1; i <= next[0]; ++i) {
+                    result.add(new int[] { first, second, next[i] });
+                }
+            }
+            final int[] previous = first < this.predecessors.length ? this.predecessors[first]
+                    : null;
+            if (previous != null) {
+                for (int i = 1; i <= previous[0]; ++i) {
+                    result.add(new int[] { previous[i], first, second });
+                }
+            }
+            return result;
+        }
+
+        // adjacency lists store their size in the first element
+        private static int[][] link(final int[][] lists, final int node, final int neighbour)
+        {
+            int[][] result = lists;
+            if (node >= result.length) {
+                result = Arrays.copyOf(result, Math.max(node + 1, result.length * 2));
+            }
+            int[] list = result[node];
+            if (list == null) {
+                list = new int[4];
+                result[node] = list;
+            } else if (list[0] + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                result[node] = list;
+            }
+            list[++list[0]] = neighbour;
+            return result;
+        }
+
+    }
+
+}
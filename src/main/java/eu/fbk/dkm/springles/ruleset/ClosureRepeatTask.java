@@ -30,6 +30,11 @@ public final class ClosureRepeatTask extends ClosureTask
     @Nullable
     private QuerySpec<TupleQueryResult> query;
 
+    private boolean concurrent;
+
+    @Nullable
+    private String groupVariable;
+
     // CONSTRUCTION
 
     public ClosureRepeatTask()
@@ -44,6 +49,8 @@ public final class ClosureRepeatTask extends ClosureTask
         super(id, bindings);
         this.subTask = subTask;
         this.query = query;
+        this.concurrent = false;
+        this.groupVariable = null;
     }
 
     // PROPERTIES
@@ -72,6 +79,44 @@ public final class ClosureRepeatTask extends ClosureTask
         this.query = query;
     }
 
+    /**
+     * Returns whether iterations may be executed concurrently. Concurrent iterations must be
+     * independent, i.e., statements inferred in an iteration must not affect the inferences of
+     * another iteration of the same group (see {@link #getGroupVariable()}).
+     * 
+     * @return true, if iterations may be executed concurrently
+     */
+    public boolean isConcurrent()
+    {
+        return this.concurrent;
+    }
+
+    public void setConcurrent(final boolean concurrent)
+    {
+        checkMutable();
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Returns the name of the variable of the query results grouping concurrent iterations.
+     * Consecutive iterations binding the variable to the same value form a group; iterations of a
+     * group are executed concurrently, while groups are executed one after the other, following
+     * the order of query results. If null, all the iterations form a single group.
+     * 
+     * @return the group variable name, without the leading question mark, possibly null
+     */
+    @Nullable
+    public String getGroupVariable()
+    {
+        return this.groupVariable;
+    }
+
+    public void setGroupVariable(@Nullable final String groupVariable)
+    {
+        checkMutable();
+        this.groupVariable = groupVariable;
+    }
+
     // SERIALIZATION AND DESERIALIZATION IN RDF
 
     @Override
@@ -89,6 +134,13 @@ public final class ClosureRepeatTask extends ClosureTask
             graph.add(id, SPR.REPEAT_OF,
                     graph.getValueFactory().createLiteral(expr, XMLSchema.STRING));
         }
+        if (this.concurrent) {
+            graph.add(id, SPR.REPEAT_CONCURRENTLY, graph.getValueFactory().createLiteral(true));
+        }
+        if (this.groupVariable != null) {
+            graph.add(id, SPR.REPEAT_GROUPED_BY, graph.getValueFactory().createLiteral(
+                    "?" + this.groupVariable, XMLSchema.STRING));
+        }
         return id;
     }
 
@@ -100,6 +152,12 @@ public final class ClosureRepeatTask extends ClosureTask
         final Selector s = Selector.select(graph, getID());
         final String query = s.get(SPR.REPEAT_OVER, String.class, null);
         final Resource subTaskID = s.get(SPR.REPEAT_OF, Resource.class, null);
+        final String groupVariable = s.get(SPR.REPEAT_GROUPED_BY, String.class, null);
+        this.concurrent = s.get(SPR.REPEAT_CONCURRENTLY, Boolean.class, false);
+        if (groupVariable != null) {
+            final String name = groupVariable.trim();
+            this.groupVariable = name.startsWith("?") ? name.substring(1) : name;
+        }
         if (query != null) {
             this.query = QuerySpec.from(QueryType.TUPLE,
                     Algebra.parseTupleExpr(query, baseURI, namespaces), null, namespaces);
@@ -117,6 +175,8 @@ public final class ClosureRepeatTask extends ClosureTask
         super.validate();
         validate(this.subTask != null, "missing mandatory sub-task");
         validate(this.query != null, "missing mandatory query");
+        validate(this.groupVariable == null || this.concurrent,
+                "group variable specified for non-concurrent iterations");
         this.subTask.validate();
     }
 
@@ -150,13 +210,16 @@ public final class ClosureRepeatTask extends ClosureTask
     {
         return super.equals(object)
                 && Objects.equal(this.subTask, ((ClosureRepeatTask) object).subTask)
-                && Objects.equal(this.query, ((ClosureRepeatTask) object).query);
+                && Objects.equal(this.query, ((ClosureRepeatTask) object).query)
+                && this.concurrent == ((ClosureRepeatTask) object).concurrent
+                && Objects.equal(this.groupVariable, ((ClosureRepeatTask) object).groupVariable);
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hashCode(super.hashCode(), this.subTask, this.query);
+        return Objects.hashCode(super.hashCode(), this.subTask, this.query, this.concurrent,
+                this.groupVariable);
     }
 
     @Override
@@ -14,6 +14,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -94,6 +95,9 @@ public final class Rule implements Cloneable
     @Nullable
     private transient QuerySpec<TupleQueryResult> bodyQuery;
 
+    @Nullable
+    private transient Transformer transformer;
+
     public Rule()
     {
         this(null, null, null, null, null, null);
@@ -255,6 +259,25 @@ public final class Rule implements Cloneable
     {
         checkMutable();
         this.transform = transform;
+        this.transformer = null;
+    }
+
+    /**
+     * Returns the transformer referenced by <tt>spr:transform</tt>, if any, as resolved by
+     * {@link Transformers#lookup(String)}. Resolution happens once, at the latest when the rule
+     * is frozen.
+     *
+     * @return the transformer, or null if the rule has no transform
+     * @throws IllegalArgumentException
+     *             if the transformer cannot be resolved
+     */
+    @Nullable
+    public Transformer getTransformer()
+    {
+        if (this.transformer == null && this.transform != null) {
+            this.transformer = Transformers.lookup(this.transform.getURI());
+        }
+        return this.transformer;
     }
 
     @Nullable
@@ -283,42 +306,24 @@ public final class Rule implements Cloneable
                 arguments[i] = Algebra.evaluateValueExpr(this.transform.getArgs().get(i),
                         bindings, ValueFactoryImpl.getInstance());
             }
-            return Transform.transform(iteration, this.transform.getURI(), arguments);
+            return getTransformer().transform(iteration, arguments);
         }
     }
 
-    private int[][] setupMappingParameters(final TupleQueryResult iteration,
-            final BindingSet bindings, final List<Value> values) throws QueryEvaluationException
+    /**
+     * Returns a positional mapping from rows of values, in the order of the variables
+     * specified, to the statements of the rule head. Head variables not in the row are taken
+     * from the bindings specified, or are considered unbound.
+     *
+     * @param rowNames
+     *            the names of the row variables, in row order
+     * @param bindings
+     *            the bindings of external variables
+     * @return the created mapping
+     */
+    public HeadMapping newHeadMapping(final List<String> rowNames, final BindingSet bindings)
     {
-        final List<String> queryNames = Lists.newArrayList(iteration.getBindingNames());
-        final List<String> allNames = Lists.newArrayList(queryNames);
-
-        values.clear();
-        values.addAll(Collections.nCopies(queryNames.size(), (Value) null));
-
-        allNames.addAll(bindings.getBindingNames());
-        for (final String name : bindings.getBindingNames()) {
-            values.add(bindings.getValue(name));
-        }
-
-        final List<StatementPattern> patterns = getHeadAtoms();
-        final int[][] indexes = new int[patterns.size()][];
-        for (int i = 0; i < patterns.size(); ++i) {
-            final List<Var> vars = patterns.get(i).getVarList();
-            indexes[i] = new int[4 + 1];
-            for (int j = 0; j < 4; ++j) {
-                final Var var = vars.get(j);
-                if (var.hasValue()) {
-                    indexes[i][j] = values.size();
-                    values.add(var.getValue());
-                } else {
-                    indexes[i][j] = allNames.indexOf(var.getName());
-                }
-            }
-            indexes[i][4] = queryNames.indexOf("_emit" + (i + 1));
-        }
-
-        return indexes;
+        return new HeadMapping(getHeadAtoms(), rowNames, bindings);
     }
 
     public <E extends Exception> void collectHeadStatements(final TupleQueryResult iteration,
@@ -328,42 +333,16 @@ public final class Rule implements Cloneable
         final TupleQueryResult actualIteration = transformIfNecessary(iteration, bindings);
 
         final List<String> names = actualIteration.getBindingNames();
-        final int numNames = names.size();
-        final List<Value> values = Lists.newArrayList();
-        final int[][] indexes = setupMappingParameters(actualIteration, bindings, values);
-        final Value[] tuple = values.toArray(new Value[values.size()]);
+        final String[] rowNames = names.toArray(new String[names.size()]);
+        final HeadMapping mapping = newHeadMapping(names, bindings);
+        final Value[] row = new Value[rowNames.length];
 
         while (actualIteration.hasNext()) {
             final BindingSet queryBindings = actualIteration.next();
-            for (int i = 0; i < numNames; ++i) {
-                tuple[i] = queryBindings.getValue(names.get(i));
-            }
-
-            for (int row = 0; row < indexes.length; ++row) {
-
-                final int[] offsets = indexes[row];
-
-                if (offsets[4] >= 0) {
-                    final Value emit = tuple[offsets[4]];
-                    if (!(emit instanceof Literal) || !((Literal) emit).booleanValue()) {
-                        continue;
-                    }
-                }
-try{
-                final Value subj = tuple[offsets[0]];
-                final Value pred = tuple[offsets[1]];
-                final Value obj = tuple[offsets[2]];
-                final Value ctx = tuple[offsets[3]];
-
-                if (subj instanceof Resource && pred instanceof URI && obj != null
-                        && (ctx == null || ctx instanceof Resource)) {
-                    handler.handle((Resource) subj, (URI) pred, obj, (Resource) ctx);
-                }
-                
-}catch(ArrayIndexOutOfBoundsException e){
-	System.out.println(e);
-}
+            for (int i = 0; i < rowNames.length; ++i) {
+                row[i] = queryBindings.getValue(rowNames[i]);
             }
+            mapping.collect(row, handler);
         }
     }
 
@@ -374,14 +353,14 @@ try{
         final TupleQueryResult actualIteration = transformIfNecessary(iteration, bindings);
 
         final List<String> names = actualIteration.getBindingNames();
-        final int numNames = names.size();
-        final List<Value> values = Lists.newArrayList();
-        final int[][] indexes = setupMappingParameters(actualIteration, bindings, values);
-        final Value[] tuple = values.toArray(new Value[values.size()]);
+        final String[] rowNames = names.toArray(new String[names.size()]);
+        final HeadMapping mapping = newHeadMapping(names, bindings);
+        final Value[] row = new Value[rowNames.length];
+        final Value[] quad = new Value[4];
 
         return new CloseableIteration<Statement, QueryEvaluationException>() {
 
-            private int row = indexes.length;
+            private int atom = mapping.size();
 
             private Statement next = null;
 
@@ -393,42 +372,23 @@ try{
                 }
 
                 while (true) {
-                    if (this.row >= indexes.length) {
-                        if (!iteration.hasNext()) {
+                    if (this.atom >= mapping.size()) {
+                        if (!actualIteration.hasNext()) {
                             return false;
                         }
-                        final BindingSet bindings = iteration.next();
-                        for (int i = 0; i < numNames; ++i) {
-                            tuple[i] = bindings.getValue(names.get(i));
+                        final BindingSet bindings = actualIteration.next();
+                        for (int i = 0; i < rowNames.length; ++i) {
+                            row[i] = bindings.getValue(rowNames[i]);
                         }
-                        this.row = 0;
+                        this.atom = 0;
                     }
 
-                    final int[] offsets = indexes[this.row++];
-
-                    if (offsets[4] >= 0) {
-                        final Value emit = tuple[offsets[4]];
-                        if (!(emit instanceof Literal) || !((Literal) emit).booleanValue()) {
-                            continue;
-                        }
-                    }
-
-                    final Value subject = tuple[offsets[0]];
-                    final Value predicate = tuple[offsets[1]];
-                    final Value object = tuple[offsets[2]];
-                    final Value context = tuple[offsets[3]];
-
-                    if (subject instanceof Resource && predicate instanceof URI && object != null) {
-                        if (context == null) {
-                            this.next = valueFactory.createStatement((Resource) subject,
-                                    (URI) predicate, object);
-                            return true;
-
-                        } else if (context instanceof Resource) {
-                            this.next = valueFactory.createStatement((Resource) subject,
-                                    (URI) predicate, object, (Resource) context);
-                            return true;
-                        }
+                    if (mapping.instantiate(this.atom++, row, quad)) {
+                        this.next = quad[3] == null ? valueFactory.createStatement(
+                                (Resource) quad[0], (URI) quad[1], quad[2]) : valueFactory
+                                .createStatement((Resource) quad[0], (URI) quad[1], quad[2],
+                                        (Resource) quad[3]);
+                        return true;
                     }
                 }
             }
@@ -453,7 +413,7 @@ try{
             @Override
             public void close() throws QueryEvaluationException
             {
-                iteration.close();
+                actualIteration.close();
             }
 
         };
@@ -597,6 +557,7 @@ try{
         if (!this.frozen) {
             this.triggeredRuleIDs = this.triggeredRuleIDs == null ? null : ImmutableSet
                     .copyOf(this.triggeredRuleIDs);
+            getTransformer();
             this.frozen = true;
         }
     }
@@ -684,6 +645,131 @@ try{
         return this.id instanceof URI ? ((URI) this.id).getLocalName() : "unnamed";
     }
 
+    // HEAD MAPPING
+
+    /**
+     * Positional mapping from rows of values to the statements of a rule head.
+     * <p>
+     * The source of each head term (a row position, an external binding or a constant) is
+     * resolved once when the mapping is created, so that rows are instantiated with no lookup
+     * of variables by name and no allocation. Head atoms are emitted only if their terms are
+     * bound to values of the right type and, for heads of rules with conditional emission,
+     * if the <tt>_emitN</tt> variable of the atom is bound to true in the row.
+     * </p>
+     */
+    public static final class HeadMapping
+    {
+
+        // per head atom and (s, p, o, c) term: row index if non-negative, otherwise -1 - i for
+        // the i-th fixed value (constants, external bindings and null for unbound variables)
+        private final int[][] indexes;
+
+        // per head atom: row index of its _emitN variable, or -1 if none
+        private final int[] emitIndexes;
+
+        private final Value[] fixed;
+
+        private HeadMapping(final List<StatementPattern> atoms, final List<String> rowNames,
+                final BindingSet bindings)
+        {
+            final Map<String, Integer> rowIndexes = Maps.newHashMap();
+            for (int i = rowNames.size() - 1; i >= 0; --i) {
+                rowIndexes.put(rowNames.get(i), i);
+            }
+
+            final List<Value> fixed = Lists.newArrayList();
+            fixed.add(null);
+
+            this.indexes = new int[atoms.size()][4];
+            this.emitIndexes = new int[atoms.size()];
+            for (int i = 0; i < atoms.size(); ++i) {
+                final List<Var> vars = atoms.get(i).getVarList();
+                for (int j = 0; j < 4; ++j) {
+                    final Var var = j < vars.size() ? vars.get(j) : null;
+                    final Integer rowIndex = var == null || var.hasValue() ? null : rowIndexes
+                            .get(var.getName());
+                    if (rowIndex != null) {
+                        this.indexes[i][j] = rowIndex;
+                    } else {
+                        final Value value = var == null ? null : var.hasValue() ? var
+                                .getValue() : bindings.getValue(var.getName());
+                        this.indexes[i][j] = -1 - fixed.size();
+                        fixed.add(value);
+                    }
+                }
+                final Integer emitIndex = rowIndexes.get("_emit" + (i + 1));
+                this.emitIndexes[i] = emitIndex == null ? -1 : emitIndex;
+            }
+
+            this.fixed = fixed.toArray(new Value[fixed.size()]);
+        }
+
+        public int size()
+        {
+            return this.indexes.length;
+        }
+
+        /**
+         * Instantiates a head atom on the row specified.
+         *
+         * @param atom
+         *            the index of the head atom
+         * @param row
+         *            the row, with values in the order of the mapping variables
+         * @param quad
+         *            the array of four elements where to store the (s, p, o, c) values
+         * @return true if a statement has been produced in the quad array, false otherwise
+         */
+        public boolean instantiate(final int atom, final Value[] row, final Value[] quad)
+        {
+            final int emitIndex = this.emitIndexes[atom];
+            if (emitIndex >= 0) {
+                final Value emit = row[emitIndex];
+                if (!(emit instanceof Literal) || !((Literal) emit).booleanValue()) {
+                    return false;
+                }
+            }
+
+            final int[] offsets = this.indexes[atom];
+            for (int j = 0; j < 4; ++j) {
+                final int offset = offsets[j];
+                quad[j] = offset >= 0 ? row[offset] : this.fixed[-1 - offset];
+            }
+            return quad[0] instanceof Resource && quad[1] instanceof URI && quad[2] != null
+                    && (quad[3] == null || quad[3] instanceof Resource);
+        }
+
+        /**
+         * Instantiates all the head atoms on the row specified, emitting the resulting
+         * statements to the handler supplied.
+         */
+        public <E extends Exception> void collect(final Value[] row,
+                final StatementHandler<E> handler) throws E
+        {
+            for (int atom = 0; atom < this.indexes.length; ++atom) {
+                final int emitIndex = this.emitIndexes[atom];
+                if (emitIndex >= 0) {
+                    final Value emit = row[emitIndex];
+                    if (!(emit instanceof Literal) || !((Literal) emit).booleanValue()) {
+                        continue;
+                    }
+                }
+
+                final int[] offsets = this.indexes[atom];
+                final Value subj = offsets[0] >= 0 ? row[offsets[0]] : this.fixed[-1 - offsets[0]];
+                final Value pred = offsets[1] >= 0 ? row[offsets[1]] : this.fixed[-1 - offsets[1]];
+                final Value obj = offsets[2] >= 0 ? row[offsets[2]] : this.fixed[-1 - offsets[2]];
+                final Value ctx = offsets[3] >= 0 ? row[offsets[3]] : this.fixed[-1 - offsets[3]];
+
+                if (subj instanceof Resource && pred instanceof URI && obj != null
+                        && (ctx == null || ctx instanceof Resource)) {
+                    handler.handle((Resource) subj, (URI) pred, obj, (Resource) ctx);
+                }
+            }
+        }
+
+    }
+
     // HANDLER INTERFACE
 
     public interface StatementHandler<E extends Exception>
@@ -0,0 +1,231 @@
+package eu.fbk.dkm.springles.ruleset;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+
+/**
+ * Dependency graph among a set of rules, derived by unifying rule heads with rule bodies.
+ * <p>
+ * Rule <tt>A</tt> triggers rule <tt>B</tt> if some head atom of <tt>A</tt> unifies with some body
+ * atom of <tt>B</tt>, i.e., if a statement inferred by <tt>A</tt> may contribute a new solution
+ * to the body of <tt>B</tt>. Two atoms unify if, position by position, either term is a variable
+ * or both terms are the same constant; a missing context is treated as a variable. The test is
+ * conservative: variables are never constrained by ruleset parameters, filters or repeated
+ * occurrences, and atoms in negated or optional parts of a body are considered as well. The
+ * strongly connected components of the graph are computed with Tarjan's algorithm and returned
+ * in topological order (rules of a component may only trigger rules of the same or later
+ * components), which is used to generate a stratified closure plan.
+ * </p>
+ */
+final class RuleDependencies
+{
+
+    private final List<Resource> ruleIDs;
+
+    private final Map<Resource, Set<Resource>> triggeredRuleIDs;
+
+    private final List<Set<Resource>> components;
+
+    private final Set<Resource> recursiveRuleIDs;
+
+    public RuleDependencies(final Iterable<? extends Rule> rules)
+    {
+        final List<Rule> ruleList = ImmutableList.copyOf(rules);
+        final int size = ruleList.size();
+
+        final int[][] successors = new int[size][];
+        final int[] buffer = new int[size];
+        for (int i = 0; i < size; ++i) {
+            int count = 0;
+            for (int j = 0; j < size; ++j) {
+                if (triggers(ruleList.get(i), ruleList.get(j))) {
+                    buffer[count++] = j;
+                }
+            }
+            successors[i] = Arrays.copyOf(buffer, count);
+        }
+
+        final ImmutableList.Builder<Resource> idBuilder = ImmutableList.builder();
+        final Map<Resource, Set<Resource>> triggerMap = Maps.newHashMap();
+        final ImmutableSet.Builder<Resource> recursiveBuilder = ImmutableSet.builder();
+        for (int i = 0; i < size; ++i) {
+            final Resource id = ruleList.get(i).getID();
+            final ImmutableSet.Builder<Resource> builder = ImmutableSet.builder();
+            for (final int j : successors[i]) {
+                builder.add(ruleList.get(j).getID());
+                if (j == i) {
+                    recursiveBuilder.add(id);
+                }
+            }
+            idBuilder.add(id);
+            triggerMap.put(id, builder.build());
+        }
+
+        final List<Set<Resource>> componentList = Lists.newArrayList();
+        for (final int[] component : new Tarjan(successors).run()) {
+            final ImmutableSet.Builder<Resource> builder = ImmutableSet.builder();
+            for (final int index : component) {
+                builder.add(ruleList.get(index).getID());
+            }
+            componentList.add(builder.build());
+        }
+        Collections.reverse(componentList);
+
+        this.ruleIDs = idBuilder.build();
+        this.triggeredRuleIDs = triggerMap;
+        this.components = ImmutableList.copyOf(componentList);
+        this.recursiveRuleIDs = recursiveBuilder.build();
+    }
+
+    public List<Resource> getRuleIDs()
+    {
+        return this.ruleIDs;
+    }
+
+    @Nullable
+    public Set<Resource> getTriggeredRuleIDs(final Resource ruleID)
+    {
+        return this.triggeredRuleIDs.get(ruleID);
+    }
+
+    public List<Set<Resource>> getComponents()
+    {
+        return this.components;
+    }
+
+    public boolean isRecursive(final Set<Resource> component)
+    {
+        return component.size() > 1 || this.recursiveRuleIDs.containsAll(component);
+    }
+
+    public ClosureTask generateClosurePlan(final ValueFactory factory)
+    {
+        final List<ClosureTask> tasks = Lists.newArrayList();
+        for (final Set<Resource> component : this.components) {
+            final ClosureTask evalTask = new ClosureEvalTask(factory.createBNode(), null,
+                    component);
+            tasks.add(isRecursive(component) ? new ClosureFixPointTask(factory.createBNode(),
+                    null, evalTask) : evalTask);
+        }
+        return tasks.size() == 1 ? tasks.get(0) : new ClosureSequenceTask(
+                factory.createBNode(), null, tasks);
+    }
+
+    private static boolean triggers(final Rule source, final Rule target)
+    {
+        final List<StatementPattern> headAtoms = source.getHeadAtoms();
+        final List<StatementPattern> bodyAtoms = target.getBodyAtoms();
+        if (headAtoms == null || bodyAtoms == null) {
+            return false;
+        }
+        for (final StatementPattern headAtom : headAtoms) {
+            for (final StatementPattern bodyAtom : bodyAtoms) {
+                if (unifiable(headAtom.getSubjectVar(), bodyAtom.getSubjectVar())
+                        && unifiable(headAtom.getPredicateVar(), bodyAtom.getPredicateVar())
+                        && unifiable(headAtom.getObjectVar(), bodyAtom.getObjectVar())
+                        && unifiable(headAtom.getContextVar(), bodyAtom.getContextVar())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean unifiable(@Nullable final Var first, @Nullable final Var second)
+    {
+        final Value firstValue = first == null ? null : first.getValue();
+        final Value secondValue = second == null ? null : second.getValue();
+        return firstValue == null || secondValue == null || firstValue.equals(secondValue);
+    }
+
+    private static final class Tarjan
+    {
+
+        private final int[][] successors;
+
+        private final int[] indexes;
+
+        private final int[] lowLinks;
+
+        private final boolean[] onStack;
+
+        private final int[] stack;
+
+        private final List<int[]> components;
+
+        private int stackSize;
+
+        private int counter;
+
+        Tarjan(final int[][] successors)
+        {
+            this.successors = successors;
+            this.indexes = new int[successors.length];
+            this.lowLinks = new int[successors.length];
+            this.onStack = new boolean[successors.length];
+            this.stack = new int[successors.length];
+            this.components = Lists.newArrayList();
+            this.stackSize = 0;
+            this.counter = 0;
+        }
+
+        List<int[]> run()
+        {
+            Arrays.fill(this.indexes, -1);
+            for (int node = 0; node < this.successors.length; ++node) {
+                if (this.indexes[node] < 0) {
+                    visit(node);
+                }
+            }
+            return this.components;
+        }
+
+        private void visit(final int node)
+        {
+            this.indexes[node] = this.counter;
+            this.lowLinks[node] = this.counter;
+            ++this.counter;
+            this.stack[this.stackSize++] = node;
+            this.onStack[node] = true;
+
+            for (final int successor : this.successors[node]) {
+                if (this.indexes[successor] < 0) {
+                    visit(successor);
+                    this.lowLinks[node] = Math.min(this.lowLinks[node], this.lowLinks[successor]);
+                } else if (this.onStack[successor]) {
+                    this.lowLinks[node] = Math.min(this.lowLinks[node], this.indexes[successor]);
+                }
+            }
+
+            if (this.lowLinks[node] == this.indexes[node]) {
+                int start = this.stackSize;
+                do {
+                    --start;
+                    this.onStack[this.stack[start]] = false;
+                } while (this.stack[start] != node);
+                final int[] component = Arrays.copyOfRange(this.stack, start, this.stackSize);
+                Arrays.sort(component);
+                this.components.add(component);
+                this.stackSize = start;
+            }
+        }
+
+    }
+
+}
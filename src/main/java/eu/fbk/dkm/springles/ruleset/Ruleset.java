@@ -2,6 +2,7 @@ package eu.fbk.dkm.springles.ruleset;
 
 import java.net.URL;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -85,6 +86,8 @@ public final class Ruleset implements Cloneable
 
     private transient Set<Resource> forwardRuleIDs;
 
+    private transient RuleDependencies dependencies;
+
     private transient String digest;
 
     public Ruleset()
@@ -129,6 +132,7 @@ public final class Ruleset implements Cloneable
 
         this.ruleIndex = null;
         this.forwardRuleIDs = null;
+        this.dependencies = null;
         this.digest = null;
     }
 
@@ -323,6 +327,56 @@ public final class Ruleset implements Cloneable
         }
     }
 
+    /**
+     * Returns the IDs of the forward rules that must be re-evaluated after new statements are
+     * inferred by the forward rule specified. The IDs explicitly declared by the rule (property
+     * <tt>spr:triggerOf</tt>) are returned, if available; otherwise, the IDs are derived by
+     * unifying the head of the rule with the bodies of the forward rules of the ruleset.
+     *
+     * @param ruleID
+     *            the ID of the forward rule
+     * @return the IDs of the triggered forward rules
+     */
+    public Set<Resource> getTriggeredRuleIDs(final Resource ruleID)
+    {
+        Preconditions.checkNotNull(ruleID);
+        final Rule rule = getRuleIndex().get(ruleID);
+        if (rule != null && rule.getTriggeredRuleIDs() != null) {
+            return rule.getTriggeredRuleIDs();
+        }
+        final Set<Resource> result = getDependencies().getTriggeredRuleIDs(ruleID);
+        return result != null ? result : getForwardRuleIDs();
+    }
+
+    /**
+     * Returns the strongly connected components of the dependency graph among forward rules, in
+     * topological order. Rules in a component can only trigger rules in the same component or in
+     * following components.
+     *
+     * @return an immutable list with the IDs of the rules in each component
+     */
+    public List<Set<Resource>> getRuleComponents()
+    {
+        return getDependencies().getComponents();
+    }
+
+    private RuleDependencies getDependencies()
+    {
+        RuleDependencies dependencies = this.dependencies;
+        if (dependencies == null) {
+            final Set<Resource> forwardRuleIDs = getForwardRuleIDs();
+            final List<Rule> forwardRules = Lists.newArrayList();
+            for (final Rule rule : this.rules) {
+                if (forwardRuleIDs.contains(rule.getID())) {
+                    forwardRules.add(rule);
+                }
+            }
+            dependencies = new RuleDependencies(forwardRules);
+            this.dependencies = this.frozen ? dependencies : null;
+        }
+        return dependencies;
+    }
+
     public Set<Resource> getBackwardRuleIDs()
     {
         return this.backwardRuleIDs;
@@ -470,9 +524,26 @@ public final class Ruleset implements Cloneable
             ruleIDs.addAll(ids);
         }
 
-        this.closurePlan = ClosureTask.parseRDF(expandedGraph, this.baseURI, this.namespaces,
-                s.get(SPR.CLOSURE_PLAN, Resource.class));
-        extractRuleIDs(this.closurePlan, ruleIDs);
+        final Resource planID = s.get(SPR.CLOSURE_PLAN, Resource.class, null);
+        if (planID != null || hasClosureTasks(expandedGraph)) {
+            this.closurePlan = ClosureTask.parseRDF(expandedGraph, this.baseURI,
+                    this.namespaces, planID);
+            extractRuleIDs(this.closurePlan, ruleIDs);
+
+        } else {
+            // No plan: evaluate all the non-backward rules in the graph, stratified by dependency
+            final List<Rule> forwardRules = Lists.newArrayList();
+            final Iterator<Statement> i = expandedGraph.match(null, RDF.TYPE, SPR.RULE);
+            while (i.hasNext()) {
+                final Resource ruleID = i.next().getSubject();
+                if (!ruleIDs.contains(ruleID) && !getRuleIndex().containsKey(ruleID)) {
+                    forwardRules.add(Rule.parseRDF(expandedGraph, this.baseURI,
+                            this.namespaces, ruleID));
+                }
+            }
+            this.rules.addAll(forwardRules);
+            this.closurePlan = new RuleDependencies(forwardRules).generateClosurePlan(vf);
+        }
 
         ruleIDs.removeAll(getRuleIndex().keySet());
         for (final Resource ruleID : ruleIDs) {
@@ -480,6 +551,17 @@ public final class Ruleset implements Cloneable
         }
     }
 
+    private static boolean hasClosureTasks(final Graph graph)
+    {
+        for (final URI type : new URI[] { SPR.CLOSURE_EVAL_TASK, SPR.CLOSURE_FIX_POINT_TASK,
+                SPR.CLOSURE_REPEAT_TASK, SPR.CLOSURE_SEQUENCE_TASK }) {
+            if (graph.match(null, RDF.TYPE, type).hasNext()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static Ruleset parseRDF(final Graph graph, @Nullable final URI rulesetID)
             throws MalformedQueryException
     {
@@ -555,6 +637,7 @@ public final class Ruleset implements Cloneable
             clone.frozen = false;
             clone.ruleIndex = null;
             clone.forwardRuleIDs = null;
+            clone.dependencies = null;
             return clone;
 
         } catch (final CloneNotSupportedException ex) {
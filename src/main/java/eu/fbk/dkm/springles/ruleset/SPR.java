@@ -112,6 +112,12 @@ public final class SPR
     /** String property <tt>:repeatOver</tt>. */
     public static final URI REPEAT_OVER = create("repeatOver");
 
+    /** Boolean property <tt>:repeatConcurrently</tt>. */
+    public static final URI REPEAT_CONCURRENTLY = create("repeatConcurrently");
+
+    /** String property <tt>:repeatGroupedBy</tt>. */
+    public static final URI REPEAT_GROUPED_BY = create("repeatGroupedBy");
+
     // Utilities and constructor
 
     private static URI create(final String localName)
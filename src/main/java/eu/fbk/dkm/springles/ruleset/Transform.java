@@ -1,26 +1,18 @@
 package eu.fbk.dkm.springles.ruleset;
 
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.net.URLEncoder;
-import java.util.ArrayDeque;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Deque;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
-import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
@@ -33,85 +25,11 @@ import org.openrdf.query.impl.ListBindingSet;
 public final class Transform
 {
 
+    // kept for compatibility: transformers are resolved and cached by Transformers
     public static TupleQueryResult transform(final TupleQueryResult iteration,
             final String transformerURI, final Value... arguments) throws QueryEvaluationException
     {
-        final Class<?> methodClass;
-        String methodName;
-
-        if (transformerURI.startsWith("java:")) {
-            final int index = transformerURI.lastIndexOf('.');
-            methodName = transformerURI.substring(index + 1);
-            try {
-                methodClass = Class.forName(transformerURI.substring(5, index));
-            } catch (final ClassNotFoundException ex) {
-                throw new IllegalArgumentException("No such transformer (invalid class name): "
-                        + transformerURI);
-            }
-        } else {
-            methodClass = Transform.class;
-            methodName = new URIImpl(transformerURI).getLocalName();
-        }
-
-        Method method = null;
-        final int numArgs = arguments.length + 1;
-        for (final Method candidate : methodClass.getMethods()) {
-            if (candidate.getName().equals(methodName)
-                    && Modifier.isStatic(candidate.getModifiers())
-                    && candidate.getParameterTypes().length == numArgs
-                    && candidate.getParameterTypes()[0].isAssignableFrom(TupleQueryResult.class)
-                    && TupleQueryResult.class.isAssignableFrom(candidate.getReturnType())) {
-                method = candidate;
-                break;
-            }
-        }
-        if (method == null) {
-            throw new IllegalArgumentException(
-                    "No such transformer (invalid method or signature): " + transformerURI);
-        }
-
-        final Object[] args = new Object[numArgs];
-        args[0] = iteration;
-        for (int i = 1; i < numArgs; ++i) {
-            final Class<?> type = method.getParameterTypes()[i];
-            final Value arg = arguments[i - 1];
-            if (arg == null || Value.class.isAssignableFrom(type)) {
-                args[i] = arg;
-            } else if (type == String.class) {
-                args[i] = arg.stringValue();
-            } else if (type == Boolean.class || type == boolean.class) {
-                args[i] = ((Literal) arg).booleanValue();
-            } else if (type == Character.class || type == char.class) {
-                args[i] = ((Literal) arg).stringValue().charAt(0);
-            } else if (type == Byte.class || type == byte.class) {
-                args[i] = ((Literal) arg).byteValue();
-            } else if (type == Short.class || type == short.class) {
-                args[i] = ((Literal) arg).shortValue();
-            } else if (type == Integer.class || type == int.class) {
-                args[i] = ((Literal) arg).intValue();
-            } else if (type == Long.class || type == long.class) {
-                args[i] = ((Literal) arg).longValue();
-            } else if (type == Float.class || type == float.class) {
-                args[i] = ((Literal) arg).floatValue();
-            } else if (type == Double.class || type == double.class) {
-                args[i] = ((Literal) arg).doubleValue();
-            } else if (type == Calendar.class) {
-                args[i] = ((Literal) arg).calendarValue().toGregorianCalendar();
-            } else if (type == Date.class) {
-                args[i] = ((Literal) arg).calendarValue().toGregorianCalendar().getTime();
-            } else {
-                throw new IllegalArgumentException("Unsupported type: " + type.getName());
-            }
-        }
-
-        try {
-            return (TupleQueryResult) method.invoke(null, args);
-        } catch (final IllegalAccessException ex) {
-            // should not happen, as we searched for a public static method.
-            throw new Error("Unexpected exception: " + ex.getMessage(), ex);
-        } catch (final InvocationTargetException ex) {
-            throw new QueryEvaluationException(ex.getCause().getMessage(), ex.getCause());
-        }
+        return Transformers.lookup(transformerURI).transform(iteration, arguments);
     }
 
     public static TupleQueryResult tarjan(final TupleQueryResult iteration, final String prefix)
@@ -124,20 +42,26 @@ public final class Transform
     {
     }
 
+    // Tarjan's algorithm on a graph in compressed sparse row form: nodes are numbered in order
+    // of appearance, successors of node n are targets[offsets[n] .. offsets[n + 1] - 1], and the
+    // recursion of the algorithm is replaced by an explicit stack of (node, next edge) frames,
+    // so that long chains of edges do not overflow the Java stack
     private static class TarjanTransformer extends AbstractTransformer
     {
 
         private static final List<String> NAMES = ImmutableList.of("comp", "node");
 
-        private final Map<Resource, Node> nodes;
-
         private final String prefix;
 
-        private final Deque<Node> stack;
+        private final List<Resource> resources;
 
-        private int index;
+        // component root of each node
+        private final int[] roots;
 
-        private final Iterator<Node> iterator;
+        // component URIs, indexed by root node and created when first emitted
+        private final URI[] uris;
+
+        private int next;
 
         public TarjanTransformer(final TupleQueryResult iteration, final String prefix)
                 throws QueryEvaluationException
@@ -145,115 +69,150 @@ public final class Transform
             super(NAMES, iteration);
 
             this.prefix = prefix;
-            this.nodes = Maps.newHashMap();
-            this.stack = new ArrayDeque<Transform.TarjanTransformer.Node>();
-            this.index = 1;
+            this.resources = Lists.newArrayList();
 
+            final Map<Resource, Integer> ids = Maps.newHashMap();
+            int[] sources = new int[1024];
+            int[] targets = new int[1024];
+            int numEdges = 0;
             while (iteration.hasNext()) {
                 final BindingSet bindings = iteration.next();
-                final Node src = nodeFor(bindings.getValue("src"));
-                final Node dest = nodeFor(bindings.getValue("dest"));
-                if (src != null && dest != null) {
-                    src.successors.add(dest);
+                final int src = idFor(ids, bindings.getValue("src"));
+                final int dest = idFor(ids, bindings.getValue("dest"));
+                if (src >= 0 && dest >= 0) {
+                    if (numEdges == sources.length) {
+                        sources = Arrays.copyOf(sources, numEdges * 2);
+                        targets = Arrays.copyOf(targets, numEdges * 2);
+                    }
+                    sources[numEdges] = src;
+                    targets[numEdges] = dest;
+                    ++numEdges;
                 }
             }
 
-            for (final Node node : this.nodes.values()) {
-                if (node.index == 0) {
-                    connect(node);
-                }
+            final int numNodes = this.resources.size();
+            final int[] offsets = new int[numNodes + 1];
+            for (int i = 0; i < numEdges; ++i) {
+                ++offsets[sources[i] + 1];
+            }
+            for (int i = 0; i < numNodes; ++i) {
+                offsets[i + 1] += offsets[i];
+            }
+            final int[] successors = new int[numEdges];
+            final int[] fill = Arrays.copyOf(offsets, numNodes);
+            for (int i = 0; i < numEdges; ++i) {
+                successors[fill[sources[i]]++] = targets[i];
             }
+            sources = null;
+            targets = null;
 
-            this.iterator = this.nodes.values().iterator();
+            this.roots = connect(numNodes, offsets, successors);
+            this.uris = new URI[numNodes];
+            this.next = 0;
         }
 
-        private Node nodeFor(@Nullable final Value value)
+        private int idFor(final Map<Resource, Integer> ids, @Nullable final Value value)
         {
             if (!(value instanceof Resource)) {
-                return null;
+                return -1;
             }
-            Node node = this.nodes.get(value);
-            if (node == null) {
-                node = new Node((Resource) value);
-                this.nodes.put((Resource) value, node);
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = this.resources.size();
+                ids.put((Resource) value, id);
+                this.resources.add((Resource) value);
             }
-            return node;
+            return id;
         }
 
-        private URI uriFor(final Node node)
+        private static int[] connect(final int numNodes, final int[] offsets,
+                final int[] successors)
         {
-            try {
-                return new URIImpl(this.prefix
-                        + URLEncoder.encode(node.resource.stringValue(), "UTF-8"));
-            } catch (final UnsupportedEncodingException ex) {
-                throw new Error("Unexpected exception: " + ex.getMessage(), ex);
+            final int[] indexes = new int[numNodes]; // 0 = not visited
+            final int[] lowlinks = new int[numNodes];
+            final int[] roots = new int[numNodes];
+            Arrays.fill(roots, -1);
+
+            final int[] stack = new int[numNodes]; // Tarjan stack
+            int stackSize = 0;
+            final int[] frameNodes = new int[numNodes]; // explicit call stack
+            final int[] frameEdges = new int[numNodes];
+            int numFrames = 0;
+            int index = 1;
+
+            for (int start = 0; start < numNodes; ++start) {
+                if (indexes[start] != 0) {
+                    continue;
+                }
+                indexes[start] = lowlinks[start] = index++;
+                stack[stackSize++] = start;
+                frameNodes[numFrames] = start;
+                frameEdges[numFrames++] = offsets[start];
+
+                while (numFrames > 0) {
+                    final int node = frameNodes[numFrames - 1];
+                    final int edge = frameEdges[numFrames - 1];
+                    if (edge < offsets[node + 1]) {
+                        frameEdges[numFrames - 1] = edge + 1;
+                        final int successor = successors[edge];
+                        if (indexes[successor] == 0) {
+                            indexes[successor] = lowlinks[successor] = index++;
+                            stack[stackSize++] = successor;
+                            frameNodes[numFrames] = successor;
+                            frameEdges[numFrames++] = offsets[successor];
+                        } else if (roots[successor] < 0) {
+                            lowlinks[node] = Math.min(lowlinks[node], indexes[successor]);
+                        }
+                        continue;
+                    }
+
+                    --numFrames;
+                    if (lowlinks[node] == indexes[node]) {
+                        int element;
+                        do {
+                            element = stack[--stackSize];
+                            roots[element] = node;
+                        } while (element != node);
+                    }
+                    if (numFrames > 0) {
+                        final int parent = frameNodes[numFrames - 1];
+                        lowlinks[parent] = Math.min(lowlinks[parent], lowlinks[node]);
+                    }
+                }
             }
+            return roots;
         }
 
-        private void connect(final Node node)
+        private URI uriFor(final int root)
         {
-            node.index = this.index;
-            node.lowlink = this.index;
-            ++this.index;
-            this.stack.push(node);
-
-            for (final Node successor : node.successors) {
-                if (successor.index == 0) {
-                    connect(successor);
-                    node.lowlink = Math.min(node.lowlink, successor.lowlink);
-                } else if (successor.component == null) {
-                    node.lowlink = Math.min(node.lowlink, successor.lowlink);
+            URI uri = this.uris[root];
+            if (uri == null) {
+                try {
+                    uri = new URIImpl(this.prefix
+                            + URLEncoder.encode(this.resources.get(root).stringValue(), "UTF-8"));
+                } catch (final UnsupportedEncodingException ex) {
+                    throw new Error("Unexpected exception: " + ex.getMessage(), ex);
                 }
+                this.uris[root] = uri;
             }
-
-            if (node.lowlink == node.index) {
-                final URI uri = uriFor(node);
-                Node element;
-                do {
-                    element = this.stack.pop();
-                    element.component = uri;
-                } while (element != node);
-            }
+            return uri;
         }
 
         @Override
         public boolean hasNext() throws QueryEvaluationException
         {
-            return this.iterator.hasNext();
+            return this.next < this.roots.length;
         }
 
         @Override
         public BindingSet next() throws QueryEvaluationException
         {
-            final Node node = this.iterator.next();
-            return new ListBindingSet(NAMES, new Value[] { node.component, node.resource });
-        }
-
-        private static final class Node
-        {
-
-            private final Resource resource;
-
-            private final Set<Node> successors;
-
-            private int index;
-
-            private int lowlink;
-
-            private URI component;
-
-            private Node(final Resource resource)
-            {
-                this.resource = resource;
-                this.successors = Sets.newHashSet();
-            }
-
-            @Override
-            public String toString()
-            {
-                return this.resource.stringValue();
+            if (this.next >= this.roots.length) {
+                throw new NoSuchElementException();
             }
-
+            final int node = this.next++;
+            return new ListBindingSet(NAMES, new Value[] { uriFor(this.roots[node]),
+                    this.resources.get(node) });
         }
 
     }
@@ -0,0 +1,50 @@
+package eu.fbk.dkm.springles.ruleset;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+
+/**
+ * A transformer of rule body solutions, referenced by the <tt>spr:transform</tt> property of a
+ * rule.
+ * <p>
+ * A transformer receives the solutions of the rule body and returns the solutions used to
+ * instantiate the rule head, computed based on the arguments specified in the rule. Transformers
+ * are identified by URI and registered in {@link Transformers}, and are resolved once when a
+ * rule is frozen. Implementations must be thread-safe, as the same transformer instance may be
+ * applied concurrently to different iterations.
+ * </p>
+ */
+@ThreadSafe
+public interface Transformer
+{
+
+    /**
+     * Transforms the solutions of a rule body.
+     *
+     * @param iteration
+     *            the iteration over body solutions, to be closed when the returned iteration is
+     *            closed
+     * @param arguments
+     *            the arguments of the transformer, as evaluated on the rule bindings
+     * @return the transformed solutions
+     * @throws QueryEvaluationException
+     *             on failure
+     */
+    TupleQueryResult transform(TupleQueryResult iteration, Value... arguments)
+            throws QueryEvaluationException;
+
+    /**
+     * Returns whether the transformer processes solutions one at a time, producing for each
+     * solution output rows that do not depend on the other solutions. Such a transformer can be
+     * applied separately to any partition of its input (e.g., to the solutions of a rule
+     * computed incrementally or in parallel), as the union of the results equals the result of
+     * transforming the whole input.
+     *
+     * @return true if the transformer can be applied to partitions of its input
+     */
+    boolean isPartitionable();
+
+}
@@ -0,0 +1,301 @@
+package eu.fbk.dkm.springles.ruleset;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the {@link Transformer}s referenced by rules.
+ * <p>
+ * Transformers are looked up by URI with {@link #lookup(String)}, which resolves them once and
+ * caches the result. A URI is resolved as follows:
+ * <ul>
+ * <li>URIs registered with {@link #register(String, Transformer)}, or declared in
+ * <tt>META-INF/springles-transformers</tt> files (one <tt>URI class</tt> pair per line, with the
+ * class implementing {@link Transformer} and having a public no-argument constructor), map to
+ * the registered transformer;</li>
+ * <li><tt>java:package.Class</tt> URIs map to a new instance of the named {@link Transformer}
+ * implementation;</li>
+ * <li><tt>java:package.Class.method</tt> URIs map to the public static method named, taking a
+ * {@code TupleQueryResult} and the transformer arguments, which may be {@code Value}s, strings,
+ * primitive values, {@code Calendar}s or {@code Date}s, and returning a
+ * {@code TupleQueryResult};</li>
+ * <li>other URIs map to the builtin transformer of {@link Transform} named after their local
+ * name (e.g., <tt>springles:tarjan</tt>).</li>
+ * </ul>
+ * Methods are bound to method handles at resolution time, so applying a resolved transformer
+ * does not involve reflective lookups. Transformers backed by methods are not partitionable.
+ * </p>
+ */
+public final class Transformers
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Transformers.class);
+
+    private static final Map<String, Transformer> REGISTERED_TRANSFORMERS = Maps
+            .newConcurrentMap();
+
+    private static final Map<String, Transformer> RESOLVED_TRANSFORMERS = Maps
+            .newConcurrentMap();
+
+    public static boolean register(final String uri, final Transformer transformer)
+    {
+        Preconditions.checkNotNull(uri);
+        Preconditions.checkNotNull(transformer);
+
+        final Transformer oldTransformer = REGISTERED_TRANSFORMERS.put(uri, transformer);
+        RESOLVED_TRANSFORMERS.remove(uri);
+
+        if (oldTransformer != null && oldTransformer != transformer) {
+            LOGGER.warn("Registration of transformer " + uri + " overrides old transformer "
+                    + oldTransformer.getClass().getName());
+        }
+        return oldTransformer != transformer;
+    }
+
+    public static boolean unregister(final String uri)
+    {
+        RESOLVED_TRANSFORMERS.remove(uri);
+        return REGISTERED_TRANSFORMERS.remove(uri) != null;
+    }
+
+    /**
+     * Returns the transformer identified by the URI specified, resolving it on first access.
+     *
+     * @param uri
+     *            the URI of the transformer
+     * @return the transformer
+     * @throws IllegalArgumentException
+     *             if no transformer can be resolved for the URI
+     */
+    public static Transformer lookup(final String uri) throws IllegalArgumentException
+    {
+        Preconditions.checkNotNull(uri);
+
+        Transformer transformer = RESOLVED_TRANSFORMERS.get(uri);
+        if (transformer == null) {
+            transformer = REGISTERED_TRANSFORMERS.get(uri);
+            if (transformer == null) {
+                transformer = resolve(uri);
+            }
+            RESOLVED_TRANSFORMERS.put(uri, transformer);
+        }
+        return transformer;
+    }
+
+    private static Transformer resolve(final String uri)
+    {
+        if (!uri.startsWith("java:")) {
+            return resolveMethod(uri, Transform.class, new URIImpl(uri).getLocalName());
+        }
+
+        final String name = uri.substring(5);
+        try {
+            final Class<?> clazz = Class.forName(name);
+            if (Transformer.class.isAssignableFrom(clazz)) {
+                return newTransformer(clazz);
+            }
+        } catch (final ClassNotFoundException ex) {
+            // may be a method name: handled below
+        }
+
+        final int index = name.lastIndexOf('.');
+        final Class<?> methodClass;
+        try {
+            methodClass = Class.forName(name.substring(0, Math.max(0, index)));
+        } catch (final ClassNotFoundException ex) {
+            throw new IllegalArgumentException("No such transformer (invalid class name): "
+                    + uri);
+        }
+        return resolveMethod(uri, methodClass, name.substring(index + 1));
+    }
+
+    private static Transformer newTransformer(final Class<?> clazz)
+    {
+        try {
+            return (Transformer) clazz.newInstance();
+        } catch (final Throwable ex) {
+            throw new IllegalArgumentException("Cannot instantiate transformer "
+                    + clazz.getName() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    // overloads of the method are all bound, to be selected based on the number of arguments
+    private static Transformer resolveMethod(final String uri, final Class<?> methodClass,
+            final String methodName)
+    {
+        final List<Method> methods = Lists.newArrayList();
+        for (final Method method : methodClass.getMethods()) {
+            if (method.getName().equals(methodName)
+                    && Modifier.isStatic(method.getModifiers())
+                    && method.getParameterTypes().length >= 1
+                    && method.getParameterTypes()[0].isAssignableFrom(TupleQueryResult.class)
+                    && TupleQueryResult.class.isAssignableFrom(method.getReturnType())) {
+                methods.add(method);
+            }
+        }
+        if (methods.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "No such transformer (invalid method or signature): " + uri);
+        }
+        return new MethodTransformer(uri, methods);
+    }
+
+    private Transformers()
+    {
+    }
+
+    static {
+        List<URL> metaURLs;
+        try {
+            metaURLs = Lists.newArrayList(Iterators.forEnumeration(Transformer.class
+                    .getClassLoader().getResources("META-INF/springles-transformers")));
+        } catch (final IOException ex) {
+            throw new Error("Unable to retrieve transformers declarations");
+        }
+
+        for (final URL metaURL : metaURLs) {
+            List<String> lines;
+            try {
+                lines = Resources.readLines(metaURL, Charsets.UTF_8);
+            } catch (final Exception ex) {
+                LOGGER.error("Unable to scan transformers declarations at " + metaURL
+                        + " - ignoring");
+                continue;
+            }
+
+            LOGGER.info("Processing transformers declarations at " + metaURL);
+            for (final String line : lines) {
+                final String[] tokens = line.trim().split("\\s+");
+                if (tokens.length != 2 || tokens[0].startsWith("#")) {
+                    continue;
+                }
+                try {
+                    register(tokens[0], newTransformer(Class.forName(tokens[1])));
+                    LOGGER.info("Loaded transformer " + tokens[0] + " from " + metaURL);
+                } catch (final Throwable ex) {
+                    LOGGER.error("Failed to load transformer " + tokens[0] + ": "
+                            + ex.getMessage() + " - ignoring", ex);
+                }
+            }
+        }
+    }
+
+    private static final class MethodTransformer implements Transformer
+    {
+
+        private final String uri;
+
+        private final Class<?>[][] types;
+
+        private final MethodHandle[] handles;
+
+        MethodTransformer(final String uri, final List<Method> methods)
+        {
+            this.uri = uri;
+            this.types = new Class<?>[methods.size()][];
+            this.handles = new MethodHandle[methods.size()];
+            for (int i = 0; i < methods.size(); ++i) {
+                final Method method = methods.get(i);
+                this.types[i] = method.getParameterTypes();
+                try {
+                    this.handles[i] = MethodHandles.publicLookup().unreflect(method)
+                            .asSpreader(Object[].class, this.types[i].length);
+                } catch (final IllegalAccessException ex) {
+                    // should not happen, as we searched for a public static method.
+                    throw new Error("Unexpected exception: " + ex.getMessage(), ex);
+                }
+            }
+        }
+
+        @Override
+        public TupleQueryResult transform(final TupleQueryResult iteration,
+                final Value... arguments) throws QueryEvaluationException
+        {
+            final int numArgs = arguments.length + 1;
+            int index = 0;
+            while (index < this.types.length && this.types[index].length != numArgs) {
+                ++index;
+            }
+            if (index == this.types.length) {
+                throw new IllegalArgumentException(
+                        "No such transformer (invalid method or signature): " + this.uri);
+            }
+
+            final Object[] args = new Object[numArgs];
+            args[0] = iteration;
+            for (int i = 1; i < numArgs; ++i) {
+                args[i] = convert(arguments[i - 1], this.types[index][i]);
+            }
+
+            try {
+                return (TupleQueryResult) this.handles[index].invoke(args);
+            } catch (final QueryEvaluationException ex) {
+                throw ex;
+            } catch (final Throwable ex) {
+                throw new QueryEvaluationException(ex.getMessage(), ex);
+            }
+        }
+
+        @Override
+        public boolean isPartitionable()
+        {
+            return false;
+        }
+
+        private static Object convert(final Value arg, final Class<?> type)
+        {
+            if (arg == null || Value.class.isAssignableFrom(type)) {
+                return arg;
+            } else if (type == String.class) {
+                return arg.stringValue();
+            } else if (type == Boolean.class || type == boolean.class) {
+                return ((Literal) arg).booleanValue();
+            } else if (type == Character.class || type == char.class) {
+                return ((Literal) arg).stringValue().charAt(0);
+            } else if (type == Byte.class || type == byte.class) {
+                return ((Literal) arg).byteValue();
+            } else if (type == Short.class || type == short.class) {
+                return ((Literal) arg).shortValue();
+            } else if (type == Integer.class || type == int.class) {
+                return ((Literal) arg).intValue();
+            } else if (type == Long.class || type == long.class) {
+                return ((Literal) arg).longValue();
+            } else if (type == Float.class || type == float.class) {
+                return ((Literal) arg).floatValue();
+            } else if (type == Double.class || type == double.class) {
+                return ((Literal) arg).doubleValue();
+            } else if (type == Calendar.class) {
+                return ((Literal) arg).calendarValue().toGregorianCalendar();
+            } else if (type == Date.class) {
+                return ((Literal) arg).calendarValue().toGregorianCalendar().getTime();
+            } else {
+                throw new IllegalArgumentException("Unsupported type: " + type.getName());
+            }
+        }
+
+    }
+
+}
@@ -2,7 +2,9 @@ package eu.fbk.dkm.springles.store;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 
@@ -48,6 +50,9 @@ import eu.fbk.dkm.springles.inferencer.Inferencer;
  * <li>a mechanism to force closing pending iterations when the context is locked and access to it
  * prevented.</li>
  * </ul>
+ * Read methods can be invoked concurrently by multiple threads (e.g., the ones evaluating rules
+ * in parallel) and are serialized only with respect to write methods and locking / unlocking of
+ * the context, through a read-write lock; no global monitor is held while reading.
  * </p>
  */
 class InferenceContext implements Inferencer.Context
@@ -60,14 +65,20 @@ class InferenceContext implements Inferencer.Context
     @Nullable
     private final ScheduledExecutorService scheduler;
 
-    private boolean accessible;
+    @Nullable
+    private final ExecutorService executor;
+
+    private final ReentrantReadWriteLock lock;
+
+    private volatile boolean accessible;
 
-    private boolean writable;
+    private volatile boolean writable;
 
     private final Set<CloseableIteration<?, ?>> pendingIterations;
 
     public InferenceContext(final Transaction transaction, final URIPrefix inferredContextPrefix,
-            @Nullable final ScheduledExecutorService scheduler)
+            @Nullable final ScheduledExecutorService scheduler,
+            @Nullable final ExecutorService executor)
     {
         Preconditions.checkNotNull(transaction);
         Preconditions.checkNotNull(inferredContextPrefix);
@@ -75,9 +86,11 @@ class InferenceContext implements Inferencer.Context
         this.transaction = transaction;
         this.inferredContextPrefix = inferredContextPrefix;
         this.scheduler = scheduler;
+        this.executor = executor;
+        this.lock = new ReentrantReadWriteLock();
         this.accessible = false;
         this.writable = false;
-        this.pendingIterations = Sets.newHashSet();
+        this.pendingIterations = Sets.newConcurrentHashSet();
     }
 
     public Transaction getTransaction()
@@ -90,22 +103,33 @@ class InferenceContext implements Inferencer.Context
         return this.inferredContextPrefix;
     }
 
-    public synchronized boolean isUnlocked()
+    public boolean isUnlocked()
     {
         return this.accessible;
     }
 
-    public synchronized void unlock(final boolean writable)
+    public void unlock(final boolean writable)
     {
-        this.accessible = true;
-        this.writable = writable;
+        this.lock.writeLock().lock();
+        try {
+            this.accessible = true;
+            this.writable = writable;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
     }
 
-    public synchronized void lock()
+    public void lock()
     {
-        this.accessible = false;
-        for (final CloseableIteration<?, ?> iteration : this.pendingIterations) {
-            Iterations.closeQuietly(iteration);
+        this.lock.writeLock().lock();
+        try {
+            this.accessible = false;
+            for (final CloseableIteration<?, ?> iteration : this.pendingIterations) {
+                Iterations.closeQuietly(iteration);
+            }
+            this.pendingIterations.clear();
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
@@ -158,7 +182,14 @@ class InferenceContext implements Inferencer.Context
     }
 
     @Override
-    public synchronized ValueFactory getValueFactory()
+    @Nullable
+    public ExecutorService getExecutor()
+    {
+        return this.executor;
+    }
+
+    @Override
+    public ValueFactory getValueFactory()
     {
         checkAccessible();
 
@@ -166,116 +197,156 @@ class InferenceContext implements Inferencer.Context
     }
 
     @Override
-    public synchronized <T> T query(final QuerySpec<T> query, final Dataset dataset,
+    public <T> T query(final QuerySpec<T> query, final Dataset dataset,
             final BindingSet bindings, final boolean includeClosure, final int timeout)
             throws MalformedQueryException, QueryEvaluationException, RepositoryException
     {
-        checkAccessible();
+        this.lock.readLock().lock();
+        try {
+            checkAccessible();
 
-        final T result = this.transaction.query(query, dataset, bindings,
-                includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE, timeout);
+            final T result = this.transaction.query(query, dataset, bindings,
+                    includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE, timeout);
 
-        if (query.getType() != QueryType.BOOLEAN) {
-            register((CloseableIteration<?, ?>) result);
-        }
+            if (query.getType() != QueryType.BOOLEAN) {
+                register((CloseableIteration<?, ?>) result);
+            }
 
-        return result;
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     @Override
-    public synchronized CloseableIteration<? extends Resource, RepositoryException> //
+    public CloseableIteration<? extends Resource, RepositoryException> //
     getContextIDs(final boolean includeClosure) throws RepositoryException
     {
-        checkAccessible();
-
-        return register(this.transaction.getContextIDs(includeClosure ? InferenceMode.FORWARD
-                : InferenceMode.NONE));
+        this.lock.readLock().lock();
+        try {
+            checkAccessible();
+
+            return register(this.transaction.getContextIDs(includeClosure
+                    ? InferenceMode.FORWARD : InferenceMode.NONE));
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     @Override
-    public synchronized CloseableIteration<? extends Statement, RepositoryException> //
+    public CloseableIteration<? extends Statement, RepositoryException> //
     getStatements(final Resource subj, final URI pred, final Value obj,
             final boolean includeClosure, final Resource... contexts) throws RepositoryException
     {
-        checkAccessible();
-
-        return register(this.transaction.getStatements(subj, pred, obj,
-                includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE, contexts));
+        this.lock.readLock().lock();
+        try {
+            checkAccessible();
+
+            return register(this.transaction.getStatements(subj, pred, obj,
+                    includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE, contexts));
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     @Override
-    public synchronized boolean hasStatement(final Resource subj, final URI pred, final Value obj,
+    public boolean hasStatement(final Resource subj, final URI pred, final Value obj,
             final boolean includeClosure, final Resource... contexts) throws RepositoryException
     {
-        checkAccessible();
-
-        return this.transaction.hasStatement(subj, pred, obj,
-                includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE, contexts);
+        this.lock.readLock().lock();
+        try {
+            checkAccessible();
+
+            return this.transaction.hasStatement(subj, pred, obj,
+                    includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE, contexts);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     @Override
-    public synchronized long size(final boolean includeClosure, final Resource... contexts)
+    public long size(final boolean includeClosure, final Resource... contexts)
             throws RepositoryException
     {
-        checkAccessible();
-
-        return this.transaction.size(includeClosure ? InferenceMode.FORWARD : InferenceMode.NONE,
-                contexts);
+        this.lock.readLock().lock();
+        try {
+            checkAccessible();
+
+            return this.transaction.size(includeClosure ? InferenceMode.FORWARD
+                    : InferenceMode.NONE, contexts);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // TODO: consider failing so to avoid infinite loops
 
     @Override
-    public synchronized void addInferred(final Iterable<? extends Statement> statements,
+    public void addInferred(final Iterable<? extends Statement> statements,
             final Resource... contexts) throws RepositoryException
     {
-        checkAccessible();
-        checkWritable();
+        this.lock.writeLock().lock();
+        try {
+            checkAccessible();
+            checkWritable();
 
-        final Resource[] targetContexts = filter(contexts);
+            final Resource[] targetContexts = filter(contexts);
 
-        if (targetContexts == Contexts.UNSPECIFIED) {
-            this.transaction.add(filter(statements), targetContexts);
-        } else if (targetContexts != Contexts.NONE) {
-            this.transaction.add(statements, targetContexts);
+            if (targetContexts == Contexts.UNSPECIFIED) {
+                this.transaction.add(filter(statements), targetContexts);
+            } else if (targetContexts != Contexts.NONE) {
+                this.transaction.add(statements, targetContexts);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    public synchronized void removeInferred(final Iterable<? extends Statement> statements,
+    public void removeInferred(final Iterable<? extends Statement> statements,
             final Resource... contexts) throws RepositoryException
     {
-        checkAccessible();
-        checkWritable();
+        this.lock.writeLock().lock();
+        try {
+            checkAccessible();
+            checkWritable();
 
-        final Resource[] targetContexts = filter(contexts);
+            final Resource[] targetContexts = filter(contexts);
 
-        if (targetContexts == Contexts.UNSPECIFIED) {
-            this.transaction.remove(filter(statements), targetContexts);
-        } else if (targetContexts != Contexts.NONE) {
-            this.transaction.remove(statements, targetContexts);
+            if (targetContexts == Contexts.UNSPECIFIED) {
+                this.transaction.remove(filter(statements), targetContexts);
+            } else if (targetContexts != Contexts.NONE) {
+                this.transaction.remove(statements, targetContexts);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
     @Override
-    public synchronized void removeInferred(final Resource subject, final URI predicate,
+    public void removeInferred(final Resource subject, final URI predicate,
             final Value object, final Resource... contexts) throws RepositoryException
     {
-        checkAccessible();
-        checkWritable();
-
-        final Resource[] targetContexts = filter(contexts);
-
-        if (targetContexts == Contexts.UNSPECIFIED) {
-            final List<Resource> implicitContexts = Iterations.getAllElements(Iterations.filter(
-                    this.transaction.getContextIDs(InferenceMode.FORWARD),
-                    this.inferredContextPrefix.valueMatcher()));
-            for (final Resource implicitContext : implicitContexts) {
-                this.transaction.remove(subject, predicate, object, implicitContext);
+        this.lock.writeLock().lock();
+        try {
+            checkAccessible();
+            checkWritable();
+
+            final Resource[] targetContexts = filter(contexts);
+
+            if (targetContexts == Contexts.UNSPECIFIED) {
+                final List<Resource> implicitContexts = Iterations.getAllElements(Iterations
+                        .filter(this.transaction.getContextIDs(InferenceMode.FORWARD),
+                                this.inferredContextPrefix.valueMatcher()));
+                for (final Resource implicitContext : implicitContexts) {
+                    this.transaction.remove(subject, predicate, object, implicitContext);
+                }
+
+            } else if (targetContexts != Contexts.NONE) {
+                this.transaction.remove(subject, predicate, object, targetContexts);
             }
-
-        } else if (targetContexts != Contexts.NONE) {
-            this.transaction.remove(subject, predicate, object, targetContexts);
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
@@ -1,5 +1,6 @@
 package eu.fbk.dkm.springles.store;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
@@ -42,7 +43,8 @@ final class InferenceController
 
     public InferenceController(final Inferencer inferencer, final Transaction transaction,
             final URIPrefix inferredContextPrefix,
-            @Nullable final ScheduledExecutorService scheduler, final ClosureStatus closureStatus)
+            @Nullable final ScheduledExecutorService scheduler,
+            @Nullable final ExecutorService executor, final ClosureStatus closureStatus)
             throws RepositoryException
     {
         Preconditions.checkNotNull(inferencer);
@@ -50,7 +52,8 @@ final class InferenceController
         Preconditions.checkNotNull(inferredContextPrefix);
         Preconditions.checkNotNull(closureStatus);
 
-        this.context = new InferenceContext(transaction, inferredContextPrefix, scheduler);
+        this.context = new InferenceContext(transaction, inferredContextPrefix, scheduler,
+                executor);
 
         this.context.unlock(false);
         try {
@@ -0,0 +1,120 @@
+package eu.fbk.dkm.springles.store;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Thread pool dedicated to the parallel evaluation of inference rules.
+ * <p>
+ * This executor is kept separate from the repository scheduler used for transaction watchdogs,
+ * so that rule evaluation is parallelized independently of whether transaction time limits are
+ * configured, and it does not compete with watchdog tasks. The executor has a fixed maximum
+ * number of threads (idle threads are released after a timeout) and an unbounded queue, and it
+ * keeps track of queue depth and thread utilization, which are reported by {@link #toString()}.
+ * </p>
+ */
+final class InferenceExecutor extends ThreadPoolExecutor
+{
+
+    private static final long KEEP_ALIVE_TIME = 60L;
+
+    private final long creationTime;
+
+    private final AtomicLong busyTime;
+
+    private final AtomicInteger maxQueueDepth;
+
+    private final ThreadLocal<Long> taskStartTime;
+
+    public InferenceExecutor(final int numThreads)
+    {
+        super(numThreads, numThreads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("springles-inference-%d").build());
+        allowCoreThreadTimeOut(true);
+
+        this.creationTime = System.nanoTime();
+        this.busyTime = new AtomicLong(0L);
+        this.maxQueueDepth = new AtomicInteger(0);
+        this.taskStartTime = new ThreadLocal<Long>();
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        super.execute(command);
+
+        final int depth = getQueue().size();
+        while (true) {
+            final int maxDepth = this.maxQueueDepth.get();
+            if (depth <= maxDepth || this.maxQueueDepth.compareAndSet(maxDepth, depth)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void beforeExecute(final Thread thread, final Runnable runnable)
+    {
+        super.beforeExecute(thread, runnable);
+        this.taskStartTime.set(System.nanoTime());
+    }
+
+    @Override
+    protected void afterExecute(final Runnable runnable, final Throwable throwable)
+    {
+        final Long startTime = this.taskStartTime.get();
+        if (startTime != null) {
+            this.busyTime.addAndGet(System.nanoTime() - startTime);
+            this.taskStartTime.remove();
+        }
+        super.afterExecute(runnable, throwable);
+    }
+
+    /**
+     * Returns the number of tasks currently waiting in the queue.
+     *
+     * @return the current queue depth
+     */
+    public int getQueueDepth()
+    {
+        return getQueue().size();
+    }
+
+    /**
+     * Returns the maximum number of tasks observed waiting in the queue.
+     *
+     * @return the maximum queue depth
+     */
+    public int getMaxQueueDepth()
+    {
+        return this.maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the fraction of the available thread time (number of threads times the time
+     * elapsed since creation) spent executing tasks.
+     *
+     * @return the utilization, between 0 and 1
+     */
+    public double getUtilization()
+    {
+        final long elapsedTime = System.nanoTime() - this.creationTime;
+        return elapsedTime <= 0L ? 0.0 : (double) this.busyTime.get() / elapsedTime
+                / getMaximumPoolSize();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d thread(s), %d task(s) completed, queue depth %d (max %d), "
+                + "utilization %.1f%%", getMaximumPoolSize(), getCompletedTaskCount(),
+                getQueueDepth(), getMaxQueueDepth(), 100.0 * getUtilization());
+    }
+
+}
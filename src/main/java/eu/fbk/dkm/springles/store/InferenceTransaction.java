@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
@@ -34,6 +35,8 @@ import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.TupleQueryResultHandler;
 import org.openrdf.query.TupleQueryResultHandlerException;
 import org.openrdf.query.UpdateExecutionException;
+import org.openrdf.query.algebra.InsertData;
+import org.openrdf.query.algebra.Modify;
 import org.openrdf.query.algebra.QueryModelNode;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.UpdateExpr;
@@ -86,6 +89,9 @@ class InferenceTransaction extends ForwardingTransaction
     @Nullable
     private final ScheduledExecutorService scheduler;
 
+    @Nullable
+    private final ExecutorService executor;
+
     private final File closureMetadataFile;
 
     private final ClosureStatus originalClosureStatus;
@@ -96,7 +102,8 @@ class InferenceTransaction extends ForwardingTransaction
 
     public InferenceTransaction(final Transaction delegate, final Inferencer inferencer,
             final URIPrefix inferredContextURIPrefix,
-            @Nullable final ScheduledExecutorService scheduler, final File closureMetadataFile)
+            @Nullable final ScheduledExecutorService scheduler,
+            @Nullable final ExecutorService executor, final File closureMetadataFile)
             throws RepositoryException
     {
         Preconditions.checkNotNull(delegate);
@@ -107,6 +114,7 @@ class InferenceTransaction extends ForwardingTransaction
         this.inferencer = inferencer;
         this.inferredContextPrefix = inferredContextURIPrefix;
         this.scheduler = scheduler;
+        this.executor = executor;
         this.closureMetadataFile = closureMetadataFile;
         this.controller = null;
 
@@ -187,7 +195,8 @@ class InferenceTransaction extends ForwardingTransaction
             synchronized (this) {
                 if (this.controller == null) {
                     this.controller = new InferenceController(this.inferencer, this,
-                            this.inferredContextPrefix, this.scheduler, this.currentClosureStatus);
+                            this.inferredContextPrefix, this.scheduler, this.executor,
+                            this.currentClosureStatus);
                 }
             }
         }
@@ -560,12 +569,46 @@ class InferenceTransaction extends ForwardingTransaction
         }
 
         if (actualUpdate != null) {
-            delegate().update(actualUpdate, actualDataset, bindings, mode);
+            // Must be acquired before issuing the operation.
+            final InferenceController controller = getInferenceController(true);
+            try {
+                delegate().update(actualUpdate, actualDataset, bindings, mode);
+            } finally {
+                notifyUpdate(controller, actualUpdate);
+            }
         } else {
             LOGGER.info("[{}] Rewritten update not executed as trivial", getID());
         }
     }
 
+    // The statements changed by an update are not known: the inference session is notified of
+    // a generic addition (and removal, unless the update only inserts statements), so that the
+    // closure is recomputed rather than incrementally maintained from the notified changes.
+    private void notifyUpdate(final InferenceController controller, final UpdateSpec update)
+    {
+        boolean removing = false;
+        for (final UpdateExpr expr : update.getExpressions()) {
+            removing |= !(expr instanceof InsertData)
+                    && !(expr instanceof Modify && ((Modify) expr).getDeleteExpr() == null);
+        }
+
+        controller.statementsAdded(null, Contexts.UNSPECIFIED);
+        if (removing) {
+            controller.statementsRemoved(null, Contexts.UNSPECIFIED);
+        }
+
+        if (this.inferencer.getInferenceMode().isForwardEnabled()) {
+            this.currentClosureStatus = this.currentClosureStatus
+                    .getStatusAfterStatementsAdded();
+            if (removing) {
+                this.currentClosureStatus = this.currentClosureStatus
+                        .getStatusAfterStatementsRemoved();
+            }
+            LOGGER.debug("[{}] Closure status after update is {}", getID(),
+                    this.currentClosureStatus);
+        }
+    }
+
     private UpdateSpec excludeInferredGraphs(final UpdateSpec update)
     {
         final int count = update.getExpressions().size();
@@ -3,9 +3,12 @@ package eu.fbk.dkm.springles.store;
 import java.io.File;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
@@ -56,6 +59,11 @@ public class SpringlesStore extends SpringlesRepositoryBase
 
     private boolean serverExtensionEnabled;
 
+    private int maxInferenceThreads;
+
+    @Nullable
+    private InferenceExecutor inferenceExecutor;
+
   //  private List<Interceptor> preInferenceInterceptors;
 
   //  private List<Interceptor> postInferenceInterceptors;
@@ -94,6 +102,8 @@ public class SpringlesStore extends SpringlesRepositoryBase
                 Inferencers.debuggingInferencer(inferencer, inferencerLogger);
 
         this.serverExtensionEnabled = true;
+        this.maxInferenceThreads = 0;
+        this.inferenceExecutor = null;
    //     this.preInferenceInterceptors = Collections.emptyList();
     //    this.postInferenceInterceptors = Collections.emptyList();
 
@@ -127,6 +137,24 @@ public class SpringlesStore extends SpringlesRepositoryBase
         this.serverExtensionEnabled = serverExtensionEnabled;
     }
 
+    public final int getMaxInferenceThreads()
+    {
+        return this.maxInferenceThreads;
+    }
+
+    /**
+     * Sets the number of threads of the pool used for parallel rule evaluation; a value less
+     * or equal to 0 means to use as many threads as the available processors.
+     *
+     * @param maxInferenceThreads
+     *            the number of inference threads
+     */
+    public final void setMaxInferenceThreads(final int maxInferenceThreads)
+    {
+        Preconditions.checkState(!isInitialized());
+        this.maxInferenceThreads = maxInferenceThreads;
+    }
+
 /*    public final List<Interceptor> getPreInferenceInterceptors()
     {
         return this.preInferenceInterceptors;
@@ -165,10 +193,13 @@ public class SpringlesStore extends SpringlesRepositoryBase
                 this.postInferenceInterceptors);*/
 
         try {
+            this.inferenceExecutor = new InferenceExecutor(this.maxInferenceThreads > 0 ? //
+                    this.maxInferenceThreads : Runtime.getRuntime().availableProcessors());
+
             this.backend.initialize(getDataDir());
             counter++;
 
-            this.inferencer.initialize(this.inferredContextPrefix.getPrefix());
+            this.inferencer.initialize(getDataDir(), this.inferredContextPrefix.getPrefix());
             counter++;
 
        /*     for (final Interceptor interceptor : interceptors) {
@@ -197,6 +228,10 @@ public class SpringlesStore extends SpringlesRepositoryBase
             if (counter >= 1) {
                 closeQuietly(this.backend);
             }
+
+            if (counter >= 0) {
+                shutdownExecutor();
+            }
         }
     }
 
@@ -207,6 +242,26 @@ public class SpringlesStore extends SpringlesRepositoryBase
   //      closeQuietly(this.preInferenceInterceptors);
         closeQuietly(this.inferencer);
         closeQuietly(this.backend);
+        shutdownExecutor();
+    }
+
+    private void shutdownExecutor()
+    {
+        final InferenceExecutor executor = this.inferenceExecutor;
+        if (executor == null) {
+            return;
+        }
+        this.inferenceExecutor = null;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (final InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("[{}] Inference executor shut down: {}", getID(), executor);
     }
 
     private void closeQuietly(final Backend backend)
@@ -262,7 +317,8 @@ public class SpringlesStore extends SpringlesRepositoryBase
                 "closure.status");
 
         transaction = new InferenceTransaction(transaction, this.inferencer,
-                this.inferredContextPrefix, getScheduler(), closureMetadataFile);
+                this.inferredContextPrefix, getScheduler(), this.inferenceExecutor,
+                closureMetadataFile);
 
         return transaction;
     }
@@ -307,7 +363,8 @@ public class SpringlesStore extends SpringlesRepositoryBase
         parent = parent.substring(parent.indexOf('{') + 1, parent.lastIndexOf('}'));
         return Objects.toStringHelper(this).addValue(parent).add("backend", this.backend)
                 .add("inferencer", this.inferencer)
-                .add("serverExtensionEnabled", this.serverExtensionEnabled).toString();
+                .add("serverExtensionEnabled", this.serverExtensionEnabled)
+                .add("maxInferenceThreads", this.maxInferenceThreads).toString();
        //         .add("preInferenceInterceptors", this.preInferenceInterceptors)
        //         .add("postInferenceInterceptors", this.postInferenceInterceptors).toString();
     }
@@ -331,6 +388,7 @@ public class SpringlesStore extends SpringlesRepositoryBase
             final long maxTransactionIdleTime = s.get(SPC.HAS_MAX_TRANSACTION_IDLE_TIME, 0L);
             final long maxTransactionExecutionTime = s.get(
                     SPC.HAS_MAX_TRANSACTION_EXECUTION_TIME, 0L);
+            final int maxInferenceThreads = s.get(SPC.HAS_MAX_INFERENCE_THREADS, 0);
 
             final Factory<Backend> backendFactory = Factory.get(Backend.class, graph,
                     s.get(SPC.HAS_BACKEND, Resource.class));
@@ -356,6 +414,7 @@ public class SpringlesStore extends SpringlesRepositoryBase
                     store.setMaxConcurrentTransactions(maxConcurrentTransactions);
                     store.setMaxTransactionIdleTime(maxTransactionIdleTime);
                     store.setMaxTransactionExecutionTime(maxTransactionExecutionTime);
+                    store.setMaxInferenceThreads(maxInferenceThreads);
       //              store.setPreInferenceInterceptors(preInfFactory.create());
       //              store.setPostInferenceInterceptors(postInfFactory.create());
                     if (LOGGER.isInfoEnabled()) {
@@ -0,0 +1,140 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.statement;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResult;
+
+import eu.fbk.dkm.springles.base.QuerySpec;
+import eu.fbk.dkm.springles.base.QueryType;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+import eu.fbk.dkm.springles.ruleset.Rulesets;
+
+public class BackwardExpanderTest
+{
+
+    private static final String RULE_NAMESPACE = "http://dkm.fbk.eu/springles/rdfs-merged#";
+
+    // derivations have heights from 1 to 4; some statements are both explicit and derivable, or
+    // derivable in several ways
+    private static final Statement[] DATA = new Statement[] {
+            statement("ex:a", "rdfs:subClassOf", "ex:b"),
+            statement("ex:b", "rdfs:subClassOf", "ex:c"),
+            statement("ex:c", "rdfs:subClassOf", "ex:d"),
+            statement("ex:d", "rdfs:subClassOf", "ex:e"),
+            statement("ex:f", "rdfs:subClassOf", "ex:b"),
+            statement("ex:p", "rdfs:subPropertyOf", "ex:q"),
+            statement("ex:q", "rdfs:subPropertyOf", "ex:r"),
+            statement("ex:r", "rdfs:subPropertyOf", "ex:u"),
+            statement("ex:t", "rdfs:subPropertyOf", "rdf:type"),
+            statement("ex:x", "rdf:type", "ex:a"), statement("ex:x", "rdf:type", "ex:f"),
+            statement("ex:y", "ex:t", "ex:b"), statement("ex:x", "ex:p", "ex:y"),
+            statement("ex:y", "ex:q", "ex:z"), statement("ex:z", "rdf:type", "ex:b"),
+            statement("ex:z", "rdf:type", "ex:c") };
+
+    private static final String[] QUERIES = new String[] {
+            "SELECT DISTINCT ?s ?c WHERE { ?s rdf:type ?c }", //
+            "SELECT ?s ?c WHERE { ?s rdf:type ?c }", //
+            "SELECT ?s WHERE { ?s rdf:type ex:c }", //
+            "SELECT ?c WHERE { ex:y a ?c }", //
+            "SELECT ?s ?o WHERE { ?s ex:u ?o }", //
+            "SELECT ?s ?p ?o WHERE { ?s ?p ?o }", //
+            "SELECT ?s ?o WHERE { ?s ex:r ?o . ?o rdf:type ex:b }", //
+            "SELECT ?s WHERE { ?s ex:q ?o OPTIONAL { ?o rdf:type ?c } }", //
+            "SELECT (COUNT(*) AS ?n) WHERE { ?s rdf:type ?c }", //
+            "SELECT ?c (COUNT(?s) AS ?n) WHERE { ?s rdf:type ?c } GROUP BY ?c", //
+            "SELECT (COUNT(*) AS ?n) WHERE { ?s ?p ?o . ?o rdf:type ex:d }" };
+
+    @Test
+    public void testSameAnswersAsForwardClosure() throws Exception
+    {
+        // an expansion of depth n matches the statements with derivations of height up to n
+        for (int depth = 1; depth <= 4; ++depth) {
+            checkDepth(depth);
+        }
+    }
+
+    private static void checkDepth(final int depth) throws Exception
+    {
+        final Ruleset ruleset = Rulesets.RDFS_MERGED.clone();
+        final List<Resource> ruleIDs = ImmutableList.<Resource>of(new URIImpl(RULE_NAMESPACE
+                + "rdfs7"), new URIImpl(RULE_NAMESPACE + "rdfs9"));
+        ruleset.setBackwardRuleIDs(ruleIDs);
+        final BindingSet bindings = ruleset.getParameterBindings(null);
+        final BackwardExpander expander = new BackwardExpander(ruleset, bindings, depth);
+        Assert.assertFalse(expander.isEmpty());
+        Assert.assertEquals(depth, expander.getMaxDepth());
+
+        final MemoryContext explicit = new MemoryContext(DATA);
+        final MemoryContext closure = new MemoryContext(DATA);
+        try {
+            final List<Rule> rules = Lists.newArrayList();
+            for (final Resource ruleID : ruleIDs) {
+                rules.add(ruleset.getRule(ruleID));
+            }
+            computeClosure(closure, rules, bindings, depth);
+
+            for (final String string : QUERIES) {
+                final QuerySpec<TupleQueryResult> query = QuerySpec.from(QueryType.TUPLE,
+                        "PREFIX ex: <http://example.org/> "
+                                + "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
+                                + string);
+                final QuerySpec<TupleQueryResult> expandedQuery = QuerySpec.from(
+                        QueryType.TUPLE, expander.expand(query.getExpression()), null);
+                Assert.assertEquals("Wrong answers at depth " + depth + " to " + string,
+                        evaluate(closure, query), evaluate(explicit, expandedQuery));
+            }
+
+        } finally {
+            explicit.close();
+            closure.close();
+        }
+    }
+
+    // evaluates all the rules on the statements of the previous round, for the number of rounds
+    // specified, so that only statements with derivations of bounded height are inferred;
+    // statements are inferred once, as in the closure maintained by inferencers
+    private static void computeClosure(final MemoryContext context, final List<Rule> rules,
+            final BindingSet bindings, final int rounds) throws Exception
+    {
+        for (int i = 0; i < rounds; ++i) {
+            final Set<Statement> statements = Sets.newHashSet();
+            for (final Rule rule : rules) {
+                statements.addAll(context.evaluate(rule, bindings));
+            }
+            statements.removeAll(context.getStatements());
+            context.addInferred(statements);
+        }
+    }
+
+    private static Multiset<BindingSet> evaluate(final MemoryContext context,
+            final QuerySpec<TupleQueryResult> query) throws Exception
+    {
+        final Multiset<BindingSet> solutions = HashMultiset.create();
+        final TupleQueryResult result = context.query(query, null, null, true, 0);
+        try {
+            while (result.hasNext()) {
+                solutions.add(result.next());
+            }
+        } finally {
+            result.close();
+        }
+        return solutions;
+    }
+
+}
@@ -0,0 +1,187 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+public class BufferTest
+{
+
+    private static final ValueFactory FACTORY = ValueFactoryImpl.getInstance();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        final List<Statement> statements = newStatements(1000);
+        final Buffer buffer = new Buffer(FACTORY);
+        try {
+            final Buffer.Appender appender = buffer.newAppender();
+            appendAll(appender, statements);
+            appendAll(appender, statements.subList(0, 100));
+            Assert.assertEquals(statements.size(), appender.flush());
+            Assert.assertEquals(statements.size(), buffer.size());
+            Assert.assertEquals(quads(statements), quads(buffer));
+            Assert.assertTrue(buffer.getPredicates().contains(RDF.TYPE));
+            Assert.assertTrue(buffer.getTypes().contains(FACTORY.createURI("ex:class0")));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testSpill() throws Exception
+    {
+        final File dir = this.folder.newFolder();
+        final List<Statement> statements = newStatements(20000);
+        final Buffer buffer = new Buffer(FACTORY, 256, dir, 0);
+        try {
+            // statements are appended twice, in order and reversed, so that runs overlap
+            final Buffer.Appender appender = buffer.newAppender();
+            appendAll(appender, statements);
+            appendAll(appender, Lists.reverse(statements));
+            appender.flush();
+            Assert.assertTrue(dir.list().length > 0);
+            Assert.assertTrue(buffer.size() >= statements.size());
+
+            Assert.assertEquals(quads(statements), quads(buffer));
+            Assert.assertEquals(statements.size(), buffer.size());
+            Assert.assertEquals(quads(statements), quads(buffer));
+        } finally {
+            buffer.close();
+        }
+        Assert.assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testStreaming() throws Exception
+    {
+        final List<Statement> statements = newStatements(50000);
+        final Buffer buffer = new Buffer(FACTORY, 0, null, 1);
+        try {
+            final Thread thread = new Thread() {
+
+                @Override
+                public void run()
+                {
+                    final Buffer.Appender appender = buffer.newAppender();
+                    appendAll(appender, statements);
+                    appendAll(appender, statements.subList(0, 20000));
+                    appender.flush();
+                }
+
+            };
+            thread.start();
+
+            // statements newly added by each flush of the appender are streamed exactly once
+            final List<Statement> streamed = Lists.newArrayList();
+            while (thread.isAlive()) {
+                final List<Statement> batch = buffer.pollStreamed(10);
+                if (batch != null) {
+                    streamed.addAll(batch);
+                }
+            }
+            thread.join();
+            for (List<Statement> batch = buffer.pollStreamed(0); batch != null; batch = buffer
+                    .pollStreamed(0)) {
+                streamed.addAll(batch);
+            }
+            Assert.assertEquals(quads(statements), quads(streamed));
+            Assert.assertEquals(quads(statements), quads(buffer));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testAbortStreaming() throws Exception
+    {
+        final Buffer buffer = new Buffer(FACTORY, 0, null, 1);
+        final Throwable[] failure = new Throwable[1];
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run()
+            {
+                try {
+                    for (final Statement statement : newStatements(10)) {
+                        final Buffer.Appender appender = buffer.newAppender();
+                        appendAll(appender, ImmutableList.of(statement));
+                        appender.flush();
+                    }
+                } catch (final Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+
+        };
+        thread.start();
+        Thread.sleep(200);
+        Assert.assertTrue(thread.isAlive()); // blocked, as nobody polls the queue
+        buffer.abortStreaming();
+        thread.join();
+        Assert.assertTrue(failure[0] instanceof IllegalStateException);
+        buffer.close();
+    }
+
+    private static List<Statement> newStatements(final int count)
+    {
+        final List<Statement> statements = Lists.newArrayListWithCapacity(count);
+        final Resource context = FACTORY.createURI("ex:context");
+        for (int i = 0; i < count; ++i) {
+            final URI subj = FACTORY.createURI("ex:s" + i / 10);
+            if (i % 3 == 0) {
+                statements.add(FACTORY.createStatement(subj, RDF.TYPE,
+                        FACTORY.createURI("ex:class" + i % 7)));
+            } else if (i % 3 == 1) {
+                statements.add(FACTORY.createStatement(subj, FACTORY.createURI("ex:p" + i % 5),
+                        FACTORY.createLiteral(i), context));
+            } else {
+                statements.add(FACTORY.createStatement(subj, FACTORY.createURI("ex:q"),
+                        FACTORY.createURI("ex:o" + i)));
+            }
+        }
+        return statements;
+    }
+
+    private static void appendAll(final Buffer.Appender appender,
+            final Iterable<Statement> statements)
+    {
+        for (final Statement statement : statements) {
+            appender.handle(statement.getSubject(), statement.getPredicate(),
+                    statement.getObject(), statement.getContext());
+        }
+    }
+
+    // statements are compared as quads, as statement equality ignores contexts
+    static Set<List<Value>> quads(final Iterable<Statement> statements)
+    {
+        final Set<List<Value>> quads = Sets.newHashSet();
+        for (final Statement statement : statements) {
+            final List<Value> quad = Arrays.asList(statement.getSubject(),
+                    statement.getPredicate(), statement.getObject(), statement.getContext());
+            Assert.assertTrue("Duplicate statement " + statement, quads.add(quad));
+        }
+        return quads;
+    }
+
+}
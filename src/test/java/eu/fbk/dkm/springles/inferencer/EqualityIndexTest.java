@@ -0,0 +1,62 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.statement;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Statement;
+
+import eu.fbk.dkm.springles.ruleset.Rulesets;
+
+public class EqualityIndexTest
+{
+
+    private static final Statement[] DATA = new Statement[] {
+            statement("ex:a", "owl:sameAs", "ex:b"), statement("ex:c", "owl:sameAs", "ex:b"),
+            statement("ex:p", "owl:sameAs", "ex:q"), statement("ex:e", "owl:sameAs", "ex:f"),
+            statement("ex:b", "ex:knows", "ex:d"), statement("ex:d", "ex:knows", "ex:e"),
+            statement("ex:x", "ex:knows", "ex:y"), statement("ex:c", "ex:q", "ex:f"),
+            statement("ex:y", "ex:p", "\"literal\""), statement("ex:a", "rdf:type", "ex:C"),
+            statement("ex:C", "rdfs:subClassOf", "ex:D"), statement("ex:y", "rdf:type", "ex:D") };
+
+    private static final String PREFIXES = "PREFIX ex: <http://example.org/> "
+            + "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
+            + "PREFIX owl: <http://www.w3.org/2002/07/owl#> ";
+
+    private static final String[] QUERIES = new String[] {
+            "SELECT ?s ?o WHERE { ?s ex:knows ?o }", //
+            "SELECT ?o WHERE { ex:c ex:knows ?o }", //
+            "SELECT ?s WHERE { ?s ex:knows ex:f }", //
+            "SELECT ?s ?o WHERE { ?s ex:p ?o }", //
+            "SELECT ?p ?o WHERE { ex:a ?p ?o FILTER (?p != owl:sameAs) }", //
+            "SELECT ?s ?p WHERE { ?s ?p ex:e }", //
+            "SELECT ?x WHERE { ?x rdf:type ex:D }", //
+            "SELECT ?x ?y WHERE { ?x ex:knows ?y . ?y ex:knows ?z . ?x rdf:type ex:C }", //
+            "SELECT ?x ?z WHERE { ?x ex:knows ?y OPTIONAL { ?y ex:q ?z } }", //
+            "SELECT ?s WHERE { ?s rdf:type ?t FILTER (?s = ex:c) }" };
+
+    @Test
+    public void testCanonicalSameAsMaterialized() throws Exception
+    {
+        final StoreFixture canonical = newStore(EqualityMode.CANONICAL);
+        final StoreFixture materialized = newStore(EqualityMode.MATERIALIZED);
+        try {
+            for (final String query : QUERIES) {
+                final String string = PREFIXES + query;
+                Assert.assertEquals("Wrong answers to " + query, materialized.query(string),
+                        canonical.query(string));
+            }
+            Assert.assertFalse(canonical.query(PREFIXES + QUERIES[1]).isEmpty());
+        } finally {
+            canonical.close();
+            materialized.close();
+        }
+    }
+
+    private static StoreFixture newStore(final EqualityMode mode) throws Exception
+    {
+        return new StoreFixture(Inferencers.newNaiveInferencer(Rulesets.OWL2RL_MERGED, null, 1,
+                0, 0, 0, mode), DATA);
+    }
+
+}
@@ -0,0 +1,173 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.parse;
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.statement;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.ContextStatementImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+import eu.fbk.dkm.springles.ruleset.Rulesets;
+
+public class JoinPlanTest
+{
+
+    private static final Statement[] DATA = new Statement[] {
+            statement("ex:r1", "owl:hasValue", "ex:v"),
+            statement("ex:r1", "owl:onProperty", "ex:p1"),
+            statement("ex:r2", "owl:hasValue", "ex:v"),
+            statement("ex:r2", "owl:onProperty", "ex:p2"),
+            statement("ex:r3", "owl:hasValue", "ex:v"),
+            statement("ex:r3", "owl:onProperty", "ex:p1"),
+            statement("ex:x", "ex:p1", "ex:v"), statement("ex:y", "ex:p2", "ex:v"),
+            statement("ex:z", "ex:p1", "ex:w"), statement("ex:z", "rdf:type", "ex:r2"),
+            statement("ex:c1", "rdfs:subClassOf", "ex:c2"),
+            statement("ex:c2", "rdfs:subClassOf", "ex:c3"),
+            statement("ex:c2", "owl:equivalentClass", "ex:c4"),
+            statement("ex:x", "rdf:type", "ex:c1"), statement("ex:y", "rdf:type", "ex:c2"),
+            statement("ex:p1", "rdfs:domain", "ex:c1"),
+            statement("ex:p1", "rdfs:range", "ex:c3"),
+            statement("ex:p2", "rdfs:subPropertyOf", "ex:p1"),
+            statement("ex:p2", "owl:inverseOf", "ex:p3"),
+            statement("ex:p1", "rdf:type", "owl:SymmetricProperty"),
+            statement("ex:p4", "rdf:type", "owl:TransitiveProperty"),
+            statement("ex:a", "ex:p4", "ex:b"), statement("ex:b", "ex:p4", "ex:c"),
+            statement("ex:b", "ex:p4", "ex:a"),
+            statement("ex:p5", "rdf:type", "owl:FunctionalProperty"),
+            statement("ex:a", "ex:p5", "ex:m"),
+            statement("ex:a", "ex:p5", "ex:n"), statement("ex:m", "owl:sameAs", "ex:k"),
+            statement("ex:a", "ex:p1", "\"literal\"") };
+
+    private MemoryContext context;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.context = new MemoryContext(DATA);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.context.close();
+    }
+
+    // all the matches of a build atom must be joined, also when a deeper table probes the same
+    // positions: cls-hv2 streams ?u ?p ?v, and joins on ?v and then on (?r, ?p)
+    @Test
+    public void testRepeatedProbe() throws Exception
+    {
+        final Rule rule = Rulesets.OWL2RL_MERGED.getRule(new URIImpl(
+                "http://dkm.fbk.eu/springles/rdfs-ruleset#cls-hv2"));
+        final JoinPlan plan = JoinPlan.compile(rule);
+        Assert.assertNotNull(plan);
+
+        final BindingSet bindings = getBindings(Rulesets.OWL2RL_MERGED);
+        final Set<Statement> statements = evaluate(plan, bindings);
+        final Value g = bindings.getValue("g");
+        Assert.assertTrue(statements.contains(quad("ex:x", "rdf:type", "ex:r1", g)));
+        Assert.assertTrue(statements.contains(quad("ex:x", "rdf:type", "ex:r3", g)));
+        Assert.assertTrue(statements.contains(quad("ex:y", "rdf:type", "ex:r2", g)));
+        Assert.assertEquals(this.context.evaluate(rule, bindings), statements);
+    }
+
+    @Test
+    public void testSameResultsAsQuery() throws Exception
+    {
+        for (final Ruleset ruleset : ImmutableList.of(Rulesets.RDFS_MERGED,
+                Rulesets.OWL2RL_MERGED)) {
+            final BindingSet bindings = getBindings(ruleset);
+            for (final Rule rule : ruleset.getRules()) {
+                final JoinPlan plan = JoinPlan.compile(rule);
+                if (plan != null) {
+                    Assert.assertEquals("Wrong result for rule " + rule.getID(),
+                            this.context.evaluate(rule, bindings), evaluate(plan, bindings));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSharedScan() throws Exception
+    {
+        final BindingSet bindings = getBindings(Rulesets.OWL2RL_MERGED);
+        final Map<List<Value>, List<JoinPlan>> groups = Maps.newHashMap();
+        for (final Rule rule : Rulesets.OWL2RL_MERGED.getRules()) {
+            final JoinPlan plan = JoinPlan.compile(rule);
+            if (plan != null) {
+                final List<Value> pattern = plan.getScanPattern(bindings);
+                if (!groups.containsKey(pattern)) {
+                    groups.put(pattern, Lists.<JoinPlan>newArrayList());
+                }
+                groups.get(pattern).add(plan);
+            }
+        }
+
+        for (final List<JoinPlan> plans : groups.values()) {
+            final List<List<Statement>> outputs = Lists.newArrayList();
+            final List<StatementHandler<RuntimeException>> handlers = Lists.newArrayList();
+            for (int i = 0; i < plans.size(); ++i) {
+                outputs.add(Lists.<Statement>newArrayList());
+                handlers.add(this.context.collector(outputs.get(i)));
+            }
+            Assert.assertEquals(ImmutableList.of(), JoinPlan.evaluate(plans, this.context,
+                    bindings, handlers));
+            for (int i = 0; i < plans.size(); ++i) {
+                final Rule rule = plans.get(i).getRule();
+                Assert.assertEquals("Wrong result for rule " + rule.getID(),
+                        this.context.evaluate(rule, bindings),
+                        ImmutableSet.copyOf(outputs.get(i)));
+            }
+        }
+    }
+
+    private Set<Statement> evaluate(final JoinPlan plan, final BindingSet bindings)
+            throws Exception
+    {
+        final List<Statement> statements = Lists.newArrayList();
+        Assert.assertTrue(plan.evaluate(this.context, bindings,
+                this.context.collector(statements)));
+        return Sets.newHashSet(statements);
+    }
+
+    private static BindingSet getBindings(final Ruleset ruleset)
+    {
+        final MapBindingSet bindings = new MapBindingSet();
+        bindings.addBinding("g", parse("ex:inf"));
+        final BindingSet parameters = ruleset.getParameterBindings(null);
+        for (final String name : parameters.getBindingNames()) {
+            bindings.addBinding(name, parameters.getValue(name));
+        }
+        return bindings;
+    }
+
+    private static Statement quad(final String subj, final String pred, final String obj,
+            final Value ctx)
+    {
+        final Statement statement = MemoryContext.statement(subj, pred, obj);
+        return new ContextStatementImpl(statement.getSubject(), statement.getPredicate(),
+                statement.getObject(), (Resource) ctx);
+    }
+
+}
@@ -0,0 +1,230 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import info.aduna.iteration.CloseableIteration;
+
+import eu.fbk.dkm.springles.base.QuerySpec;
+import eu.fbk.dkm.springles.base.QueryType;
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
+
+/**
+ * Inferencer context over an in-memory Sesame repository, for testing inferencer components in
+ * isolation. Closure statements are not distinguished from explicit ones.
+ */
+final class MemoryContext implements Inferencer.Context
+{
+
+    static final String EX_NAMESPACE = "http://example.org/";
+
+    private final SailRepository repository;
+
+    private final SailRepositoryConnection connection;
+
+    MemoryContext(final Statement... statements) throws RepositoryException
+    {
+        this.repository = new SailRepository(new MemoryStore());
+        this.repository.initialize();
+        this.connection = this.repository.getConnection();
+        this.connection.add(Arrays.asList(statements));
+    }
+
+    /**
+     * Creates a statement from its terms, which can be <tt>ex:</tt>, <tt>rdf:</tt>,
+     * <tt>rdfs:</tt> or <tt>owl:</tt> qualified names or quoted plain literals.
+     */
+    static Statement statement(final String subj, final String pred, final String obj)
+    {
+        final ValueFactory factory = ValueFactoryImpl.getInstance();
+        return factory.createStatement((Resource) parse(subj), (URI) parse(pred), parse(obj));
+    }
+
+    static Value parse(final String term)
+    {
+        final ValueFactory factory = ValueFactoryImpl.getInstance();
+        if (term.startsWith("\"")) {
+            return factory.createLiteral(term.substring(1, term.length() - 1));
+        }
+        final int index = term.indexOf(':');
+        final String prefix = term.substring(0, index);
+        final String name = term.substring(index + 1);
+        if (prefix.equals("rdf")) {
+            return factory.createURI(RDF.NAMESPACE, name);
+        } else if (prefix.equals("rdfs")) {
+            return factory.createURI(RDFS.NAMESPACE, name);
+        } else if (prefix.equals("owl")) {
+            return factory.createURI(OWL.NAMESPACE, name);
+        } else {
+            return factory.createURI(EX_NAMESPACE, name);
+        }
+    }
+
+    void close() throws RepositoryException
+    {
+        this.connection.close();
+        this.repository.shutDown();
+    }
+
+    Set<Statement> getStatements() throws RepositoryException
+    {
+        return Sets.newHashSet(this.connection.getStatements(null, null, null, true).asList());
+    }
+
+    /**
+     * Evaluates the rule as a SPARQL query over the repository, returning the instantiated head
+     * statements; used as reference for the native evaluation of the rule.
+     */
+    Set<Statement> evaluate(final Rule rule, final BindingSet bindings)
+            throws QueryEvaluationException, RepositoryException
+    {
+        final List<Statement> statements = Lists.newArrayList();
+        final TupleQueryResult iteration = query(rule.getBodyQuery(), null, bindings, true, 0);
+        try {
+            rule.collectHeadStatements(iteration, bindings, collector(statements));
+        } finally {
+            iteration.close();
+        }
+        return Sets.newHashSet(statements);
+    }
+
+    StatementHandler<RuntimeException> collector(final List<Statement> statements)
+    {
+        final ValueFactory factory = getValueFactory();
+        return new StatementHandler<RuntimeException>() {
+
+            @Override
+            public void handle(final Resource subj, final URI pred, final Value obj,
+                    final Resource ctx)
+            {
+                statements.add(ctx == null ? factory.createStatement(subj, pred, obj) : factory
+                        .createStatement(subj, pred, obj, ctx));
+            }
+
+        };
+    }
+
+    @Override
+    @Nullable
+    public ScheduledExecutorService getScheduler()
+    {
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public ExecutorService getExecutor()
+    {
+        return null;
+    }
+
+    @Override
+    public ValueFactory getValueFactory()
+    {
+        return this.repository.getValueFactory();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T query(final QuerySpec<T> query, @Nullable final Dataset dataset,
+            @Nullable final BindingSet bindings, final boolean includeClosure, final int timeout)
+            throws QueryEvaluationException, RepositoryException
+    {
+        if (query.getType() != QueryType.TUPLE) {
+            throw new UnsupportedOperationException("Unsupported query type: " + query.getType());
+        }
+        final TupleExpr expression = query.getExpression();
+        try {
+            return (T) new TupleQueryResultImpl(ImmutableList.copyOf(expression
+                    .getBindingNames()), this.connection.getSailConnection().evaluate(
+                    expression, dataset, bindings != null ? bindings : EmptyBindingSet
+                            .getInstance(), true));
+        } catch (final SailException ex) {
+            throw new RepositoryException(ex);
+        }
+    }
+
+    @Override
+    public CloseableIteration<? extends Resource, RepositoryException> getContextIDs(
+            final boolean includeClosure) throws RepositoryException
+    {
+        return this.connection.getContextIDs();
+    }
+
+    @Override
+    public CloseableIteration<? extends Statement, RepositoryException> getStatements(
+            @Nullable final Resource subj, @Nullable final URI pred, @Nullable final Value obj,
+            final boolean includeClosure, final Resource... contexts) throws RepositoryException
+    {
+        return this.connection.getStatements(subj, pred, obj, true, contexts);
+    }
+
+    @Override
+    public boolean hasStatement(@Nullable final Resource subj, @Nullable final URI pred,
+            @Nullable final Value obj, final boolean includeClosure, final Resource... contexts)
+            throws RepositoryException
+    {
+        return this.connection.hasStatement(subj, pred, obj, true, contexts);
+    }
+
+    @Override
+    public long size(final boolean includeClosure, final Resource... contexts)
+            throws RepositoryException
+    {
+        return this.connection.size(contexts);
+    }
+
+    @Override
+    public void addInferred(final Iterable<? extends Statement> statements,
+            final Resource... contexts) throws RepositoryException
+    {
+        this.connection.add(statements, contexts);
+    }
+
+    @Override
+    public void removeInferred(final Iterable<? extends Statement> statements,
+            final Resource... contexts) throws RepositoryException
+    {
+        this.connection.remove(statements, contexts);
+    }
+
+    @Override
+    public void removeInferred(@Nullable final Resource subject, @Nullable final URI predicate,
+            @Nullable final Value object, final Resource... contexts) throws RepositoryException
+    {
+        this.connection.remove(subject, predicate, object, contexts);
+    }
+
+}
@@ -0,0 +1,122 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.statement;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import eu.fbk.dkm.springles.base.QuerySpec;
+import eu.fbk.dkm.springles.base.QueryType;
+import eu.fbk.dkm.springles.ruleset.ClosureFixPointTask;
+import eu.fbk.dkm.springles.ruleset.ClosureRepeatTask;
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+
+public class RepeatTaskTest
+{
+
+    private static final Statement[] DATA = new Statement[] {
+            statement("ex:c0a", "rdfs:subClassOf", "ex:c1"),
+            statement("ex:c0b", "rdfs:subClassOf", "ex:c1"),
+            statement("ex:c0b", "rdfs:subClassOf", "ex:c1b"),
+            statement("ex:c1", "rdfs:subClassOf", "ex:c2"),
+            statement("ex:c1b", "rdfs:subClassOf", "ex:c2"),
+            statement("ex:c0a", "ex:level", "\"0\""), statement("ex:c0b", "ex:level", "\"0\""),
+            statement("ex:c1", "ex:level", "\"1\""), statement("ex:c1b", "ex:level", "\"1\""),
+            statement("ex:c2", "ex:level", "\"2\""), statement("ex:i1", "rdf:type", "ex:c0a"),
+            statement("ex:i2", "rdf:type", "ex:c0b"), statement("ex:i3", "rdf:type", "ex:c1b"),
+            statement("ex:i1", "ex:sameGroup", "ex:i4"),
+            statement("ex:i4", "ex:sameGroup", "ex:i5"),
+            statement("ex:i2", "ex:sameGroup", "ex:i6"),
+            statement("ex:i3", "ex:sameGroup", "ex:i7"),
+            statement("ex:i6", "ex:sameGroup", "ex:i8") };
+
+    @Test
+    public void testConcurrentSameAsSequential() throws Exception
+    {
+        final Set<List<Value>> expected = computeClosure(DATA);
+        Assert.assertEquals(expected, getClosure(loadRuleset()));
+
+        // iterations on classes of the same level are executed concurrently, levels in order
+        for (int i = 0; i < 5; ++i) {
+            final Ruleset ruleset = loadRuleset();
+            final ClosureRepeatTask plan = (ClosureRepeatTask) ruleset.getClosurePlan();
+            plan.setConcurrent(true);
+            plan.setGroupVariable("level");
+            Assert.assertEquals(expected, getClosure(ruleset));
+        }
+    }
+
+    @Test
+    public void testRepeatInsideFixPoint() throws Exception
+    {
+        // classes are processed top-down, so that the types inferred for a class are used by
+        // the iterations on its superclasses only at the next round of the fix-point
+        final Ruleset ruleset = loadRuleset();
+        final ClosureRepeatTask repeat = (ClosureRepeatTask) ruleset.getClosurePlan();
+        repeat.setQuery(QuerySpec.from(QueryType.TUPLE, "PREFIX ex: <http://example.org/> "
+                + "SELECT ?cls ?level WHERE { ?cls ex:level ?level } ORDER BY DESC(?level)"));
+        ruleset.setClosurePlan(new ClosureFixPointTask(null, null, repeat));
+        Assert.assertEquals(computeClosure(DATA), getClosure(ruleset));
+    }
+
+    static Ruleset loadRuleset()
+    {
+        return new Ruleset(RepeatTaskTest.class.getResource("repeat.ttl"));
+    }
+
+    static Set<List<Value>> getClosure(final Ruleset ruleset) throws Exception
+    {
+        final StoreFixture store = new StoreFixture(Inferencers.newNaiveInferencer(ruleset,
+                null, 4), DATA);
+        try {
+            return store.getClosure();
+        } finally {
+            store.close();
+        }
+    }
+
+    // closure of the inheritance and propagation rules of the ruleset, for all the classes
+    static Set<List<Value>> computeClosure(final Statement... statements)
+    {
+        final Set<List<Value>> closure = Sets.newHashSet();
+        for (final Statement statement : statements) {
+            closure.add(ImmutableList.<Value>of(statement.getSubject(),
+                    statement.getPredicate(), statement.getObject()));
+        }
+        final Value sameGroup = MemoryContext.parse("ex:sameGroup");
+        boolean changed = true;
+        while (changed) {
+            final List<List<Value>> inferred = Lists.newArrayList();
+            for (final List<Value> type : closure) {
+                if (!type.get(1).equals(RDF.TYPE)) {
+                    continue;
+                }
+                for (final List<Value> triple : closure) {
+                    if (triple.get(1).equals(RDFS.SUBCLASSOF)
+                            && triple.get(0).equals(type.get(2))) {
+                        inferred.add(ImmutableList.<Value>of(type.get(0), RDF.TYPE,
+                                triple.get(2)));
+                    } else if (triple.get(1).equals(sameGroup)
+                            && triple.get(0).equals(type.get(0))) {
+                        inferred.add(ImmutableList.<Value>of(triple.get(2), RDF.TYPE,
+                                type.get(2)));
+                    }
+                }
+            }
+            changed = closure.addAll(inferred);
+        }
+        return closure;
+    }
+
+}
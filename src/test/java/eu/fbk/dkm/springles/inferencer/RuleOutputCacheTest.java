@@ -0,0 +1,142 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.parse;
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.statement;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+import eu.fbk.dkm.springles.ruleset.Rulesets;
+
+public class RuleOutputCacheTest
+{
+
+    private static final Statement[] DATA = new Statement[] {
+            statement("ex:a", "rdfs:subClassOf", "ex:b"),
+            statement("ex:b", "rdfs:subClassOf", "ex:a"),
+            statement("ex:b", "rdfs:subClassOf", "ex:c"),
+            statement("ex:c", "owl:equivalentClass", "ex:d"),
+            statement("ex:p", "rdfs:subPropertyOf", "ex:q"),
+            statement("ex:q", "owl:equivalentProperty", "ex:r"),
+            statement("ex:q", "rdfs:domain", "ex:a"), statement("ex:q", "rdfs:range", "ex:c"),
+            statement("ex:p", "rdf:type", "owl:ObjectProperty"),
+            statement("ex:x", "ex:p", "ex:y"), statement("ex:z", "rdf:type", "ex:b") };
+
+    @Test
+    public void testWarmSameAsCold() throws Exception
+    {
+        final Ruleset ruleset = Rulesets.OWL2RL_MERGED;
+        final StoreFixture store = new StoreFixture(Inferencers.newNaiveInferencer(ruleset,
+                null, 1), DATA);
+        try {
+            // the second computation reuses the outputs of the memoized rules
+            final Set<List<Value>> cold = store.getClosure();
+            store.recompute();
+            Assert.assertEquals(cold, store.getClosure());
+
+            // after changes to schema and instance statements, cached outputs computed before
+            // are either still valid or discarded, matching a closure computed from scratch
+            final List<Statement> explicit = Lists.newArrayList(DATA);
+            for (final Statement statement : new Statement[] { DATA[1], DATA[3], DATA[9] }) {
+                store.remove(statement);
+                explicit.remove(statement);
+                SemiNaiveInferencerTest.assertSameClosure(ruleset, store,
+                        explicit.toArray(new Statement[explicit.size()]));
+                store.add(statement);
+                explicit.add(statement);
+                SemiNaiveInferencerTest.assertSameClosure(ruleset, store,
+                        explicit.toArray(new Statement[explicit.size()]));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testInvalidation() throws Exception
+    {
+        // scm-eqc1 infers equivalences from subclass cycles not already stated as equivalences
+        final Rule rule = Rulesets.OWL2RL_MERGED.getRule(new URIImpl(
+                "http://dkm.fbk.eu/springles/rdfs-ruleset#scm-eqc1"));
+        Assert.assertTrue(RuleOutputCache.isMemoizable(rule));
+
+        final MapBindingSet bindings = new MapBindingSet();
+        bindings.addBinding("g", parse("ex:inf"));
+        final List<Object> key = ImmutableList.<Object>of(rule.getID(),
+                ImmutableMap.of("g", parse("ex:inf")));
+
+        final MemoryContext context = new MemoryContext(DATA[0], DATA[1]);
+        try {
+            final RuleOutputCache cache = new RuleOutputCache();
+            final String digest = RuleOutputCache.digestInputs(context, rule, bindings);
+            final List<Statement> outputs = Lists.newArrayList(context.evaluate(rule, bindings));
+            Assert.assertFalse(outputs.isEmpty());
+            cache.put(key, digest, outputs);
+            Assert.assertEquals(outputs, cache.get(key, digest));
+
+            // statements not matching any body atom leave the entry valid
+            context.addInferred(ImmutableList.of(statement("ex:x", "ex:p", "ex:y"),
+                    statement("ex:x", "rdf:type", "ex:a")));
+            Assert.assertEquals(digest, RuleOutputCache.digestInputs(context, rule, bindings));
+            assertCached(cache, key, context, rule, bindings, true);
+
+            // so do saving and loading the cache
+            final File file = File.createTempFile("rule.outputs", ".test");
+            try {
+                cache.save(file, Rulesets.OWL2RL_MERGED.digest());
+                final RuleOutputCache loaded = new RuleOutputCache();
+                loaded.load(file, Rulesets.OWL2RL_MERGED.digest());
+                assertCached(loaded, key, context, rule, bindings, true);
+                final RuleOutputCache ignored = new RuleOutputCache();
+                ignored.load(file, Rulesets.RDFS_MERGED.digest());
+                assertCached(ignored, key, context, rule, bindings, false);
+            } finally {
+                file.delete();
+            }
+
+            // an atom under FILTER NOT EXISTS invalidates the entry
+            final Statement equivalence = statement("ex:a", "owl:equivalentClass", "ex:b");
+            context.addInferred(ImmutableList.of(equivalence));
+            assertCached(cache, key, context, rule, bindings, false);
+            context.removeInferred(ImmutableList.of(equivalence));
+            assertCached(cache, key, context, rule, bindings, true);
+
+            // and so does a positive atom of the body
+            context.removeInferred(ImmutableList.of(DATA[1]));
+            assertCached(cache, key, context, rule, bindings, false);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void assertCached(final RuleOutputCache cache, final List<Object> key,
+            final MemoryContext context, final Rule rule, final BindingSet bindings,
+            final boolean cached) throws Exception
+    {
+        final List<Statement> outputs = cache.get(key,
+                RuleOutputCache.digestInputs(context, rule, bindings));
+        if (cached) {
+            Assert.assertNotNull(outputs);
+            Assert.assertEquals(context.evaluate(rule, bindings), Sets.newHashSet(outputs));
+        } else {
+            Assert.assertNull(outputs);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import static eu.fbk.dkm.springles.inferencer.MemoryContext.statement;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+
+import eu.fbk.dkm.springles.ruleset.Ruleset;
+import eu.fbk.dkm.springles.ruleset.Rulesets;
+
+public class SemiNaiveInferencerTest
+{
+
+    private static final Statement[] HIERARCHY = new Statement[] {
+            statement("ex:a", "rdfs:subClassOf", "ex:b"),
+            statement("ex:b", "rdfs:subClassOf", "ex:c"),
+            statement("ex:c", "rdfs:subClassOf", "ex:d"),
+            statement("ex:p", "rdfs:subPropertyOf", "ex:q"),
+            statement("ex:q", "rdfs:domain", "ex:a"), statement("ex:q", "rdfs:range", "ex:c"),
+            statement("ex:x", "ex:p", "ex:y"), statement("ex:z", "rdf:type", "ex:b") };
+
+    private static final Statement[] ONTOLOGY = new Statement[] {
+            statement("ex:a", "owl:equivalentClass", "ex:e"),
+            statement("ex:p", "owl:inverseOf", "ex:r"),
+            statement("ex:r", "rdf:type", "owl:TransitiveProperty"),
+            statement("ex:s", "rdf:type", "owl:SymmetricProperty"),
+            statement("ex:y", "ex:p", "ex:w"), statement("ex:w", "ex:s", "ex:v"),
+            statement("ex:t", "rdf:type", "owl:FunctionalProperty"),
+            statement("ex:x", "ex:t", "ex:m"), statement("ex:x", "ex:t", "ex:n") };
+
+    @Test
+    public void testAddSameAsNaive() throws Exception
+    {
+        final List<Statement> statements = Lists.newArrayList(HIERARCHY);
+        statements.addAll(Arrays.asList(ONTOLOGY));
+        for (final Ruleset ruleset : ImmutableList.of(Rulesets.RDFS_MERGED,
+                Rulesets.OWL2RL_MERGED)) {
+            // statements are added one per transaction, in reverse order so that data comes
+            // before the schema it depends on
+            final StoreFixture store = newStore(ruleset);
+            try {
+                final List<Statement> explicit = Lists.newArrayList();
+                for (final Statement statement : Lists.reverse(statements)) {
+                    store.add(statement);
+                    explicit.add(statement);
+                    assertSameClosure(ruleset, store,
+                            explicit.toArray(new Statement[explicit.size()]));
+                }
+            } finally {
+                store.close();
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveEntailedExplicitStatement() throws Exception
+    {
+        final Statement ac = statement("ex:a", "rdfs:subClassOf", "ex:c");
+        final StoreFixture store = newStore(Rulesets.RDFS_MERGED,
+                statement("ex:a", "rdfs:subClassOf", "ex:b"),
+                statement("ex:b", "rdfs:subClassOf", "ex:c"), ac);
+        try {
+            store.remove(ac);
+            Assert.assertTrue(store.contains(ac));
+            assertSameClosure(Rulesets.RDFS_MERGED, store,
+                    statement("ex:a", "rdfs:subClassOf", "ex:b"),
+                    statement("ex:b", "rdfs:subClassOf", "ex:c"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRemoveWithExplicitConsequence() throws Exception
+    {
+        // z rdf:type b is both explicit and derivable from z rdf:type a: removing a
+        // rdfs:subClassOf b must not overdelete z rdf:type c
+        final List<Statement> explicit = Lists.newArrayList(HIERARCHY);
+        explicit.add(statement("ex:z", "rdf:type", "ex:a"));
+        final StoreFixture store = newStore(Rulesets.RDFS_MERGED,
+                explicit.toArray(new Statement[explicit.size()]));
+        try {
+            store.remove(HIERARCHY[0]);
+            explicit.remove(HIERARCHY[0]);
+            Assert.assertTrue(store.contains(statement("ex:z", "rdf:type", "ex:c")));
+            assertSameClosure(Rulesets.RDFS_MERGED, store,
+                    explicit.toArray(new Statement[explicit.size()]));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRemoveSameAsRecompute() throws Exception
+    {
+        for (int i = 0; i < HIERARCHY.length; ++i) {
+            final StoreFixture store = newStore(Rulesets.RDFS_MERGED, HIERARCHY);
+            try {
+                final List<Statement> explicit = Lists.newArrayList(HIERARCHY);
+                store.remove(explicit.remove(i));
+                assertSameClosure(Rulesets.RDFS_MERGED, store,
+                        explicit.toArray(new Statement[explicit.size()]));
+
+                store.recompute();
+                assertSameClosure(Rulesets.RDFS_MERGED, store,
+                        explicit.toArray(new Statement[explicit.size()]));
+            } finally {
+                store.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSparqlUpdate() throws Exception
+    {
+        final StoreFixture store = newStore(Rulesets.RDFS_MERGED, HIERARCHY);
+        try {
+            final List<Statement> explicit = Lists.newArrayList(HIERARCHY);
+            store.update("PREFIX ex: <http://example.org/> "
+                    + "INSERT DATA { ex:w a ex:a . ex:d ex:p ex:w }");
+            explicit.add(statement("ex:w", "rdf:type", "ex:a"));
+            explicit.add(statement("ex:d", "ex:p", "ex:w"));
+            Assert.assertTrue(store.contains(statement("ex:w", "rdf:type", "ex:d")));
+            assertSameClosure(Rulesets.RDFS_MERGED, store,
+                    explicit.toArray(new Statement[explicit.size()]));
+
+            store.update("PREFIX ex: <http://example.org/> "
+                    + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
+                    + "DELETE DATA { ex:b rdfs:subClassOf ex:c }");
+            explicit.remove(HIERARCHY[1]);
+            assertSameClosure(Rulesets.RDFS_MERGED, store,
+                    explicit.toArray(new Statement[explicit.size()]));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSmallMaxDeltaSize() throws Exception
+    {
+        // a delta of one statement makes most evaluations and maintenance fall back to naive
+        final StoreFixture store = new StoreFixture(Inferencers.newSemiNaiveInferencer(
+                Rulesets.RDFS_MERGED, null, 1, 0, 0, 0, EqualityMode.NONE, 1), HIERARCHY);
+        try {
+            final List<Statement> explicit = Lists.newArrayList(HIERARCHY);
+            assertSameClosure(Rulesets.RDFS_MERGED, store,
+                    explicit.toArray(new Statement[explicit.size()]));
+
+            store.remove(explicit.remove(1));
+            assertSameClosure(Rulesets.RDFS_MERGED, store,
+                    explicit.toArray(new Statement[explicit.size()]));
+        } finally {
+            store.close();
+        }
+    }
+
+    static StoreFixture newStore(final Ruleset ruleset, final Statement... statements)
+            throws Exception
+    {
+        return new StoreFixture(Inferencers.newSemiNaiveInferencer(ruleset, null, 1),
+                statements);
+    }
+
+    // compares the closure with the one computed from scratch by the naive inferencer
+    static void assertSameClosure(final Ruleset ruleset, final StoreFixture store,
+            final Statement... explicit) throws Exception
+    {
+        final StoreFixture expected = new StoreFixture(Inferencers.newNaiveInferencer(ruleset,
+                null, 1), explicit);
+        try {
+            final Set<List<Value>> expectedClosure = expected.getClosure();
+            final Set<List<Value>> actualClosure = store.getClosure();
+            Assert.assertEquals("Closure differs from recomputed one for explicit statements "
+                    + ImmutableList.copyOf(explicit), expectedClosure, actualClosure);
+        } finally {
+            expected.close();
+        }
+    }
+
+}
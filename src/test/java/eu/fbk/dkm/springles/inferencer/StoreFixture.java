@@ -0,0 +1,119 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.RepositoryResult;
+
+import eu.fbk.dkm.springles.SpringlesConnection;
+import eu.fbk.dkm.springles.backend.Backends;
+import eu.fbk.dkm.springles.store.SpringlesStore;
+
+/**
+ * In-memory Springles store using a given inferencer, whose closure is updated after each
+ * modification, in the same transaction. Closures are compared as sets of triples, as the
+ * inferred contexts where statements are placed depend on the ruleset.
+ */
+final class StoreFixture
+{
+
+    private final SpringlesStore store;
+
+    private final SpringlesConnection connection;
+
+    StoreFixture(final Inferencer inferencer, final Statement... statements) throws Exception
+    {
+        this.store = new SpringlesStore("test", Backends.newMemoryStoreBackend(false, 0),
+                inferencer, new URIImpl(MemoryContext.EX_NAMESPACE + "null"),
+                MemoryContext.EX_NAMESPACE + "inf*");
+        this.store.initialize();
+        this.connection = this.store.getConnection();
+        this.connection.setAutoCommit(false);
+        add(statements);
+    }
+
+    void add(final Statement... statements) throws Exception
+    {
+        this.connection.add(Arrays.asList(statements));
+        this.connection.updateClosure();
+        this.connection.commit();
+    }
+
+    void remove(final Statement... statements) throws Exception
+    {
+        this.connection.remove(Arrays.asList(statements));
+        this.connection.updateClosure();
+        this.connection.commit();
+    }
+
+    void update(final String update) throws Exception
+    {
+        this.connection.prepareUpdate(QueryLanguage.SPARQL, update).execute();
+        this.connection.updateClosure();
+        this.connection.commit();
+    }
+
+    void recompute() throws Exception
+    {
+        this.connection.clearClosure();
+        this.connection.updateClosure();
+        this.connection.commit();
+    }
+
+    Set<List<Value>> getClosure() throws Exception
+    {
+        final Set<List<Value>> triples = Sets.newHashSet();
+        final RepositoryResult<Statement> result = this.connection.getStatements(null, null,
+                null, true);
+        try {
+            while (result.hasNext()) {
+                final Statement statement = result.next();
+                triples.add(ImmutableList.<Value>of(statement.getSubject(),
+                        statement.getPredicate(), statement.getObject()));
+            }
+        } finally {
+            result.close();
+        }
+        return triples;
+    }
+
+    Multiset<BindingSet> query(final String query) throws Exception
+    {
+        final Multiset<BindingSet> solutions = HashMultiset.create();
+        final TupleQueryResult result = this.connection.prepareTupleQuery(QueryLanguage.SPARQL,
+                query).evaluate();
+        try {
+            while (result.hasNext()) {
+                solutions.add(result.next());
+            }
+        } finally {
+            result.close();
+        }
+        return solutions;
+    }
+
+    boolean contains(final Statement statement) throws Exception
+    {
+        return this.connection.hasStatement(statement.getSubject(), statement.getPredicate(),
+                statement.getObject(), true);
+    }
+
+    void close() throws Exception
+    {
+        this.connection.close();
+        this.store.shutDown();
+    }
+
+}
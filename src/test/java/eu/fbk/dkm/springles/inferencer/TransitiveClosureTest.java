@@ -0,0 +1,128 @@
+package eu.fbk.dkm.springles.inferencer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+
+import eu.fbk.dkm.springles.ruleset.Rule;
+import eu.fbk.dkm.springles.ruleset.Rule.StatementHandler;
+import eu.fbk.dkm.springles.ruleset.Rulesets;
+
+public class TransitiveClosureTest
+{
+
+    private static final String RULE_NAMESPACE = "http://dkm.fbk.eu/springles/rdfs-merged#";
+
+    @Test
+    public void testSameAsReachability() throws Exception
+    {
+        final Random random = new Random(0L);
+        for (final String name : new String[] { "rdfs5", "rdfs11" }) {
+            final Rule rule = Rulesets.RDFS_MERGED.getRule(new URIImpl(RULE_NAMESPACE + name));
+            final TransitiveClosure closure = TransitiveClosure.analyze(rule);
+            Assert.assertNotNull(closure);
+            final URI predicate = name.equals("rdfs5") ? RDFS.SUBPROPERTYOF : RDFS.SUBCLASSOF;
+
+            // sparse random graphs with cycles, plus a chain longer than any of them
+            for (final int edges : new int[] { 10, 40, 80 }) {
+                final List<Statement> statements = newGraph(random, predicate, 40, edges);
+                check(closure, statements);
+            }
+        }
+    }
+
+    private static List<Statement> newGraph(final Random random, final URI predicate,
+            final int nodes, final int edges)
+    {
+        final ValueFactory factory = ValueFactoryImpl.getInstance();
+        final List<Statement> statements = Lists.newArrayList();
+        for (int i = 0; i < edges; ++i) {
+            statements.add(factory.createStatement(
+                    factory.createURI(MemoryContext.EX_NAMESPACE, "n" + random.nextInt(nodes)),
+                    predicate,
+                    factory.createURI(MemoryContext.EX_NAMESPACE, "n" + random.nextInt(nodes))));
+        }
+        for (int i = 0; i < 100; ++i) {
+            statements.add(factory.createStatement(
+                    factory.createURI(MemoryContext.EX_NAMESPACE, "c" + i), predicate,
+                    factory.createURI(MemoryContext.EX_NAMESPACE, "c" + (i + 1))));
+        }
+        return statements;
+    }
+
+    private static void check(final TransitiveClosure closure, final List<Statement> statements)
+            throws Exception
+    {
+        final MemoryContext context = new MemoryContext(statements.toArray(new Statement[0]));
+        try {
+            final BindingSet bindings = Rulesets.RDFS_MERGED.getParameterBindings(null);
+            Assert.assertTrue(closure.isApplicable(bindings));
+            final Set<List<Value>> inferred = Sets.newHashSet();
+            closure.compute(context, bindings, new StatementHandler<RuntimeException>() {
+
+                @Override
+                public void handle(final Resource subj, final URI pred, final Value obj,
+                        final Resource ctx)
+                {
+                    inferred.add(Lists.<Value>newArrayList(subj, obj));
+                }
+
+            });
+            Assert.assertEquals(reach(statements), inferred);
+        } finally {
+            context.close();
+        }
+    }
+
+    // pairs of distinct nodes connected by a path, but not by an explicit statement
+    private static Set<List<Value>> reach(final List<Statement> statements)
+    {
+        final Map<Value, Set<Value>> successors = Maps.newHashMap();
+        final Set<List<Value>> explicit = Sets.newHashSet();
+        for (final Statement statement : statements) {
+            if (!successors.containsKey(statement.getSubject())) {
+                successors.put(statement.getSubject(), Sets.<Value>newHashSet());
+            }
+            successors.get(statement.getSubject()).add(statement.getObject());
+            explicit.add(Lists.<Value>newArrayList(statement.getSubject(),
+                    statement.getObject()));
+        }
+
+        final Set<List<Value>> result = Sets.newHashSet();
+        for (final Value start : successors.keySet()) {
+            final Set<Value> visited = Sets.newHashSet();
+            final List<Value> queue = Lists.newArrayList(successors.get(start));
+            while (!queue.isEmpty()) {
+                final Value node = queue.remove(queue.size() - 1);
+                if (visited.add(node) && successors.containsKey(node)) {
+                    queue.addAll(successors.get(node));
+                }
+            }
+            for (final Value node : visited) {
+                final List<Value> pair = Lists.newArrayList(start, node);
+                if (!node.equals(start) && !explicit.contains(pair)) {
+                    result.add(pair);
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,140 @@
+package eu.fbk.dkm.springles.ruleset;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.repository.RepositoryResult;
+
+import eu.fbk.dkm.springles.SpringlesConnection;
+import eu.fbk.dkm.springles.backend.Backends;
+import eu.fbk.dkm.springles.inferencer.Inferencers;
+import eu.fbk.dkm.springles.store.SpringlesStore;
+
+public class RuleDependenciesTest
+{
+
+    private static final ValueFactory FACTORY = ValueFactoryImpl.getInstance();
+
+    private static final String EX = "http://example.org/";
+
+    private static final Statement[] DATA = new Statement[] {
+            statement("a", RDFS.SUBCLASSOF, "b"), statement("b", RDFS.SUBCLASSOF, "c"),
+            statement("c", RDFS.SUBCLASSOF, "d"), statement("p", RDFS.SUBPROPERTYOF, "q"),
+            statement("q", RDFS.DOMAIN, "a"), statement("q", RDFS.RANGE, "c"),
+            statement("x", "p", "y"), statement("z", RDF.TYPE, "b"),
+            statement("a", OWL.EQUIVALENTCLASS, "e"), statement("p", OWL.INVERSEOF, "r"),
+            statement("r", RDF.TYPE, OWL.TRANSITIVEPROPERTY),
+            statement("s", RDF.TYPE, OWL.SYMMETRICPROPERTY), statement("y", "p", "w"),
+            statement("w", "s", "v"), statement("t", RDF.TYPE, OWL.FUNCTIONALPROPERTY),
+            statement("x", "t", "m"), statement("x", "t", "n") };
+
+    @Test
+    public void testDerivedTriggersCoverDeclaredOnes() throws Exception
+    {
+        // derived triggers are conservative, so they may only add to the hand-written ones
+        for (final Ruleset ruleset : ImmutableList.of(Rulesets.RDFS_MERGED,
+                Rulesets.RDFS_GLOBAL_IMPORT, Rulesets.RDFS_GRAPH_IMPORT)) {
+            final RuleDependencies dependencies = new RuleDependencies(getForwardRules(ruleset));
+            int numDeclared = 0;
+            for (final Rule rule : getForwardRules(ruleset)) {
+                final Set<Resource> declared = rule.getTriggeredRuleIDs();
+                if (declared != null) {
+                    final Set<Resource> derived = dependencies.getTriggeredRuleIDs(rule.getID());
+                    Assert.assertTrue("Missing triggers for " + rule.getID() + ": "
+                            + Sets.difference(declared, derived), derived.containsAll(declared));
+                    ++numDeclared;
+                }
+            }
+            Assert.assertTrue(numDeclared > 0);
+        }
+    }
+
+    @Test
+    public void testGeneratedPlanSameClosure() throws Exception
+    {
+        // the import rulesets are excluded, as their plans bind variables in nested tasks and
+        // evaluate the same rules under different bindings, which a generated plan cannot do
+        for (final Ruleset ruleset : ImmutableList.of(Rulesets.RDFS_MERGED,
+                Rulesets.OWL2RL_MERGED)) {
+            final ClosureTask explicitPlan = ruleset.getClosurePlan();
+            final ClosureTask generatedPlan = new RuleDependencies(getForwardRules(ruleset))
+                    .generateClosurePlan(FACTORY);
+            final Ruleset generated = ruleset.clone();
+            generated.setClosurePlan(new ClosureSequenceTask(null, explicitPlan.getBindings(),
+                    ImmutableList.of(generatedPlan)));
+            Assert.assertEquals("Closure differs for " + ruleset.getID(), getClosure(ruleset),
+                    getClosure(generated));
+        }
+    }
+
+    private static List<Rule> getForwardRules(final Ruleset ruleset)
+    {
+        final List<Rule> rules = Lists.newArrayList();
+        for (final Resource ruleID : ruleset.getForwardRuleIDs()) {
+            rules.add(ruleset.getRule(ruleID));
+        }
+        return rules;
+    }
+
+    private static Set<List<Value>> getClosure(final Ruleset ruleset) throws Exception
+    {
+        final SpringlesStore store = new SpringlesStore("test",
+                Backends.newMemoryStoreBackend(false, 0), Inferencers.newNaiveInferencer(
+                        ruleset, null, 1), new URIImpl(EX + "null"), EX + "inf*");
+        store.initialize();
+        try {
+            final SpringlesConnection connection = store.getConnection();
+            try {
+                connection.setAutoCommit(false);
+                connection.add(ImmutableList.copyOf(DATA));
+                connection.updateClosure();
+                connection.commit();
+                final Set<List<Value>> triples = Sets.newHashSet();
+                final RepositoryResult<Statement> result = connection.getStatements(null,
+                        null, null, true);
+                try {
+                    while (result.hasNext()) {
+                        final Statement statement = result.next();
+                        triples.add(ImmutableList.<Value>of(statement.getSubject(),
+                                statement.getPredicate(), statement.getObject()));
+                    }
+                } finally {
+                    result.close();
+                }
+                return triples;
+            } finally {
+                connection.close();
+            }
+        } finally {
+            store.shutDown();
+        }
+    }
+
+    private static Statement statement(final String subject, final Object predicate,
+            final Object object)
+    {
+        return FACTORY.createStatement(uri(subject), uri(predicate), uri(object));
+    }
+
+    private static URI uri(final Object object)
+    {
+        return object instanceof URI ? (URI) object : FACTORY.createURI(EX, (String) object);
+    }
+
+}
@@ -0,0 +1,107 @@
+package eu.fbk.dkm.springles.ruleset;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.impl.ListBindingSet;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+
+public class TransformTest
+{
+
+    private static final ValueFactory FACTORY = ValueFactoryImpl.getInstance();
+
+    private static final List<String> NAMES = ImmutableList.of("src", "dest");
+
+    private static final String PREFIX = "http://example.org/comp/";
+
+    @Test
+    public void testTarjanSmallGraph() throws Exception
+    {
+        // a -> b -> c -> a form a component, d -> e and e -> e are separate components
+        final List<BindingSet> edges = Lists.newArrayList(edge("a", "b"), edge("b", "c"),
+                edge("c", "a"), edge("c", "d"), edge("d", "e"), edge("e", "e"));
+        final Set<Set<Value>> expected = Sets.newHashSet();
+        expected.add(Sets.<Value>newHashSet(node("a"), node("b"), node("c")));
+        expected.add(Sets.<Value>newHashSet(node("d")));
+        expected.add(Sets.<Value>newHashSet(node("e")));
+        Assert.assertEquals(expected, components(edges, 5));
+    }
+
+    @Test
+    public void testTarjanLongChain() throws Exception
+    {
+        // a chain far deeper than the Java stack allows to recurse on, whose second half is
+        // closed in a single component by an edge back to its middle node
+        final int length = 200000;
+        final List<BindingSet> edges = Lists.newArrayListWithCapacity(length);
+        for (int i = 0; i < length - 1; ++i) {
+            edges.add(edge("n" + i, "n" + (i + 1)));
+        }
+        edges.add(edge("n" + (length - 1), "n" + length / 2));
+
+        final Set<Set<Value>> expected = Sets.newHashSet();
+        final Set<Value> cycle = Sets.newHashSet();
+        for (int i = 0; i < length; ++i) {
+            if (i < length / 2) {
+                expected.add(Sets.<Value>newHashSet(node("n" + i)));
+            } else {
+                cycle.add(node("n" + i));
+            }
+        }
+        expected.add(cycle);
+        Assert.assertEquals(expected, components(edges, length));
+    }
+
+    // groups nodes by the component URI emitted by the transformer
+    private static Set<Set<Value>> components(final List<BindingSet> edges, final int numNodes)
+            throws Exception
+    {
+        final Map<Value, Set<Value>> components = Maps.newHashMap();
+        final TupleQueryResult result = Transform.tarjan(new TupleQueryResultImpl(NAMES,
+                edges.iterator()), PREFIX);
+        try {
+            Assert.assertEquals(ImmutableList.of("comp", "node"), result.getBindingNames());
+            int count = 0;
+            while (result.hasNext()) {
+                final BindingSet bindings = result.next();
+                final Value comp = bindings.getValue("comp");
+                Assert.assertTrue(comp.stringValue().startsWith(PREFIX));
+                if (!components.containsKey(comp)) {
+                    components.put(comp, Sets.<Value>newHashSet());
+                }
+                components.get(comp).add(bindings.getValue("node"));
+                ++count;
+            }
+            Assert.assertEquals(numNodes, count);
+        } finally {
+            result.close();
+        }
+        return Sets.newHashSet(components.values());
+    }
+
+    private static BindingSet edge(final String src, final String dest)
+    {
+        return new ListBindingSet(NAMES, node(src), node(dest));
+    }
+
+    private static URI node(final String name)
+    {
+        return FACTORY.createURI("http://example.org/", name);
+    }
+
+}